@@ -25,6 +25,10 @@ extern "C"
 
     JNIEXPORT void JNICALL Java_com_sereno_vfv_Data_SubDataset_nativeSetVolumetricMask(JNIEnv* jenv, jobject jobj, jlong ptr, jbyteArray m);
 
+    JNIEXPORT void JNICALL Java_com_sereno_vfv_Data_SubDataset_nativeSetVolumetricMaskBuffer(JNIEnv* jenv, jobject jobj, jlong ptr, jobject m, jint offset, jint size);
+
+    JNIEXPORT void JNICALL Java_com_sereno_vfv_Data_SubDataset_nativeSetVolumetricMaskRuns(JNIEnv* jenv, jobject jobj, jlong ptr, jobject r, jint offset, jint size);
+
     JNIEXPORT void JNICALL Java_com_sereno_vfv_Data_SubDataset_nativeResetVolumetricMask(JNIEnv* jenv, jobject jobj, jlong ptr);
 
     JNIEXPORT void JNICALL Java_com_sereno_vfv_Data_SubDataset_nativeEnableVolumetricMask(JNIEnv* jenv, jobject jobj, jlong ptr, jboolean b);
@@ -104,6 +104,90 @@ JNIEXPORT void JNICALL Java_com_sereno_vfv_Data_SubDataset_nativeSetVolumetricMa
     jenv->ReleaseByteArrayElements(m, mArr, JNI_ABORT);
 }
 
+JNIEXPORT void JNICALL Java_com_sereno_vfv_Data_SubDataset_nativeSetVolumetricMaskBuffer(JNIEnv* jenv, jobject jobj, jlong ptr, jobject m, jint offset, jint size)
+{
+    uint8_t* mArr = (uint8_t*)jenv->GetDirectBufferAddress(m);
+    SubDataset* sd = (SubDataset*)ptr;
+
+    if(mArr == NULL)
+        LOG_INFO("Error, the java-side volumetric mask is not a direct buffer");
+    else if((uint32_t)size == sd->getVolumetricMaskSize())
+    {
+        memcpy(sd->getVolumetricMask(), mArr + offset, size);
+        sd->enableVolumetricMask(true);
+    }
+    else
+        LOG_INFO("Error, the size of the java-size volumetric mask %d is different than the size of the C++ subdataset volumetric mask %d", size, (uint32_t)sd->getVolumetricMaskSize());
+}
+
+/* \brief  Decode the runs of a volumetric mask (see VolumetricMaskRuns.java), expanding them into the dense mask storage (one bit per voxel)
+ * \param mask the mask storage to fill, one bit per voxel
+ * \param maskSize the size of the mask storage, in bytes
+ * \param runs the runs: unsigned LEB128 lengths alternating between unselected and selected voxels
+ * \param size the size of the runs, in bytes
+ * \return false if the runs are malformed or do not fit in the mask, true otherwise */
+static bool decodeVolumetricMaskRuns(uint8_t* mask, size_t maskSize, const uint8_t* runs, size_t size)
+{
+    memset(mask, 0, maskSize);
+
+    uint64_t nbVoxels = 8*(uint64_t)maskSize;
+    uint64_t start    = 0;
+    bool     selected = false;
+    for(size_t i = 0; i < size; selected = !selected)
+    {
+        //Read the length of the run
+        uint64_t length = 0;
+        uint32_t shift  = 0;
+        while(true)
+        {
+            if(i >= size || shift >= 35)
+                return false;
+            uint8_t b = runs[i++];
+            length |= (uint64_t)(b & 0x7f) << shift;
+            shift  += 7;
+            if((b & 0x80) == 0)
+                break;
+        }
+
+        uint64_t end = start + length;
+        if(end > nbVoxels)
+            return false;
+
+        //Select the voxels [start, end[: the bits before the first whole byte, the whole bytes, and the bits after the last whole byte
+        if(selected)
+        {
+            uint64_t v = start;
+            for(; v < end && (v & 7) != 0; v++)
+                mask[v >> 3] |= (uint8_t)(1 << (v & 7));
+            if(end - v >= 8)
+            {
+                memset(mask + (v >> 3), 0xff, (end >> 3) - (v >> 3));
+                v = end & ~(uint64_t)7;
+            }
+            for(; v < end; v++)
+                mask[v >> 3] |= (uint8_t)(1 << (v & 7));
+        }
+        start = end;
+    }
+    return true;
+}
+
+JNIEXPORT void JNICALL Java_com_sereno_vfv_Data_SubDataset_nativeSetVolumetricMaskRuns(JNIEnv* jenv, jobject jobj, jlong ptr, jobject r, jint offset, jint size)
+{
+    uint8_t* rArr = (uint8_t*)jenv->GetDirectBufferAddress(r);
+    SubDataset* sd = (SubDataset*)ptr;
+
+    if(rArr == NULL)
+        LOG_INFO("Error, the java-side volumetric mask is not a direct buffer");
+    else if(decodeVolumetricMaskRuns(sd->getVolumetricMask(), sd->getVolumetricMaskSize(), rArr + offset, size))
+        sd->enableVolumetricMask(true);
+    else
+    {
+        LOG_INFO("Error, the runs of the java-side volumetric mask are malformed or exceed the %d voxels of the C++ subdataset volumetric mask", (uint32_t)(8*sd->getVolumetricMaskSize()));
+        sd->resetVolumetricMask(false, false);
+    }
+}
+
 JNIEXPORT void JNICALL Java_com_sereno_vfv_Data_SubDataset_nativeResetVolumetricMask(JNIEnv* jenv, jobject jobj, jlong ptr)
 {
     SubDataset* sd = (SubDataset*)ptr;
@@ -1570,6 +1570,10 @@ public class AnnotationsFragment extends VFVFragment implements ApplicationModel
         updateBitmapStroke(stroke);
     }
 
+    @Override
+    public void onFinish(AnnotationStroke stroke)
+    {}
+
 
     @Override
     public void onSetText(AnnotationText text, String str)
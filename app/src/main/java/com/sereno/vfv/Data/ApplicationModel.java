@@ -357,6 +357,15 @@ public class ApplicationModel implements Dataset.IDatasetListener
     /** The current volumetric selection method*/
     private byte m_selectionMethod = SELECTION_METHOD_TANGIBLE;
 
+    /** Is the connection to the server congested?*/
+    private boolean m_networkCongested = false;
+
+    /** The smoothed round-trip time to the server, in nanoseconds. 0 if unknown*/
+    private long m_networkLatency = 0;
+
+    /** The jitter of the round-trip time to the server, in nanoseconds*/
+    private long m_networkJitter = 0;
+
     /** @brief Basic constructor, initialize the data at its default state */
     public ApplicationModel(Context ctx)
     {
@@ -920,6 +929,43 @@ public class ApplicationModel implements Dataset.IDatasetListener
                (m_selectionMethod == SELECTION_METHOD_FROM_TOP && m_currentAction == CURRENT_ACTION_SELECTING);
     }
 
+    /** Set whether the connection to the server is congested. While it is, the continuous streams (e.g., the location) are sent at a lower rate
+     * @param congested true if the connection is congested, false otherwise*/
+    public void setNetworkCongested(boolean congested)
+    {
+        m_networkCongested = congested;
+    }
+
+    /** Is the connection to the server congested?
+     * @return true if yes, false otherwise*/
+    public boolean isNetworkCongested()
+    {
+        return m_networkCongested;
+    }
+
+    /** Set the latency estimate of the connection to the server (see SocketManager.getLatencyEstimator)
+     * @param rtt the smoothed round-trip time, in nanoseconds
+     * @param jitter the jitter of the round-trip time, in nanoseconds*/
+    public void setNetworkLatency(long rtt, long jitter)
+    {
+        m_networkLatency = rtt;
+        m_networkJitter  = jitter;
+    }
+
+    /** Get the smoothed round-trip time to the server. Useful for tuning the send rates and the client-side prediction
+     * @return the round-trip time, in nanoseconds. 0 if unknown*/
+    public long getNetworkLatency()
+    {
+        return m_networkLatency;
+    }
+
+    /** Get the jitter of the round-trip time to the server
+     * @return the jitter, in nanoseconds*/
+    public long getNetworkJitter()
+    {
+        return m_networkJitter;
+    }
+
     public byte getSelectionMethod()
     {
         return m_selectionMethod;
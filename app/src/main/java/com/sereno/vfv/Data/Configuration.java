@@ -25,6 +25,36 @@ public class Configuration
     /** The tablet ID. This may permits to define roles per tablet */
     private int    m_tabletID = 0;
 
+    /** Should the traffic received from the server be recorded? (see SocketManager.startRecording)*/
+    private boolean m_recordTraffic = false;
+
+    /** Should the datasets be resynchronized incrementally after a reconnection? (see SocketManager.setResyncEnabled)*/
+    private boolean m_resync = false;
+
+    /** Should the continuous streams (locations, headsets status) go through a datagram side-channel? (see SocketManager.setDatagramEnabled)*/
+    private boolean m_datagram = false;
+
+    /** Should the lasso be streamed incrementally? (see SocketManager.setIncrementalLasso)*/
+    private boolean m_incrementalLasso = false;
+
+    /** Should the annotation strokes be streamed while they are drawn? (see SocketManager.setAnnotationStreaming)*/
+    private boolean m_annotationStreaming = false;
+
+    /** Should the transfer function updates be sent as diffs? (see SocketManager.setTFDiffEnabled)*/
+    private boolean m_tfDiff = false;
+
+    /** The half extent of the workspace of the compact poses, in meters. 0 to send the poses as floats (see SocketManager.setCompactPose)*/
+    private float m_compactPoseWorkspace = 0.0f;
+
+    /** Should the volumetric masks be received run-length encoded? (see SocketManager.setCompressedMaskEnabled)*/
+    private boolean m_compressedMask = false;
+
+    /** Should the latency to the server be probed periodically? (see SocketManager.startLatencyProbe)*/
+    private boolean m_latencyProbe = false;
+
+    /** The bulk port of the server. 0 to send every event on the control connection (see SocketManager.enableBulkChannel)*/
+    private int m_bulkPort = 0;
+
     public Configuration()
     {
         m_serverIP   = "127.0.0.1";
@@ -53,6 +83,26 @@ public class Configuration
                 m_serverIP = ntwk.getString("ip");
                 m_serverPort = ntwk.getInt("port");
                 m_tabletID = ntwk.getInt("tabletID");
+                if(ntwk.has("recordTraffic"))
+                    m_recordTraffic = ntwk.getBoolean("recordTraffic");
+                if(ntwk.has("resync"))
+                    m_resync = ntwk.getBoolean("resync");
+                if(ntwk.has("datagram"))
+                    m_datagram = ntwk.getBoolean("datagram");
+                if(ntwk.has("incrementalLasso"))
+                    m_incrementalLasso = ntwk.getBoolean("incrementalLasso");
+                if(ntwk.has("annotationStreaming"))
+                    m_annotationStreaming = ntwk.getBoolean("annotationStreaming");
+                if(ntwk.has("tfDiff"))
+                    m_tfDiff = ntwk.getBoolean("tfDiff");
+                if(ntwk.has("compactPoseWorkspace"))
+                    m_compactPoseWorkspace = (float)ntwk.getDouble("compactPoseWorkspace");
+                if(ntwk.has("compressedMask"))
+                    m_compressedMask = ntwk.getBoolean("compressedMask");
+                if(ntwk.has("latencyProbe"))
+                    m_latencyProbe = ntwk.getBoolean("latencyProbe");
+                if(ntwk.has("bulkPort"))
+                    m_bulkPort = ntwk.getInt("bulkPort");
             }
             catch (final JSONException e)
             {
@@ -79,4 +129,74 @@ public class Configuration
     {
         return m_tabletID;
     }
+
+    /** Should the traffic received from the server be recorded?
+     * @return true if yes, false otherwise*/
+    public boolean isTrafficRecorded()
+    {
+        return m_recordTraffic;
+    }
+
+    /** Should the datasets be resynchronized incrementally after a reconnection? The server has to support it
+     * @return true if yes, false otherwise*/
+    public boolean isResyncEnabled()
+    {
+        return m_resync;
+    }
+
+    /** Should the continuous streams go through a datagram side-channel? The server has to support it
+     * @return true if yes, false otherwise*/
+    public boolean isDatagramEnabled()
+    {
+        return m_datagram;
+    }
+
+    /** Should the lasso be streamed incrementally (only the points added) instead of being sent as a whole? The server has to support it
+     * @return true if yes, false otherwise*/
+    public boolean isIncrementalLassoEnabled()
+    {
+        return m_incrementalLasso;
+    }
+
+    /** Should the annotation strokes be streamed while they are drawn instead of sending the whole canvas? The server has to support it
+     * @return true if yes, false otherwise*/
+    public boolean isAnnotationStreamingEnabled()
+    {
+        return m_annotationStreaming;
+    }
+
+    /** Should the transfer function updates only carry what changed instead of the whole transfer function? The server has to support it
+     * @return true if yes, false otherwise*/
+    public boolean isTFDiffEnabled()
+    {
+        return m_tfDiff;
+    }
+
+    /** Get the workspace of the compact poses: the rotations, positions and scales are then quantized, within bounded errors. The server has to support it
+     * @return the half extent of the workspace the positions are within, in meters. 0 if the poses are sent as floats*/
+    public float getCompactPoseWorkspace()
+    {
+        return m_compactPoseWorkspace;
+    }
+
+    /** Should the volumetric masks be received run-length encoded instead of one bit per voxel? The server has to support it
+     * @return true if yes, false otherwise*/
+    public boolean isCompressedMaskEnabled()
+    {
+        return m_compressedMask;
+    }
+
+    /** Should the latency to the server be probed periodically with PING events? The server has to support it (answering with a pong)
+     * @return true if yes, false otherwise*/
+    public boolean isLatencyProbeEnabled()
+    {
+        return m_latencyProbe;
+    }
+
+    /** Get the port of the second connection dedicated to the bulk transfers (transfer functions, annotations). The server has to support it
+     * @return the bulk port of the server. 0 if the bulk channel is disabled*/
+    public int getBulkPort()
+    {
+        return m_bulkPort;
+    }
 }
@@ -1,11 +1,14 @@
 package com.sereno.vfv.Data;
 
 import android.graphics.Bitmap;
+import android.util.Log;
 
 import com.sereno.vfv.Data.Annotation.DrawableAnnotationPosition;
+import com.sereno.vfv.MainActivity;
 import com.sereno.view.AnnotationCanvasData;
 import com.sereno.vfv.Data.TF.TransferFunction;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -321,6 +324,41 @@ public class SubDataset implements TransferFunction.ITransferFunctionListener
             m_listeners.get(i).onSetVolumetricMask(this);
     }
 
+    /** Set the volumetric mask from a direct buffer. The native code reads the buffer memory directly, without any JNI copy.
+     * @param mask the direct buffer containing the new mask, from its position to its limit. Each bit encodes one value*/
+    public void setVolumetricMask(ByteBuffer mask)
+    {
+        if(m_ptr == 0)
+            return;
+        if(!mask.isDirect())
+        {
+            Log.e(MainActivity.TAG, "The volumetric mask buffer has to be a direct buffer");
+            return;
+        }
+        nativeSetVolumetricMaskBuffer(m_ptr, mask, mask.position(), mask.remaining());
+
+        for(int i = 0; i < m_listeners.size(); i++)
+            m_listeners.get(i).onSetVolumetricMask(this);
+    }
+
+    /** Set the volumetric mask from its runs (see VolumetricMaskRuns). The native code reads the runs from the buffer memory,
+     * but still expands them into the dense mask of the subdataset, one bit per voxel.
+     * @param runs the direct buffer containing the runs of the new mask, from its position to its limit*/
+    public void setVolumetricMaskRuns(ByteBuffer runs)
+    {
+        if(m_ptr == 0)
+            return;
+        if(!runs.isDirect())
+        {
+            Log.e(MainActivity.TAG, "The volumetric mask buffer has to be a direct buffer");
+            return;
+        }
+        nativeSetVolumetricMaskRuns(m_ptr, runs, runs.position(), runs.remaining());
+
+        for(int i = 0; i < m_listeners.size(); i++)
+            m_listeners.get(i).onSetVolumetricMask(this);
+    }
+
     /** Reset the volumetric mask to false*/
     public void resetVolumetricMask()
     {
@@ -652,6 +690,20 @@ public class SubDataset implements TransferFunction.ITransferFunctionListener
      * @param mask the new mask to apply*/
     private native void nativeSetVolumetricMask(long ptr, byte[] mask);
 
+    /** Set the volumetric mask of the native C++ SD object from a direct buffer
+     * @param ptr the native pointer
+     * @param mask the direct buffer containing the new mask to apply
+     * @param offset the offset of the mask in the buffer, in bytes
+     * @param size the size of the mask, in bytes*/
+    private native void nativeSetVolumetricMaskBuffer(long ptr, ByteBuffer mask, int offset, int size);
+
+    /** Set the volumetric mask of the native C++ SD object from its runs in a direct buffer
+     * @param ptr the native pointer
+     * @param runs the direct buffer containing the runs of the new mask to apply (see VolumetricMaskRuns)
+     * @param offset the offset of the runs in the buffer, in bytes
+     * @param size the size of the runs, in bytes*/
+    private native void nativeSetVolumetricMaskRuns(long ptr, ByteBuffer runs, int offset, int size);
+
     /** Reset the volumetric mask of the native C++ SD object to false
      * @param ptr the native pointer*/
     private native void nativeResetVolumetricMask(long ptr);
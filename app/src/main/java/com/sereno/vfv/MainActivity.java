@@ -2,6 +2,7 @@ package com.sereno.vfv;
 
 import android.support.v4.app.DialogFragment;
 import android.graphics.Bitmap;
+import android.graphics.Point;
 import android.os.Bundle;
 import android.support.design.widget.TabLayout;
 import android.support.v4.app.Fragment;
@@ -14,6 +15,7 @@ import android.support.v7.widget.Toolbar;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
@@ -62,10 +64,14 @@ import com.sereno.vfv.Network.AddSubDatasetToSubjectiveViewStackedGroupMessage;
 import com.sereno.vfv.Network.AddSubjectiveViewGroupMessage;
 import com.sereno.vfv.Network.AddVTKDatasetMessage;
 import com.sereno.vfv.Network.AnchorAnnotationMessage;
+import com.sereno.vfv.Network.AnnotationStrokeMessage;
+import com.sereno.vfv.Network.AnnotationStrokeReceiver;
 import com.sereno.vfv.Network.ClearAnnotationsMessage;
 import com.sereno.vfv.Network.EmptyMessage;
+import com.sereno.vfv.Network.FrameMessageQueue;
 import com.sereno.vfv.Network.HeadsetBindingInfoMessage;
 import com.sereno.vfv.Network.HeadsetsStatusMessage;
+import com.sereno.vfv.Network.LatencyEstimator;
 import com.sereno.vfv.Network.LocationTabletMessage;
 import com.sereno.vfv.Network.MessageBuffer;
 import com.sereno.vfv.Network.MoveDatasetMessage;
@@ -74,6 +80,7 @@ import com.sereno.vfv.Network.RemoveSubDatasetGroupMessage;
 import com.sereno.vfv.Network.RemoveSubDatasetMessage;
 import com.sereno.vfv.Network.RenameSubDatasetMessage;
 import com.sereno.vfv.Network.ResetVolumetricSelectionMessage;
+import com.sereno.vfv.Network.ResyncDoneMessage;
 import com.sereno.vfv.Network.RotateDatasetMessage;
 import com.sereno.vfv.Network.ScaleDatasetMessage;
 import com.sereno.vfv.Network.SetAnnotationPositionIndexes;
@@ -84,8 +91,11 @@ import com.sereno.vfv.Network.SocketManager;
 import com.sereno.vfv.Network.SubDatasetLockOwnerMessage;
 import com.sereno.vfv.Network.SubDatasetOwnerMessage;
 import com.sereno.vfv.Network.SubDatasetVolumetricMaskMessage;
+import com.sereno.vfv.Network.SubDatasetVolumetricMaskRunsMessage;
 import com.sereno.vfv.Network.SubjectiveViewStackedGroupGlobalParametersMessage;
 import com.sereno.vfv.Network.TFDatasetMessage;
+import com.sereno.vfv.Network.TFDiffMessage;
+import com.sereno.vfv.Network.TFState;
 import com.sereno.vfv.Network.ToggleMapVisibilityMessage;
 import com.sereno.view.AnnotationCanvasData;
 import com.sereno.view.AnnotationStroke;
@@ -100,6 +110,7 @@ import com.sereno.view.TwoHandlesSeekBarData;
 import com.sereno.view.TwoHandlesSeekBarView;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -108,6 +119,7 @@ import java.util.Map;
 public class MainActivity extends AppCompatActivity
                           implements ApplicationModel.IDataCallback, SubDataset.ISubDatasetListener,
                                      MessageBuffer.IMessageBufferCallback, VFVFragment.IFragmentListener, AnnotationCanvasData.IAnnotationDataListener,
+                                     AnnotationStroke.IAnnotationStrokeListener,
                                      SocketManager.ISocketManagerListener, Dataset.IDatasetListener,
                                      DatasetsFragment.IDatasetsFragmentListener, AnnotationsFragment.IAnnotationsFragmentListener
 {
@@ -150,10 +162,14 @@ public class MainActivity extends AppCompatActivity
 
     public static final String TAG="VFV";
 
+    /** The minimum period between two locations sent while the connection is congested, in nanoseconds*/
+    private static final long CONGESTED_LOCATION_PERIOD = 100000000L;
+
     private ApplicationModel m_model;                    /*!< The application data model */
     private DrawerLayout     m_drawerLayout;             /*!< The root layout. DrawerLayout permit to have a left menu*/
     private Button           m_deleteDataBtn;            /*!< The delete data button*/
     private SocketManager    m_socket;                   /*!< Connection with the server application*/
+    private FrameMessageQueue m_frameQueue;              /*!< Apply the server messages on the UI thread, once per frame*/
     private VFVViewPager     m_viewPager;                /*!< The view pager handling all our fragments*/
     private DatasetsFragment m_dataFragment = null;      /*!< The Dataset windows*/
     private Menu             m_menu = null;              /*!< The menu item (toolbar menu)*/
@@ -162,6 +178,9 @@ public class MainActivity extends AppCompatActivity
     private HashMap<Integer, View>  m_gtfSizeViews = new HashMap<>(); /*!< The views handling the size of the GTF*/
     private SubDataset       m_currentTFSubDataset = null; /*!< The current subdataset from which the transfer function widgets applies to*/
     private TwoHandlesSeekBarView m_sdClippingView = null; /*!< The view representing the clipping values of a subdataset*/
+    private long             m_lastLocationTime = 0;     /*!< The time (System.nanoTime) at which the last location was sent*/
+    private boolean          m_isApplyingRemoteStroke = false; /*!< Are we applying a stroke received from the server? (not to send it back)*/
+    private AnnotationStrokeReceiver m_strokeReceiver = new AnnotationStrokeReceiver(); /*!< Rebuilds the strokes streamed by the other tablets*/
 
     /** @brief OnCreate function. Called when the activity is on creation*/
     @Override
@@ -181,7 +200,91 @@ public class MainActivity extends AppCompatActivity
         setUpHiddenMenu();
 
         m_socket = new SocketManager(m_model.getConfiguration().getServerIP(), m_model.getConfiguration().getServerPort());
-        m_socket.getMessageBuffer().addListener(this);
+        m_socket.setResyncEnabled(m_model.getConfiguration().isResyncEnabled());
+        m_socket.setDatagramEnabled(m_model.getConfiguration().isDatagramEnabled());
+        m_socket.setIncrementalLasso(m_model.getConfiguration().isIncrementalLassoEnabled());
+        m_socket.setAnnotationStreaming(m_model.getConfiguration().isAnnotationStreamingEnabled());
+        m_socket.setTFDiffEnabled(m_model.getConfiguration().isTFDiffEnabled());
+        m_socket.setCompactPose(m_model.getConfiguration().getCompactPoseWorkspace());
+        m_socket.setCompressedMaskEnabled(m_model.getConfiguration().isCompressedMaskEnabled());
+        if(m_model.getConfiguration().getBulkPort() > 0)
+            m_socket.enableBulkChannel(m_model.getConfiguration().getBulkPort());
+        if(m_model.getConfiguration().isLatencyProbeEnabled())
+            m_socket.startLatencyProbe(SocketManager.DEFAULT_PROBE_PERIOD);
+        if(m_model.getConfiguration().isTrafficRecorded())
+        {
+            File trafficDir = new File(getExternalFilesDir(null), "Traffic");
+            trafficDir.mkdirs();
+            try
+            {
+                m_socket.startRecording(new File(trafficDir, System.currentTimeMillis() + ".vfvt"));
+            }
+            catch(IOException e)
+            {
+                Log.e(TAG, "Could not record the network traffic: " + e.toString());
+            }
+        }
+
+        MessageBuffer msgBuffer = m_socket.getMessageBuffer();
+
+        //Heavy messages (parsing files) are first handled on the reading thread, and then posted to m_frameQueue
+        msgBuffer.addListener(this, MessageBuffer.GET_ADD_VTK_DATASET, MessageBuffer.GET_ADD_CLOUD_POINT_DATASET);
+
+        //Every other message is applied in order on the UI thread, once per frame and within a time budget.
+        //High-rate state-replacing messages are conflated: only the latest one (per headset or per subdataset) is applied
+        final Choreographer choreographer = Choreographer.getInstance();
+        final Choreographer.FrameCallback applyMessages = new Choreographer.FrameCallback()
+        {
+            @Override
+            public void doFrame(long frameTimeNanos)
+            {
+                m_frameQueue.onFrame(MainActivity.this);
+            }
+        };
+        m_frameQueue = new FrameMessageQueue(msgBuffer.getRegistry(), new FrameMessageQueue.IFrameScheduler()
+        {
+            @Override
+            public void requestFrame(FrameMessageQueue queue)
+            {
+                choreographer.postFrameCallback(applyMessages);
+            }
+        }, FrameMessageQueue.SYSTEM_CLOCK);
+
+        for(int type : new int[]{MessageBuffer.GET_TF_DATASET, MessageBuffer.GET_HEADSET_BINDING_INFO,
+                                 MessageBuffer.GET_SUBDATASET_LOCK_OWNER, MessageBuffer.GET_ANCHOR_ANNOTATION,
+                                 MessageBuffer.GET_CLEAR_ANNOTATIONS, MessageBuffer.GET_ADD_SUBDATASET, MessageBuffer.GET_DEL_SUBDATASET,
+                                 MessageBuffer.GET_SET_SUBDATASET_OWNER, MessageBuffer.GET_TOGGLE_MAP_VISIBILITY,
+                                 MessageBuffer.GET_VOLUMETRIC_MASK, MessageBuffer.GET_RESET_VOLUMETRIC_SELECTION,
+                                 MessageBuffer.ADD_LOG_DATA, MessageBuffer.ADD_ANNOTATION_POSITION, MessageBuffer.SET_ANNOTATION_POSITION_INDEXES,
+                                 MessageBuffer.ADD_ANNOTATION_POSITION_TO_SD, MessageBuffer.SET_SUBDATASET_CLIPPING, MessageBuffer.SET_DRAWABLE_ANNOTATION_POSITION_COLOR,
+                                 MessageBuffer.SET_DRAWABLE_ANNOTATION_POSITION_IDX, MessageBuffer.ADD_SUBJECTIVE_VIEW_GROUP, MessageBuffer.ADD_SD_TO_SV_STACKED_LINKED_GROUP,
+                                 MessageBuffer.SET_SV_STACKED_GLOBAL_PARAMETERS, MessageBuffer.REMOVE_SUBDATASET_GROUP, MessageBuffer.RENAME_SUBDATASET,
+                                 MessageBuffer.GET_ROTATE_DATASET, MessageBuffer.GET_MOVE_DATASET, MessageBuffer.GET_SCALE_DATASET,
+                                 MessageBuffer.GET_HEADSETS_STATUS, MessageBuffer.GET_LOCATION_TABLET, MessageBuffer.GET_HEADSETS_STATUS_COMPACT})
+            msgBuffer.addHandler(type, m_frameQueue);
+
+        //The messages without IMessageBufferCallback method
+        m_frameQueue.addHandler(msgBuffer, new MessageBuffer.IMessageHandler<ResyncDoneMessage>()
+        {
+            @Override
+            public void onMessage(ResyncDoneMessage msg) {onResyncDoneMessage(msg);}
+        }, MessageBuffer.GET_RESYNC_DONE);
+        m_frameQueue.addHandler(msgBuffer, new MessageBuffer.IMessageHandler<AnnotationStrokeMessage>()
+        {
+            @Override
+            public void onMessage(AnnotationStrokeMessage msg) {onAnnotationStrokeMessage(msg);}
+        }, MessageBuffer.GET_ANNOTATION_STROKE_BEGIN, MessageBuffer.GET_ANNOTATION_STROKE_POINTS, MessageBuffer.GET_ANNOTATION_STROKE_END);
+        m_frameQueue.addHandler(msgBuffer, new MessageBuffer.IMessageHandler<TFDiffMessage>()
+        {
+            @Override
+            public void onMessage(TFDiffMessage msg) {onTFDiffMessage(msg);}
+        }, MessageBuffer.GET_TF_DIFF);
+        m_frameQueue.addHandler(msgBuffer, new MessageBuffer.IMessageHandler<SubDatasetVolumetricMaskRunsMessage>()
+        {
+            @Override
+            public void onMessage(SubDatasetVolumetricMaskRunsMessage msg) {onSubDatasetVolumetricMaskRunsMessage(msg);}
+        }, MessageBuffer.GET_VOLUMETRIC_MASK_RUNS);
+
         m_socket.addListener(this);
     }
 
@@ -414,7 +517,7 @@ public class MainActivity extends AppCompatActivity
 
         //If everything is correct, send the rotation event
         if(idBinding.subDatasetID != -1 && idBinding.dataset != null && idBinding.dataset.getID() >= 0)
-            m_socket.push(SocketManager.createRotationEvent(idBinding, dataset.getRotation()));
+            m_socket.pushRotationEvent(idBinding, dataset.getRotation());
     }
 
     @Override
@@ -427,7 +530,7 @@ public class MainActivity extends AppCompatActivity
 
         //If everything is correct, send the position event
         if(idBinding.subDatasetID != -1 && idBinding.dataset != null && idBinding.dataset.getID() >= 0)
-            m_socket.push(SocketManager.createPositionEvent(idBinding, dataset.getPosition()));
+            m_socket.pushPositionEvent(idBinding, dataset.getPosition());
     }
 
     @Override
@@ -440,7 +543,7 @@ public class MainActivity extends AppCompatActivity
 
         //If everything is correct, send the rotation event
         if(idBinding.subDatasetID != -1 && idBinding.dataset != null && idBinding.dataset.getID() >= 0)
-            m_socket.push(SocketManager.createScaleEvent(idBinding, dataset.getScale()));
+            m_socket.pushScaleEvent(idBinding, dataset.getScale());
     }
 
     @Override
@@ -460,7 +563,14 @@ public class MainActivity extends AppCompatActivity
     public void onUpdateTF(SubDataset dataset)
     {
         if(m_model.canModifySubDataset(dataset) && dataset.getTransferFunctionType() != SubDataset.TRANSFER_FUNCTION_NONE)
-            m_socket.push(SocketManager.createTFEvent(getDatasetIDBinding(dataset), dataset.getTransferFunction()));
+        {
+            DatasetIDBinding idBinding = getDatasetIDBinding(dataset);
+            TFState state = TFState.of(dataset.getTransferFunction());
+            if(state != null)
+                m_socket.pushTFEvent(idBinding.dataset.getID(), idBinding.subDatasetID, state);
+            else
+                m_socket.pushTFEvent(idBinding, dataset.getTransferFunction());
+        }
 
         if(dataset == m_model.getCurrentSubDataset())
             redoTFWidget();
@@ -806,7 +916,7 @@ public class MainActivity extends AppCompatActivity
         //Add into the model
         final VTKDataset dataset = new VTKDataset(parser, ptValues, cellValues, vtkFile.getName());
         dataset.setID(msg.getDataID());
-        runOnUiThread(new Runnable() {
+        m_frameQueue.post(new Runnable() {
             @Override
             public void run() {
                 m_model.addVTKDataset(dataset);
@@ -852,82 +962,124 @@ public class MainActivity extends AppCompatActivity
     @Override
     public void onRotateDatasetMessage(final RotateDatasetMessage msg)
     {
-        //Find the dataset
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-            SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
 
-            if(sd != null)
-            {
-                //Remove and re add the listener for not ending in a while loop
-                sd.removeListener(MainActivity.this);
-                    sd.setRotation(msg.getRotation());
-                sd.addListener(MainActivity.this);
-            }
-            }
-        });
+        if(sd != null)
+        {
+            //Remove and re add the listener for not ending in a while loop
+            sd.removeListener(MainActivity.this);
+                sd.setRotation(msg.getRotation());
+            sd.addListener(MainActivity.this);
+        }
     }
 
     @Override
     public void onMoveDatasetMessage(final MoveDatasetMessage msg)
     {
-        //Find the dataset
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
 
-                if(sd != null)
-                {
-                    //Remove and re add the listener for not ending in a while loop
-                    sd.removeListener(MainActivity.this);
-                        sd.setPosition(msg.getPosition());
-                    sd.addListener(MainActivity.this);
-                }
-            }
-        });
+        if(sd != null)
+        {
+            //Remove and re add the listener for not ending in a while loop
+            sd.removeListener(MainActivity.this);
+                sd.setPosition(msg.getPosition());
+            sd.addListener(MainActivity.this);
+        }
     }
 
     @Override
     public void onScaleDatasetMessage(final ScaleDatasetMessage msg)
     {
-        //Find the dataset
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
 
-                if(sd != null)
-                {
-                    //Remove and re add the listener for not ending in a while loop
-                    sd.removeListener(MainActivity.this);
-                        sd.setScale(msg.getScale());
-                    sd.addListener(MainActivity.this);
-                }
-            }
-        });
+        if(sd != null)
+        {
+            //Remove and re add the listener for not ending in a while loop
+            sd.removeListener(MainActivity.this);
+                sd.setScale(msg.getScale());
+            sd.addListener(MainActivity.this);
+        }
     }
 
     @Override
     public void onTFDatasetMessage(final TFDatasetMessage msg)
     {
-        runOnUiThread(new Runnable()
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        if(sd != null)
         {
-            @Override
-            public void run()
+            //Remove and re add the listener for not ending in a while loop
+            sd.removeListener(MainActivity.this);
+                sd.setTransferFunction(tfMessageToTFObject(sd, msg));
+                redoTFWidget();
+            sd.addListener(MainActivity.this);
+
+            //The next updates of this transfer function are sent as diffs from it
+            m_socket.setTFState(msg.getDatasetID(), msg.getSubDatasetID(), TFState.of(msg));
+        }
+    }
+
+    /** Apply a transfer function diff sent by the server
+     * @param msg the message received*/
+    private void onTFDiffMessage(final TFDiffMessage msg)
+    {
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        if(sd == null || sd.getTransferFunction() == null)
+            return;
+
+        TFState state    = TFState.of(sd.getTransferFunction());
+        TFState newState = (state == null ? null : state.apply(msg));
+        if(newState == null)
+        {
+            Log.e(TAG, "The transfer function diff of the subdataset " + msg.getDatasetID() + ":" + msg.getSubDatasetID() + " does not apply to its current transfer function. Skipping");
+            return;
+        }
+
+        //Remove and re add the listener for not ending in a while loop
+        sd.removeListener(MainActivity.this);
+            applyTFDiff(sd.getTransferFunction(), msg.getTF());
+            redoTFWidget();
+        sd.addListener(MainActivity.this);
+        m_socket.setTFState(msg.getDatasetID(), msg.getSubDatasetID(), newState);
+    }
+
+    /** Apply in place the content of a transfer function diff (checked beforehand with TFState.apply)
+     * @param tf the transfer function to update
+     * @param msg the transfer function part of the diff. Its GTF properties are only the ones that changed*/
+    private void applyTFDiff(TransferFunction tf, TFDatasetMessage msg)
+    {
+        switch(msg.getTFType())
+        {
+            case SubDataset.TRANSFER_FUNCTION_GTF:
+            case SubDataset.TRANSFER_FUNCTION_TGTF:
             {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
-                if(sd != null)
+                GTFData gtf = (GTFData)tf;
+                HashMap<Integer, GTFData.GTFPoint> ranges = new HashMap<>(gtf.getRanges());
+                for(TFDatasetMessage.GTFData.PropData prop : msg.getGTFData().propData)
                 {
-                    //Remove and re add the listener for not ending in a while loop
-                    sd.removeListener(MainActivity.this);
-                        sd.setTransferFunction(tfMessageToTFObject(sd, msg));
-                        redoTFWidget();
-                    sd.addListener(MainActivity.this);
+                    GTFData.GTFPoint point = new GTFData.GTFPoint(prop.center, prop.scale);
+                    GTFData.GTFPoint previous = ranges.get(prop.propID);
+                    if(previous != null)
+                        point.active = previous.active;
+                    ranges.put(prop.propID, point);
                 }
+                gtf.updateRanges(ranges);
+                break;
             }
-        });
+
+            case SubDataset.TRANSFER_FUNCTION_MERGE:
+            {
+                TFDatasetMessage.MergeTFData merge = msg.getMergeTFData();
+                MergeTFData mergeTF = (MergeTFData)tf;
+                mergeTF.setInterpolationParameter(merge.t);
+                applyTFDiff(mergeTF.getTF1Data(), merge.tf1Msg);
+                applyTFDiff(mergeTF.getTF2Data(), merge.tf2Msg);
+                break;
+            }
+        }
+
+        tf.setTimestep(msg.getTimestep());
+        tf.setColorMode(msg.getColorMode());
+        tf.setClippingValues(msg.getMinClipping(), msg.getMaxClipping());
     }
 
     /** Parse a TFDatasetMessage to an exploitable TransferFunction object
@@ -977,62 +1129,42 @@ public class MainActivity extends AppCompatActivity
     @Override
     public void onHeadsetBindingInfoMessage(final HeadsetBindingInfoMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                m_model.setBindingInfo(msg);
-                if(msg.getHeadsetID() == -1)
-                    m_model.endPendingCanvasAnnotation(true);
+        m_model.setBindingInfo(msg);
+        if(msg.getHeadsetID() == -1)
+            m_model.endPendingCanvasAnnotation(true);
 
-                //Send tablet's interactive data
-                onSetLocation(m_model, m_model.getTabletPosition(), m_model.getTabletRotation());
-                onSetTabletScale(m_model, m_model.getTabletScale(), m_model.getTabletWidth(), m_model.getTabletHeight(), m_model.getTabletX(), m_model.getTabletY());
-            }
-        });
+        //Send tablet's interactive data
+        onSetLocation(m_model, m_model.getTabletPosition(), m_model.getTabletRotation());
+        onSetTabletScale(m_model, m_model.getTabletScale(), m_model.getTabletWidth(), m_model.getTabletHeight(), m_model.getTabletX(), m_model.getTabletY());
     }
 
     @Override
     public void onSubDatasetLockOwnerMessage(final SubDatasetLockOwnerMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
 
-                if(sd != null)
-                {
-                    sd.setCurrentHeadset(msg.getHeadsetID());
-                }
-            }
-        });
+        if(sd != null)
+        {
+            sd.setCurrentHeadset(msg.getHeadsetID());
+        }
     }
 
     @Override
     public void onSubDatasetOwnerMessage(final SubDatasetOwnerMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
 
-                if(sd != null)
-                {
-                    sd.setOwnerID(msg.getHeadsetID());
-                }
-            }
-        });
+        if(sd != null)
+        {
+            sd.setOwnerID(msg.getHeadsetID());
+        }
     }
 
     @Override
     public void onLocationTabletMessage(final LocationTabletMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if(m_model.getCurrentTangibleMode() != ApplicationModel.TANGIBLE_MODE_NONE)
-                    m_model.setLocation(msg.getPosition(), msg.getRotation());
-            }
-        });
+        if(m_model.getCurrentTangibleMode() != ApplicationModel.TANGIBLE_MODE_NONE)
+            m_model.setLocation(msg.getPosition(), msg.getRotation());
     }
 
     @Override
@@ -1045,7 +1177,7 @@ public class MainActivity extends AppCompatActivity
         //Add into the model
         final CloudPointDataset dataset = new CloudPointDataset(file);
         dataset.setID(msg.getDataID());
-        runOnUiThread(new Runnable() {
+        m_frameQueue.post(new Runnable() {
             @Override
             public void run() {
                 m_model.addCloudPointDataset(dataset);
@@ -1056,344 +1188,286 @@ public class MainActivity extends AppCompatActivity
     @Override
     public void onToggleMapVisibilityMessage(final ToggleMapVisibilityMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
-                if(sd != null)
-                    sd.setMapVisibility(msg.getVisibility());
-            }
-        });
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        if(sd != null)
+            sd.setMapVisibility(msg.getVisibility());
     }
 
     @Override
     public void onResetVolumetricSelectionMessage(final ResetVolumetricSelectionMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run(){
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
-                if (sd != null)
-                    sd.resetVolumetricMask();
-            }
-        });
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        if (sd != null)
+            sd.resetVolumetricMask();
     }
 
     public void onSubDatasetVolumetricMaskMessage(final SubDatasetVolumetricMaskMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run(){
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
-                if (sd != null)
-                {
-                    sd.setVolumetricMask(msg.getMask());
-                    sd.enableVolumetricMask(msg.isEnabled());
-                }
-            }
-        });
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        if (sd != null)
+        {
+            sd.setVolumetricMask(msg.getMask());
+            sd.enableVolumetricMask(msg.isEnabled());
+        }
+
+        //The native side copied the mask: the direct buffer can be reused for the next one
+        m_socket.getMessageBuffer().getDirectBufferPool().release(msg.getMask());
+    }
+
+    /** Apply a run-length encoded volumetric mask sent by the server
+     * @param msg the message received*/
+    private void onSubDatasetVolumetricMaskRunsMessage(SubDatasetVolumetricMaskRunsMessage msg)
+    {
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        if (sd != null)
+        {
+            sd.setVolumetricMaskRuns(msg.getRuns());
+            sd.enableVolumetricMask(msg.isEnabled());
+        }
+
+        //The native side expanded the runs: the direct buffer can be reused for the next one
+        m_socket.getMessageBuffer().getDirectBufferPool().release(msg.getRuns());
     }
 
     @Override
     public void onOpenLogDataMessage(final OpenLogDataMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run()
-            {
-                AnnotationLogContainer container = new AnnotationLogContainer(msg.getDataID(), getExternalFilesDir(null) + "/Logs/" + msg.getPath(), msg.hasHeader());
-                container.setTimeHeader(msg.getTimeHeaderID());
-                if(container.isValid())
-                    m_model.addAnnotationLog(container);
-                else
-                    Log.e(MainActivity.TAG, "Could not parse Logs/" + msg.getPath());
-            }
-        });
+        AnnotationLogContainer container = new AnnotationLogContainer(msg.getDataID(), getExternalFilesDir(null) + "/Logs/" + msg.getPath(), msg.hasHeader());
+        container.setTimeHeader(msg.getTimeHeaderID());
+        if(container.isValid())
+            m_model.addAnnotationLog(container);
+        else
+            Log.e(MainActivity.TAG, "Could not parse Logs/" + msg.getPath());
     }
 
     @Override
     public void onAddAnnotationPositionMessage(final AddAnnotationPositionMessage msg)
     {
-        runOnUiThread(new Runnable()
+        ArrayList<AnnotationLogContainer> annots = m_model.getAnnotationLogs();
+        for(AnnotationLogContainer annot : annots)
         {
-            @Override
-            public void run()
+            if(annot.getID() == msg.getAnnotID())
             {
-                ArrayList<AnnotationLogContainer> annots = m_model.getAnnotationLogs();
-                for(AnnotationLogContainer annot : annots)
-                {
-                    if(annot.getID() == msg.getAnnotID())
-                    {
-                        AnnotationPosition pos = annot.initAnnotationPosition(msg.getComponentID());
-                        annot.pushAnnotationPosition(pos);
-                        break;
-                    }
-                }
+                AnnotationPosition pos = annot.initAnnotationPosition(msg.getComponentID());
+                annot.pushAnnotationPosition(pos);
+                break;
             }
-        });
+        }
     }
 
     @Override
     public void onSetAnnotationPositionIndexes(final SetAnnotationPositionIndexes msg)
     {
-        runOnUiThread(new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                AnnotationPosition pos = getAnnotationPositionFromIDs(msg.getAnnotID(), msg.getComponentID());
-                if(pos == null)
-                    return;
-                pos.setXYZHeader(msg.getIndexes()[0], msg.getIndexes()[1], msg.getIndexes()[2]);
-            }
-        });
+        AnnotationPosition pos = getAnnotationPositionFromIDs(msg.getAnnotID(), msg.getComponentID());
+        if(pos == null)
+            return;
+        pos.setXYZHeader(msg.getIndexes()[0], msg.getIndexes()[1], msg.getIndexes()[2]);
     }
 
     @Override
     public void onAddAnnotationPositionToSD(final AddAnnotationPositionToSDMessage msg)
     {
-        runOnUiThread(new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                AnnotationPosition pos = getAnnotationPositionFromIDs(msg.getAnnotID(), msg.getComponentID());
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
-                if(pos == null || sd == null)
-                    return;
-                DrawableAnnotationPosition ann = new DrawableAnnotationPosition(pos, sd, msg.getDrawableID());
-                sd.addAnnotationPosition(ann);
-            }
-        });
+        AnnotationPosition pos = getAnnotationPositionFromIDs(msg.getAnnotID(), msg.getComponentID());
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        if(pos == null || sd == null)
+            return;
+        DrawableAnnotationPosition ann = new DrawableAnnotationPosition(pos, sd, msg.getDrawableID());
+        sd.addAnnotationPosition(ann);
     }
 
     @Override
     public void onSetSubDatasetClipping(final SetSubDatasetClippingMessage msg)
     {
-        runOnUiThread(new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
-                if(sd != null)
-                    sd.setDepthClipping(msg.getMinDepthClipping(), msg.getMaxDepthClipping());
-            }
-        });
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        if(sd != null)
+            sd.setDepthClipping(msg.getMinDepthClipping(), msg.getMaxDepthClipping());
     }
 
     @Override
     public void onSetDrawableAnnotationPositionColor(final SetDrawableAnnotationPositionColor msg)
     {
-        runOnUiThread(new Runnable()
-        {
-            @Override
-            public void run()
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        for(DrawableAnnotationPosition pos : sd.getAnnotationPositions())
+            if(pos.getID() == msg.getDrawableID())
             {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
-                for(DrawableAnnotationPosition pos : sd.getAnnotationPositions())
-                    if(pos.getID() == msg.getDrawableID())
-                    {
-                        pos.setColor(Color.fromARGB8888(msg.getColor()));
-                        break;
-                    }
+                pos.setColor(Color.fromARGB8888(msg.getColor()));
+                break;
             }
-        });
     }
 
     @Override
     public void onSetDrawableAnnotationPositionIdx(final SetDrawableAnnotationPositionIdx msg)
     {
-        runOnUiThread(new Runnable()
-        {
-            @Override
-            public void run()
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        for(DrawableAnnotationPosition pos : sd.getAnnotationPositions())
+            if(pos.getID() == msg.getDrawableID())
             {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
-                for(DrawableAnnotationPosition pos : sd.getAnnotationPositions())
-                    if(pos.getID() == msg.getDrawableID())
-                    {
-                        pos.setMappedDataIndices(msg.getIndices());
-                        break;
-                    }
+                pos.setMappedDataIndices(msg.getIndices());
+                break;
             }
-        });
     }
 
     @Override
     public void onAddSubjectiveViewGroup(final AddSubjectiveViewGroupMessage msg)
     {
-        runOnUiThread(new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                SubDataset sd = getSubDatasetFromID(msg.getBaseDatasetID(), msg.getBaseSubDatasetID());
-                SubDatasetSubjectiveStackedGroup sdg = new SubDatasetSubjectiveStackedGroup(sd, msg.getSubjectiveViewType(), msg.getSubDatasetGroupID());
-                m_model.addSubdatasetGroup(sdg);
-            }
-        });
+        SubDataset sd = getSubDatasetFromID(msg.getBaseDatasetID(), msg.getBaseSubDatasetID());
+        SubDatasetSubjectiveStackedGroup sdg = new SubDatasetSubjectiveStackedGroup(sd, msg.getSubjectiveViewType(), msg.getSubDatasetGroupID());
+        m_model.addSubdatasetGroup(sdg);
     }
 
     @Override
     public void onAddSubDatasetToSubjectiveViewStackedGroup(final AddSubDatasetToSubjectiveViewStackedGroupMessage msg)
     {
-        runOnUiThread(new Runnable()
+        SubDatasetGroup sdg  = m_model.getSubDatasetGroup(msg.getSubDatasetGroupID());
+        if(sdg == null || !(sdg instanceof SubDatasetSubjectiveStackedGroup))
         {
-            @Override
-            public void run()
-            {
-                SubDatasetGroup sdg  = m_model.getSubDatasetGroup(msg.getSubDatasetGroupID());
-                if(sdg == null || !(sdg instanceof SubDatasetSubjectiveStackedGroup))
-                {
-                    Log.e(MainActivity.TAG, "Issue: Cannot add subjective subdatasets to a group that is not a SubDatasetSubjectiveStackedGroup");
-                    return;
-                }
+            Log.e(MainActivity.TAG, "Issue: Cannot add subjective subdatasets to a group that is not a SubDatasetSubjectiveStackedGroup");
+            return;
+        }
 
-                SubDataset sdStacked = getSubDatasetFromID(msg.getDatasetID(), msg.getStackedSubDatasetID());
-                SubDataset sdLinked  = getSubDatasetFromID(msg.getDatasetID(), msg.getLinkedSubDatasetID());
-                SubDatasetSubjectiveStackedGroup subjectiveSDG = (SubDatasetSubjectiveStackedGroup)sdg;
-                subjectiveSDG.addSubjectiveSubDataset(sdStacked, sdLinked);
-            }
-        });
+        SubDataset sdStacked = getSubDatasetFromID(msg.getDatasetID(), msg.getStackedSubDatasetID());
+        SubDataset sdLinked  = getSubDatasetFromID(msg.getDatasetID(), msg.getLinkedSubDatasetID());
+        SubDatasetSubjectiveStackedGroup subjectiveSDG = (SubDatasetSubjectiveStackedGroup)sdg;
+        subjectiveSDG.addSubjectiveSubDataset(sdStacked, sdLinked);
     }
 
     @Override
     public void onSetSubjectiveViewStackedParameters(final SubjectiveViewStackedGroupGlobalParametersMessage msg)
     {
-        runOnUiThread(new Runnable()
+        SubDatasetGroup sdg = m_model.getSubDatasetGroup(msg.getSubDatasetGroupID());
+        if(sdg == null || !(sdg instanceof SubDatasetSubjectiveStackedGroup))
         {
-            @Override
-            public void run()
-            {
-                SubDatasetGroup sdg = m_model.getSubDatasetGroup(msg.getSubDatasetGroupID());
-                if(sdg == null || !(sdg instanceof SubDatasetSubjectiveStackedGroup))
-                {
-                    Log.e(MainActivity.TAG, "Issue: Cannot add subjective subdatasets to a group that is not a SubDatasetSubjectiveStackedGroup");
-                    return;
-                }
+            Log.e(MainActivity.TAG, "Issue: Cannot add subjective subdatasets to a group that is not a SubDatasetSubjectiveStackedGroup");
+            return;
+        }
 
-                SubDatasetSubjectiveStackedGroup subjectiveSDG = (SubDatasetSubjectiveStackedGroup)sdg;
-                subjectiveSDG.setGap(msg.getGap());
-                subjectiveSDG.setMerge(msg.isMerged());
-                subjectiveSDG.setStackingMethod(msg.getStackedMethod());
-            }
-        });
+        SubDatasetSubjectiveStackedGroup subjectiveSDG = (SubDatasetSubjectiveStackedGroup)sdg;
+        subjectiveSDG.setGap(msg.getGap());
+        subjectiveSDG.setMerge(msg.isMerged());
+        subjectiveSDG.setStackingMethod(msg.getStackedMethod());
     }
 
     @Override
     public void onRemoveSubDatasetGroup(final RemoveSubDatasetGroupMessage msg)
     {
-        runOnUiThread(new Runnable()
+        SubDatasetGroup sdg = m_model.getSubDatasetGroup(msg.getSubDatasetGroupID());
+        if(sdg == null)
         {
-            @Override
-            public void run()
-            {
-                SubDatasetGroup sdg = m_model.getSubDatasetGroup(msg.getSubDatasetGroupID());
-                if(sdg == null)
-                {
-                    Log.e(MainActivity.TAG, "Cannot remove a non-registered subdataset group...");
-                    return;
-                }
-                m_model.removeSubDatasetGroup(sdg);
-            }
-        });
+            Log.e(MainActivity.TAG, "Cannot remove a non-registered subdataset group...");
+            return;
+        }
+        m_model.removeSubDatasetGroup(sdg);
     }
 
     @Override
     public void onRenameSubDataset(final RenameSubDatasetMessage msg)
     {
-        runOnUiThread(new Runnable()
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        sd.setName(msg.getSubDatasetName());
+    }
+
+    /** Apply a part of an annotation stroke drawn remotely
+     * @param msg the message received*/
+    private void onAnnotationStrokeMessage(AnnotationStrokeMessage msg)
+    {
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        if(sd == null)
+            return;
+
+        for(Map.Entry<AnnotationCanvasData, ApplicationModel.AnnotationMetaData> annot : m_model.getAnnotations().entrySet())
+        {
+            if(annot.getValue().getSubDataset() == sd && annot.getValue().getAnnotationID() == msg.getAnnotationID())
+            {
+                m_isApplyingRemoteStroke = true;
+                if(!m_strokeReceiver.apply(msg, annot.getKey()))
+                    Log.e(TAG, "Annotation stroke " + msg.getStrokeID() + " of the tablet " + msg.getSenderID() + " on the annotation " + msg.getAnnotationID() + " out of sequence. Skipping");
+                m_isApplyingRemoteStroke = false;
+                return;
+            }
+        }
+    }
+
+    /** Remove what the server does not have anymore once resynchronized
+     * @param msg the message received*/
+    private void onResyncDoneMessage(ResyncDoneMessage msg)
+    {
+        //What the server does not have anymore
+        int[] sds = msg.getStaleSubDatasets();
+        for(int i = 0; i+1 < sds.length; i += 2)
         {
-            @Override
-            public void run()
+            SubDataset sd = getSubDatasetFromID(sds[i], sds[i+1]);
+            if(sd != null)
+                sd.getParent().removeSubDataset(sd);
+        }
+
+        for(int datasetID : msg.getStaleDatasets())
+        {
+            for(Dataset d : m_model.getDatasets())
             {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
-                sd.setName(msg.getSubDatasetName());
+                if(d.getID() == datasetID)
+                {
+                    m_model.removeDataset(d);
+                    break;
+                }
             }
-        });
+        }
     }
 
     @Override
     public void onHeadsetsStatusMessage(final HeadsetsStatusMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                m_model.setHeadsetsStatus(msg.getStatus());
-            }
-        });
+        m_model.setHeadsetsStatus(msg.getStatus());
     }
 
     @Override
     public void onAnchorAnnotation(final AnchorAnnotationMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
 
-                AnnotationCanvasData data = new AnnotationCanvasData(320, 160);
-                ApplicationModel.AnnotationMetaData annotMetaData = new ApplicationModel.AnnotationMetaData(sd, -1);
-                m_model.addCanvasAnnotation(data, annotMetaData);
+        AnnotationCanvasData data = new AnnotationCanvasData(320, 160);
+        ApplicationModel.AnnotationMetaData annotMetaData = new ApplicationModel.AnnotationMetaData(sd, msg.getAnnotationID());
+        m_model.addCanvasAnnotation(data, annotMetaData);
 
-                //if(msg.getHeadsetID() == m_model.getBindingInfo().getHeadsetID())
-                {
-                    m_model.endPendingCanvasAnnotation(false);
-                }
-            }
-        });
+        //if(msg.getHeadsetID() == m_model.getBindingInfo().getHeadsetID())
+        {
+            m_model.endPendingCanvasAnnotation(false);
+        }
     }
 
     @Override
     public void onClearAnnotations(final ClearAnnotationsMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
 
-                if(sd == null)
-                    return;
+        if(sd == null)
+            return;
 
-                while(sd.getAnnotations().size() > 0)
-                    sd.removeCanvasAnnotation(sd.getAnnotations().get(sd.getAnnotations().size()-1));
-            }
-        });
+        while(sd.getAnnotations().size() > 0)
+            sd.removeCanvasAnnotation(sd.getAnnotations().get(sd.getAnnotations().size()-1));
     }
 
     @Override
     public void onAddSubDataset(final AddSubDatasetMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                for(Dataset d : m_model.getDatasets())
-                {
-                    if(d.getID() == msg.getDatasetID())
-                    {
-                        SubDataset sd = SubDataset.createNewSubDataset(d, msg.getSubDatasetID(), msg.getSubDatasetName(), msg.getOwnerID());
-                        d.addSubDataset(sd, false);
+        for(Dataset d : m_model.getDatasets())
+        {
+            if(d.getID() == msg.getDatasetID())
+            {
+                SubDataset sd = SubDataset.createNewSubDataset(d, msg.getSubDatasetID(), msg.getSubDatasetName(), msg.getOwnerID());
+                d.addSubDataset(sd, false);
 
-                        if(m_model.getCurrentSubDataset() == null)
-                            m_model.setCurrentSubDataset(sd);
-                        break;
-                    }
-                }
+                if(m_model.getCurrentSubDataset() == null)
+                    m_model.setCurrentSubDataset(sd);
+                break;
             }
-        });
+        }
     }
 
     @Override
     public void onRemoveSubDataset(final RemoveSubDatasetMessage msg)
     {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
-                sd.getParent().removeSubDataset(sd);
-            }
-        });
+        SubDataset sd = getSubDatasetFromID(msg.getDatasetID(), msg.getSubDatasetID());
+        sd.getParent().removeSubDataset(sd);
     }
 
     @Override
@@ -1551,17 +1625,22 @@ public class MainActivity extends AppCompatActivity
     @Override
     public void onSetLocation(ApplicationModel model, float[] pos, float[] rot)
     {
-        m_socket.push(SocketManager.createLocationEvent(pos, rot));
+        //Lower the location rate while the connection is congested
+        long time = System.nanoTime();
+        if(model.isNetworkCongested() && time - m_lastLocationTime < CONGESTED_LOCATION_PERIOD)
+            return;
+        m_lastLocationTime = time;
+        m_socket.pushLocationEvent(pos, rot);
     }
 
     @Override
     public void onSetTabletScale(ApplicationModel model, float scale, float width, float height, float posx, float posy) {
-        m_socket.push(SocketManager.createTabletScaleEvent(scale, width, height, posx, posy));
+        m_socket.pushTabletScaleEvent(scale, width, height, posx, posy);
     }
 
     @Override
     public void onSetLasso(ApplicationModel model, float[] lasso) {
-        m_socket.push(SocketManager.createLassoEvent(lasso));
+        m_socket.pushLassoEvent(lasso);
     }
 
     @Override
@@ -1654,7 +1733,47 @@ public class MainActivity extends AppCompatActivity
     @Override
     public void onAddStroke(AnnotationCanvasData data, AnnotationStroke stroke)
     {
-        sendAnnotationToServer(data);
+        if(m_isApplyingRemoteStroke)
+            return;
+
+        if(!m_socket.isAnnotationStreaming())
+        {
+            sendAnnotationToServer(data);
+            return;
+        }
+
+        //Stream the stroke while it is drawn
+        ApplicationModel.AnnotationMetaData metaData = m_model.getAnnotations().get(data);
+        if(!m_model.canModifySubDataset(metaData.getSubDataset()))
+            return;
+
+        DatasetIDBinding idBinding = getDatasetIDBinding(metaData.getSubDataset());
+        if(idBinding.subDatasetID != -1 && idBinding.dataset != null && idBinding.dataset.getID() >= 0)
+        {
+            stroke.addListener(this);
+            m_socket.pushAnnotationStrokeBegin(idBinding.dataset.getID(), idBinding.subDatasetID, metaData.getAnnotationID(), data, stroke);
+        }
+    }
+
+    @Override
+    public void onAddPoint(AnnotationStroke stroke, Point p)
+    {
+        m_socket.pushAnnotationStrokePoint(stroke, p);
+    }
+
+    @Override
+    public void onSetColor(AnnotationStroke stroke, int c)
+    {}
+
+    @Override
+    public void onSetWidth(AnnotationStroke stroke, float w)
+    {}
+
+    @Override
+    public void onFinish(AnnotationStroke stroke)
+    {
+        stroke.removeListener(this);
+        m_socket.pushAnnotationStrokeEnd(stroke);
     }
 
     @Override
@@ -1790,10 +1909,35 @@ public class MainActivity extends AppCompatActivity
         }
     }
 
+    @Override
+    public void onBackpressureChanged(SocketManager socket, final boolean isCongested)
+    {
+        m_frameQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                m_model.setNetworkCongested(isCongested);
+            }
+        });
+    }
+
+    @Override
+    public void onLatencyUpdated(SocketManager socket, LatencyEstimator latency)
+    {
+        final long rtt    = latency.getSmoothedRTT();
+        final long jitter = latency.getJitter();
+        m_frameQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                m_model.setNetworkLatency(rtt, jitter);
+            }
+        });
+    }
+
     @Override
     public void onDisconnection(SocketManager socket)
     {
-        runOnUiThread(
+        //Posted after the messages already received
+        m_frameQueue.post(
                 new Runnable() {
                     @Override
                     public void run() {
@@ -1802,9 +1946,13 @@ public class MainActivity extends AppCompatActivity
 
                         //Clean every
 
-                        //Datasets
-                        while(m_model.getDatasets().size() > 0)
-                            m_model.removeDataset(m_model.getDatasets().get(0));
+                        //Datasets. With the resynchronization, they are kept and the server only sends the differences at the next connection
+                        if(!m_socket.isResyncEnabled())
+                        {
+                            while(m_model.getDatasets().size() > 0)
+                                m_model.removeDataset(m_model.getDatasets().get(0));
+                            m_socket.getResyncDigest().clear();
+                        }
 
                         //Annotations
                         while(m_model.getAnnotationLogs().size() > 0)
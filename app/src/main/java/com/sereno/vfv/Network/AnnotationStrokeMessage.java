@@ -0,0 +1,186 @@
+package com.sereno.vfv.Network;
+
+import android.util.Log;
+
+import com.sereno.vfv.MainActivity;
+
+import java.util.Arrays;
+
+/** Message streaming an annotation stroke drawn on another device: GET_ANNOTATION_STROKE_BEGIN, GET_ANNOTATION_STROKE_POINTS
+ * or GET_ANNOTATION_STROKE_END. Their payloads are the ones of the events (see AnnotationStrokeStreamer) where the server inserts
+ * int senderID, the ID of the tablet drawing the stroke, after the annotation ID. Apply them in order with AnnotationStrokeReceiver*/
+public class AnnotationStrokeMessage extends ServerMessage
+{
+    /** The dataset ID*/
+    private int m_datasetID;
+
+    /** The subdataset ID*/
+    private int m_subDatasetID;
+
+    /** The annotation ID*/
+    private int m_annotationID;
+
+    /** The ID of the tablet drawing the stroke*/
+    private int m_senderID;
+
+    /** The ID of the stroke, unique per sender*/
+    private int m_strokeID;
+
+    /** GET_ANNOTATION_STROKE_BEGIN: the canvas width*/
+    private int m_canvasWidth;
+
+    /** GET_ANNOTATION_STROKE_BEGIN: the canvas height*/
+    private int m_canvasHeight;
+
+    /** GET_ANNOTATION_STROKE_BEGIN: the stroke color*/
+    private int m_color;
+
+    /** GET_ANNOTATION_STROKE_BEGIN: the stroke width*/
+    private float m_width;
+
+    /** GET_ANNOTATION_STROKE_POINTS: the index of the first point of the batch. GET_ANNOTATION_STROKE_END: the number of points of the stroke*/
+    private int m_nbPoints;
+
+    /** GET_ANNOTATION_STROKE_POINTS: the offsets of the points (dx, dy per point). null if malformed*/
+    private int[] m_offsets = new int[0];
+
+    @Override
+    public byte getCurrentType()
+    {
+        if(type == MessageBuffer.GET_ANNOTATION_STROKE_BEGIN)
+            return (byte)(cursor == 8 ? 'f' : 'I');
+        if(type == MessageBuffer.GET_ANNOTATION_STROKE_POINTS && cursor == 6)
+            return 'a';
+        return 'I';
+    }
+
+    @Override
+    public void pushValue(int value)
+    {
+        if(cursor == 0)
+            m_datasetID = value;
+        else if(cursor == 1)
+            m_subDatasetID = value;
+        else if(cursor == 2)
+            m_annotationID = value;
+        else if(cursor == 3)
+            m_senderID = value;
+        else if(cursor == 4)
+            m_strokeID = value;
+        else if(type == MessageBuffer.GET_ANNOTATION_STROKE_BEGIN)
+        {
+            if(cursor == 5)
+                m_canvasWidth = value;
+            else if(cursor == 6)
+                m_canvasHeight = value;
+            else if(cursor == 7)
+                m_color = value;
+        }
+        else if(cursor == 5)
+            m_nbPoints = value;
+        super.pushValue(value);
+    }
+
+    @Override
+    public void pushValue(float value)
+    {
+        m_width = value;
+        super.pushValue(value);
+    }
+
+    @Override
+    public void pushValue(byte[] value)
+    {
+        m_offsets = decodeVarints(value);
+        super.pushValue(value);
+    }
+
+    @Override
+    public int getMaxCursor()
+    {
+        if(type == MessageBuffer.GET_ANNOTATION_STROKE_BEGIN)
+            return 8;
+        if(type == MessageBuffer.GET_ANNOTATION_STROKE_POINTS)
+            return 6;
+        return 5;
+    }
+
+    /** Get the dataset ID parsed
+     * @return the dataset ID of the annotation*/
+    public int getDatasetID() {return m_datasetID;}
+
+    /** Get the subdataset ID parsed
+     * @return the subdataset ID of the annotation*/
+    public int getSubDatasetID() {return m_subDatasetID;}
+
+    /** Get the annotation ID parsed
+     * @return the annotation ID*/
+    public int getAnnotationID() {return m_annotationID;}
+
+    /** Get the ID of the tablet drawing the stroke
+     * @return the sender ID*/
+    public int getSenderID() {return m_senderID;}
+
+    /** Get the ID of the stroke. Strokes of different senders may have the same ID
+     * @return the stroke ID*/
+    public int getStrokeID() {return m_strokeID;}
+
+    /** Get the canvas width (GET_ANNOTATION_STROKE_BEGIN only)
+     * @return the width of the canvas the stroke is drawn on*/
+    public int getCanvasWidth() {return m_canvasWidth;}
+
+    /** Get the canvas height (GET_ANNOTATION_STROKE_BEGIN only)
+     * @return the height of the canvas the stroke is drawn on*/
+    public int getCanvasHeight() {return m_canvasHeight;}
+
+    /** Get the stroke color (GET_ANNOTATION_STROKE_BEGIN only)
+     * @return the color of the stroke*/
+    public int getColor() {return m_color;}
+
+    /** Get the stroke width (GET_ANNOTATION_STROKE_BEGIN only)
+     * @return the width of the stroke*/
+    public float getWidth() {return m_width;}
+
+    /** Get the index of the first point of the batch (GET_ANNOTATION_STROKE_POINTS), or the number of points of the stroke (GET_ANNOTATION_STROKE_END)
+     * @return the number of points the stroke had before this batch, or has once finished*/
+    public int getNbPoints() {return m_nbPoints;}
+
+    /** Get the offsets of the points of the batch (GET_ANNOTATION_STROKE_POINTS only)
+     * @return the offsets (dx, dy per point) from the previous point of the stroke, in the canvas of the sender. null if malformed*/
+    public int[] getOffsets() {return m_offsets;}
+
+    /** Decode the zigzag varints of a batch of points (see AnnotationStrokeStreamer.putVarint)
+     * @param data the encoded data
+     * @return the values decoded, or null if the data are malformed*/
+    private static int[] decodeVarints(byte[] data)
+    {
+        int[] values = new int[data.length];
+        int nbValues = 0;
+        int i = 0;
+        while(i < data.length)
+        {
+            int zigzag = 0;
+            int shift  = 0;
+            byte b;
+            do
+            {
+                if(i == data.length || shift > 28)
+                {
+                    Log.e(MainActivity.TAG, "Malformed annotation stroke points. Skipping");
+                    return null;
+                }
+                b = data[i++];
+                zigzag |= (b & 0x7f) << shift;
+                shift  += 7;
+            } while((b & 0x80) != 0);
+            values[nbValues++] = (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        if(nbValues % 2 != 0)
+        {
+            Log.e(MainActivity.TAG, "Malformed annotation stroke points. Skipping");
+            return null;
+        }
+        return Arrays.copyOf(values, nbValues);
+    }
+}
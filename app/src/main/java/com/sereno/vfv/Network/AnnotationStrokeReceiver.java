@@ -0,0 +1,123 @@
+package com.sereno.vfv.Network;
+
+import android.graphics.Point;
+
+import com.sereno.view.AnnotationCanvasData;
+import com.sereno.view.AnnotationStroke;
+
+import java.util.HashMap;
+
+/** Rebuilds the annotation strokes streamed by other tablets (see AnnotationStrokeMessage) on the canvas of their annotation.
+ * The strokes being received are identified by their annotation, sender and stroke ID, and not by their index in the canvas:
+ * local strokes and the strokes of other senders may be added to the canvas in the meantime.
+ * The points are scaled from the canvas of the sender to the local canvas. Used from the thread applying the messages*/
+public class AnnotationStrokeReceiver
+{
+    /** The identity of a stroke being received*/
+    private static class StrokeKey
+    {
+        final int datasetID;
+        final int subDatasetID;
+        final int annotationID;
+        final int senderID;
+        final int strokeID;
+
+        StrokeKey(AnnotationStrokeMessage msg)
+        {
+            datasetID    = msg.getDatasetID();
+            subDatasetID = msg.getSubDatasetID();
+            annotationID = msg.getAnnotationID();
+            senderID     = msg.getSenderID();
+            strokeID     = msg.getStrokeID();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof StrokeKey))
+                return false;
+            StrokeKey k = (StrokeKey)o;
+            return datasetID == k.datasetID && subDatasetID == k.subDatasetID && annotationID == k.annotationID &&
+                   senderID == k.senderID && strokeID == k.strokeID;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (((datasetID*31 + subDatasetID)*31 + annotationID)*31 + senderID)*31 + strokeID;
+        }
+    }
+
+    /** A stroke being received*/
+    private static class StrokeState
+    {
+        /** The stroke rebuilt in the local canvas*/
+        AnnotationStroke stroke;
+
+        /** The scale from the canvas of the sender to the local canvas*/
+        float scaleX;
+        float scaleY;
+
+        /** The last point received, in the canvas of the sender*/
+        int lastX = 0;
+        int lastY = 0;
+    }
+
+    /** The strokes begun and not finished yet*/
+    private final HashMap<StrokeKey, StrokeState> m_strokes = new HashMap<>();
+
+    /** Apply a message to the canvas of its annotation: add the stroke, its points, or finish it.
+     * Messages duplicated or out of sequence (e.g., a batch following a missed batch) are ignored
+     * @param msg the message to apply
+     * @param canvas the canvas of the annotation msg.getAnnotationID()
+     * @return true if the message was applied, false if it was ignored*/
+    public boolean apply(AnnotationStrokeMessage msg, AnnotationCanvasData canvas)
+    {
+        StrokeKey key = new StrokeKey(msg);
+
+        if(msg.getType() == MessageBuffer.GET_ANNOTATION_STROKE_BEGIN)
+        {
+            if(m_strokes.containsKey(key))
+                return false;
+
+            StrokeState state = new StrokeState();
+            state.stroke = new AnnotationStroke();
+            state.scaleX = (msg.getCanvasWidth()  > 0 ? (float)canvas.getWidth()/msg.getCanvasWidth()   : 1.0f);
+            state.scaleY = (msg.getCanvasHeight() > 0 ? (float)canvas.getHeight()/msg.getCanvasHeight() : 1.0f);
+            state.stroke.setColor(msg.getColor());
+            state.stroke.setWidth(msg.getWidth());
+            m_strokes.put(key, state);
+            canvas.addStroke(state.stroke);
+            return true;
+        }
+
+        if(msg.getType() == MessageBuffer.GET_ANNOTATION_STROKE_END)
+        {
+            StrokeState state = m_strokes.remove(key);
+            if(state == null)
+                return false;
+            state.stroke.finish();
+            return state.stroke.getPoints().size() == msg.getNbPoints();
+        }
+
+        StrokeState state = m_strokes.get(key);
+        int[] offsets     = msg.getOffsets();
+        if(state == null || offsets == null || msg.getNbPoints() != state.stroke.getPoints().size())
+            return false;
+
+        for(int i = 0; i+1 < offsets.length; i += 2)
+        {
+            state.lastX += offsets[i];
+            state.lastY += offsets[i+1];
+            state.stroke.addPoint(new Point(Math.round(state.lastX*state.scaleX), Math.round(state.lastY*state.scaleY)));
+        }
+        return true;
+    }
+
+    /** Get the number of strokes being received
+     * @return the number of strokes begun and not finished*/
+    public int getNbStrokes()
+    {
+        return m_strokes.size();
+    }
+}
@@ -0,0 +1,175 @@
+package com.sereno.vfv.Network;
+
+import android.graphics.Point;
+
+import com.sereno.view.AnnotationCanvasData;
+import com.sereno.view.AnnotationStroke;
+
+import java.util.IdentityHashMap;
+
+/** Streams the annotation strokes while they are drawn (see SocketManager.setAnnotationStreaming), instead of sending the whole canvas.
+ *
+ * Each stroke is sent as:
+ *  - ANNOTATION_STROKE_BEGIN: int datasetID, int subDatasetID, int annotationID, int strokeID, int canvasWidth, int canvasHeight, int color, float width,
+ *  - ANNOTATION_STROKE_POINTS (batches of points): int datasetID, int subDatasetID, int annotationID, int strokeID, int firstPoint (index of the first point of the batch),
+ *    then a byte array (int size + data) of zigzag varints: dx, dy per point, the offset from the previous point of the stroke ((0, 0) for the first point),
+ *  - ANNOTATION_STROKE_END: int datasetID, int subDatasetID, int annotationID, int strokeID, int nbPoints.
+ * The stroke ID is unique per tablet (it is not the index of the stroke in the canvas, which the strokes received shift).
+ * The server relays these events as MessageBuffer.GET_ANNOTATION_STROKE_*, adding the ID of the sending tablet (see AnnotationStrokeMessage).
+ * A batch is sent once it has MAX_BATCH_POINTS points, BATCH_PERIOD after the previous batch, or when the stroke is finished.
+ * Every method is thread-safe*/
+class AnnotationStrokeStreamer
+{
+    /** The maximum number of points per batch*/
+    static final int MAX_BATCH_POINTS = 32;
+
+    /** The minimum delay between two batches of a stroke, in nanoseconds*/
+    static final long BATCH_PERIOD = 33000000;
+
+    /** The streaming state of a stroke*/
+    private static class StrokeState
+    {
+        int datasetID;
+        int subDatasetID;
+        int annotationID;
+        int strokeID;
+
+        /** Number of points sent*/
+        int nbSent = 0;
+
+        /** The last point sent*/
+        int lastX = 0;
+        int lastY = 0;
+
+        /** The points not sent yet (x, y per point)*/
+        final int[] pending = new int[2*MAX_BATCH_POINTS];
+
+        /** Number of points in pending*/
+        int nbPending = 0;
+
+        /** When was the last batch sent? (System.nanoTime)*/
+        long lastBatchTime = 0;
+    }
+
+    /** The queue to write the events into*/
+    private final CoalescingSendQueue m_queue;
+
+    /** The strokes being streamed*/
+    private final IdentityHashMap<AnnotationStroke, StrokeState> m_strokes = new IdentityHashMap<>();
+
+    /** The ID of the next stroke streamed*/
+    private int m_nextStrokeID = 0;
+
+    /** The buffer encoding the varints of a batch (at most 5 bytes per varint)*/
+    private final byte[] m_varints = new byte[2*5*MAX_BATCH_POINTS];
+
+    /** Constructor
+     * @param queue the queue to write the events into*/
+    AnnotationStrokeStreamer(CoalescingSendQueue queue)
+    {
+        m_queue = queue;
+    }
+
+    /** Start streaming a stroke. The points it already has are sent
+     * @param datasetID the dataset ID of the annotation
+     * @param subDatasetID the subdataset ID of the annotation
+     * @param annotationID the annotation ID
+     * @param canvas the canvas of the annotation, containing the stroke
+     * @param stroke the stroke to stream*/
+    synchronized void begin(int datasetID, int subDatasetID, int annotationID, AnnotationCanvasData canvas, AnnotationStroke stroke)
+    {
+        StrokeState state  = new StrokeState();
+        state.datasetID    = datasetID;
+        state.subDatasetID = subDatasetID;
+        state.annotationID = annotationID;
+        state.strokeID     = m_nextStrokeID++;
+        m_strokes.put(stroke, state);
+
+        //Read everything before owning the encoder (see CoalescingSendQueue.beginMessage)
+        int   canvasWidth  = canvas.getWidth();
+        int   canvasHeight = canvas.getHeight();
+        int   color        = stroke.getColor();
+        float width        = stroke.getWidth();
+        m_queue.beginMessage(SocketManager.ANNOTATION_STROKE_BEGIN).putInt(datasetID).putInt(subDatasetID).putInt(annotationID).putInt(state.strokeID)
+               .putInt(canvasWidth).putInt(canvasHeight).putInt(color).putFloat(width).commit();
+
+        for(Point p : stroke.getPoints())
+            addPoint(stroke, p);
+    }
+
+    /** Stream a point added to a stroke. Nothing is done if the stroke is not streamed
+     * @param stroke the stroke
+     * @param p the point added*/
+    synchronized void addPoint(AnnotationStroke stroke, Point p)
+    {
+        StrokeState state = m_strokes.get(stroke);
+        if(state == null)
+            return;
+
+        state.pending[2*state.nbPending]   = p.x;
+        state.pending[2*state.nbPending+1] = p.y;
+        state.nbPending++;
+        if(state.nbPending == MAX_BATCH_POINTS || System.nanoTime() - state.lastBatchTime >= BATCH_PERIOD)
+            flush(state);
+    }
+
+    /** Finish streaming a stroke: its last points are sent. Nothing is done if the stroke is not streamed
+     * @param stroke the stroke finished*/
+    synchronized void end(AnnotationStroke stroke)
+    {
+        StrokeState state = m_strokes.remove(stroke);
+        if(state == null)
+            return;
+
+        flush(state);
+        m_queue.beginMessage(SocketManager.ANNOTATION_STROKE_END).putInt(state.datasetID).putInt(state.subDatasetID).putInt(state.annotationID)
+               .putInt(state.strokeID).putInt(state.nbSent).commit();
+    }
+
+    /** Get the number of strokes being streamed
+     * @return the number of strokes begun and not finished*/
+    synchronized int getNbStrokes()
+    {
+        return m_strokes.size();
+    }
+
+    /** Send the pending points of a stroke as an ANNOTATION_STROKE_POINTS event
+     * @param state the stroke to flush*/
+    private void flush(StrokeState state)
+    {
+        if(state.nbPending == 0)
+            return;
+
+        int size = 0;
+        for(int i = 0; i < state.nbPending; i++)
+        {
+            size = putVarint(m_varints, size, state.pending[2*i]   - state.lastX);
+            size = putVarint(m_varints, size, state.pending[2*i+1] - state.lastY);
+            state.lastX = state.pending[2*i];
+            state.lastY = state.pending[2*i+1];
+        }
+
+        m_queue.beginMessage(SocketManager.ANNOTATION_STROKE_POINTS).putInt(state.datasetID).putInt(state.subDatasetID).putInt(state.annotationID)
+               .putInt(state.strokeID).putInt(state.nbSent).putInt(size).putBytes(m_varints, 0, size).commit();
+
+        state.nbSent       += state.nbPending;
+        state.nbPending     = 0;
+        state.lastBatchTime = System.nanoTime();
+    }
+
+    /** Write a signed value as a zigzag varint (7 bits per byte, least significant first, the high bit telling that another byte follows)
+     * @param buf the buffer to write into
+     * @param offset where to write
+     * @return the offset following the varint*/
+    static int putVarint(byte[] buf, int offset, int value)
+    {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while((zigzag & ~0x7f) != 0)
+        {
+            buf[offset++] = (byte)((zigzag & 0x7f) | 0x80);
+            zigzag >>>= 7;
+        }
+        buf[offset++] = (byte)zigzag;
+        return offset;
+    }
+}
@@ -0,0 +1,325 @@
+package com.sereno.vfv.Network;
+
+import android.util.Log;
+
+import com.sereno.vfv.MainActivity;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Second connection to the server, dedicated to bulk transfers (volumetric masks, transfer functions, annotation canvases...),
+ * so that one large payload does not delay the small and frequent messages of the control connection (head-of-line blocking).
+ *
+ * Once connected, the channel identifies itself with IDENT_BULK_CHANNEL (the tablet ID), so that the server can bind it
+ * to the control connection of the same tablet. The server then chooses which messages it sends on this channel.
+ * The incoming data is parsed incrementally by its own MessageBuffer, which dispatches the messages to the handlers of the control one.
+ * The outgoing data is queued in its own CoalescingSendQueue: it is not ordered with the data sent on the control connection.
+ *
+ * Like the blocking transport of SocketManager, this channel uses one reading thread (which also connects) and one writing thread*/
+class BulkChannel
+{
+    /** The socket object for communicating with the server*/
+    private Socket       m_socket = new Socket();
+    /** The output stream of the socket*/
+    private OutputStream m_output;
+    /** The input stream of the socket*/
+    private InputStream  m_input;
+
+    /** The ip of the server*/
+    private String m_serverIP;
+    /** The bulk port of the server*/
+    private int    m_serverPort;
+
+    /** The tablet ID sent with IDENT_BULK_CHANNEL*/
+    private volatile int m_tabletID = 0;
+
+    /** Has IDENT_BULK_CHANNEL been sent on the current connection?*/
+    private boolean m_identSent = false;
+
+    /** Is the channel closed?*/
+    private volatile boolean m_isClosed = false;
+
+    /** The delays between two connection attempts*/
+    private final ReconnectBackoff m_backoff = new ReconnectBackoff();
+
+    /** The message buffer parsing the incoming data*/
+    private final MessageBuffer m_msgBuffer;
+
+    /** The data to send. The writing thread waits on it until data is pushed*/
+    private final CoalescingSendQueue m_sendQueue = new CoalescingSendQueue();
+
+    /** The metrics of the writes*/
+    private final FlushMetrics m_flushMetrics = new FlushMetrics();
+
+    /** The buffer gathering the data written by one flush*/
+    private byte[] m_flushBuffer = new byte[65536];
+
+    /** The reading thread. It also (re)connects the socket*/
+    private Thread m_readThread;
+    /** The writing thread*/
+    private Thread m_writeThread;
+
+    /** Runnable writing to the socket. It sleeps until data is pushed (or the socket connects), and then writes it*/
+    private Runnable m_writeThreadRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            while(!m_isClosed)
+            {
+                synchronized(m_sendQueue)
+                {
+                    while(!m_isClosed && !hasDataToWrite())
+                    {
+                        try {m_sendQueue.wait(SocketManager.FAIL_CONNECT_SLEEP);} catch (InterruptedException e) {}
+                    }
+                }
+
+                if(m_isClosed)
+                    break;
+                write();
+            }
+        }
+    };
+
+    /** Runnable reading the socket*/
+    private Runnable m_readThreadRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            byte[] buf = new byte[65536];
+
+            while(!m_isClosed)
+            {
+                boolean isConnected;
+                synchronized(BulkChannel.this)
+                {
+                    isConnected = m_socket.isConnected() || connect();
+                }
+
+                if(!isConnected)
+                {
+                    try {Thread.sleep(m_backoff.nextDelay());} catch(InterruptedException e) {}
+                    continue;
+                }
+
+                try
+                {
+                    int readSize = m_input.read(buf);
+                    if(readSize > 0)
+                        m_msgBuffer.push(buf, readSize);
+                    else //EOF
+                        close();
+                }
+                catch(Exception e)
+                {
+                    close();
+                }
+            }
+        }
+    };
+
+    /** Constructor. Start connecting to the server
+     * @param ip the server IP
+     * @param port the bulk port of the server
+     * @param dispatcher the message buffer of the control connection, whose handlers are called for the messages received on this channel*/
+    BulkChannel(String ip, int port, MessageBuffer dispatcher)
+    {
+        m_serverIP   = ip;
+        m_serverPort = port;
+        m_msgBuffer  = new MessageBuffer(dispatcher);
+
+        m_sendQueue.setListener(new CoalescingSendQueue.ISendQueueListener()
+        {
+            @Override
+            public void onPush(CoalescingSendQueue queue)
+            {
+                synchronized(queue)
+                {
+                    queue.notify();
+                }
+            }
+
+            @Override
+            public void onBackpressureChanged(CoalescingSendQueue queue, boolean isCongested)
+            {}
+        });
+
+        m_writeThread = new Thread(m_writeThreadRunnable);
+        m_writeThread.start();
+
+        m_readThread = new Thread(m_readThreadRunnable);
+        m_readThread.start();
+    }
+
+    /** Set the server address. The channel reconnects
+     * @param ip the server IP
+     * @param port the bulk port of the server*/
+    synchronized void setServerAddr(String ip, int port)
+    {
+        m_serverIP   = ip;
+        m_serverPort = port;
+        m_backoff.reset();
+        close();
+    }
+
+    /** Set the tablet ID sent with IDENT_BULK_CHANNEL. It is sent again on the current connection
+     * @param tabletID the tablet ID*/
+    void setTabletID(int tabletID)
+    {
+        m_tabletID = tabletID;
+        synchronized(m_sendQueue)
+        {
+            m_identSent = false;
+            m_sendQueue.notify();
+        }
+    }
+
+    /** Push a new value to write to the server
+     * @param data array of bytes to write to the server*/
+    void push(byte[] data)
+    {
+        m_sendQueue.add(data);
+    }
+
+    /** Get the queue of the data waiting to be sent on this channel
+     * @return the send queue*/
+    CoalescingSendQueue getSendQueue()
+    {
+        return m_sendQueue;
+    }
+
+    /** Get the message buffer parsing the data received on this channel
+     * @return the message buffer*/
+    MessageBuffer getMessageBuffer()
+    {
+        return m_msgBuffer;
+    }
+
+    /** Get the metrics of the writes on this channel
+     * @return the flush metrics*/
+    FlushMetrics getFlushMetrics()
+    {
+        return m_flushMetrics;
+    }
+
+    /** Is the channel connected?
+     * @return true if yes, false otherwise*/
+    synchronized boolean isConnected()
+    {
+        return m_socket.isConnected();
+    }
+
+    /** Close the channel and stop its threads*/
+    void stop()
+    {
+        m_isClosed = true;
+        close();
+        synchronized(m_sendQueue)
+        {
+            m_sendQueue.notify();
+        }
+        try{m_writeThread.join();} catch (Exception e){}
+        try{m_readThread.join();} catch (Exception e){}
+    }
+
+    /** Close the socket. The connection is reopened afterwards (unless stop was called).
+     * The message being received and the event being sent, if any, are dropped*/
+    private synchronized void close()
+    {
+        if(m_socket.isConnected())
+            try{m_socket.close();} catch(Exception e){}
+        m_output = null;
+        m_input  = null;
+        m_socket = new Socket();
+
+        try{m_socket.setReuseAddress(true);}catch(Exception e){}
+        synchronized(m_sendQueue)
+        {
+            m_identSent = false;
+            m_sendQueue.skipPartialMessage();
+        }
+    }
+
+    /** Connect to the server. Must be called by the reading thread while holding the lock of this object
+     * @return true on success, false on failure*/
+    private boolean connect()
+    {
+        try
+        {
+            m_socket.connect(new InetSocketAddress(m_serverIP, m_serverPort), SocketManager.CONNECT_TIMEOUT);
+            m_socket.setTcpNoDelay(true);
+            m_output = m_socket.getOutputStream();
+            m_input  = m_socket.getInputStream();
+        }
+        catch(Exception e)
+        {
+            m_socket = new Socket();
+            m_output = null;
+            m_input  = null;
+            return false;
+        }
+
+        //A message may have been cut by the last disconnection
+        m_msgBuffer.reset();
+        m_backoff.reset();
+
+        //Wake up the writing thread: the ident data and the pending data can be sent
+        synchronized(m_sendQueue)
+        {
+            m_sendQueue.notify();
+        }
+        return true;
+    }
+
+    /** Is there any data to write? Must be called while holding the m_sendQueue lock
+     * @return true if the socket is connected and if data (or the ident data) has to be sent*/
+    private boolean hasDataToWrite()
+    {
+        return m_socket.isConnected() && (!m_identSent || !m_sendQueue.isEmpty());
+    }
+
+    /** Write the ident data (if not sent yet) and every pending data in one write*/
+    private synchronized void write()
+    {
+        if(m_output == null)
+            return;
+
+        long startTime = System.nanoTime();
+        int size = 0;
+        synchronized(m_sendQueue)
+        {
+            int queueSize = m_sendQueue.getNbPendingBytes();
+            if(2+4 + queueSize > m_flushBuffer.length)
+                m_flushBuffer = new byte[Math.max(2+4 + queueSize, 2*m_flushBuffer.length)];
+
+            //Only between two events: the rest of an event cut by a disconnection has been skipped
+            if(!m_identSent)
+            {
+                ByteBuffer buf = ByteBuffer.wrap(m_flushBuffer);
+                buf.order(ByteOrder.BIG_ENDIAN);
+                buf.putShort(SocketManager.IDENT_BULK_CHANNEL);
+                buf.putInt(m_tabletID);
+                size = buf.position();
+                m_identSent = true;
+            }
+            size += m_sendQueue.read(m_flushBuffer, size, queueSize);
+        }
+
+        try
+        {
+            m_output.write(m_flushBuffer, 0, size);
+            m_flushMetrics.onFlush(size, 1, System.nanoTime() - startTime);
+        }
+        catch(Exception e)
+        {
+            Log.e(MainActivity.TAG, "Could not write on the bulk channel: " + e.toString());
+            close();
+        }
+    }
+}
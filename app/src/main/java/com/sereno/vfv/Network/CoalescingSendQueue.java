@@ -0,0 +1,818 @@
+package com.sereno.vfv.Network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Queue of the data to send to the server (see SocketManager.push and SocketManager.beginMessage).
+ * The events are stored back to back in preallocated ring buffers, so that sending at a steady state does not allocate anything:
+ * an Encoder writes the header and the payload of an event in place, and the transports copy the rings into their output buffers.
+ *
+ * The events are split into two lanes:
+ * - the lossy lane carries the continuous, state-replacing streams (transforms of a subdataset, tablet location and scale).
+ *   Its events are keyed by (type, dataset, subdataset): a newer event overwrites in place the pending one sharing its key.
+ *   It is bounded: once it holds more than its capacity, the oldest events are dropped.
+ * - the reliable lane carries every other event (commands), in order. Nothing is dropped from it.
+ * The lossy lane is sent first, so that continuous streams do not wait behind commands. An event being sent is always completed first.
+ * The queue reports backpressure (see ISendQueueListener.onBackpressureChanged) when the reliable lane exceeds its capacity
+ * or when the lossy lane is full, until both have been drained to half of their capacity.
+ *
+ * Every method except the Encoder ones is synchronized on this object, which can therefore be used as the monitor to wait on*/
+public class CoalescingSendQueue
+{
+    /** Listener interface notified when data is pushed or when the backpressure status changes*/
+    public interface ISendQueueListener
+    {
+        /** Called (from the thread pushing the data, without holding the lock of the queue) when an event has been pushed
+         * @param queue the queue calling this method*/
+        void onPush(CoalescingSendQueue queue);
+
+        /** Called (from the thread pushing or reading the data, without holding the lock of the queue) when the queue becomes congested,
+         * or when it is not congested anymore. The producers of continuous streams should lower their rate while it is congested
+         * @param queue the queue calling this method
+         * @param isCongested true if the queue is congested, false otherwise*/
+        void onBackpressureChanged(CoalescingSendQueue queue, boolean isCongested);
+    }
+
+    /** Writes one event in place in the ring buffer of its lane (see beginMessage). Values are written in big endian, as the server reads them*/
+    public class Encoder
+    {
+        private Encoder() {}
+
+        /** Write a byte
+         * @param value the value to write
+         * @return this object*/
+        public Encoder putByte(byte value)
+        {
+            ensure(1);
+            Lane lane = m_encodeLane;
+            lane.ring[(int)(m_reservePos++ & lane.mask)] = value;
+            return this;
+        }
+
+        /** Write a 16 bits integer
+         * @param value the value to write
+         * @return this object*/
+        public Encoder putShort(short value)
+        {
+            ensure(2);
+            Lane lane = m_encodeLane;
+            lane.ring[(int)(m_reservePos++ & lane.mask)] = (byte)(value >> 8);
+            lane.ring[(int)(m_reservePos++ & lane.mask)] = (byte)value;
+            return this;
+        }
+
+        /** Write a 32 bits integer
+         * @param value the value to write
+         * @return this object*/
+        public Encoder putInt(int value)
+        {
+            ensure(4);
+            Lane lane = m_encodeLane;
+            lane.ring[(int)(m_reservePos++ & lane.mask)] = (byte)(value >> 24);
+            lane.ring[(int)(m_reservePos++ & lane.mask)] = (byte)(value >> 16);
+            lane.ring[(int)(m_reservePos++ & lane.mask)] = (byte)(value >> 8);
+            lane.ring[(int)(m_reservePos++ & lane.mask)] = (byte)value;
+            return this;
+        }
+
+        /** Write a 32 bits float
+         * @param value the value to write
+         * @return this object*/
+        public Encoder putFloat(float value)
+        {
+            return putInt(Float.floatToRawIntBits(value));
+        }
+
+        /** Write raw bytes
+         * @param data the bytes to write
+         * @param offset the offset of the first byte in data
+         * @param size the number of bytes to write
+         * @return this object*/
+        public Encoder putBytes(byte[] data, int offset, int size)
+        {
+            ensure(size);
+            Lane lane = m_encodeLane;
+            while(size > 0)
+            {
+                int ringOffset = (int)(m_reservePos & lane.mask);
+                int chunk      = Math.min(size, lane.ring.length - ringOffset);
+                System.arraycopy(data, offset, lane.ring, ringOffset, chunk);
+                m_reservePos += chunk;
+                offset       += chunk;
+                size         -= chunk;
+            }
+            return this;
+        }
+
+        /** Publish the event and release the encoder. It may overwrite a pending event sharing its coalescing key (see getCoalescingKey)
+         * @return true if the event was queued, false if it overwrote a pending one*/
+        public boolean commit()
+        {
+            boolean queued;
+            boolean backpressureChanged;
+            ISendQueueListener listener;
+            try
+            {
+                synchronized(CoalescingSendQueue.this)
+                {
+                    queued              = publish();
+                    backpressureChanged = updateBackpressure();
+                    listener            = m_listener;
+                }
+            }
+            finally
+            {
+                m_encodeLock.unlock();
+            }
+
+            if(listener != null)
+            {
+                if(backpressureChanged)
+                    listener.onBackpressureChanged(CoalescingSendQueue.this, m_isCongested);
+                listener.onPush(CoalescingSendQueue.this);
+            }
+            return queued;
+        }
+
+        /** Discard the event being encoded and release the encoder, e.g., when computing its payload threw. Nothing is published.
+         * Nothing is done if the calling thread does not own the encoder (e.g., the event was committed), so that it can be called from a finally block:
+         *     Encoder encoder = queue.beginMessage(type);
+         *     try {encoder.putInt(...).commit();}
+         *     finally {encoder.abort();}*/
+        public void abort()
+        {
+            if(!m_encodeLock.isHeldByCurrentThread())
+                return;
+            m_reservePos = m_messageStart;
+            m_encodeLock.unlock();
+        }
+    }
+
+    /** The pending events of one lane, stored back to back in a ring buffer*/
+    private static class Lane
+    {
+        /** The ring buffer. Its capacity is a power of two*/
+        byte[] ring;
+
+        /** ring.length-1*/
+        int mask;
+
+        /** The position (since the creation of the queue) of the next byte to read*/
+        long readPos = 0;
+
+        /** The position of the end of the last published event*/
+        long writePos = 0;
+
+        /** The sizes of the pending events, as a ring starting at lengthHead*/
+        int[] lengths = new int[256];
+
+        /** The types of the pending events, indexed as lengths*/
+        short[] types = new short[256];
+
+        /** The index of the size of the first pending event in lengths*/
+        int lengthHead = 0;
+
+        /** Number of pending events*/
+        int nbMessages = 0;
+
+        /** Number of bytes of the first pending event already read*/
+        int headConsumed = 0;
+
+        /** The coalescing keys of the pending state events (some of them may already be read: see keyPositions)*/
+        long[] keys = new long[16];
+
+        /** The positions of the events of keys*/
+        long[] keyPositions = new long[16];
+
+        /** The sizes of the events of keys*/
+        int[] keyLengths = new int[16];
+
+        /** The number of valid entries in keys*/
+        int nbKeys = 0;
+
+        /** The time (System.nanoTime) at which the oldest pending event was pushed*/
+        long oldestPushTime = 0;
+
+        /** Constructor
+         * @param capacity the initial capacity of the ring buffer. Must be a power of two*/
+        Lane(int capacity)
+        {
+            ring = new byte[capacity];
+            mask = capacity-1;
+        }
+
+        /** Get the number of bytes waiting to be read
+         * @return the number of pending bytes*/
+        int getNbPendingBytes() {return (int)(writePos - readPos);}
+
+        /** Get the number of bytes of the first pending event not read yet
+         * @return the number of bytes*/
+        int getHeadRemaining() {return lengths[lengthHead] - headConsumed;}
+
+        /** Mark bytes as read
+         * @param size the number of bytes read*/
+        void consume(int size)
+        {
+            readPos += size;
+            while(size > 0)
+            {
+                int remaining = lengths[lengthHead] - headConsumed;
+                if(size < remaining)
+                {
+                    headConsumed += size;
+                    break;
+                }
+                size        -= remaining;
+                headConsumed = 0;
+                lengthHead   = (lengthHead+1) % lengths.length;
+                nbMessages--;
+            }
+
+            if(readPos == writePos)
+                nbKeys = 0; //Nothing left to overwrite
+        }
+
+        /** Copy bytes of the first pending event
+         * @param dst the array to fill
+         * @param offset the offset in dst of the first byte to copy
+         * @param size the number of bytes to copy. Must not exceed getHeadRemaining()*/
+        void read(byte[] dst, int offset, int size)
+        {
+            for(int copied = 0; copied < size;)
+            {
+                int ringOffset = (int)((readPos+copied) & mask);
+                int chunk      = Math.min(size-copied, ring.length - ringOffset);
+                System.arraycopy(ring, ringOffset, dst, offset+copied, chunk);
+                copied += chunk;
+            }
+            consume(size);
+        }
+
+        /** Copy bytes of the first pending event
+         * @param dst the buffer to fill, from its position
+         * @param size the number of bytes to copy. Must not exceed getHeadRemaining()*/
+        void read(ByteBuffer dst, int size)
+        {
+            for(int copied = 0; copied < size;)
+            {
+                int ringOffset = (int)((readPos+copied) & mask);
+                int chunk      = Math.min(size-copied, ring.length - ringOffset);
+                dst.put(ring, ringOffset, chunk);
+                copied += chunk;
+            }
+            consume(size);
+        }
+    }
+
+    /** The default capacity of the ring buffers, in bytes. They grow if more data is pending*/
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    /** The default capacity of the lossy lane, in events*/
+    public static final int DEFAULT_LOSSY_CAPACITY = 64;
+
+    /** The default capacity of the reliable lane, in bytes*/
+    public static final int DEFAULT_RELIABLE_CAPACITY = 1024*1024;
+
+    /** The reliable lane (commands)*/
+    private final Lane m_reliable;
+
+    /** The lossy lane (continuous streams)*/
+    private final Lane m_lossy;
+
+    /** The lane whose first event is being read. null if no event has been read yet*/
+    private Lane m_readLane = null;
+
+    /** Lock held from beginMessage to commit: one event is encoded at a time*/
+    private final ReentrantLock m_encodeLock = new ReentrantLock();
+
+    /** The encoder*/
+    private final Encoder m_encoder = new Encoder();
+
+    /** The lane of the event being encoded*/
+    private Lane m_encodeLane;
+
+    /** The type of the event being encoded*/
+    private short m_messageType;
+
+    /** The position of the event being encoded*/
+    private long m_messageStart = 0;
+
+    /** The position of the next byte of the event being encoded*/
+    private long m_reservePos = 0;
+
+    /** The position up to which the event being encoded can be written without checking the free space*/
+    private long m_reserveLimit = 0;
+
+    /** The capacity of the lossy lane, in events*/
+    private int m_lossyCapacity = DEFAULT_LOSSY_CAPACITY;
+
+    /** The capacity of the reliable lane, in bytes*/
+    private int m_reliableCapacity = DEFAULT_RELIABLE_CAPACITY;
+
+    /** Is the queue congested?*/
+    private volatile boolean m_isCongested = false;
+
+    /** The listener to notify when data is pushed*/
+    private ISendQueueListener m_listener = null;
+
+    /** The metrics recording the events read entirely. null if not recorded*/
+    private NetworkMetrics m_metrics = null;
+
+    /** Number of events pushed*/
+    private long m_nbPushed = 0;
+
+    /** Number of events overwritten by a newer one before being sent*/
+    private long m_nbCoalesced = 0;
+
+    /** Number of events dropped because the lossy lane was full*/
+    private long m_nbDropped = 0;
+
+    /** Number of bytes pushed*/
+    private long m_nbBytesPushed = 0;
+
+    /** Number of bytes overwritten by a newer event before being sent*/
+    private long m_nbBytesCoalesced = 0;
+
+    /** Maximum number of pending events*/
+    private int m_maxPending = 0;
+
+    /** Constructor, with ring buffers of DEFAULT_CAPACITY bytes*/
+    public CoalescingSendQueue()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** Constructor
+     * @param capacity the initial capacity of the ring buffers, in bytes. Rounded up to a power of two*/
+    public CoalescingSendQueue(int capacity)
+    {
+        capacity   = Integer.highestOneBit(Math.max(16, capacity-1))*2;
+        m_reliable = new Lane(capacity);
+        m_lossy    = new Lane(capacity);
+    }
+
+    /** Is an event type part of a continuous stream (lossy lane)?
+     * @param type the event type (see SocketManager)
+     * @return true if the events of this type go in the lossy lane, false if they go in the reliable lane*/
+    public static boolean isContinuous(short type)
+    {
+        switch(type)
+        {
+            case SocketManager.ROTATE_DATASET:
+            case SocketManager.TRANSLATE_DATASET:
+            case SocketManager.SCALE_DATASET:
+            case SocketManager.LOCATION:
+            case SocketManager.TABLETSCALE:
+            case SocketManager.ROTATE_DATASET_COMPACT:
+            case SocketManager.TRANSLATE_DATASET_COMPACT:
+            case SocketManager.SCALE_DATASET_COMPACT:
+            case SocketManager.LOCATION_COMPACT:
+            case SocketManager.HEADSETS_STATUS_ACK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Get the coalescing key of an event to send
+     * @param type the event type (see SocketManager)
+     * @param size the size of the event, in bytes
+     * @param datasetID the first integer following the type, if any
+     * @param subDatasetID the second integer following the type, if any
+     * @return the coalescing key, or -1 if this event cannot be coalesced*/
+    static long getCoalescingKey(short type, int size, int datasetID, int subDatasetID)
+    {
+        //A compact event replaces the same state as its float counterpart: they share their key, and stay ordered
+        switch(type)
+        {
+            case SocketManager.ROTATE_DATASET_COMPACT:
+                type = SocketManager.ROTATE_DATASET;
+                break;
+            case SocketManager.TRANSLATE_DATASET_COMPACT:
+                type = SocketManager.TRANSLATE_DATASET;
+                break;
+            case SocketManager.SCALE_DATASET_COMPACT:
+                type = SocketManager.SCALE_DATASET;
+                break;
+            case SocketManager.LOCATION_COMPACT:
+                type = SocketManager.LOCATION;
+                break;
+        }
+
+        switch(type)
+        {
+            case SocketManager.ROTATE_DATASET:
+            case SocketManager.TRANSLATE_DATASET:
+            case SocketManager.SCALE_DATASET:
+                if(size < 2+2*4)
+                    return -1;
+                return ServerMessage.conflationKey(type, datasetID, subDatasetID);
+            case SocketManager.LOCATION:
+            case SocketManager.TABLETSCALE:
+            case SocketManager.HEADSETS_STATUS_ACK:
+                return ServerMessage.conflationKey(type, 0, 0);
+            default:
+                return -1;
+        }
+    }
+
+    /** Get the coalescing key of an event to send
+     * @param data the event data, as created by the SocketManager.create*Event methods
+     * @return the coalescing key, or -1 if this event cannot be coalesced*/
+    public static long getCoalescingKey(byte[] data)
+    {
+        if(data.length < 2)
+            return -1;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        short type = buf.getShort(0);
+        if(data.length < 2+2*4)
+            return getCoalescingKey(type, data.length, 0, 0);
+        return getCoalescingKey(type, data.length, buf.getInt(2), buf.getInt(6));
+    }
+
+    /** Set the listener to notify when data is pushed
+     * @param listener the new listener. Can be null*/
+    public synchronized void setListener(ISendQueueListener listener)
+    {
+        m_listener = listener;
+    }
+
+    /** Set the metrics recording the events read entirely (i.e., sent)
+     * @param metrics the metrics to use. null to stop recording*/
+    public synchronized void setMetrics(NetworkMetrics metrics)
+    {
+        m_metrics = metrics;
+    }
+
+    /** Set the capacity of the lossy lane. Once it holds more events, the oldest ones are dropped
+     * @param nbEvents the capacity, in events (default: DEFAULT_LOSSY_CAPACITY)*/
+    public synchronized void setLossyCapacity(int nbEvents)
+    {
+        m_lossyCapacity = Math.max(1, nbEvents);
+    }
+
+    /** Get the capacity of the lossy lane
+     * @return the capacity, in events*/
+    public synchronized int getLossyCapacity() {return m_lossyCapacity;}
+
+    /** Set the capacity of the reliable lane. Nothing is dropped from this lane: above this capacity, the queue reports backpressure
+     * @param nbBytes the capacity, in bytes (default: DEFAULT_RELIABLE_CAPACITY)*/
+    public synchronized void setReliableCapacity(int nbBytes)
+    {
+        m_reliableCapacity = Math.max(1, nbBytes);
+    }
+
+    /** Get the capacity of the reliable lane
+     * @return the capacity, in bytes*/
+    public synchronized int getReliableCapacity() {return m_reliableCapacity;}
+
+    /** Start encoding an event in place. The returned encoder is owned by the calling thread until Encoder.commit or Encoder.abort is called:
+     * other threads starting an event wait until then, and the calling thread must not start another event before.
+     * If computing the payload may throw, call Encoder.abort from a finally block: the encoder would stay owned otherwise
+     * @param type the event type (see SocketManager), written as the header of the event
+     * @return the encoder to write the payload with*/
+    public Encoder beginMessage(short type)
+    {
+        m_encodeLock.lock();
+        startMessage(type);
+        return m_encoder.putShort(type);
+    }
+
+    /** Push an event to send. Its data is copied in the ring buffer of its lane.
+     * It overwrites the pending event sharing its coalescing key, if any (see getCoalescingKey)
+     * @param data the event data
+     * @return true if the event was queued, false if it overwrote a pending one*/
+    public boolean add(byte[] data)
+    {
+        m_encodeLock.lock();
+        startMessage(data.length < 2 ? -1 : (short)(((data[0] & 0xff) << 8) | (data[1] & 0xff)));
+        return m_encoder.putBytes(data, 0, data.length).commit();
+    }
+
+    /** Initialize the encoding of an event. Must be called while holding m_encodeLock
+     * @param type the event type*/
+    private void startMessage(short type)
+    {
+        m_encodeLane   = (isContinuous(type) ? m_lossy : m_reliable);
+        m_messageType  = type;
+        m_messageStart = m_encodeLane.writePos;
+        m_reservePos   = m_encodeLane.writePos;
+        m_reserveLimit = m_encodeLane.writePos;
+    }
+
+    /** Make sure that the event being encoded can grow by size bytes. Must be called by the encoding thread
+     * @param size the number of bytes to write*/
+    private void ensure(int size)
+    {
+        if(m_reservePos + size <= m_reserveLimit)
+            return;
+
+        synchronized(this)
+        {
+            Lane lane = m_encodeLane;
+            long needed = m_reservePos + size - lane.readPos;
+            if(needed > lane.ring.length)
+            {
+                //Relocate the pending data (and the event being encoded) in a larger ring
+                int capacity = lane.ring.length;
+                while(capacity < needed)
+                    capacity *= 2;
+                byte[] ring = new byte[capacity];
+                for(long pos = lane.readPos; pos < m_reservePos; pos++)
+                    ring[(int)(pos & (capacity-1))] = lane.ring[(int)(pos & lane.mask)];
+                lane.ring = ring;
+                lane.mask = capacity-1;
+            }
+
+            //Reading only frees space: this limit stays valid until the event is published
+            m_reserveLimit = lane.readPos + lane.ring.length;
+        }
+    }
+
+    /** Read a big-endian integer in the ring buffer of the lane being encoded
+     * @param pos the position of the integer
+     * @return the integer read*/
+    private int ringInt(long pos)
+    {
+        Lane lane = m_encodeLane;
+        return ((lane.ring[(int)(pos & lane.mask)] & 0xff) << 24) | ((lane.ring[(int)((pos+1) & lane.mask)] & 0xff) << 16) |
+               ((lane.ring[(int)((pos+2) & lane.mask)] & 0xff) << 8) | (lane.ring[(int)((pos+3) & lane.mask)] & 0xff);
+    }
+
+    /** Publish the event being encoded. Must be called while holding both locks
+     * @return true if the event was queued, false if it overwrote a pending one*/
+    private boolean publish()
+    {
+        Lane lane = m_encodeLane;
+        int size = (int)(m_reservePos - m_messageStart);
+        m_nbPushed++;
+        m_nbBytesPushed += size;
+
+        long key = -1;
+        if(lane == m_lossy)
+            key = (size < 2+2*4 ? getCoalescingKey(m_messageType, size, 0, 0) :
+                                  getCoalescingKey(m_messageType, size, ringInt(m_messageStart+2), ringInt(m_messageStart+6)));
+        if(key != -1)
+        {
+            int i = 0;
+            while(i < lane.nbKeys && lane.keys[i] != key)
+                i++;
+
+            //Overwrite the pending state if none of its bytes has been read (nor dropped) yet
+            if(i < lane.nbKeys && lane.keyPositions[i] >= lane.readPos && lane.keyLengths[i] == size)
+            {
+                for(int j = 0; j < size; j++)
+                    lane.ring[(int)((lane.keyPositions[i]+j) & lane.mask)] = lane.ring[(int)((m_messageStart+j) & lane.mask)];
+                m_reservePos = m_messageStart;
+                m_nbCoalesced++;
+                m_nbBytesCoalesced += size;
+                return false;
+            }
+
+            if(i == lane.nbKeys)
+            {
+                if(lane.nbKeys == lane.keys.length)
+                {
+                    long[] keys      = new long[2*lane.nbKeys];
+                    long[] positions = new long[2*lane.nbKeys];
+                    int[]  lengths   = new int[2*lane.nbKeys];
+                    System.arraycopy(lane.keys,         0, keys,      0, lane.nbKeys);
+                    System.arraycopy(lane.keyPositions, 0, positions, 0, lane.nbKeys);
+                    System.arraycopy(lane.keyLengths,   0, lengths,   0, lane.nbKeys);
+                    lane.keys         = keys;
+                    lane.keyPositions = positions;
+                    lane.keyLengths   = lengths;
+                }
+                lane.keys[i] = key;
+                lane.nbKeys++;
+            }
+            lane.keyPositions[i] = m_messageStart;
+            lane.keyLengths[i]   = size;
+        }
+
+        //Append the event
+        if(lane.nbMessages == lane.lengths.length)
+        {
+            int[]   lengths = new int[2*lane.lengths.length];
+            short[] types   = new short[2*lane.lengths.length];
+            for(int i = 0; i < lane.nbMessages; i++)
+            {
+                lengths[i] = lane.lengths[(lane.lengthHead+i) % lane.lengths.length];
+                types[i]   = lane.types[(lane.lengthHead+i) % lane.lengths.length];
+            }
+            lane.lengths    = lengths;
+            lane.types      = types;
+            lane.lengthHead = 0;
+        }
+        if(lane.readPos == lane.writePos)
+            lane.oldestPushTime = System.nanoTime();
+        lane.lengths[(lane.lengthHead+lane.nbMessages) % lane.lengths.length] = size;
+        lane.types[(lane.lengthHead+lane.nbMessages) % lane.lengths.length]   = m_messageType;
+        lane.nbMessages++;
+        lane.writePos = m_reservePos;
+
+        //Drop the oldest continuous events if the lossy lane is full. An event being read is never dropped
+        while(lane == m_lossy && lane.nbMessages > m_lossyCapacity && lane.headConsumed == 0)
+        {
+            lane.consume(lane.lengths[lane.lengthHead]);
+            m_nbDropped++;
+        }
+
+        m_maxPending = Math.max(m_maxPending, m_reliable.nbMessages + m_lossy.nbMessages);
+        return true;
+    }
+
+    /** Update the backpressure status. Must be called while holding the lock of this object
+     * @return true if the status has changed, false otherwise*/
+    private boolean updateBackpressure()
+    {
+        boolean isCongested;
+        if(!m_isCongested)
+            isCongested = m_reliable.getNbPendingBytes() > m_reliableCapacity || m_lossy.nbMessages >= m_lossyCapacity;
+        else
+            isCongested = m_reliable.getNbPendingBytes() > m_reliableCapacity/2 || m_lossy.nbMessages > m_lossyCapacity/2;
+
+        if(isCongested == m_isCongested)
+            return false;
+        m_isCongested = isCongested;
+        return true;
+    }
+
+    /** Get the lane to read from: the lane of the event being read, or the lossy lane first
+     * @return the lane to read from, or null if the queue is empty*/
+    private Lane nextReadLane()
+    {
+        if(m_readLane != null && m_readLane.headConsumed > 0)
+            return m_readLane;
+        if(m_lossy.nbMessages > 0)
+            return m_lossy;
+        if(m_reliable.nbMessages > 0)
+            return m_reliable;
+        return null;
+    }
+
+    /** Notify the listener of a backpressure change. Must not be called while holding the lock of this object*/
+    private void fireBackpressureChanged()
+    {
+        ISendQueueListener listener;
+        synchronized(this)
+        {
+            listener = m_listener;
+        }
+        if(listener != null)
+            listener.onBackpressureChanged(this, m_isCongested);
+    }
+
+    /** Copy pending bytes into a buffer. The copied bytes are removed from the queue
+     * @param dst the buffer to fill, from its position and up to its limit
+     * @return the number of bytes copied*/
+    public int read(ByteBuffer dst)
+    {
+        int copied = 0;
+        boolean backpressureChanged;
+        synchronized(this)
+        {
+            for(Lane lane = nextReadLane(); lane != null && dst.hasRemaining(); lane = nextReadLane())
+            {
+                int size = Math.min(dst.remaining(), lane.getHeadRemaining());
+                if(m_metrics != null && size == lane.getHeadRemaining())
+                    m_metrics.onMessageSent(lane.types[lane.lengthHead], lane.lengths[lane.lengthHead]);
+                lane.read(dst, size);
+                m_readLane = lane;
+                copied += size;
+            }
+            backpressureChanged = updateBackpressure();
+        }
+
+        if(backpressureChanged)
+            fireBackpressureChanged();
+        return copied;
+    }
+
+    /** Copy pending bytes into an array. The copied bytes are removed from the queue
+     * @param dst the array to fill
+     * @param offset the offset in dst of the first byte to copy
+     * @param size the maximum number of bytes to copy
+     * @return the number of bytes copied*/
+    public int read(byte[] dst, int offset, int size)
+    {
+        int copied = 0;
+        boolean backpressureChanged;
+        synchronized(this)
+        {
+            for(Lane lane = nextReadLane(); lane != null && copied < size; lane = nextReadLane())
+            {
+                int chunk = Math.min(size - copied, lane.getHeadRemaining());
+                if(m_metrics != null && chunk == lane.getHeadRemaining())
+                    m_metrics.onMessageSent(lane.types[lane.lengthHead], lane.lengths[lane.lengthHead]);
+                lane.read(dst, offset+copied, chunk);
+                m_readLane = lane;
+                copied += chunk;
+            }
+            backpressureChanged = updateBackpressure();
+        }
+
+        if(backpressureChanged)
+            fireBackpressureChanged();
+        return copied;
+    }
+
+    /** Remove the next event to send, as a new array. Meant for inspecting the queue: the transports use read
+     * @return the next event (or the part of it not read yet), or null if the queue is empty*/
+    public byte[] poll()
+    {
+        byte[] data;
+        synchronized(this)
+        {
+            Lane lane = nextReadLane();
+            if(lane == null)
+                return null;
+            data = new byte[lane.getHeadRemaining()];
+        }
+        read(data, 0, data.length);
+        return data;
+    }
+
+    /** Drop the rest of the event being read if it has been partially read (e.g., the connection was lost while sending it),
+     * so that the next byte to read starts an event*/
+    public synchronized void skipPartialMessage()
+    {
+        if(m_readLane != null && m_readLane.headConsumed > 0)
+            m_readLane.consume(m_readLane.getHeadRemaining());
+    }
+
+    /** Has an event been partially read? Another stream (e.g., the ident data) can be inserted only if not
+     * @return true if the next byte to read is in the middle of an event*/
+    public synchronized boolean isInMessage() {return m_readLane != null && m_readLane.headConsumed > 0;}
+
+    /** Is the queue empty?
+     * @return true if no event is waiting to be sent*/
+    public synchronized boolean isEmpty() {return m_reliable.nbMessages == 0 && m_lossy.nbMessages == 0;}
+
+    /** Is the queue congested? See ISendQueueListener.onBackpressureChanged
+     * @return true if the queue is congested, false otherwise*/
+    public boolean isCongested() {return m_isCongested;}
+
+    /** Get the number of events waiting to be sent
+     * @return the number of pending events, both lanes included*/
+    public synchronized int getNbPending() {return m_reliable.nbMessages + m_lossy.nbMessages;}
+
+    /** Get the number of events waiting to be sent in one lane
+     * @param lossy true for the lossy lane, false for the reliable lane
+     * @return the number of pending events of this lane*/
+    public synchronized int getNbPending(boolean lossy) {return (lossy ? m_lossy : m_reliable).nbMessages;}
+
+    /** Get the number of bytes waiting to be sent
+     * @return the number of pending bytes, both lanes included*/
+    public synchronized int getNbPendingBytes() {return m_reliable.getNbPendingBytes() + m_lossy.getNbPendingBytes();}
+
+    /** Get the time at which the oldest pending event was pushed. Only meaningful if the queue is not empty
+     * @return the push time (System.nanoTime)*/
+    public synchronized long getOldestPushTime()
+    {
+        if(m_lossy.nbMessages == 0)
+            return m_reliable.oldestPushTime;
+        if(m_reliable.nbMessages == 0)
+            return m_lossy.oldestPushTime;
+        return Math.min(m_reliable.oldestPushTime, m_lossy.oldestPushTime);
+    }
+
+    /** Get the current capacity of the ring buffers
+     * @return the capacity of the largest ring buffer, in bytes*/
+    public synchronized int getCapacity() {return Math.max(m_reliable.ring.length, m_lossy.ring.length);}
+
+    /** Get the maximum number of events that were waiting to be sent at the same time
+     * @return the maximum backlog*/
+    public synchronized int getMaxPending() {return m_maxPending;}
+
+    /** Get the number of events pushed
+     * @return the number of events pushed*/
+    public synchronized long getNbPushed() {return m_nbPushed;}
+
+    /** Get the number of events overwritten by a newer one before being sent
+     * @return the number of coalesced events*/
+    public synchronized long getNbCoalesced() {return m_nbCoalesced;}
+
+    /** Get the number of continuous events dropped because the lossy lane was full
+     * @return the number of dropped events*/
+    public synchronized long getNbDropped() {return m_nbDropped;}
+
+    /** Get the number of bytes pushed
+     * @return the number of bytes pushed*/
+    public synchronized long getNbBytesPushed() {return m_nbBytesPushed;}
+
+    /** Get the number of bytes that were not sent because their event was overwritten by a newer one
+     * @return the number of bytes saved*/
+    public synchronized long getNbBytesCoalesced() {return m_nbBytesCoalesced;}
+
+    /** Reset every counter to 0*/
+    public synchronized void resetCounters()
+    {
+        m_nbPushed         = 0;
+        m_nbCoalesced      = 0;
+        m_nbDropped        = 0;
+        m_nbBytesPushed    = 0;
+        m_nbBytesCoalesced = 0;
+        m_maxPending       = m_reliable.nbMessages + m_lossy.nbMessages;
+    }
+}
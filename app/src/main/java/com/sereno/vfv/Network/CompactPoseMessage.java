@@ -0,0 +1,34 @@
+package com.sereno.vfv.Network;
+
+/** Answer of the server to an ENABLE_COMPACT_POSE event (see SocketManager.setCompactPose and PoseCodec)*/
+public class CompactPoseMessage extends ServerMessage
+{
+    /** The half extent of the workspace the server uses for the positions, in meters. 0 or less if the server refuses the compact poses*/
+    private float m_workspace = 0.0f;
+
+    @Override
+    public void pushValue(float value)
+    {
+        if(cursor == 0)
+            m_workspace = value;
+        super.pushValue(value);
+    }
+
+    @Override
+    public byte getCurrentType()
+    {
+        if(cursor == 0)
+            return 'f';
+        return 0;
+    }
+
+    @Override
+    public int getMaxCursor()
+    {
+        return 0;
+    }
+
+    /** Get the workspace of the positions, both ways
+     * @return the half extent of the workspace, in meters. 0 or less if the poses are sent as floats*/
+    public float getWorkspace() {return m_workspace;}
+}
@@ -0,0 +1,43 @@
+package com.sereno.vfv.Network;
+
+/** Answer of the server to an OPEN_DATAGRAM_CHANNEL event (see SocketManager.setDatagramEnabled and LossyChannel)*/
+public class DatagramChannelMessage extends ServerMessage
+{
+    /** The datagram port of the server. 0 or less if the server has no datagram channel*/
+    private int m_port = -1;
+
+    /** The token identifying the tablet in its datagrams*/
+    private int m_token = 0;
+
+    @Override
+    public void pushValue(int value)
+    {
+        if(cursor == 0)
+            m_port = value;
+        else if(cursor == 1)
+            m_token = value;
+        super.pushValue(value);
+    }
+
+    @Override
+    public byte getCurrentType()
+    {
+        if(cursor <= 1)
+            return 'I';
+        return 0;
+    }
+
+    @Override
+    public int getMaxCursor()
+    {
+        return 1;
+    }
+
+    /** Get the datagram port of the server
+     * @return the port, or 0 or less if the server has no datagram channel (the streams then go over TCP)*/
+    public int getPort() {return m_port;}
+
+    /** Get the token identifying the tablet in its datagrams
+     * @return the token*/
+    public int getToken() {return m_token;}
+}
@@ -0,0 +1,93 @@
+package com.sereno.vfv.Network;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/** Pool of direct ByteBuffer objects used for large payloads (e.g., volumetric masks).
+ * Direct buffers can be read by the native code without any JNI copy, but are expensive to allocate:
+ * they are then kept here once the payload has been consumed (see release)*/
+public class DirectBufferPool
+{
+    /** The default maximum number of buffers kept in the pool*/
+    public static final int DEFAULT_MAX_BUFFERS = 4;
+
+    /** The free buffers*/
+    private ArrayList<ByteBuffer> m_freeBuffers = new ArrayList<>();
+
+    /** The maximum number of free buffers to keep*/
+    private int m_maxBuffers;
+
+    /** Number of buffers allocated by this pool*/
+    private long m_nbAllocations = 0;
+
+    /** Constructor. Keep at most DEFAULT_MAX_BUFFERS free buffers*/
+    public DirectBufferPool()
+    {
+        this(DEFAULT_MAX_BUFFERS);
+    }
+
+    /** Constructor
+     * @param maxBuffers the maximum number of free buffers to keep*/
+    public DirectBufferPool(int maxBuffers)
+    {
+        m_maxBuffers = maxBuffers;
+    }
+
+    /** Get a direct buffer from the pool, or allocate a new one if no free buffer is large enough.
+     * @param size the number of bytes the buffer has to contain
+     * @return a direct buffer with position == 0 and limit == size, in native byte order*/
+    public synchronized ByteBuffer acquire(int size)
+    {
+        //Take the smallest free buffer large enough
+        int best = -1;
+        for(int i = 0; i < m_freeBuffers.size(); i++)
+        {
+            int capacity = m_freeBuffers.get(i).capacity();
+            if(capacity >= size && (best == -1 || capacity < m_freeBuffers.get(best).capacity()))
+                best = i;
+        }
+
+        ByteBuffer buf;
+        if(best != -1)
+            buf = m_freeBuffers.remove(best);
+        else
+        {
+            buf = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            m_nbAllocations++;
+        }
+
+        buf.clear();
+        buf.limit(size);
+        return buf;
+    }
+
+    /** Give a buffer back to the pool. The buffer must not be used anymore by the caller
+     * @param buf the buffer to release. Non direct buffers and null are ignored*/
+    public synchronized void release(ByteBuffer buf)
+    {
+        if(buf == null || !buf.isDirect())
+            return;
+
+        for(int i = 0; i < m_freeBuffers.size(); i++)
+            if(m_freeBuffers.get(i) == buf)
+                return;
+
+        //Pool full: keep the largest buffers
+        if(m_freeBuffers.size() >= m_maxBuffers)
+        {
+            int smallest = 0;
+            for(int i = 1; i < m_freeBuffers.size(); i++)
+                if(m_freeBuffers.get(i).capacity() < m_freeBuffers.get(smallest).capacity())
+                    smallest = i;
+            if(m_freeBuffers.isEmpty() || m_freeBuffers.get(smallest).capacity() >= buf.capacity())
+                return;
+            m_freeBuffers.remove(smallest);
+        }
+        m_freeBuffers.add(buf);
+    }
+
+    /** Get the number of buffers this pool had to allocate
+     * @return the number of allocations*/
+    public synchronized long getNbAllocations() {return m_nbAllocations;}
+}
@@ -0,0 +1,74 @@
+package com.sereno.vfv.Network;
+
+/** Metrics of the writes of SocketManager: how many bytes each write system call carries, and how long each flush lasts.
+ * A flush is one pass of the writer over the pending data (see SocketManager.checkWritting and NIOTransport.write)*/
+public class FlushMetrics
+{
+    /** Number of flushes*/
+    private long m_nbFlushes = 0;
+
+    /** Number of write system calls*/
+    private long m_nbSyscalls = 0;
+
+    /** Number of bytes written*/
+    private long m_nbBytes = 0;
+
+    /** Sum of the flush durations, in nanoseconds*/
+    private long m_flushDuration = 0;
+
+    /** Maximum flush duration, in nanoseconds*/
+    private long m_maxFlushDuration = 0;
+
+    /** Record a flush
+     * @param nbBytes the number of bytes written
+     * @param nbSyscalls the number of write system calls issued
+     * @param duration the duration of the flush, in nanoseconds*/
+    synchronized void onFlush(long nbBytes, int nbSyscalls, long duration)
+    {
+        m_nbFlushes++;
+        m_nbSyscalls       += nbSyscalls;
+        m_nbBytes          += nbBytes;
+        m_flushDuration    += duration;
+        m_maxFlushDuration  = Math.max(m_maxFlushDuration, duration);
+    }
+
+    /** Get the number of flushes
+     * @return the number of flushes*/
+    public synchronized long getNbFlushes() {return m_nbFlushes;}
+
+    /** Get the number of write system calls
+     * @return the number of system calls*/
+    public synchronized long getNbSyscalls() {return m_nbSyscalls;}
+
+    /** Get the number of bytes written
+     * @return the number of bytes written*/
+    public synchronized long getNbBytes() {return m_nbBytes;}
+
+    /** Get the average number of bytes written per system call
+     * @return the number of bytes per system call, 0 if nothing was written*/
+    public synchronized double getBytesPerSyscall()
+    {
+        return m_nbSyscalls == 0 ? 0 : (double)m_nbBytes/m_nbSyscalls;
+    }
+
+    /** Get the average duration of a flush
+     * @return the average duration, in nanoseconds. 0 if nothing was flushed*/
+    public synchronized long getAverageFlushDuration()
+    {
+        return m_nbFlushes == 0 ? 0 : m_flushDuration/m_nbFlushes;
+    }
+
+    /** Get the maximum duration of a flush
+     * @return the maximum duration, in nanoseconds*/
+    public synchronized long getMaxFlushDuration() {return m_maxFlushDuration;}
+
+    /** Reset every metric to 0*/
+    public synchronized void reset()
+    {
+        m_nbFlushes        = 0;
+        m_nbSyscalls       = 0;
+        m_nbBytes          = 0;
+        m_flushDuration    = 0;
+        m_maxFlushDuration = 0;
+    }
+}
@@ -0,0 +1,237 @@
+package com.sereno.vfv.Network;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Queue applying the server messages once per frame on the thread owning the frames (e.g., the UI thread).
+ * Messages received from the MessageBuffer (reading thread) are enqueued in order (state-replacing messages being conflated, see MessageConflator).
+ * A frame is requested to the IFrameScheduler when messages are pending, and onFrame() applies them in order
+ * until the frame budget is elapsed. The remaining messages are applied in the next frames.*/
+public class FrameMessageQueue implements MessageBuffer.IMessageHandler<ServerMessage>
+{
+    /** Interface giving the current time*/
+    public interface IClock
+    {
+        /** Get the current time
+         * @return the current time, in nanoseconds. Only differences between two calls are meaningful*/
+        long nanoTime();
+    }
+
+    /** Interface requesting frames (e.g., Choreographer on Android)*/
+    public interface IFrameScheduler
+    {
+        /** Request a new frame. The scheduler has to call queue.onFrame() on the thread applying the messages.
+         * This is called from any thread, and is not called again before the frame occurs
+         * @param queue the queue requesting a frame*/
+        void requestFrame(FrameMessageQueue queue);
+    }
+
+    /** The clock based on System.nanoTime()*/
+    public static final IClock SYSTEM_CLOCK = new IClock()
+    {
+        @Override
+        public long nanoTime() {return System.nanoTime();}
+    };
+
+    /** The default time budget per frame, in nanoseconds (a quarter of a 60 Hz frame)*/
+    public static final long DEFAULT_FRAME_BUDGET = 4000000L;
+
+    /** Message wrapping a task to run in order with the server messages*/
+    private static class TaskMessage extends ServerMessage
+    {
+        /** The task to run*/
+        final Runnable task;
+
+        TaskMessage(Runnable task)
+        {
+            this.task = task;
+        }
+
+        @Override
+        byte getCurrentType() {return 0;}
+    }
+
+    /** The ordered queue of pending messages*/
+    private MessageConflator m_queue;
+
+    /** The registry used to dispatch the messages to IMessageBufferCallback objects*/
+    private MessageRegistry m_registry;
+
+    /** The handlers applying the messages per type instead of the onFrame handler or callback (see addHandler). null if none.
+     * This table is copied on write*/
+    private volatile MessageBuffer.TypedHandler[] m_typedHandlers = new MessageBuffer.TypedHandler[0];
+
+    /** The object requesting the frames*/
+    private IFrameScheduler m_scheduler;
+
+    /** The clock measuring the time spent per frame*/
+    private IClock m_clock;
+
+    /** The time budget per frame, in nanoseconds*/
+    private volatile long m_frameBudget = DEFAULT_FRAME_BUDGET;
+
+    /** Is a frame already requested?*/
+    private AtomicBoolean m_frameRequested = new AtomicBoolean(false);
+
+    /** Number of frames that applied messages*/
+    private long m_nbFrames = 0;
+
+    /** Number of frames that exceeded their budget and left messages for the next frames*/
+    private long m_nbOverBudgetFrames = 0;
+
+    /** Constructor
+     * @param registry the registry used to dispatch the messages (see MessageBuffer.getRegistry)
+     * @param scheduler the object requesting the frames
+     * @param clock the clock measuring the time spent per frame (see SYSTEM_CLOCK)*/
+    public FrameMessageQueue(MessageRegistry registry, IFrameScheduler scheduler, IClock clock)
+    {
+        m_registry  = registry;
+        m_scheduler = scheduler;
+        m_clock     = clock;
+        m_queue     = new MessageConflator(registry);
+        m_queue.setListener(new MessageConflator.IConflatorListener()
+        {
+            @Override
+            public void onPendingMessages(MessageConflator conflator)
+            {
+                requestFrame();
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(ServerMessage msg)
+    {
+        m_queue.onMessage(msg);
+    }
+
+    /** Apply the messages of some types through a typed handler instead of the handler or callback given to onFrame,
+     * in order with the other messages. The types without IMessageBufferCallback method are applied this way.
+     * The queue starts listening to these types on buffer
+     * @param buffer the buffer parsing the messages
+     * @param handler the handler to call on the thread applying the messages. Its generic type must match the ServerMessage subclass registered for these types
+     * @param types the message types (see MessageBuffer.GET_*)*/
+    public void addHandler(MessageBuffer buffer, MessageBuffer.IMessageHandler<? extends ServerMessage> handler, int... types)
+    {
+        synchronized(this)
+        {
+            int size = m_typedHandlers.length;
+            for(int type : types)
+                size = Math.max(size, type+1);
+
+            MessageBuffer.TypedHandler[] handlers = Arrays.copyOf(m_typedHandlers, size);
+            for(int type : types)
+                handlers[type] = new MessageBuffer.TypedHandler(handler);
+            m_typedHandlers = handlers;
+        }
+
+        for(int type : types)
+            buffer.addHandler(type, this);
+    }
+
+    /** Run a task on the thread applying the messages, in order with the messages already received.
+     * This is useful for messages whose heavy part is done on the reading thread
+     * @param task the task to run*/
+    public void post(Runnable task)
+    {
+        m_queue.onMessage(new TaskMessage(task));
+    }
+
+    /** Apply the pending messages until the frame budget is elapsed. At least one message is applied per frame
+     * @param handler the handler to call for each message
+     * @return the number of messages (and tasks) applied*/
+    public int onFrame(MessageBuffer.IMessageHandler<ServerMessage> handler)
+    {
+        return onFrame(handler, null);
+    }
+
+    /** Apply the pending messages until the frame budget is elapsed. At least one message is applied per frame
+     * @param clbk the callback to call for each message. The called method depends on the message type
+     * @return the number of messages (and tasks) applied*/
+    public int onFrame(MessageBuffer.IMessageBufferCallback clbk)
+    {
+        return onFrame(null, clbk);
+    }
+
+    /** Apply the pending messages until the frame budget is elapsed
+     * @param handler the handler to call for each message. If null, clbk is used
+     * @param clbk the callback to call for each message if handler is null
+     * @return the number of messages (and tasks) applied*/
+    private int onFrame(MessageBuffer.IMessageHandler<ServerMessage> handler, MessageBuffer.IMessageBufferCallback clbk)
+    {
+        m_frameRequested.set(false);
+
+        long budget = m_frameBudget;
+        long start  = m_clock.nanoTime();
+        int  nbApplied = 0;
+
+        MessageBuffer.TypedHandler[] typedHandlers = m_typedHandlers;
+        ServerMessage msg;
+        while((msg = m_queue.poll()) != null)
+        {
+            if(msg instanceof TaskMessage)
+                ((TaskMessage)msg).task.run();
+            else if(msg.getType() < typedHandlers.length && typedHandlers[msg.getType()] != null)
+                typedHandlers[msg.getType()].onMessage(msg);
+            else if(handler != null)
+                handler.onMessage(msg);
+            else
+                m_registry.dispatch(msg, clbk);
+            nbApplied++;
+
+            if(m_clock.nanoTime() - start >= budget)
+                break;
+        }
+
+        synchronized(this)
+        {
+            if(nbApplied > 0)
+                m_nbFrames++;
+
+            //The poll above did not empty the queue: no new notification will come from it
+            if(m_queue.getNbPending() > 0)
+            {
+                m_nbOverBudgetFrames++;
+                requestFrame();
+            }
+        }
+
+        return nbApplied;
+    }
+
+    /** Request a frame if none is already requested*/
+    private void requestFrame()
+    {
+        if(m_frameRequested.compareAndSet(false, true))
+            m_scheduler.requestFrame(this);
+    }
+
+    /** Set the time budget per frame
+     * @param budget the time budget, in nanoseconds*/
+    public void setFrameBudget(long budget)
+    {
+        m_frameBudget = budget;
+    }
+
+    /** Get the time budget per frame
+     * @return the time budget, in nanoseconds*/
+    public long getFrameBudget()
+    {
+        return m_frameBudget;
+    }
+
+    /** Get the ordered (and conflated) queue of pending messages. Useful to read its counters
+     * @return the queue of pending messages*/
+    public MessageConflator getQueue()
+    {
+        return m_queue;
+    }
+
+    /** Get the number of frames that applied messages
+     * @return the number of frames*/
+    public synchronized long getNbFrames() {return m_nbFrames;}
+
+    /** Get the number of frames that exceeded their budget and left messages for the next frames
+     * @return the number of frames over budget*/
+    public synchronized long getNbOverBudgetFrames() {return m_nbOverBudgetFrames;}
+}
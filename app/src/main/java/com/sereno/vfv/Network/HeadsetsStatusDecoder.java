@@ -0,0 +1,236 @@
+package com.sereno.vfv.Network;
+
+import android.util.Log;
+
+import com.sereno.vfv.MainActivity;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Decoder of the compact headsets status (GET_HEADSETS_STATUS_COMPACT, see SocketManager.setCompactPose).
+ *
+ * A compact headsets status is: int sequence, int baseSequence, then a byte array (int size + data) of the headsets.
+ * baseSequence is the sequence of a status previously acknowledged by the tablet (HEADSETS_STATUS_ACK) this one is a delta of, or -1 for a whole status.
+ * Each headset is: int id, byte changed (CHANGED_* flags, compared to the same headset in the base status), followed by the fields changed:
+ *  - CHANGED_COLOR: int color,
+ *  - CHANGED_ACTION: byte currentAction,
+ *  - CHANGED_POSITION: 3 shorts, fixed-point position (see PoseCodec.toFixed),
+ *  - CHANGED_ROTATION: 3 shorts, smallest-three rotation (see PoseCodec.packQuaternion),
+ *  - CHANGED_POINTING: byte pointingIT, int pointingDatasetID, int pointingSubDatasetID, byte pointingInPublic,
+ *  - CHANGED_POINTING_POSITION: 3 floats, pointingLocalSDPosition (in the subdataset space, not in the workspace),
+ *  - CHANGED_START_POSITION: 3 shorts, fixed-point pointingHeadsetStartPosition,
+ *  - CHANGED_START_ORIENTATION: 3 shorts, smallest-three pointingHeadsetStartOrientation.
+ * The headsets not listed are not connected anymore. A headset not part of the base status has every flag set.
+ *
+ * The tablet acknowledges each status decoded, and keeps the last HISTORY_SIZE ones: the server deltas against the last one acknowledged it received,
+ * and sends a whole status if it has none (or if it is older than HISTORY_SIZE statuses). Every method is thread-safe*/
+class HeadsetsStatusDecoder
+{
+    public static final int CHANGED_COLOR             = 0x01;
+    public static final int CHANGED_ACTION            = 0x02;
+    public static final int CHANGED_POSITION          = 0x04;
+    public static final int CHANGED_ROTATION          = 0x08;
+    public static final int CHANGED_POINTING          = 0x10;
+    public static final int CHANGED_POINTING_POSITION = 0x20;
+    public static final int CHANGED_START_POSITION    = 0x40;
+    public static final int CHANGED_START_ORIENTATION = 0x80;
+
+    /** Every field changed*/
+    public static final int CHANGED_ALL               = 0xff;
+
+    /** The number of statuses decoded kept as bases*/
+    static final int HISTORY_SIZE = 32;
+
+    /** The queue to acknowledge the statuses into*/
+    private final CoalescingSendQueue m_queue;
+
+    /** The half extent of the workspace of the positions, in meters*/
+    private float m_workspace = PoseCodec.DEFAULT_WORKSPACE;
+
+    /** The sequences of the statuses decoded (ring of HISTORY_SIZE)*/
+    private final int[] m_sequences = new int[HISTORY_SIZE];
+
+    /** The statuses decoded, per entry of m_sequences. Never modified once decoded: they are handed to the application*/
+    private final HeadsetsStatusMessage.HeadsetStatus[][] m_history = new HeadsetsStatusMessage.HeadsetStatus[HISTORY_SIZE][];
+
+    /** The number of statuses decoded since the last reset*/
+    private int m_nbDecoded = 0;
+
+    /** Constructor
+     * @param queue the queue to acknowledge the statuses into*/
+    HeadsetsStatusDecoder(CoalescingSendQueue queue)
+    {
+        m_queue = queue;
+    }
+
+    /** Set the workspace of the positions, as negotiated
+     * @param workspace the half extent of the workspace, in meters*/
+    synchronized void setWorkspace(float workspace)
+    {
+        m_workspace = workspace;
+    }
+
+    /** Forget the statuses decoded (e.g., the server restarts its sequences with a new connection)*/
+    synchronized void reset()
+    {
+        m_nbDecoded = 0;
+        for(int i = 0; i < HISTORY_SIZE; i++)
+            m_history[i] = null;
+    }
+
+    /** Decode a compact status, and acknowledge it
+     * @param sequence the sequence of the status
+     * @param baseSequence the sequence of the status it is a delta of, or -1
+     * @param data the headsets data
+     * @return the status decoded. The newest status decoded if this one is older, or if it cannot be decoded (its base is unknown, or it is malformed)*/
+    HeadsetsStatusMessage.HeadsetStatus[] decode(int sequence, int baseSequence, byte[] data)
+    {
+        HeadsetsStatusMessage.HeadsetStatus[] status;
+        synchronized(this)
+        {
+            HeadsetsStatusMessage.HeadsetStatus[] newest = (m_nbDecoded == 0 ? new HeadsetsStatusMessage.HeadsetStatus[0] : m_history[(m_nbDecoded-1) % HISTORY_SIZE]);
+            if(m_nbDecoded > 0 && sequence - m_sequences[(m_nbDecoded-1) % HISTORY_SIZE] <= 0) //Out of order (e.g., over the datagram channel)
+                return newest;
+
+            HeadsetsStatusMessage.HeadsetStatus[] base = new HeadsetsStatusMessage.HeadsetStatus[0];
+            if(baseSequence != -1)
+            {
+                base = getDecoded(baseSequence);
+                if(base == null)
+                {
+                    Log.e(MainActivity.TAG, "The base " + baseSequence + " of the headsets status " + sequence + " is unknown. Skipping");
+                    return newest;
+                }
+            }
+
+            try
+            {
+                status = decode(ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN), base);
+            }
+            catch(BufferUnderflowException e)
+            {
+                Log.e(MainActivity.TAG, "Malformed headsets status " + sequence + ". Skipping");
+                return newest;
+            }
+
+            m_sequences[m_nbDecoded % HISTORY_SIZE] = sequence;
+            m_history[m_nbDecoded % HISTORY_SIZE]   = status;
+            m_nbDecoded++;
+        }
+
+        m_queue.beginMessage(SocketManager.HEADSETS_STATUS_ACK).putInt(sequence).commit();
+        return status;
+    }
+
+    /** Get a status decoded
+     * @param sequence the sequence of the status
+     * @return the status, or null if it is not kept anymore*/
+    private HeadsetsStatusMessage.HeadsetStatus[] getDecoded(int sequence)
+    {
+        for(int i = Math.max(0, m_nbDecoded - HISTORY_SIZE); i < m_nbDecoded; i++)
+            if(m_sequences[i % HISTORY_SIZE] == sequence)
+                return m_history[i % HISTORY_SIZE];
+        return null;
+    }
+
+    /** Decode the headsets of a compact status
+     * @param buf the headsets data
+     * @param base the base status
+     * @return the status decoded*/
+    private HeadsetsStatusMessage.HeadsetStatus[] decode(ByteBuffer buf, HeadsetsStatusMessage.HeadsetStatus[] base)
+    {
+        HeadsetsStatusMessage.HeadsetStatus[] status = new HeadsetsStatusMessage.HeadsetStatus[0];
+        int nbHeadsets = 0;
+        while(buf.hasRemaining())
+        {
+            int id      = buf.getInt();
+            int changed = buf.get() & 0xff;
+
+            HeadsetsStatusMessage.HeadsetStatus headset = new HeadsetsStatusMessage.HeadsetStatus();
+            for(HeadsetsStatusMessage.HeadsetStatus previous : base)
+                if(previous.id == id)
+                {
+                    copy(previous, headset);
+                    break;
+                }
+            headset.id = id;
+
+            if((changed & CHANGED_COLOR) != 0)
+                headset.color = buf.getInt();
+            if((changed & CHANGED_ACTION) != 0)
+                headset.currentAction = buf.get();
+            if((changed & CHANGED_POSITION) != 0)
+                getPosition(buf, headset.position);
+            if((changed & CHANGED_ROTATION) != 0)
+                getQuaternion(buf, headset.rotation);
+            if((changed & CHANGED_POINTING) != 0)
+            {
+                headset.pointingIT           = buf.get();
+                headset.pointingDatasetID    = buf.getInt();
+                headset.pointingSubDatasetID = buf.getInt();
+                headset.pointingInPublic     = buf.get() != 0;
+            }
+            if((changed & CHANGED_POINTING_POSITION) != 0)
+                for(int i = 0; i < 3; i++)
+                    headset.pointingLocalSDPosition[i] = buf.getFloat();
+            if((changed & CHANGED_START_POSITION) != 0)
+                getPosition(buf, headset.pointingHeadsetStartPosition);
+            if((changed & CHANGED_START_ORIENTATION) != 0)
+                getQuaternion(buf, headset.pointingHeadsetStartOrientation);
+
+            if(nbHeadsets == status.length)
+            {
+                HeadsetsStatusMessage.HeadsetStatus[] s = new HeadsetsStatusMessage.HeadsetStatus[Math.max(4, 2*nbHeadsets)];
+                System.arraycopy(status, 0, s, 0, nbHeadsets);
+                status = s;
+            }
+            status[nbHeadsets++] = headset;
+        }
+
+        if(nbHeadsets != status.length)
+        {
+            HeadsetsStatusMessage.HeadsetStatus[] s = new HeadsetsStatusMessage.HeadsetStatus[nbHeadsets];
+            System.arraycopy(status, 0, s, 0, nbHeadsets);
+            status = s;
+        }
+        return status;
+    }
+
+    /** Read a fixed-point position
+     * @param buf the buffer to read
+     * @param p the position to fill*/
+    private void getPosition(ByteBuffer buf, float[] p)
+    {
+        for(int i = 0; i < 3; i++)
+            p[i] = PoseCodec.fromFixed(buf.getShort(), m_workspace);
+    }
+
+    /** Read a smallest-three quaternion
+     * @param buf the buffer to read
+     * @param q the quaternion to fill*/
+    private static void getQuaternion(ByteBuffer buf, float[] q)
+    {
+        long packed = ((long)(buf.getShort() & 0xffff) << 32) | ((long)(buf.getShort() & 0xffff) << 16) | (buf.getShort() & 0xffff);
+        PoseCodec.unpackQuaternion(packed, q, 0);
+    }
+
+    /** Copy the status of a headset
+     * @param src the status to copy
+     * @param dst the status to fill*/
+    private static void copy(HeadsetsStatusMessage.HeadsetStatus src, HeadsetsStatusMessage.HeadsetStatus dst)
+    {
+        dst.id                   = src.id;
+        dst.color                = src.color;
+        dst.currentAction        = src.currentAction;
+        dst.pointingIT           = src.pointingIT;
+        dst.pointingDatasetID    = src.pointingDatasetID;
+        dst.pointingSubDatasetID = src.pointingSubDatasetID;
+        dst.pointingInPublic     = src.pointingInPublic;
+        System.arraycopy(src.position,                        0, dst.position,                        0, 3);
+        System.arraycopy(src.rotation,                        0, dst.rotation,                        0, 4);
+        System.arraycopy(src.pointingLocalSDPosition,         0, dst.pointingLocalSDPosition,         0, 3);
+        System.arraycopy(src.pointingHeadsetStartPosition,    0, dst.pointingHeadsetStartPosition,    0, 3);
+        System.arraycopy(src.pointingHeadsetStartOrientation, 0, dst.pointingHeadsetStartOrientation, 0, 4);
+    }
+}
@@ -2,6 +2,9 @@ package com.sereno.vfv.Network;
 
 import android.util.Log;
 
+import com.sereno.vfv.MainActivity;
+
+/** The status of every headset: GET_HEADSETS_STATUS (floats), or GET_HEADSETS_STATUS_COMPACT (see HeadsetsStatusDecoder). Both give the same status*/
 public class HeadsetsStatusMessage extends ServerMessage
 {
     public static final int HEADSET_CURRENT_ACTION_NOTHING   = 0;
@@ -52,6 +55,26 @@ public class HeadsetsStatusMessage extends ServerMessage
     /** Array of the headset status*/
     private HeadsetStatus[] m_status = null;
 
+    /** GET_HEADSETS_STATUS_COMPACT: the decoder of the compact status. null if none*/
+    private HeadsetsStatusDecoder m_decoder = null;
+
+    /** GET_HEADSETS_STATUS_COMPACT: the sequence of the status*/
+    private int m_sequence;
+
+    /** GET_HEADSETS_STATUS_COMPACT: the sequence of the status it is a delta of*/
+    private int m_baseSequence;
+
+    /** Constructor*/
+    public HeadsetsStatusMessage()
+    {}
+
+    /** Constructor
+     * @param decoder the decoder of the compact status (GET_HEADSETS_STATUS_COMPACT), keeping the bases of the deltas*/
+    HeadsetsStatusMessage(HeadsetsStatusDecoder decoder)
+    {
+        m_decoder = decoder;
+    }
+
     @Override
     public void pushValue(float value)
     {
@@ -75,8 +98,16 @@ public class HeadsetsStatusMessage extends ServerMessage
     @Override
     public void pushValue(int value)
     {
+        if(type == MessageBuffer.GET_HEADSETS_STATUS_COMPACT)
+        {
+            if(cursor == 0)
+                m_sequence = value;
+            else
+                m_baseSequence = value;
+        }
+
         //Number of headsets
-        if(cursor == 0)
+        else if(cursor == 0)
         {
             m_status = new HeadsetStatus[value];
             for(int i = 0; i < value; i++)
@@ -115,9 +146,25 @@ public class HeadsetsStatusMessage extends ServerMessage
         super.pushValue(value);
     }
 
+    @Override
+    public void pushValue(byte[] value)
+    {
+        if(m_decoder != null)
+            m_status = m_decoder.decode(m_sequence, m_baseSequence, value);
+        else
+        {
+            Log.e(MainActivity.TAG, "No decoder for the compact headsets status. Skipping");
+            m_status = new HeadsetStatus[0];
+        }
+        super.pushValue(value);
+    }
+
     @Override
     public byte getCurrentType()
     {
+        if(type == MessageBuffer.GET_HEADSETS_STATUS_COMPACT) //Sequence, base sequence, headsets
+            return (byte)(cursor < 2 ? 'I' : 'a');
+
         if(cursor == 0) //Number of headsets
             return (byte)'I';
         else
@@ -151,7 +198,16 @@ public class HeadsetsStatusMessage extends ServerMessage
     }
 
     @Override
-    public int getMaxCursor() { return (m_status != null ? m_status.length*24: 0); }
+    public int getMaxCursor()
+    {
+        if(type == MessageBuffer.GET_HEADSETS_STATUS_COMPACT)
+            return 2;
+        return (m_status != null ? m_status.length*24: 0);
+    }
+
+    /** The server sends the status of every headset in each message, compact or not: a newer message replaces the status of all of them*/
+    @Override
+    long getConflationKey() { return conflationKey(MessageBuffer.GET_HEADSETS_STATUS, 0, 0); }
 
     /** Get the headsets status parsed
      * @return array of headsets status parsed*/
@@ -0,0 +1,250 @@
+package com.sereno.vfv.Network;
+
+import java.util.Arrays;
+
+/** Streams the lasso being traced as deltas, instead of resending the whole lasso each time a point is added (see SocketManager.setIncrementalLasso).
+ *
+ * The native code reports the lasso as a growing array (x, y, z per point) each time a point is added, and once more when the lasso ends:
+ * closed (its first point is appended again) or cancelled (empty array). This class turns these arrays into:
+ *  - LASSO_BEGIN: int lassoID, float quantum, then the first point as three ints (x, y, z in quanta),
+ *  - LASSO_APPEND: int lassoID, short nbPoints, then per point three shorts (dx, dy, dz): the offset from the previous point, in quanta,
+ *  - LASSO_END: int lassoID, int nbPoints (including the first one), byte closed (1: closed on its first point, 0: cancelled).
+ * The points are quantized relative to the origin, and the offsets are computed between quantized points: nothing drifts.
+ *
+ * A point is not sent if it and the points skipped before it lie within the tolerance of the segment joining the last point sent
+ * to the next point (i.e., near-collinear points are dropped). Hence each point is sent once the next one is known, and the last one at the end.
+ * Every method is thread-safe*/
+class LassoStreamer
+{
+    /** The default quantization step, in lasso units (the lasso is in normalized device coordinates)*/
+    static final float DEFAULT_QUANTUM = 1.0f/4096.0f;
+
+    /** The default tolerance of the decimation, in lasso units*/
+    static final float DEFAULT_TOLERANCE = 0.005f;
+
+    /** The queue to write the events into*/
+    private final CoalescingSendQueue m_queue;
+
+    /** The quantization step*/
+    private final float m_quantum;
+
+    /** The tolerance of the decimation*/
+    private final float m_tolerance;
+
+    /** The ID of the current (or last) lasso*/
+    private int m_lassoID = 0;
+
+    /** Is a lasso being streamed?*/
+    private boolean m_inProgress = false;
+
+    /** The number of points of the current lasso already processed*/
+    private int m_nbInput = 0;
+
+    /** The first point of the current lasso, as received*/
+    private final float[] m_first = new float[3];
+
+    /** The last point sent, in quanta*/
+    private final int[] m_sent = new int[3];
+
+    /** The number of points of the current lasso sent*/
+    private int m_nbSent = 0;
+
+    /** The point received and not sent yet*/
+    private final float[] m_pending = new float[3];
+
+    /** Is there a point in m_pending?*/
+    private boolean m_hasPending = false;
+
+    /** The points skipped since the last point sent (x, y, z per point)*/
+    private float[] m_skipped = new float[3*16];
+
+    /** The number of points in m_skipped*/
+    private int m_nbSkipped = 0;
+
+    /** Total number of points received*/
+    private long m_totalInput = 0;
+
+    /** Total number of points sent*/
+    private long m_totalSent = 0;
+
+    /** Constructor, with DEFAULT_QUANTUM and DEFAULT_TOLERANCE
+     * @param queue the queue to write the events into*/
+    LassoStreamer(CoalescingSendQueue queue)
+    {
+        this(queue, DEFAULT_QUANTUM, DEFAULT_TOLERANCE);
+    }
+
+    /** Constructor
+     * @param queue the queue to write the events into
+     * @param quantum the quantization step
+     * @param tolerance the tolerance of the decimation. 0 to send every point*/
+    LassoStreamer(CoalescingSendQueue queue, float quantum, float tolerance)
+    {
+        m_queue     = queue;
+        m_quantum   = quantum;
+        m_tolerance = tolerance;
+    }
+
+    /** Stream the new state of the lasso
+     * @param lasso the whole lasso, as reported by the native code (x, y, z per point). Empty if the lasso was cancelled*/
+    synchronized void push(float[] lasso)
+    {
+        int nbPoints = lasso.length/3;
+        if(nbPoints == 0)
+        {
+            if(m_inProgress)
+                end(false);
+            return;
+        }
+
+        int last = 3*(nbPoints-1);
+        boolean closed = nbPoints > 2 && lasso[last] == lasso[0] && lasso[last+1] == lasso[1] && lasso[last+2] == lasso[2];
+        int nbOpen     = (closed ? nbPoints-1 : nbPoints);
+
+        //Another lasso was started: the previous one was abandoned
+        if(m_inProgress && (nbOpen < m_nbInput || lasso[0] != m_first[0] || lasso[1] != m_first[1] || lasso[2] != m_first[2]))
+            end(false);
+
+        if(!m_inProgress)
+            begin(lasso[0], lasso[1], lasso[2]);
+        for(int i = m_nbInput; i < nbOpen; i++)
+            addPoint(lasso[3*i], lasso[3*i+1], lasso[3*i+2]);
+        m_nbInput = Math.max(m_nbInput, nbOpen);
+
+        if(closed)
+            end(true);
+    }
+
+    /** Get the number of points received
+     * @return the number of points received since the creation of this object*/
+    synchronized long getNbInputPoints() {return m_totalInput;}
+
+    /** Get the number of points sent
+     * @return the number of points sent since the creation of this object*/
+    synchronized long getNbSentPoints() {return m_totalSent;}
+
+    /** Start a new lasso
+     * @param x the first point x coordinate
+     * @param y the first point y coordinate
+     * @param z the first point z coordinate*/
+    private void begin(float x, float y, float z)
+    {
+        m_lassoID++;
+        m_inProgress = true;
+        m_nbInput    = 1;
+        m_nbSent     = 1;
+        m_hasPending = false;
+        m_nbSkipped  = 0;
+        m_first[0] = x;
+        m_first[1] = y;
+        m_first[2] = z;
+        m_sent[0]  = quantize(x);
+        m_sent[1]  = quantize(y);
+        m_sent[2]  = quantize(z);
+        m_totalInput++;
+        m_totalSent++;
+
+        m_queue.beginMessage(SocketManager.LASSO_BEGIN).putInt(m_lassoID).putFloat(m_quantum)
+               .putInt(m_sent[0]).putInt(m_sent[1]).putInt(m_sent[2]).commit();
+    }
+
+    /** Add a point to the current lasso. The previous point received is sent, unless it is near-collinear
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param z the z coordinate*/
+    private void addPoint(float x, float y, float z)
+    {
+        m_totalInput++;
+        if(m_hasPending)
+        {
+            if(canSkipPending(x, y, z))
+            {
+                if(3*m_nbSkipped+3 > m_skipped.length)
+                    m_skipped = Arrays.copyOf(m_skipped, 2*m_skipped.length);
+                System.arraycopy(m_pending, 0, m_skipped, 3*m_nbSkipped, 3);
+                m_nbSkipped++;
+            }
+            else
+                sendPending();
+        }
+
+        m_pending[0] = x;
+        m_pending[1] = y;
+        m_pending[2] = z;
+        m_hasPending = true;
+    }
+
+    /** End the current lasso
+     * @param closed true if the lasso is closed and ready to be used, false if it was cancelled*/
+    private void end(boolean closed)
+    {
+        if(m_hasPending)
+            sendPending();
+        m_queue.beginMessage(SocketManager.LASSO_END).putInt(m_lassoID).putInt(m_nbSent).putByte((byte)(closed ? 1 : 0)).commit();
+        m_inProgress = false;
+        m_nbInput    = 0;
+    }
+
+    /** Can the pending point be dropped, the next point being (x, y, z)? It can if it and the points skipped so far
+     * lie within the tolerance of the segment joining the last point sent to (x, y, z)*/
+    private boolean canSkipPending(float x, float y, float z)
+    {
+        if(m_tolerance <= 0)
+            return false;
+
+        float ax = m_sent[0]*m_quantum, ay = m_sent[1]*m_quantum, az = m_sent[2]*m_quantum;
+        if(distanceToSegment(m_pending[0], m_pending[1], m_pending[2], ax, ay, az, x, y, z) > m_tolerance)
+            return false;
+        for(int i = 0; i < m_nbSkipped; i++)
+            if(distanceToSegment(m_skipped[3*i], m_skipped[3*i+1], m_skipped[3*i+2], ax, ay, az, x, y, z) > m_tolerance)
+                return false;
+        return true;
+    }
+
+    /** Send the pending point as a LASSO_APPEND event. Offsets too large for a short are split in several points along the segment*/
+    private void sendPending()
+    {
+        int[] target = {quantize(m_pending[0]), quantize(m_pending[1]), quantize(m_pending[2])};
+        int maxOffset = 0;
+        for(int i = 0; i < 3; i++)
+            maxOffset = Math.max(maxOffset, Math.abs(target[i] - m_sent[i]));
+        int nbSteps = Math.max(1, (maxOffset + Short.MAX_VALUE-1)/Short.MAX_VALUE);
+
+        CoalescingSendQueue.Encoder encoder = m_queue.beginMessage(SocketManager.LASSO_APPEND).putInt(m_lassoID).putShort((short)nbSteps);
+        int[] start = {m_sent[0], m_sent[1], m_sent[2]};
+        for(int s = 1; s <= nbSteps; s++)
+        {
+            for(int i = 0; i < 3; i++)
+            {
+                int next = start[i] + (int)((long)(target[i] - start[i])*s/nbSteps);
+                encoder.putShort((short)(next - m_sent[i]));
+                m_sent[i] = next;
+            }
+        }
+        encoder.commit();
+
+        m_nbSent    += nbSteps;
+        m_totalSent += nbSteps;
+        m_hasPending = false;
+        m_nbSkipped  = 0;
+    }
+
+    /** Quantize a coordinate
+     * @param value the coordinate
+     * @return the coordinate, in quanta*/
+    private int quantize(float value)
+    {
+        return Math.round(value/m_quantum);
+    }
+
+    /** Distance from a point p to the segment [a, b]*/
+    static float distanceToSegment(float px, float py, float pz, float ax, float ay, float az, float bx, float by, float bz)
+    {
+        float abx = bx-ax, aby = by-ay, abz = bz-az;
+        float apx = px-ax, apy = py-ay, apz = pz-az;
+        float len2 = abx*abx + aby*aby + abz*abz;
+        float t    = (len2 > 0 ? Math.max(0.0f, Math.min(1.0f, (apx*abx + apy*aby + apz*abz)/len2)) : 0.0f);
+        float dx = apx - t*abx, dy = apy - t*aby, dz = apz - t*abz;
+        return (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+    }
+}
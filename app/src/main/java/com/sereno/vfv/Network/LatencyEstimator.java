@@ -0,0 +1,102 @@
+package com.sereno.vfv.Network;
+
+/** Rolling estimate of the round-trip time between the tablet and the server, fed by the ping/pong probes of SocketManager.
+ * The smoothed RTT and its variation follow the TCP retransmission timer estimator (gains of 1/8 and 1/4),
+ * and the jitter is the mean deviation between consecutive RTT samples (gain of 1/16, as the RTP interarrival jitter).
+ * Every method is thread-safe*/
+public class LatencyEstimator
+{
+    /** Number of RTT samples*/
+    private long m_nbSamples = 0;
+
+    /** Number of pings answered out of order or not answered before a newer one*/
+    private long m_nbLost = 0;
+
+    /** The highest sequence number answered*/
+    private int m_lastSequence = -1;
+
+    /** The last RTT sample, in nanoseconds*/
+    private long m_lastRTT = 0;
+
+    /** The minimum RTT sample, in nanoseconds*/
+    private long m_minRTT = Long.MAX_VALUE;
+
+    /** The smoothed RTT, in nanoseconds*/
+    private double m_smoothedRTT = 0;
+
+    /** The smoothed mean deviation of the RTT from the smoothed RTT, in nanoseconds*/
+    private double m_rttVariation = 0;
+
+    /** The smoothed mean deviation between consecutive RTT samples, in nanoseconds*/
+    private double m_jitter = 0;
+
+    /** Add an RTT sample
+     * @param sequence the sequence number of the ping answered
+     * @param rtt the round-trip time, in nanoseconds*/
+    public synchronized void addSample(int sequence, long rtt)
+    {
+        if(rtt < 0)
+            return;
+
+        if(m_nbSamples == 0)
+        {
+            m_smoothedRTT  = rtt;
+            m_rttVariation = rtt/2.0;
+        }
+        else
+        {
+            m_rttVariation += (Math.abs(m_smoothedRTT - rtt) - m_rttVariation)/4.0;
+            m_smoothedRTT  += (rtt - m_smoothedRTT)/8.0;
+            m_jitter       += (Math.abs(rtt - m_lastRTT) - m_jitter)/16.0;
+        }
+
+        if(m_nbSamples > 0 && sequence != m_lastSequence+1)
+            m_nbLost += Math.max(0, sequence - m_lastSequence - 1);
+        m_lastSequence = Math.max(m_lastSequence, sequence);
+
+        m_lastRTT = rtt;
+        m_minRTT  = Math.min(m_minRTT, rtt);
+        m_nbSamples++;
+    }
+
+    /** Get the number of RTT samples
+     * @return the number of samples*/
+    public synchronized long getNbSamples() {return m_nbSamples;}
+
+    /** Get the number of pings not answered before a newer one
+     * @return the number of lost pings*/
+    public synchronized long getNbLost() {return m_nbLost;}
+
+    /** Get the last RTT sample
+     * @return the last RTT, in nanoseconds. 0 if no sample was added*/
+    public synchronized long getLastRTT() {return m_lastRTT;}
+
+    /** Get the minimum RTT sample
+     * @return the minimum RTT, in nanoseconds. 0 if no sample was added*/
+    public synchronized long getMinRTT() {return m_nbSamples == 0 ? 0 : m_minRTT;}
+
+    /** Get the smoothed RTT
+     * @return the smoothed RTT, in nanoseconds. 0 if no sample was added*/
+    public synchronized long getSmoothedRTT() {return (long)m_smoothedRTT;}
+
+    /** Get the smoothed variation of the RTT
+     * @return the mean deviation of the RTT from the smoothed RTT, in nanoseconds*/
+    public synchronized long getRTTVariation() {return (long)m_rttVariation;}
+
+    /** Get the jitter
+     * @return the mean deviation between consecutive RTT samples, in nanoseconds*/
+    public synchronized long getJitter() {return (long)m_jitter;}
+
+    /** Reset the estimate (e.g., after a reconnection to another server)*/
+    public synchronized void reset()
+    {
+        m_nbSamples    = 0;
+        m_nbLost       = 0;
+        m_lastSequence = -1;
+        m_lastRTT      = 0;
+        m_minRTT       = Long.MAX_VALUE;
+        m_smoothedRTT  = 0;
+        m_rttVariation = 0;
+        m_jitter       = 0;
+    }
+}
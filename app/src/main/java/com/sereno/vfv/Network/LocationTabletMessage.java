@@ -1,36 +1,13 @@
 package com.sereno.vfv.Network;
 
-public class LocationTabletMessage extends ServerMessage{
-
-    /** The new position to apply*/
-    private float[] m_position = new float[3];
-    /** The new rotation to apply*/
-    private float[] m_rotation = new float[4];
-
-
-    @Override
-    public byte getCurrentType()
-    {
-        return 'f';
-    }
-
-    @Override
-    public void pushValue(float val)
-    {
-        if(cursor < 3)
-            m_position[cursor] = val;
-        else
-            m_rotation[cursor-3] = val;
-        super.pushValue(val);
-    }
-
+public class LocationTabletMessage extends LocationTabletMessageFields
+{
     @Override
-    public int getMaxCursor()
+    long getConflationKey()
     {
-        return 6;
+        return conflationKey(type, 0, 0);
     }
 
-
     /** The position parsed.
      * @return the Vector3 position parsed*/
     public float[] getPosition()
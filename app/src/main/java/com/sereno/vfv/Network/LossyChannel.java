@@ -0,0 +1,372 @@
+package com.sereno.vfv.Network;
+
+import android.util.Log;
+
+import com.sereno.vfv.MainActivity;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Datagram (UDP) side-channel for the continuous streams where only the newest sample matters:
+ * the tablet location and scale it sends, and the tablet locations and headsets status it receives.
+ * Unlike TCP, a lost datagram is never retransmitted: it does not delay the next samples on a congested Wi-Fi.
+ *
+ * The channel is negotiated on the control connection (see SocketManager.setDatagramEnabled): the tablet sends OPEN_DATAGRAM_CHANNEL
+ * after IDENT_TABLET, and the server answers with its datagram port and a token identifying the tablet (see DatagramChannelMessage).
+ * The tablet then sends hello datagrams periodically, which the server acknowledges. The channel is used only once a datagram from the server
+ * has been received, and until the server stays silent for TIMEOUT: the streams go over TCP otherwise.
+ *
+ * Datagrams sent: int token, int sequence, then one event (short type + payload), or nothing for a hello.
+ * Datagrams received: int sequence, then one message (short type + payload), or nothing for an acknowledgement.
+ * A received message older (by sequence) than the last one of the same type is dropped.
+ *
+ * Like BulkChannel, this channel uses one receiving thread and one sending thread*/
+class LossyChannel
+{
+    /** The maximum size of a datagram sent, in bytes. Below the usual Wi-Fi MTU: larger messages should go over TCP*/
+    static final int MAX_DATAGRAM_SIZE = 1400;
+
+    /** The size of the receiving buffer: the largest UDP payload*/
+    private static final int RECEIVE_BUFFER_SIZE = 65536;
+
+    /** The period of the hello datagrams, in milliseconds*/
+    static final int HELLO_PERIOD = 250;
+
+    /** After how many milliseconds without datagram from the server the channel is not used anymore*/
+    static final int TIMEOUT = 4*HELLO_PERIOD;
+
+    /** The slots of the events sent: only the newest event of each type is kept until sent*/
+    private static final short[] SLOT_TYPES = {SocketManager.LOCATION, SocketManager.TABLETSCALE};
+
+    /** The size of the events of each slot, type included*/
+    private static final int[] SLOT_SIZES = {2+7*4, 2+5*4};
+
+    /** The datagram socket*/
+    private final DatagramSocket m_socket;
+
+    /** The message buffer parsing the received messages*/
+    private final MessageBuffer m_msgBuffer;
+
+    /** The server datagram address. null if not negotiated*/
+    private volatile InetSocketAddress m_target = null;
+
+    /** The token identifying the tablet to the server*/
+    private volatile int m_token = 0;
+
+    /** The time (System.nanoTime) the last datagram from the server was received. 0 if none since the negotiation*/
+    private volatile long m_lastReceivedTime = 0;
+
+    /** The newest events not sent yet, per slot (see SLOT_TYPES)*/
+    private final ByteBuffer[] m_slots = new ByteBuffer[SLOT_TYPES.length];
+
+    /** Is the event of a slot waiting to be sent?*/
+    private final boolean[] m_pending = new boolean[SLOT_TYPES.length];
+
+    /** The sequence number of the next datagram sent. Only used by the sending thread*/
+    private int m_sequence = 1;
+
+    /** The sequence number of the last message received, per type. Only used by the receiving thread*/
+    private final int[] m_lastSequences = new int[NetworkMetrics.NB_TYPES];
+
+    /** Has a message been received, per type? Only used by the receiving thread*/
+    private final boolean[] m_hasReceived = new boolean[NetworkMetrics.NB_TYPES];
+
+    /** Should m_lastSequences be reset? (e.g., the channel was negotiated again: the server may restart its sequence numbers)*/
+    private volatile boolean m_resetSequences = false;
+
+    /** The payload of the message being parsed. Only used by the receiving thread*/
+    private final byte[] m_payload = new byte[RECEIVE_BUFFER_SIZE];
+
+    /** Number of messages received and not stale, counted before being dispatched*/
+    private volatile long m_nbReceived = 0;
+
+    /** Number of messages received and dropped because older than the last one of their type*/
+    private volatile long m_nbStale = 0;
+
+    /** Number of events sent*/
+    private volatile long m_nbSent = 0;
+
+    /** The metrics to fill. null if no metrics are recorded*/
+    private volatile NetworkMetrics m_metrics = null;
+
+    /** Is the channel closed?*/
+    private volatile boolean m_isClosed = false;
+
+    /** The receiving thread*/
+    private Thread m_receiveThread;
+
+    /** The sending thread*/
+    private Thread m_sendThread;
+
+    /** Runnable receiving the datagrams*/
+    private Runnable m_receiveThreadRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            byte[] buf = new byte[RECEIVE_BUFFER_SIZE];
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+
+            while(!m_isClosed)
+            {
+                try
+                {
+                    packet.setLength(buf.length);
+                    m_socket.receive(packet);
+
+                    //Ignore anything not coming from the server
+                    InetSocketAddress target = m_target;
+                    if(target == null || !target.getAddress().equals(packet.getAddress()) || target.getPort() != packet.getPort())
+                        continue;
+                    onDatagram(buf, packet.getLength());
+                }
+                catch(IOException e)
+                {
+                    if(!m_isClosed)
+                        Log.e(MainActivity.TAG, "Could not receive a datagram: " + e.toString());
+                }
+            }
+        }
+    };
+
+    /** Runnable sending the newest events, and the hello datagrams*/
+    private Runnable m_sendThreadRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            byte[] buf = new byte[MAX_DATAGRAM_SIZE];
+            ByteBuffer header = ByteBuffer.wrap(buf);
+            header.order(ByteOrder.BIG_ENDIAN);
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            long lastHelloTime = 0;
+
+            while(!m_isClosed)
+            {
+                //Wait for an event, or for the next hello
+                int slot = -1;
+                int size = 8;
+                synchronized(LossyChannel.this)
+                {
+                    while(!m_isClosed)
+                    {
+                        //The hellos keep the channel alive even while events are streamed
+                        if(m_target != null && System.nanoTime() - lastHelloTime >= HELLO_PERIOD*1000000L)
+                            break;
+                        for(int i = 0; i < SLOT_TYPES.length && slot < 0; i++)
+                            if(m_pending[i])
+                                slot = i;
+                        if(slot >= 0)
+                            break;
+                        try {LossyChannel.this.wait(HELLO_PERIOD);} catch(InterruptedException e) {}
+                    }
+
+                    if(slot >= 0)
+                    {
+                        m_pending[slot] = false;
+                        System.arraycopy(m_slots[slot].array(), 0, buf, 8, SLOT_SIZES[slot]);
+                        size += SLOT_SIZES[slot];
+                    }
+                }
+
+                InetSocketAddress target = m_target;
+                if(m_isClosed || target == null)
+                    continue;
+
+                header.putInt(0, m_token);
+                header.putInt(4, m_sequence++);
+                packet.setData(buf, 0, size);
+                packet.setSocketAddress(target);
+                try
+                {
+                    m_socket.send(packet);
+                    if(slot < 0)
+                        lastHelloTime = System.nanoTime();
+                    else
+                    {
+                        m_nbSent++;
+                        NetworkMetrics metrics = m_metrics;
+                        if(metrics != null)
+                            metrics.onMessageSent(SLOT_TYPES[slot], SLOT_SIZES[slot]);
+                    }
+                }
+                catch(IOException e)
+                {
+                    Log.e(MainActivity.TAG, "Could not send a datagram, falling back to TCP: " + e.toString());
+                    close();
+                }
+            }
+        }
+    };
+
+    /** Constructor. Open a datagram socket on any port and start the threads
+     * @param dispatcher the message buffer of the control connection, whose handlers are called for the messages received on this channel*/
+    LossyChannel(MessageBuffer dispatcher) throws SocketException
+    {
+        m_socket    = new DatagramSocket();
+        m_msgBuffer = new MessageBuffer(dispatcher);
+        for(int i = 0; i < SLOT_TYPES.length; i++)
+        {
+            m_slots[i] = ByteBuffer.allocate(SLOT_SIZES[i]);
+            m_slots[i].order(ByteOrder.BIG_ENDIAN);
+        }
+
+        m_receiveThread = new Thread(m_receiveThreadRunnable);
+        m_receiveThread.start();
+
+        m_sendThread = new Thread(m_sendThreadRunnable);
+        m_sendThread.start();
+    }
+
+    /** Start using the datagram address of the server, as negotiated on the control connection
+     * @param target the server datagram address
+     * @param token the token identifying the tablet to the server*/
+    synchronized void open(InetSocketAddress target, int token)
+    {
+        m_token            = token;
+        m_lastReceivedTime = 0;
+        m_resetSequences   = true;
+        m_target           = target;
+        notify();
+    }
+
+    /** Stop using the server address (e.g., the control connection was lost). The streams go over TCP until the next negotiation*/
+    synchronized void close()
+    {
+        m_target = null;
+        for(int i = 0; i < m_pending.length; i++)
+            m_pending[i] = false;
+    }
+
+    /** Stop the channel and wait for its threads to finish*/
+    void stop()
+    {
+        m_isClosed = true;
+        close();
+        m_socket.close();
+        synchronized(this)
+        {
+            notify();
+        }
+        try{m_sendThread.join();} catch (Exception e){}
+        try{m_receiveThread.join();} catch (Exception e){}
+    }
+
+    /** Is the channel usable? It is once negotiated and as long as the server answers
+     * @return true if the streams should go through this channel, false if they should go over TCP*/
+    boolean isOpen()
+    {
+        long lastReceivedTime = m_lastReceivedTime;
+        return m_target != null && lastReceivedTime != 0 && System.nanoTime() - lastReceivedTime < TIMEOUT*1000000L;
+    }
+
+    /** Set the metrics to fill with the messages received and the events sent
+     * @param metrics the metrics. null to record nothing*/
+    void setMetrics(NetworkMetrics metrics)
+    {
+        m_metrics = metrics;
+        m_msgBuffer.setMetrics(metrics);
+    }
+
+    /** Send a location event (see SocketManager.createLocationEvent), replacing the one not sent yet, if any
+     * @param pos the tablet position
+     * @param rot the tablet rotation
+     * @return true if the event will be sent on this channel, false if the channel is not open and the event has to go over TCP*/
+    synchronized boolean pushLocation(float[] pos, float[] rot)
+    {
+        if(!isOpen())
+            return false;
+
+        ByteBuffer slot = m_slots[0];
+        slot.clear();
+        slot.putShort(SocketManager.LOCATION);
+        for(int i = 0; i < 3; i++)
+            slot.putFloat(pos[i]);
+        for(int i = 0; i < 4; i++)
+            slot.putFloat(rot[i]);
+        m_pending[0] = true;
+        notify();
+        return true;
+    }
+
+    /** Send a tablet scale event (see SocketManager.createTabletScaleEvent), replacing the one not sent yet, if any
+     * @return true if the event will be sent on this channel, false if the channel is not open and the event has to go over TCP*/
+    synchronized boolean pushTabletScale(float scale, float width, float height, float posx, float posy)
+    {
+        if(!isOpen())
+            return false;
+
+        ByteBuffer slot = m_slots[1];
+        slot.clear();
+        slot.putShort(SocketManager.TABLETSCALE).putFloat(scale).putFloat(width).putFloat(height).putFloat(posx).putFloat(posy);
+        m_pending[1] = true;
+        notify();
+        return true;
+    }
+
+    /** Can a message type be received on this channel?
+     * @param type the message type (see MessageBuffer)
+     * @return true if yes, false otherwise*/
+    static boolean isAccepted(int type)
+    {
+        return type == MessageBuffer.GET_LOCATION_TABLET || type == MessageBuffer.GET_HEADSETS_STATUS;
+    }
+
+    /** Handle a datagram received from the server. Only called by the receiving thread
+     * @param data the datagram data
+     * @param length the datagram length*/
+    void onDatagram(byte[] data, int length)
+    {
+        if(length < 4)
+            return;
+        m_lastReceivedTime = System.nanoTime();
+        if(length < 6) //Acknowledgement of a hello
+            return;
+
+        if(m_resetSequences)
+        {
+            m_resetSequences = false;
+            for(int i = 0; i < m_hasReceived.length; i++)
+                m_hasReceived[i] = false;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        int sequence = buf.getInt();
+        int type     = buf.getShort();
+        if(!isAccepted(type))
+            return;
+
+        //Drop the messages older than the last one applied (sequence numbers may wrap around)
+        if(m_hasReceived[type] && sequence - m_lastSequences[type] <= 0)
+        {
+            m_nbStale++;
+            return;
+        }
+        m_hasReceived[type]   = true;
+        m_lastSequences[type] = sequence;
+        m_nbReceived++;
+
+        //One complete message per datagram: a truncated one must not be completed by the next datagram
+        System.arraycopy(data, 4, m_payload, 0, length-4);
+        m_msgBuffer.reset();
+        m_msgBuffer.push(m_payload, length-4);
+    }
+
+    /** Get the number of messages received and not stale, counted before being dispatched
+     * @return the number of messages*/
+    long getNbReceived() {return m_nbReceived;}
+
+    /** Get the number of messages dropped because older than the last one of their type
+     * @return the number of stale messages*/
+    long getNbStale() {return m_nbStale;}
+
+    /** Get the number of events sent
+     * @return the number of events*/
+    long getNbSent() {return m_nbSent;}
+}
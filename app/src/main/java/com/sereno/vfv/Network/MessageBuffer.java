@@ -2,58 +2,46 @@ package com.sereno.vfv.Network;
 
 import android.util.Log;
 
-import com.sereno.vfv.Data.CloudPointDataset;
 import com.sereno.vfv.MainActivity;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /** Message Buffer class. Permits to parse the incoming server data correctly
  * Format : 2byte -> typeOfMessage then follows (depending on the message) 4 bytes for int/float,
  *          2 bytes for short and/or 4 bytes + n bytes for String (n depending on the first 4 bytes received)*/
 public class MessageBuffer
 {
-    /** A valid read*/
-    private class ReadValue
+    /** The read cursor. A single instance is reused by every read* method (see m_readCursor),
+     * so that decoding a primitive does not allocate any object. It is only valid until the next read* call.*/
+    private static class ReadCursor
     {
         /** Is the value valid?*/
         boolean valid = false;
         /** The new buffer offset to apply*/
         int     bufOff = 0;
+        /** The Int16 value read*/
+        short   int16Value;
+        /** The Int32 value read*/
+        int     int32Value;
+        /** The float value read*/
+        float   floatValue;
+        /** The String value read*/
+        String  stringValue;
+        /** The byte array value read*/
+        byte[]  byteArrayValue;
+        /** The direct byte array value read*/
+        ByteBuffer directArrayValue;
     }
 
-    /** The Int16 value read*/
-    private class ReadInt16 extends ReadValue
+    /** Handler interface subscribing to one message type only (see addHandler)
+     * @param <T> the ServerMessage subclass of the message type being handled*/
+    public interface IMessageHandler<T extends ServerMessage>
     {
-        /** The value*/
-        short value;
-    }
-
-    /** The Int32 value read*/
-    private class ReadInt32 extends ReadValue
-    {
-        /** The value*/
-        int value;
-    }
-
-    /** The float value read*/
-    private class ReadFloat extends ReadValue
-    {
-        /** The value*/
-        float value;
-    }
-
-    /** The String value read*/
-    private class ReadString extends ReadValue
-    {
-        /** The value*/
-        String  value;
-    }
-
-    /** The byte array value read*/
-    private class ReadByteArray extends ReadValue
-    {
-        /** The value*/
-        byte[] value;
+        /** Called when a message of the subscribed type has been successfully parsed
+         * @param msg the message parsed*/
+        void onMessage(T msg);
     }
 
     /** Callback interface used when new message has been successfully parsed*/
@@ -253,6 +241,32 @@ public class MessageBuffer
     public static final int REMOVE_SUBDATASET_GROUP           = 38;
     public static final int RENAME_SUBDATASET                 = 39;
 
+    /** Answer to a ping of the tablet (see SocketManager.PING)*/
+    public static final int GET_PONG                          = 40;
+
+    /** End of the answer to a resynchronization digest, listing what the tablet has to remove (see SocketManager.RESYNC_DIGEST)*/
+    public static final int GET_RESYNC_DONE                   = 41;
+
+    /** Answer to the opening of the datagram channel (see SocketManager.OPEN_DATAGRAM_CHANNEL)*/
+    public static final int GET_DATAGRAM_CHANNEL              = 42;
+
+    /** Annotation strokes drawn on another device, streamed while they are drawn (see AnnotationStrokeMessage)*/
+    public static final int GET_ANNOTATION_STROKE_BEGIN       = 43;
+    public static final int GET_ANNOTATION_STROKE_POINTS      = 44;
+    public static final int GET_ANNOTATION_STROKE_END         = 45;
+
+    /** Changes of a transfer function, applying to a given version of it (see TFDiffMessage)*/
+    public static final int GET_TF_DIFF                       = 46;
+
+    /** Answer to the negotiation of the compact poses (see SocketManager.ENABLE_COMPACT_POSE)*/
+    public static final int GET_COMPACT_POSE                  = 47;
+
+    /** Headsets status, compact and delta-encoded (see HeadsetsStatusDecoder). Parsed as a HeadsetsStatusMessage*/
+    public static final int GET_HEADSETS_STATUS_COMPACT       = 48;
+
+    /** Volumetric mask, run-length encoded (see VolumetricMaskRuns). Parsed as a SubDatasetVolumetricMaskRunsMessage*/
+    public static final int GET_VOLUMETRIC_MASK_RUNS          = 49;
+
     /** The current message being parsed*/
     private ServerMessage m_curMsg = null;
 
@@ -262,25 +276,152 @@ public class MessageBuffer
     /** The buffer*/
     private byte[] m_data = new byte[4];
 
-    /** Special string buffer for strings*/
-    private StringBuilder m_stringBuf  = null;
+    /** The UTF-8 bytes of the string being parsed, when split over several push calls. Reused between strings*/
+    private byte[] m_stringBytes = new byte[64];
+
+    /** The number of bytes of the current string already read*/
+    private int m_stringPos = 0;
 
-    /** The total amount of size for the current string buffer being used*/
+    /** The total amount of size (in bytes) for the current string being read*/
     private int m_stringSize = -1;
 
+    /** The cache of the strings frequently received. Can be null*/
+    private StringCache m_stringCache = new StringCache();
+
     /** The current byte array being parsed*/
     private byte[] m_byteArray = null;
 
-    private ArrayList<IMessageBufferCallback> m_listeners = new ArrayList<>();
+    /** The current direct byte array being parsed*/
+    private ByteBuffer m_directArray = null;
+
+    /** The pool providing the direct buffers of 'A' values*/
+    private DirectBufferPool m_bufferPool = new DirectBufferPool();
+
+    /** The read cursor filled by every read* method*/
+    private final ReadCursor m_readCursor = new ReadCursor();
+
+    /** The registry creating and dispatching the messages*/
+    private MessageRegistry m_registry;
+
+    /** The metrics recording the parsed messages. null if not recorded*/
+    private volatile NetworkMetrics m_metrics = null;
+
+    /** The metrics in use during the current push*/
+    private NetworkMetrics m_pushMetrics = null;
+
+    /** The number of bytes of the message being parsed received in the previous pushes*/
+    private int m_msgBytes = 0;
+
+    /** The offset, in the pushed buffer, of the first byte of the message being parsed (or 0 if it started in a previous push)*/
+    private int m_msgOffset = 0;
+
+    /** The time spent decoding the message being parsed in the previous pushes, in nanoseconds*/
+    private long m_msgDecodeTime = 0;
+
+    /** The time (System.nanoTime) at which the decoding of the message being parsed started or resumed*/
+    private long m_msgDecodeStart = 0;
+
+    /** The buffer whose handlers are called for the parsed messages. this, unless this buffer parses a second stream (see MessageBuffer(MessageBuffer))*/
+    private final MessageBuffer m_dispatcher;
+
+    /** The handlers to call per message type. This table is copied on write, so that the reading thread
+     * can dispatch without locking while the listeners are modified from another thread*/
+    private volatile TypedHandler[][] m_handlers;
+
+    /** A handler added for one message type (see addHandler)*/
+    static final class TypedHandler
+    {
+        /** The handler to call*/
+        final IMessageHandler<? extends ServerMessage> handler;
+
+        TypedHandler(IMessageHandler<? extends ServerMessage> handler)
+        {
+            this.handler = handler;
+        }
+
+        /** Call the handler
+         * @param msg the message parsed, of the type the handler was added for*/
+        @SuppressWarnings("unchecked") //The registry creates the messages of this type: msg is an instance of the handler type
+        void onMessage(ServerMessage msg)
+        {
+            ((IMessageHandler<ServerMessage>)handler).onMessage(msg);
+        }
+    }
+
+    /** Handler calling the typed method of an IMessageBufferCallback*/
+    private static class CallbackHandler implements IMessageHandler<ServerMessage>
+    {
+        /** The registry dispatching the messages*/
+        final MessageRegistry registry;
+
+        /** The callback to call*/
+        final IMessageBufferCallback clbk;
+
+        CallbackHandler(MessageRegistry registry, IMessageBufferCallback clbk)
+        {
+            this.registry = registry;
+            this.clbk     = clbk;
+        }
+
+        @Override
+        public void onMessage(ServerMessage msg)
+        {
+            registry.dispatch(msg, clbk);
+        }
+    }
 
     /**Constructor, initialize every variable to default*/
     public MessageBuffer()
-    {}
+    {
+        this(new MessageRegistry());
+    }
+
+    /**Constructor
+     * @param registry the registry describing the messages this buffer can parse*/
+    public MessageBuffer(MessageRegistry registry)
+    {
+        m_registry   = registry;
+        m_handlers   = new TypedHandler[registry.getTableSize()][0];
+        m_dispatcher = this;
+    }
+
+    /**Constructor of a buffer parsing a second stream of the same server (e.g., the bulk channel of SocketManager).
+     * It has its own parsing state, but the parsed messages are dispatched to the handlers of dispatcher,
+     * and the direct buffers come from the pool of dispatcher. Handlers and listeners have to be added to dispatcher
+     * @param dispatcher the buffer whose handlers are called*/
+    public MessageBuffer(MessageBuffer dispatcher)
+    {
+        m_registry   = dispatcher.m_registry;
+        m_handlers   = new TypedHandler[0][0];
+        m_dispatcher = dispatcher;
+        m_bufferPool = dispatcher.m_bufferPool;
+    }
 
     /**Push values present in the buffer
      * @param buffer  the buffer to read
      * @param readSize the size of the buffer*/
     public void push(byte[] buffer, int readSize)
+    {
+        m_pushMetrics = m_metrics;
+        if(m_pushMetrics == null)
+        {
+            parse(buffer, readSize);
+            return;
+        }
+
+        m_msgOffset      = 0;
+        m_msgDecodeStart = System.nanoTime();
+        parse(buffer, readSize);
+
+        //The rest of the buffer belongs to the next message
+        m_msgBytes      += readSize - m_msgOffset;
+        m_msgDecodeTime += System.nanoTime() - m_msgDecodeStart;
+    }
+
+    /**Parse values present in the buffer
+     * @param buffer  the buffer to read
+     * @param readSize the size of the buffer*/
+    private void parse(byte[] buffer, int readSize)
     {
         int bufPos = 0;
         while(bufPos < readSize)
@@ -288,11 +429,22 @@ public class MessageBuffer
             //If no current message -> fetch the next message type
             if(m_curMsg == null)
             {
-                ReadInt16 val = readInt16(buffer, bufPos, readSize);
+                ReadCursor val = readInt16(buffer, bufPos, readSize);
                 bufPos = val.bufOff;
                 if(!val.valid)
                     return;
-                allocateNewMessage(val.value);
+                allocateNewMessage(val.int16Value);
+
+                //Fixed-size message entirely in the buffer: decode it at once
+                if(m_curMsg != null)
+                {
+                    int fixedSize = m_curMsg.getFixedSize();
+                    if(fixedSize >= 0 && readSize - bufPos >= fixedSize)
+                    {
+                        m_curMsg.decodeFixed(buffer, bufPos);
+                        bufPos += fixedSize;
+                    }
+                }
             }
 
             if(m_curMsg == null)
@@ -305,49 +457,59 @@ public class MessageBuffer
                 {
                     case 's':
                     {
-                        ReadString val = readString(buffer, bufPos, readSize);
+                        ReadCursor val = readString(buffer, bufPos, readSize);
                         bufPos = val.bufOff;
                         if (!val.valid)
                             return;
-                        m_curMsg.pushValue(val.value);
+                        m_curMsg.pushValue(val.stringValue);
                         break;
                     }
 
                     case 'a':
                     {
-                        ReadByteArray val = readByteArray(buffer, bufPos, readSize);
+                        ReadCursor val = readByteArray(buffer, bufPos, readSize);
                         bufPos = val.bufOff;
                         if(!val.valid)
                             return;
-                        m_curMsg.pushValue(val.value);
+                        m_curMsg.pushValue(val.byteArrayValue);
+                        break;
+                    }
+
+                    case 'A':
+                    {
+                        ReadCursor val = readDirectByteArray(buffer, bufPos, readSize);
+                        bufPos = val.bufOff;
+                        if(!val.valid)
+                            return;
+                        m_curMsg.pushValue(val.directArrayValue);
                         break;
                     }
 
                     case 'i':
                     {
-                        ReadInt16 val = readInt16(buffer, bufPos, readSize);
+                        ReadCursor val = readInt16(buffer, bufPos, readSize);
                         bufPos = val.bufOff;
                         if(!val.valid)
                             return;
-                        m_curMsg.pushValue(val.value);
+                        m_curMsg.pushValue(val.int16Value);
                         break;
                     }
                     case 'I':
                     {
-                        ReadInt32 val = readInt32(buffer, bufPos, readSize);
+                        ReadCursor val = readInt32(buffer, bufPos, readSize);
                         bufPos = val.bufOff;
                         if(!val.valid)
                             return;
-                        m_curMsg.pushValue(val.value);
+                        m_curMsg.pushValue(val.int32Value);
                         break;
                     }
                     case 'f':
                     {
-                        ReadFloat val = readFloat(buffer, bufPos, readSize);
+                        ReadCursor val = readFloat(buffer, bufPos, readSize);
                         bufPos = val.bufOff;
                         if(!val.valid)
                             return;
-                        m_curMsg.pushValue(val.value);
+                        m_curMsg.pushValue(val.floatValue);
                         break;
                     }
                     case 'b':
@@ -365,130 +527,24 @@ public class MessageBuffer
             if(m_curMsg != null && m_curMsg.cursor > m_curMsg.getMaxCursor())
             {
                 //When the message is finished, send it
-                switch (m_curMsg.getType()) {
-                    case GET_ADD_VTK_DATASET:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onAddVTKDatasetMessage((AddVTKDatasetMessage) m_curMsg);
-                        break;
-                    case GET_ROTATE_DATASET:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onRotateDatasetMessage((RotateDatasetMessage) m_curMsg);
-                        break;
-                    case GET_MOVE_DATASET:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onMoveDatasetMessage((MoveDatasetMessage) m_curMsg);
-                        break;
-                    case GET_HEADSET_BINDING_INFO:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onHeadsetBindingInfoMessage((HeadsetBindingInfoMessage) m_curMsg);
-                        break;
-                    case GET_HEADSETS_STATUS:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onHeadsetsStatusMessage((HeadsetsStatusMessage) m_curMsg);
-                        break;
-                    case GET_SUBDATASET_LOCK_OWNER:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onSubDatasetLockOwnerMessage((SubDatasetLockOwnerMessage) m_curMsg);
-                        break;
-                    case GET_SCALE_DATASET:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onScaleDatasetMessage((ScaleDatasetMessage) m_curMsg);
-                        break;
-                    case GET_TF_DATASET:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onTFDatasetMessage((TFDatasetMessage)m_curMsg);
-                        break;
-                    case GET_ANCHOR_ANNOTATION:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onAnchorAnnotation((AnchorAnnotationMessage) m_curMsg);
-                        break;
-                    case GET_CLEAR_ANNOTATIONS:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onClearAnnotations((ClearAnnotationsMessage) m_curMsg);
-                        break;
-                    case GET_ADD_SUBDATASET:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onAddSubDataset((AddSubDatasetMessage)m_curMsg);
-                        break;
-                    case GET_DEL_SUBDATASET:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onRemoveSubDataset((RemoveSubDatasetMessage)m_curMsg);
-                        break;
-                    case GET_SET_SUBDATASET_OWNER:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onSubDatasetOwnerMessage((SubDatasetOwnerMessage)m_curMsg);
-                        break;
-                    case GET_LOCATION_TABLET:
-                        for (IMessageBufferCallback clbk : m_listeners)
-                            clbk.onLocationTabletMessage((LocationTabletMessage)m_curMsg);
-                        break;
-                    case GET_ADD_CLOUD_POINT_DATASET:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onAddCloudPointDatasetMessage((AddCloudPointDatasetMessage)m_curMsg);
-                        break;
-                    case GET_TOGGLE_MAP_VISIBILITY:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onToggleMapVisibilityMessage((ToggleMapVisibilityMessage) m_curMsg);
-                        break;
-                    case GET_RESET_VOLUMETRIC_SELECTION:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onResetVolumetricSelectionMessage((ResetVolumetricSelectionMessage) m_curMsg);
-                        break;
-                    case GET_VOLUMETRIC_MASK:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onSubDatasetVolumetricMaskMessage((SubDatasetVolumetricMaskMessage) m_curMsg);
-                        break;
-                    case ADD_LOG_DATA:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onOpenLogDataMessage((OpenLogDataMessage) m_curMsg);
-                        break;
-                    case ADD_ANNOTATION_POSITION:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onAddAnnotationPositionMessage((AddAnnotationPositionMessage)m_curMsg);
-                        break;
-                    case SET_ANNOTATION_POSITION_INDEXES:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onSetAnnotationPositionIndexes((SetAnnotationPositionIndexes) m_curMsg);
-                        break;
-                    case ADD_ANNOTATION_POSITION_TO_SD:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onAddAnnotationPositionToSD((AddAnnotationPositionToSDMessage)m_curMsg);
-                        break;
-                    case SET_SUBDATASET_CLIPPING:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onSetSubDatasetClipping((SetSubDatasetClippingMessage)m_curMsg);
-                        break;
-                    case SET_DRAWABLE_ANNOTATION_POSITION_COLOR:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onSetDrawableAnnotationPositionColor((SetDrawableAnnotationPositionColor)m_curMsg);
-                        break;
-                    case SET_DRAWABLE_ANNOTATION_POSITION_IDX:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onSetDrawableAnnotationPositionIdx((SetDrawableAnnotationPositionIdx)m_curMsg);
-                        break;
-                    case ADD_SUBJECTIVE_VIEW_GROUP:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onAddSubjectiveViewGroup((AddSubjectiveViewGroupMessage)m_curMsg);
-                        break;
-                    case ADD_SD_TO_SV_STACKED_LINKED_GROUP:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onAddSubDatasetToSubjectiveViewStackedGroup((AddSubDatasetToSubjectiveViewStackedGroupMessage)m_curMsg);
-                        break;
-                    case SET_SV_STACKED_GLOBAL_PARAMETERS:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onSetSubjectiveViewStackedParameters((SubjectiveViewStackedGroupGlobalParametersMessage)m_curMsg);
-                        break;
-                    case REMOVE_SUBDATASET_GROUP:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onRemoveSubDatasetGroup((RemoveSubDatasetGroupMessage)m_curMsg);
-                        break;
-                    case RENAME_SUBDATASET:
-                        for(IMessageBufferCallback clbk : m_listeners)
-                            clbk.onRenameSubDataset((RenameSubDatasetMessage)m_curMsg);
-                        break;
-                    default:
-                        Log.e(MainActivity.TAG, "Unknown type " + m_curMsg.getCurrentType() + ". No more data can be read without errors...");
-                        break;
+                long dispatchStart = (m_pushMetrics == null ? 0 : System.nanoTime());
+                TypedHandler[][] handlers = m_dispatcher.m_handlers;
+                if(m_curMsg.getType() < handlers.length)
+                {
+                    TypedHandler[] typeHandlers = handlers[m_curMsg.getType()];
+                    for(int i = 0; i < typeHandlers.length; i++)
+                        typeHandlers[i].onMessage(m_curMsg);
+                }
+
+                if(m_pushMetrics != null)
+                {
+                    long dispatchEnd = System.nanoTime();
+                    m_pushMetrics.onMessageReceived(m_curMsg.getType(), m_msgBytes + bufPos - m_msgOffset,
+                                                    m_msgDecodeTime + dispatchStart - m_msgDecodeStart, dispatchEnd - dispatchStart);
+                    m_msgBytes       = 0;
+                    m_msgOffset      = bufPos;
+                    m_msgDecodeTime  = 0;
+                    m_msgDecodeStart = dispatchEnd;
                 }
 
                 m_curMsg = null;
@@ -496,121 +552,166 @@ public class MessageBuffer
         }
     }
 
-    /**Add a new listener callback
+    /**Set the metrics recording the parsed messages (see NetworkMetrics)
+     * @param metrics the metrics to use. null to stop recording*/
+    public void setMetrics(NetworkMetrics metrics)
+    {
+        m_metrics = metrics;
+    }
+
+    /**Get the metrics recording the parsed messages
+     * @return the metrics in use, or null if the messages are not recorded*/
+    public NetworkMetrics getMetrics()
+    {
+        return m_metrics;
+    }
+
+    /**Drop the message being parsed, if any (e.g., the connection was lost in the middle of it).
+     * The next pushed byte is read as the start of a new message*/
+    public void reset()
+    {
+        if(m_directArray != null)
+            m_bufferPool.release(m_directArray);
+        m_curMsg      = null;
+        m_dataPos     = 0;
+        m_stringSize  = -1;
+        m_stringPos   = 0;
+        m_byteArray   = null;
+        m_directArray = null;
+        m_msgBytes      = 0;
+        m_msgDecodeTime = 0;
+    }
+
+    /**Get the registry describing the messages this buffer can parse
+     * @return the message registry*/
+    public MessageRegistry getRegistry()
+    {
+        return m_registry;
+    }
+
+    /** Get the pool providing the direct buffers of the messages reading large byte arrays (e.g., SubDatasetVolumetricMaskMessage).
+     * Those buffers should be released to this pool once consumed
+     * @return the pool of direct buffers*/
+    public DirectBufferPool getDirectBufferPool()
+    {
+        return m_bufferPool;
+    }
+
+    /** Set the cache used to decode the strings frequently received. This method should not be called while data is being pushed
+     * @param cache the new string cache. null to decode every string*/
+    public void setStringCache(StringCache cache)
+    {
+        m_stringCache = cache;
+    }
+
+    /** Get the cache used to decode the strings frequently received
+     * @return the string cache, or null if strings are not cached*/
+    public StringCache getStringCache()
+    {
+        return m_stringCache;
+    }
+
+    /**Add a new listener callback, called for every message type registered
      * @param lst the new callback to call when new message as been parsed*/
     public void addListener(IMessageBufferCallback lst)
     {
-        m_listeners.add(lst);
+        for(int type = 0; type < m_registry.getTableSize(); type++)
+            if(m_registry.get(type) != null)
+                addListener(lst, type);
+    }
+
+    /**Add a new listener callback, called only for the given message types
+     * @param lst the new callback to call when new message as been parsed
+     * @param types the message types (see GET_*) lst is interested in*/
+    public void addListener(IMessageBufferCallback lst, int... types)
+    {
+        for(int type : types)
+        {
+            if(m_registry.get(type) == null)
+            {
+                Log.e(MainActivity.TAG, "Cannot listen to the unknown type " + type);
+                continue;
+            }
+            addHandler(type, new CallbackHandler(m_registry, lst));
+        }
     }
 
     /**Add remove an already known listener callback
      * @param lst the listener callback to remove*/
-    public void removeListener(IMessageBufferCallback lst)
+    public synchronized void removeListener(IMessageBufferCallback lst)
+    {
+        TypedHandler[][] handlers = m_handlers.clone();
+        for(int type = 0; type < handlers.length; type++)
+        {
+            int nbKept = 0;
+            TypedHandler[] kept = new TypedHandler[handlers[type].length];
+            for(TypedHandler h : handlers[type])
+                if(!(h.handler instanceof CallbackHandler) || ((CallbackHandler)h.handler).clbk != lst)
+                    kept[nbKept++] = h;
+            handlers[type] = Arrays.copyOf(kept, nbKept);
+        }
+        m_handlers = handlers;
+    }
+
+    /**Add a handler called only when a message of a given type has been parsed
+     * @param type the message type (see GET_*)
+     * @param handler the handler to call. Its generic type must match the ServerMessage subclass registered for this type*/
+    public synchronized void addHandler(int type, IMessageHandler<? extends ServerMessage> handler)
     {
-        m_listeners.remove(lst);
+        TypedHandler[][] handlers = m_handlers;
+        if(type >= handlers.length)
+        {
+            TypedHandler[][] grown = new TypedHandler[type+1][];
+            System.arraycopy(handlers, 0, grown, 0, handlers.length);
+            for(int i = handlers.length; i < grown.length; i++)
+                grown[i] = new TypedHandler[0];
+            handlers = grown;
+        }
+        else
+            handlers = handlers.clone();
+
+        TypedHandler[] typeHandlers = Arrays.copyOf(handlers[type], handlers[type].length+1);
+        typeHandlers[typeHandlers.length-1] = new TypedHandler(handler);
+        handlers[type] = typeHandlers;
+        m_handlers = handlers;
+    }
+
+    /**Remove an already known handler
+     * @param type the message type the handler was registered to
+     * @param handler the handler to remove*/
+    public synchronized void removeHandler(int type, IMessageHandler<? extends ServerMessage> handler)
+    {
+        TypedHandler[][] handlers = m_handlers;
+        if(type >= handlers.length)
+            return;
+
+        for(int i = 0; i < handlers[type].length; i++)
+        {
+            if(handlers[type][i].handler == handler)
+            {
+                TypedHandler[] typeHandlers = new TypedHandler[handlers[type].length-1];
+                System.arraycopy(handlers[type], 0, typeHandlers, 0, i);
+                System.arraycopy(handlers[type], i+1, typeHandlers, i, typeHandlers.length-i);
+                handlers = handlers.clone();
+                handlers[type] = typeHandlers;
+                m_handlers = handlers;
+                return;
+            }
+        }
     }
 
     /** Allocate a new message type depending on the type
      * @param type  the type of the message*/
     private void allocateNewMessage(short type)
     {
-        switch(type)
+        MessageRegistry.Entry<? extends ServerMessage> entry = m_registry.get(type);
+        if(entry == null)
         {
-            case GET_ADD_VTK_DATASET:
-                m_curMsg = new AddVTKDatasetMessage();
-                break;
-            case GET_ROTATE_DATASET:
-                m_curMsg = new RotateDatasetMessage();
-                break;
-            case GET_MOVE_DATASET:
-                m_curMsg = new MoveDatasetMessage();
-                break;
-            case GET_HEADSET_BINDING_INFO:
-                m_curMsg = new HeadsetBindingInfoMessage();
-                break;
-            case GET_SUBDATASET_LOCK_OWNER:
-                m_curMsg = new SubDatasetLockOwnerMessage();
-                break;
-            case GET_SCALE_DATASET:
-                m_curMsg = new ScaleDatasetMessage();
-                break;
-            case GET_TF_DATASET:
-                m_curMsg = new TFDatasetMessage();
-                break;
-            case GET_HEADSETS_STATUS:
-                m_curMsg = new HeadsetsStatusMessage();
-                break;
-            case GET_ANCHOR_ANNOTATION:
-                m_curMsg = new AnchorAnnotationMessage();
-                break;
-            case GET_CLEAR_ANNOTATIONS:
-                m_curMsg = new ClearAnnotationsMessage();
-                break;
-            case GET_ADD_SUBDATASET:
-                m_curMsg = new AddSubDatasetMessage();
-                break;
-            case GET_DEL_SUBDATASET:
-                m_curMsg = new RemoveSubDatasetMessage();
-                break;
-            case GET_SET_SUBDATASET_OWNER:
-                m_curMsg = new SubDatasetOwnerMessage();
-                break;
-            case GET_LOCATION_TABLET:
-                m_curMsg = new LocationTabletMessage();
-                break;
-            case GET_ADD_CLOUD_POINT_DATASET:
-                m_curMsg = new AddCloudPointDatasetMessage();
-                break;
-            case GET_TOGGLE_MAP_VISIBILITY:
-                m_curMsg = new ToggleMapVisibilityMessage();
-                break;
-            case GET_RESET_VOLUMETRIC_SELECTION:
-                m_curMsg = new ResetVolumetricSelectionMessage();
-                break;
-            case GET_VOLUMETRIC_MASK:
-                m_curMsg = new SubDatasetVolumetricMaskMessage();
-                break;
-            case ADD_LOG_DATA:
-                m_curMsg = new OpenLogDataMessage();
-                break;
-            case ADD_ANNOTATION_POSITION:
-                m_curMsg = new AddAnnotationPositionMessage();
-                break;
-            case SET_ANNOTATION_POSITION_INDEXES:
-                m_curMsg = new SetAnnotationPositionIndexes();
-                break;
-            case ADD_ANNOTATION_POSITION_TO_SD:
-                m_curMsg = new AddAnnotationPositionToSDMessage();
-                break;
-            case SET_SUBDATASET_CLIPPING:
-                m_curMsg = new SetSubDatasetClippingMessage();
-                break;
-            case SET_DRAWABLE_ANNOTATION_POSITION_COLOR:
-                m_curMsg = new SetDrawableAnnotationPositionColor();
-                break;
-            case SET_DRAWABLE_ANNOTATION_POSITION_IDX:
-                m_curMsg = new SetDrawableAnnotationPositionIdx();
-                break;
-            case ADD_SUBJECTIVE_VIEW_GROUP:
-                m_curMsg = new AddSubjectiveViewGroupMessage();
-                break;
-            case ADD_SD_TO_SV_STACKED_LINKED_GROUP:
-                m_curMsg = new AddSubDatasetToSubjectiveViewStackedGroupMessage();
-                break;
-            case SET_SV_STACKED_GLOBAL_PARAMETERS:
-                m_curMsg = new SubjectiveViewStackedGroupGlobalParametersMessage();
-                break;
-            case REMOVE_SUBDATASET_GROUP:
-                m_curMsg = new RemoveSubDatasetGroupMessage();
-                break;
-            case RENAME_SUBDATASET:
-                m_curMsg = new RenameSubDatasetMessage();
-                break;
-            default:
-                Log.e(MainActivity.TAG, "Unknown type " + type + ". No more data can be read without errors...");
-                return;
+            Log.e(MainActivity.TAG, "Unknown type " + type + ". No more data can be read without errors...");
+            return;
         }
 
+        m_curMsg = entry.create();
         m_curMsg.type = type;
     }
 
@@ -618,10 +719,10 @@ public class MessageBuffer
      * @param data the incoming data
      * @param offset the offset in the data array
      * @param readSize the size of the data (initial size)
-     * @return the value read*/
-    private ReadInt16 readInt16(byte[] data, int offset, int readSize)
+     * @return the value read, stored in the shared read cursor*/
+    private ReadCursor readInt16(byte[] data, int offset, int readSize)
     {
-        ReadInt16 val = new ReadInt16();
+        ReadCursor val = m_readCursor;
         val.bufOff = offset;
         val.valid  = false;
 
@@ -635,8 +736,8 @@ public class MessageBuffer
         for(int i = val.bufOff; m_dataPos < 2; i++, val.bufOff++)
             m_data[m_dataPos++] = data[i];
 
-        val.value = (short)((m_data[0] << 8) +
-                            (m_data[1]));
+        val.int16Value = (short)((m_data[0] << 8) +
+                                 (m_data[1]));
         val.valid = true;
         m_dataPos = 0;
         return val;
@@ -646,10 +747,10 @@ public class MessageBuffer
      * @param data the incoming data
      * @param offset the offset in the data array
      * @param readSize the size of the data (initial size)
-     * @return the value read*/
-    private ReadInt32 readInt32(byte[] data, int offset, int readSize)
+     * @return the value read, stored in the shared read cursor*/
+    private ReadCursor readInt32(byte[] data, int offset, int readSize)
     {
-        ReadInt32 val = new ReadInt32();
+        ReadCursor val = m_readCursor;
         val.bufOff = offset;
         val.valid  = false;
 
@@ -663,10 +764,10 @@ public class MessageBuffer
         for(int i = offset; m_dataPos < 4; m_dataPos++, i++, val.bufOff++)
             m_data[m_dataPos] = data[i];
 
-        val.value = (int)(((m_data[0] & 0xff) << 24) +
-                          ((m_data[1] & 0xff) << 16) +
-                          ((m_data[2] & 0xff) << 8) +
-                          (m_data[3] & 0xff));
+        val.int32Value = (int)(((m_data[0] & 0xff) << 24) +
+                               ((m_data[1] & 0xff) << 16) +
+                               ((m_data[2] & 0xff) << 8) +
+                               (m_data[3] & 0xff));
         val.valid = true;
         m_dataPos = 0;
         return val;
@@ -675,16 +776,12 @@ public class MessageBuffer
     /** Read 32 bits float in the incoming byte
      * @param data the incoming data
      * @param offset the offset in the data array
-     * @return the value read*/
-    private ReadFloat readFloat(byte[] data, int offset, int readSize)
+     * @return the value read, stored in the shared read cursor*/
+    private ReadCursor readFloat(byte[] data, int offset, int readSize)
     {
-        ReadFloat val   = new ReadFloat();
-        ReadInt32 val32 = readInt32(data, offset, readSize);
-
-        val.valid  = val32.valid;
-        val.bufOff = val32.bufOff;
-        if(val32.valid)
-            val.value = Float.intBitsToFloat(val32.value);
+        ReadCursor val = readInt32(data, offset, readSize);
+        if(val.valid)
+            val.floatValue = Float.intBitsToFloat(val.int32Value);
         return val;
     }
 
@@ -692,80 +789,150 @@ public class MessageBuffer
      * @param data the incoming data
      * @param offset the offset in the data array
      * @param readSize the size of the data (initial size)
-     * @return the value read*/
-    private ReadString readString(byte[] data, int offset, int readSize)
+     * @return the value read, stored in the shared read cursor*/
+    private ReadCursor readString(byte[] data, int offset, int readSize)
     {
-        ReadString val = new ReadString();
+        ReadCursor val = m_readCursor;
         val.valid  = false;
         val.bufOff = offset;
 
         if(m_stringSize < 0)
         {
-            ReadInt32 stringSize = readInt32(data, offset, readSize);
-            val.bufOff = stringSize.bufOff;
-            if(!stringSize.valid)
+            readInt32(data, offset, readSize);
+            if(!val.valid)
                 return val;
+            val.valid = false;
 
-            m_stringSize = stringSize.value;
+            m_stringSize = val.int32Value;
             if(m_stringSize < 0)
             {
                 Log.e(MainActivity.TAG, "Received a string buffer size inferior than 0... Treat it as 0");
                 m_stringSize = 0;
             }
-            m_stringBuf  = new StringBuilder(m_stringSize);
-        }
-        while(m_stringBuf.length() != m_stringSize && val.bufOff < readSize)
-        {
-            m_stringBuf.append((char)data[val.bufOff++]);
+            m_stringPos = 0;
+
+            //Fast path: the whole string is in the incoming data
+            if(readSize - val.bufOff >= m_stringSize)
+            {
+                val.valid = true;
+                val.stringValue = decodeString(data, val.bufOff, m_stringSize);
+                val.bufOff += m_stringSize;
+                m_stringSize = -1;
+                return val;
+            }
+
+            if(m_stringBytes.length < m_stringSize)
+                m_stringBytes = new byte[Math.max(m_stringSize, 2*m_stringBytes.length)];
         }
 
-        if(m_stringBuf.length() == m_stringSize)
+        int nbBytes = Math.min(m_stringSize - m_stringPos, readSize - val.bufOff);
+        System.arraycopy(data, val.bufOff, m_stringBytes, m_stringPos, nbBytes);
+        val.bufOff  += nbBytes;
+        m_stringPos += nbBytes;
+
+        if(m_stringPos == m_stringSize)
         {
             val.valid = true;
-            val.value = m_stringBuf.toString();
+            val.stringValue = decodeString(m_stringBytes, 0, m_stringSize);
             m_stringSize = -1;
         }
         return val;
     }
 
+    /** Decode an UTF-8 string, through the string cache if any
+     * @param data the array containing the encoded string
+     * @param offset the offset of the string in data
+     * @param length the size of the string, in bytes
+     * @return the decoded string*/
+    private String decodeString(byte[] data, int offset, int length)
+    {
+        if(m_stringCache != null)
+            return m_stringCache.decode(data, offset, length);
+        return new String(data, offset, length, StandardCharsets.UTF_8);
+    }
+
     /** Read a Byte Array (32 bits + n bits) in the incoming byte
      * @param data the incoming data
      * @param offset the offset in the data array
      * @param readSize the size of the data (initial size)
-     * @return the value read*/
-    private ReadByteArray readByteArray(byte[] data, int offset, int readSize)
+     * @return the value read, stored in the shared read cursor*/
+    private ReadCursor readByteArray(byte[] data, int offset, int readSize)
     {
-        ReadByteArray val = new ReadByteArray();
+        ReadCursor val = m_readCursor;
         val.valid  = false;
         val.bufOff = offset;
 
         if(m_byteArray == null)
         {
-            ReadInt32 arraySize = readInt32(data, offset, readSize);
-            val.bufOff = arraySize.bufOff;
-            if(!arraySize.valid)
+            readInt32(data, offset, readSize);
+            if(!val.valid)
                 return val;
+            val.valid = false;
 
-            if(arraySize.value < 0)
+            int arraySize = val.int32Value;
+            if(arraySize < 0)
             {
                 Log.e(MainActivity.TAG, "Received a byte array size inferior than 0... Treat it as 0");
-                m_stringSize = 0;
+                arraySize = 0;
             }
 
-            m_byteArray = new byte[arraySize.value];
+            m_byteArray = new byte[arraySize];
         }
 
-        for(; m_dataPos != m_byteArray.length && val.bufOff < readSize; val.bufOff++, m_dataPos++)
-            m_byteArray[m_dataPos] = (byte)data[val.bufOff];
+        int nbBytes = Math.min(m_byteArray.length - m_dataPos, readSize - val.bufOff);
+        System.arraycopy(data, val.bufOff, m_byteArray, m_dataPos, nbBytes);
+        val.bufOff += nbBytes;
+        m_dataPos  += nbBytes;
 
         if(m_dataPos == m_byteArray.length)
         {
             val.valid = true;
-            val.value = m_byteArray;
+            val.byteArrayValue = m_byteArray;
             m_byteArray = null;
             m_dataPos = 0;
         }
         return val;
     }
 
+    /** Read a Byte Array (32 bits + n bits) in the incoming byte, storing it in a direct buffer of the pool (see getDirectBufferPool)
+     * @param data the incoming data
+     * @param offset the offset in the data array
+     * @param readSize the size of the data (initial size)
+     * @return the value read, stored in the shared read cursor*/
+    private ReadCursor readDirectByteArray(byte[] data, int offset, int readSize)
+    {
+        ReadCursor val = m_readCursor;
+        val.valid  = false;
+        val.bufOff = offset;
+
+        if(m_directArray == null)
+        {
+            readInt32(data, offset, readSize);
+            if(!val.valid)
+                return val;
+            val.valid = false;
+
+            int arraySize = val.int32Value;
+            if(arraySize < 0)
+            {
+                Log.e(MainActivity.TAG, "Received a byte array size inferior than 0... Treat it as 0");
+                arraySize = 0;
+            }
+
+            m_directArray = m_bufferPool.acquire(arraySize);
+        }
+
+        int nbBytes = Math.min(m_directArray.remaining(), readSize - val.bufOff);
+        m_directArray.put(data, val.bufOff, nbBytes);
+        val.bufOff += nbBytes;
+
+        if(!m_directArray.hasRemaining())
+        {
+            m_directArray.flip();
+            val.valid = true;
+            val.directArrayValue = m_directArray;
+            m_directArray = null;
+        }
+        return val;
+    }
 }
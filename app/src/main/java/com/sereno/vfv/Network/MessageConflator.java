@@ -0,0 +1,225 @@
+package com.sereno.vfv.Network;
+
+import java.util.ArrayList;
+
+/** Conflation stage between the MessageBuffer (reading thread) and the thread applying the messages (e.g., the UI thread).
+ * It receives state-replacing messages (see ServerMessage.getConflationKey) and keeps only the latest one per key
+ * until it is delivered. A newer state drops the pending one and is queued at the tail, after the messages received in between,
+ * and messages without key are kept in order, so that this object can also be used as the ordered FIFO of every message (see FrameMessageQueue).*/
+public class MessageConflator implements MessageBuffer.IMessageHandler<ServerMessage>
+{
+    /** Listener interface notified when messages are waiting to be drained*/
+    public interface IConflatorListener
+    {
+        /** Called (from the thread pushing the messages) when the conflator goes from "empty" to "has pending messages".
+         * It is not called again before every pending message has been delivered (see poll and drain).
+         * @param conflator the conflator calling this method*/
+        void onPendingMessages(MessageConflator conflator);
+    }
+
+    /** The registry used to dispatch the messages to IMessageBufferCallback objects*/
+    private MessageRegistry m_registry;
+
+    /** Minimum number of delivered or dead slots in m_pending before compacting it*/
+    private static final int COMPACT_THRESHOLD = 64;
+
+    /** The pending messages (latest one per conflation key), in order. Slots before m_head are already delivered,
+     * and null slots after m_head are dead (replaced by a newer state)*/
+    private ArrayList<ServerMessage> m_pending = new ArrayList<>();
+
+    /** The index of the next slot to deliver in m_pending*/
+    private int m_head = 0;
+
+    /** Number of dead slots after m_head*/
+    private int m_nbDead = 0;
+
+    /** The listener to notify when messages are pending*/
+    private IConflatorListener m_listener = null;
+
+    /** Number of messages received*/
+    private long m_nbReceived  = 0;
+
+    /** Number of messages delivered*/
+    private long m_nbDelivered = 0;
+
+    /** Number of messages replaced by a newer one before being delivered, per message type*/
+    private long[] m_nbConflated = new long[0];
+
+    /** Constructor
+     * @param registry the registry used to dispatch the messages (see MessageBuffer.getRegistry)*/
+    public MessageConflator(MessageRegistry registry)
+    {
+        m_registry = registry;
+    }
+
+    /** Set the listener to notify when messages are pending
+     * @param listener the new listener. Can be null*/
+    public synchronized void setListener(IConflatorListener listener)
+    {
+        m_listener = listener;
+    }
+
+    @Override
+    public void onMessage(ServerMessage msg)
+    {
+        IConflatorListener listener = null;
+
+        synchronized(this)
+        {
+            m_nbReceived++;
+            long key = msg.getConflationKey();
+
+            if(getNbPendingLocked() == 0)
+                listener = m_listener;
+
+            //Drop the pending state if any. The new one goes at the tail, so that it is not applied before the messages received in between
+            if(key != -1)
+            {
+                for(int i = m_head; i < m_pending.size(); i++)
+                {
+                    ServerMessage pending = m_pending.get(i);
+                    if(pending != null && pending.getConflationKey() == key)
+                    {
+                        m_pending.set(i, null);
+                        m_nbDead++;
+                        if(msg.getType() >= m_nbConflated.length)
+                        {
+                            long[] nbConflated = new long[msg.getType()+1];
+                            System.arraycopy(m_nbConflated, 0, nbConflated, 0, m_nbConflated.length);
+                            m_nbConflated = nbConflated;
+                        }
+                        m_nbConflated[msg.getType()]++;
+                        break;
+                    }
+                }
+            }
+
+            m_pending.add(msg);
+            if(m_nbDead >= COMPACT_THRESHOLD && 2*m_nbDead >= m_pending.size() - m_head)
+                compact();
+        }
+
+        if(listener != null)
+            listener.onPendingMessages(this);
+    }
+
+    /** Remove the next pending message
+     * @return the next pending message, or null if no message is pending*/
+    public synchronized ServerMessage poll()
+    {
+        skipDead();
+        if(m_head == m_pending.size())
+            return null;
+
+        ServerMessage msg = m_pending.get(m_head);
+        m_pending.set(m_head, null);
+        m_head++;
+        m_nbDelivered++;
+        skipDead();
+
+        //Reuse the list once empty, and compact it if it never gets empty under a continuous load
+        if(m_head == m_pending.size())
+        {
+            m_pending.clear();
+            m_head = 0;
+        }
+        else if(m_head >= COMPACT_THRESHOLD && 2*m_head >= m_pending.size())
+            compact();
+        return msg;
+    }
+
+    /** Move m_head past the dead slots*/
+    private void skipDead()
+    {
+        while(m_head < m_pending.size() && m_pending.get(m_head) == null)
+        {
+            m_head++;
+            m_nbDead--;
+        }
+    }
+
+    /** Remove the delivered and dead slots of m_pending*/
+    private void compact()
+    {
+        int size = 0;
+        for(int i = m_head; i < m_pending.size(); i++)
+        {
+            ServerMessage msg = m_pending.get(i);
+            if(msg != null)
+                m_pending.set(size++, msg);
+        }
+        m_pending.subList(size, m_pending.size()).clear();
+        m_head   = 0;
+        m_nbDead = 0;
+    }
+
+    /** Get the number of messages waiting to be delivered. The lock on this object must be held
+     * @return the number of pending messages*/
+    private int getNbPendingLocked() {return m_pending.size() - m_head - m_nbDead;}
+
+    /** Get the number of messages waiting to be delivered
+     * @return the number of pending messages*/
+    public synchronized int getNbPending() {return getNbPendingLocked();}
+
+    /** Deliver every message pending at the time of the call, in the order of arrival of their latest state
+     * @param handler the handler to call for each message*/
+    public void drain(MessageBuffer.IMessageHandler<ServerMessage> handler)
+    {
+        for(int nbMessages = getNbPending(); nbMessages > 0; nbMessages--)
+        {
+            ServerMessage msg = poll();
+            if(msg == null)
+                break;
+            handler.onMessage(msg);
+        }
+    }
+
+    /** Deliver every message pending at the time of the call, in the order of arrival of their latest state
+     * @param clbk the callback to call for each message. The called method depends on the message type*/
+    public void drain(MessageBuffer.IMessageBufferCallback clbk)
+    {
+        for(int nbMessages = getNbPending(); nbMessages > 0; nbMessages--)
+        {
+            ServerMessage msg = poll();
+            if(msg == null)
+                break;
+            m_registry.dispatch(msg, clbk);
+        }
+    }
+
+    /** Get the number of messages received by this conflator
+     * @return the number of messages received*/
+    public synchronized long getNbReceived() {return m_nbReceived;}
+
+    /** Get the number of messages delivered by this conflator
+     * @return the number of messages delivered*/
+    public synchronized long getNbDelivered() {return m_nbDelivered;}
+
+    /** Get the number of messages that were replaced by a newer one before being delivered
+     * @return the number of conflated messages, all types included*/
+    public synchronized long getNbConflated()
+    {
+        long sum = 0;
+        for(long n : m_nbConflated)
+            sum += n;
+        return sum;
+    }
+
+    /** Get the number of messages of a given type that were replaced by a newer one before being delivered
+     * @param type the message type (see MessageBuffer.GET_*)
+     * @return the number of conflated messages of this type*/
+    public synchronized long getNbConflated(int type)
+    {
+        if(type < 0 || type >= m_nbConflated.length)
+            return 0;
+        return m_nbConflated[type];
+    }
+
+    /** Reset every counter to 0*/
+    public synchronized void resetCounters()
+    {
+        m_nbReceived  = 0;
+        m_nbDelivered = 0;
+        m_nbConflated = new long[0];
+    }
+}
@@ -0,0 +1,406 @@
+package com.sereno.vfv.Network;
+
+/** Registry mapping a server message type to the factory creating its ServerMessage object
+ * and to the dispatcher calling the corresponding method of MessageBuffer.IMessageBufferCallback.
+ * Adding a new message type only requires a new entry here (and a new type constant): a new type is handled
+ * through typed handlers (see MessageBuffer.addHandler), without any new IMessageBufferCallback method*/
+public class MessageRegistry
+{
+    /** An entry of the registry, describing one message type
+     * @param <T> the ServerMessage subclass of this message type*/
+    public static abstract class Entry<T extends ServerMessage>
+    {
+        /** Create a new message object to parse
+         * @return the new message*/
+        public abstract T create();
+
+        /** Call the typed method of a callback object handling this kind of message. The types without such a method
+         * (the default) are only handled through typed handlers (see MessageBuffer.addHandler and FrameMessageQueue.addHandler)
+         * @param msg the message parsed
+         * @param clbk the callback to call*/
+        public void dispatch(T msg, MessageBuffer.IMessageBufferCallback clbk) {}
+    }
+
+    /** The registered entries, indexed by message type*/
+    private Entry<?>[] m_entries = new Entry<?>[0];
+
+    /** Constructor. Register every message type known by the application*/
+    public MessageRegistry()
+    {
+        registerDefaultMessages();
+    }
+
+    /** Register (or replace) a message type
+     * @param type the message type (see MessageBuffer.GET_*)
+     * @param entry the entry creating and dispatching this message type*/
+    public void register(int type, Entry<? extends ServerMessage> entry)
+    {
+        if(type >= m_entries.length)
+        {
+            Entry<?>[] entries = new Entry<?>[type+1];
+            System.arraycopy(m_entries, 0, entries, 0, m_entries.length);
+            m_entries = entries;
+        }
+        m_entries[type] = entry;
+    }
+
+    /** Get the entry associated with a message type
+     * @param type the message type
+     * @return the entry, or null if this type is not registered*/
+    public Entry<? extends ServerMessage> get(int type)
+    {
+        if(type < 0 || type >= m_entries.length)
+            return null;
+        return m_entries[type];
+    }
+
+    /** Call the typed method of a callback object handling a message
+     * @param msg the message to dispatch
+     * @param clbk the callback to call
+     * @return true if the message type is registered (and was dispatched), false otherwise*/
+    @SuppressWarnings("unchecked") //The entry of a type creates the messages of this type: msg is an instance of the entry type
+    public boolean dispatch(ServerMessage msg, MessageBuffer.IMessageBufferCallback clbk)
+    {
+        Entry<ServerMessage> entry = (Entry<ServerMessage>)get(msg.getType());
+        if(entry == null)
+            return false;
+        entry.dispatch(msg, clbk);
+        return true;
+    }
+
+    /** Get the size of the type table (i.e., the maximum registered type + 1)
+     * @return the number of message types this registry can index*/
+    public int getTableSize()
+    {
+        return m_entries.length;
+    }
+
+    /** Register all the messages the server can send*/
+    private void registerDefaultMessages()
+    {
+        register(MessageBuffer.GET_ADD_VTK_DATASET, new Entry<AddVTKDatasetMessage>()
+        {
+            @Override
+            public AddVTKDatasetMessage create() {return new AddVTKDatasetMessage();}
+
+            @Override
+            public void dispatch(AddVTKDatasetMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onAddVTKDatasetMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_ROTATE_DATASET, new Entry<RotateDatasetMessage>()
+        {
+            @Override
+            public RotateDatasetMessage create() {return new RotateDatasetMessage();}
+
+            @Override
+            public void dispatch(RotateDatasetMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onRotateDatasetMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_MOVE_DATASET, new Entry<MoveDatasetMessage>()
+        {
+            @Override
+            public MoveDatasetMessage create() {return new MoveDatasetMessage();}
+
+            @Override
+            public void dispatch(MoveDatasetMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onMoveDatasetMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_HEADSET_BINDING_INFO, new Entry<HeadsetBindingInfoMessage>()
+        {
+            @Override
+            public HeadsetBindingInfoMessage create() {return new HeadsetBindingInfoMessage();}
+
+            @Override
+            public void dispatch(HeadsetBindingInfoMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onHeadsetBindingInfoMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_SUBDATASET_LOCK_OWNER, new Entry<SubDatasetLockOwnerMessage>()
+        {
+            @Override
+            public SubDatasetLockOwnerMessage create() {return new SubDatasetLockOwnerMessage();}
+
+            @Override
+            public void dispatch(SubDatasetLockOwnerMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onSubDatasetLockOwnerMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_SCALE_DATASET, new Entry<ScaleDatasetMessage>()
+        {
+            @Override
+            public ScaleDatasetMessage create() {return new ScaleDatasetMessage();}
+
+            @Override
+            public void dispatch(ScaleDatasetMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onScaleDatasetMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_TF_DATASET, new Entry<TFDatasetMessage>()
+        {
+            @Override
+            public TFDatasetMessage create() {return new TFDatasetMessage();}
+
+            @Override
+            public void dispatch(TFDatasetMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onTFDatasetMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_HEADSETS_STATUS, new Entry<HeadsetsStatusMessage>()
+        {
+            @Override
+            public HeadsetsStatusMessage create() {return new HeadsetsStatusMessage();}
+
+            @Override
+            public void dispatch(HeadsetsStatusMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onHeadsetsStatusMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_ANCHOR_ANNOTATION, new Entry<AnchorAnnotationMessage>()
+        {
+            @Override
+            public AnchorAnnotationMessage create() {return new AnchorAnnotationMessage();}
+
+            @Override
+            public void dispatch(AnchorAnnotationMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onAnchorAnnotation(msg);}
+        });
+
+        register(MessageBuffer.GET_CLEAR_ANNOTATIONS, new Entry<ClearAnnotationsMessage>()
+        {
+            @Override
+            public ClearAnnotationsMessage create() {return new ClearAnnotationsMessage();}
+
+            @Override
+            public void dispatch(ClearAnnotationsMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onClearAnnotations(msg);}
+        });
+
+        register(MessageBuffer.GET_ADD_SUBDATASET, new Entry<AddSubDatasetMessage>()
+        {
+            @Override
+            public AddSubDatasetMessage create() {return new AddSubDatasetMessage();}
+
+            @Override
+            public void dispatch(AddSubDatasetMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onAddSubDataset(msg);}
+        });
+
+        register(MessageBuffer.GET_DEL_SUBDATASET, new Entry<RemoveSubDatasetMessage>()
+        {
+            @Override
+            public RemoveSubDatasetMessage create() {return new RemoveSubDatasetMessage();}
+
+            @Override
+            public void dispatch(RemoveSubDatasetMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onRemoveSubDataset(msg);}
+        });
+
+        register(MessageBuffer.GET_SET_SUBDATASET_OWNER, new Entry<SubDatasetOwnerMessage>()
+        {
+            @Override
+            public SubDatasetOwnerMessage create() {return new SubDatasetOwnerMessage();}
+
+            @Override
+            public void dispatch(SubDatasetOwnerMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onSubDatasetOwnerMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_LOCATION_TABLET, new Entry<LocationTabletMessage>()
+        {
+            @Override
+            public LocationTabletMessage create() {return new LocationTabletMessage();}
+
+            @Override
+            public void dispatch(LocationTabletMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onLocationTabletMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_ADD_CLOUD_POINT_DATASET, new Entry<AddCloudPointDatasetMessage>()
+        {
+            @Override
+            public AddCloudPointDatasetMessage create() {return new AddCloudPointDatasetMessage();}
+
+            @Override
+            public void dispatch(AddCloudPointDatasetMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onAddCloudPointDatasetMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_TOGGLE_MAP_VISIBILITY, new Entry<ToggleMapVisibilityMessage>()
+        {
+            @Override
+            public ToggleMapVisibilityMessage create() {return new ToggleMapVisibilityMessage();}
+
+            @Override
+            public void dispatch(ToggleMapVisibilityMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onToggleMapVisibilityMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_RESET_VOLUMETRIC_SELECTION, new Entry<ResetVolumetricSelectionMessage>()
+        {
+            @Override
+            public ResetVolumetricSelectionMessage create() {return new ResetVolumetricSelectionMessage();}
+
+            @Override
+            public void dispatch(ResetVolumetricSelectionMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onResetVolumetricSelectionMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_VOLUMETRIC_MASK, new Entry<SubDatasetVolumetricMaskMessage>()
+        {
+            @Override
+            public SubDatasetVolumetricMaskMessage create() {return new SubDatasetVolumetricMaskMessage();}
+
+            @Override
+            public void dispatch(SubDatasetVolumetricMaskMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onSubDatasetVolumetricMaskMessage(msg);}
+        });
+
+        register(MessageBuffer.GET_VOLUMETRIC_MASK_RUNS, new Entry<SubDatasetVolumetricMaskRunsMessage>()
+        {
+            @Override
+            public SubDatasetVolumetricMaskRunsMessage create() {return new SubDatasetVolumetricMaskRunsMessage();}
+        });
+
+        register(MessageBuffer.ADD_LOG_DATA, new Entry<OpenLogDataMessage>()
+        {
+            @Override
+            public OpenLogDataMessage create() {return new OpenLogDataMessage();}
+
+            @Override
+            public void dispatch(OpenLogDataMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onOpenLogDataMessage(msg);}
+        });
+
+        register(MessageBuffer.ADD_ANNOTATION_POSITION, new Entry<AddAnnotationPositionMessage>()
+        {
+            @Override
+            public AddAnnotationPositionMessage create() {return new AddAnnotationPositionMessage();}
+
+            @Override
+            public void dispatch(AddAnnotationPositionMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onAddAnnotationPositionMessage(msg);}
+        });
+
+        register(MessageBuffer.SET_ANNOTATION_POSITION_INDEXES, new Entry<SetAnnotationPositionIndexes>()
+        {
+            @Override
+            public SetAnnotationPositionIndexes create() {return new SetAnnotationPositionIndexes();}
+
+            @Override
+            public void dispatch(SetAnnotationPositionIndexes msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onSetAnnotationPositionIndexes(msg);}
+        });
+
+        register(MessageBuffer.ADD_ANNOTATION_POSITION_TO_SD, new Entry<AddAnnotationPositionToSDMessage>()
+        {
+            @Override
+            public AddAnnotationPositionToSDMessage create() {return new AddAnnotationPositionToSDMessage();}
+
+            @Override
+            public void dispatch(AddAnnotationPositionToSDMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onAddAnnotationPositionToSD(msg);}
+        });
+
+        register(MessageBuffer.SET_SUBDATASET_CLIPPING, new Entry<SetSubDatasetClippingMessage>()
+        {
+            @Override
+            public SetSubDatasetClippingMessage create() {return new SetSubDatasetClippingMessage();}
+
+            @Override
+            public void dispatch(SetSubDatasetClippingMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onSetSubDatasetClipping(msg);}
+        });
+
+        register(MessageBuffer.SET_DRAWABLE_ANNOTATION_POSITION_COLOR, new Entry<SetDrawableAnnotationPositionColor>()
+        {
+            @Override
+            public SetDrawableAnnotationPositionColor create() {return new SetDrawableAnnotationPositionColor();}
+
+            @Override
+            public void dispatch(SetDrawableAnnotationPositionColor msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onSetDrawableAnnotationPositionColor(msg);}
+        });
+
+        register(MessageBuffer.SET_DRAWABLE_ANNOTATION_POSITION_IDX, new Entry<SetDrawableAnnotationPositionIdx>()
+        {
+            @Override
+            public SetDrawableAnnotationPositionIdx create() {return new SetDrawableAnnotationPositionIdx();}
+
+            @Override
+            public void dispatch(SetDrawableAnnotationPositionIdx msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onSetDrawableAnnotationPositionIdx(msg);}
+        });
+
+        register(MessageBuffer.ADD_SUBJECTIVE_VIEW_GROUP, new Entry<AddSubjectiveViewGroupMessage>()
+        {
+            @Override
+            public AddSubjectiveViewGroupMessage create() {return new AddSubjectiveViewGroupMessage();}
+
+            @Override
+            public void dispatch(AddSubjectiveViewGroupMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onAddSubjectiveViewGroup(msg);}
+        });
+
+        register(MessageBuffer.ADD_SD_TO_SV_STACKED_LINKED_GROUP, new Entry<AddSubDatasetToSubjectiveViewStackedGroupMessage>()
+        {
+            @Override
+            public AddSubDatasetToSubjectiveViewStackedGroupMessage create() {return new AddSubDatasetToSubjectiveViewStackedGroupMessage();}
+
+            @Override
+            public void dispatch(AddSubDatasetToSubjectiveViewStackedGroupMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onAddSubDatasetToSubjectiveViewStackedGroup(msg);}
+        });
+
+        register(MessageBuffer.SET_SV_STACKED_GLOBAL_PARAMETERS, new Entry<SubjectiveViewStackedGroupGlobalParametersMessage>()
+        {
+            @Override
+            public SubjectiveViewStackedGroupGlobalParametersMessage create() {return new SubjectiveViewStackedGroupGlobalParametersMessage();}
+
+            @Override
+            public void dispatch(SubjectiveViewStackedGroupGlobalParametersMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onSetSubjectiveViewStackedParameters(msg);}
+        });
+
+        register(MessageBuffer.REMOVE_SUBDATASET_GROUP, new Entry<RemoveSubDatasetGroupMessage>()
+        {
+            @Override
+            public RemoveSubDatasetGroupMessage create() {return new RemoveSubDatasetGroupMessage();}
+
+            @Override
+            public void dispatch(RemoveSubDatasetGroupMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onRemoveSubDatasetGroup(msg);}
+        });
+
+        register(MessageBuffer.RENAME_SUBDATASET, new Entry<RenameSubDatasetMessage>()
+        {
+            @Override
+            public RenameSubDatasetMessage create() {return new RenameSubDatasetMessage();}
+
+            @Override
+            public void dispatch(RenameSubDatasetMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onRenameSubDataset(msg);}
+        });
+
+        register(MessageBuffer.GET_PONG, new Entry<PongMessage>()
+        {
+            @Override
+            public PongMessage create() {return new PongMessage();}
+        });
+
+        register(MessageBuffer.GET_RESYNC_DONE, new Entry<ResyncDoneMessage>()
+        {
+            @Override
+            public ResyncDoneMessage create() {return new ResyncDoneMessage();}
+        });
+
+        register(MessageBuffer.GET_DATAGRAM_CHANNEL, new Entry<DatagramChannelMessage>()
+        {
+            @Override
+            public DatagramChannelMessage create() {return new DatagramChannelMessage();}
+        });
+
+        Entry<AnnotationStrokeMessage> annotationStroke = new Entry<AnnotationStrokeMessage>()
+        {
+            @Override
+            public AnnotationStrokeMessage create() {return new AnnotationStrokeMessage();}
+        };
+        register(MessageBuffer.GET_ANNOTATION_STROKE_BEGIN,  annotationStroke);
+        register(MessageBuffer.GET_ANNOTATION_STROKE_POINTS, annotationStroke);
+        register(MessageBuffer.GET_ANNOTATION_STROKE_END,    annotationStroke);
+
+        register(MessageBuffer.GET_TF_DIFF, new Entry<TFDiffMessage>()
+        {
+            @Override
+            public TFDiffMessage create() {return new TFDiffMessage();}
+        });
+
+        register(MessageBuffer.GET_COMPACT_POSE, new Entry<CompactPoseMessage>()
+        {
+            @Override
+            public CompactPoseMessage create() {return new CompactPoseMessage();}
+        });
+
+        //Replaced by SocketManager with an entry decoding the deltas (see HeadsetsStatusDecoder)
+        register(MessageBuffer.GET_HEADSETS_STATUS_COMPACT, new Entry<HeadsetsStatusMessage>()
+        {
+            @Override
+            public HeadsetsStatusMessage create() {return new HeadsetsStatusMessage();}
+
+            @Override
+            public void dispatch(HeadsetsStatusMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onHeadsetsStatusMessage(msg);}
+        });
+    }
+}
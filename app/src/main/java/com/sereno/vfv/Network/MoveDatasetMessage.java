@@ -1,50 +1,11 @@
 package com.sereno.vfv.Network;
 
-public class MoveDatasetMessage extends ServerMessage
+public class MoveDatasetMessage extends MoveDatasetMessageFields
 {
-    /** The datasetID of the message*/
-    private int m_datasetID;
-
-    /** The subdataset ID of the message*/
-    private int m_subDatasetID;
-
-    /** The headset ID performing this movement. -1 == server call*/
-    private int m_headsetID;
-
-    /** The new rotation to apply*/
-    private float[] m_position = new float[3];
-
-    @Override
-    public byte getCurrentType()
-    {
-        if(cursor <= 2)
-            return 'I';
-        return 'f';
-    }
-
-    @Override
-    public void pushValue(int val)
-    {
-        if(cursor == 0)
-            m_datasetID = val;
-        else if(cursor == 1)
-            m_subDatasetID = val;
-        else if(cursor == 2)
-            m_headsetID = val;
-        super.pushValue(val);
-    }
-
-    @Override
-    public void pushValue(float val)
-    {
-        m_position[cursor-3] = val;
-        super.pushValue(val);
-    }
-
     @Override
-    public int getMaxCursor()
+    long getConflationKey()
     {
-        return 5;
+        return conflationKey(type, m_datasetID, m_subDatasetID);
     }
 
     /** Get the dataset ID parsed
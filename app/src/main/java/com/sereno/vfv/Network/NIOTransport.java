@@ -0,0 +1,441 @@
+package com.sereno.vfv.Network;
+
+import android.util.Log;
+
+import com.sereno.vfv.MainActivity;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Non-blocking transport of SocketManager: one SocketChannel driven by a single selector thread.
+ * It connects (with a timeout) and reconnects to the server, reads into a direct buffer, and writes the pushed data
+ * through a direct buffer. Pushing data only takes the short lock of the send queue, and never waits for the socket*/
+class NIOTransport
+{
+    /** Listener of the transport events. Every method is called from the selector thread*/
+    interface ITransportListener
+    {
+        /** Called when the identification data has to be sent (after a connection, or after requestIdent())
+         * @return the data to send before any other pending data, or null if nothing has to be sent*/
+        byte[] onIdentRequired();
+
+        /** Called when the connection to the server has been established*/
+        void onConnection();
+
+        /** Called when data has been received
+         * @param data the data received
+         * @param size the number of bytes received in data*/
+        void onDataReceived(byte[] data, int size);
+
+        /** Called when the connection has been lost or closed*/
+        void onDisconnection();
+    }
+
+    /** The size of the read and write buffers*/
+    private static final int BUFFER_SIZE = 65536;
+
+    /** The listener to call*/
+    private final ITransportListener m_listener;
+
+    /** The selector thread*/
+    private Thread m_thread;
+
+    /** The selector*/
+    private Selector m_selector;
+
+    /** The socket channel. null if not connected (nor connecting). Only used by the selector thread*/
+    private SocketChannel m_channel = null;
+
+    /** The selection key of m_channel*/
+    private SelectionKey m_key = null;
+
+    /** Is the channel connected?*/
+    private volatile boolean m_isConnected = false;
+
+    /** The deadline (System.nanoTime) of the current connection attempt*/
+    private long m_connectDeadline = 0;
+
+    /** The time (System.nanoTime) of the next connection attempt*/
+    private long m_nextConnectTime = 0;
+
+    /** The delays between two connection attempts. Only used by the selector thread*/
+    private final ReconnectBackoff m_backoff = new ReconnectBackoff();
+
+    /** Should the next connection attempt happen now? (e.g., the server address has changed)*/
+    private final AtomicBoolean m_connectNowRequested = new AtomicBoolean(false);
+
+    /** The server IP*/
+    private volatile String m_serverIP;
+
+    /** The server port*/
+    private volatile int m_serverPort;
+
+    /** Should the current connection be closed? (e.g., the server address has changed)*/
+    private final AtomicBoolean m_disconnectRequested = new AtomicBoolean(false);
+
+    /** Does the identification data have to be sent?*/
+    private final AtomicBoolean m_identRequested = new AtomicBoolean(false);
+
+    /** Is the selector thread already woken up?*/
+    private final AtomicBoolean m_wakeupPending = new AtomicBoolean(false);
+
+    /** Is the transport stopped?*/
+    private volatile boolean m_isClosed = false;
+
+    /** The metrics of the writes*/
+    private final FlushMetrics m_flushMetrics;
+
+    /** The data pushed and not yet copied into the write buffer*/
+    private final CoalescingSendQueue m_sendQueue;
+
+    /** The identification data being copied in the write buffer (when larger than the free space of the buffer)*/
+    private byte[] m_sending = null;
+
+    /** The offset of the data of m_sending not yet copied*/
+    private int m_sendingOffset = 0;
+
+    /** The micro-batching window, in nanoseconds (see SocketManager.setBatchingWindow)*/
+    private volatile long m_batchingWindow = 0;
+
+    /** The direct buffer the channel reads into*/
+    private final ByteBuffer m_readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /** The direct buffer the channel writes from. Kept in "read mode" (flipped) between two writes*/
+    private final ByteBuffer m_writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /** The array the received data is copied into for the listener*/
+    private final byte[] m_readArray = new byte[BUFFER_SIZE];
+
+    /** Constructor. Start the selector thread
+     * @param ip the server IP
+     * @param port the server port
+     * @param sendQueue the queue of the data to send
+     * @param flushMetrics the metrics to fill on each write
+     * @param listener the listener to call*/
+    NIOTransport(String ip, int port, CoalescingSendQueue sendQueue, FlushMetrics flushMetrics, ITransportListener listener) throws IOException
+    {
+        m_sendQueue    = sendQueue;
+        m_flushMetrics = flushMetrics;
+        m_listener   = listener;
+        m_serverIP   = ip;
+        m_serverPort = port;
+        m_selector   = Selector.open();
+        m_writeBuffer.flip();
+
+        m_thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runSelector();
+            }
+        });
+        m_thread.start();
+    }
+
+    /** Ask the transport to send the identification data (see ITransportListener.onIdentRequired) before any other pending data*/
+    void requestIdent()
+    {
+        m_identRequested.set(true);
+        wakeup();
+    }
+
+    /** Set the server address. The current connection, if any, is closed and a new one is opened
+     * @param ip the server IP
+     * @param port the server port*/
+    void setServerAddr(String ip, int port)
+    {
+        m_serverIP   = ip;
+        m_serverPort = port;
+        m_connectNowRequested.set(true);
+        disconnect();
+    }
+
+    /** Close the current connection. The transport reconnects afterwards*/
+    void disconnect()
+    {
+        m_disconnectRequested.set(true);
+        wakeup();
+    }
+
+    /** Set the micro-batching window
+     * @param window the window, in nanoseconds. 0 == write the data as soon as it is pushed*/
+    void setBatchingWindow(long window)
+    {
+        m_batchingWindow = window;
+        wakeup();
+    }
+
+    /** Is the transport connected to the server?
+     * @return true if yes, false otherwise*/
+    boolean isConnected()
+    {
+        return m_isConnected;
+    }
+
+    /** Stop the transport and wait for the selector thread to finish*/
+    void stop()
+    {
+        m_isClosed = true;
+        m_selector.wakeup();
+        try {m_thread.join();} catch(InterruptedException e) {}
+    }
+
+    /** Wake up the selector thread if it is not already being woken up. Called when data has been pushed in the send queue*/
+    void wakeup()
+    {
+        if(m_wakeupPending.compareAndSet(false, true))
+            m_selector.wakeup();
+    }
+
+    /** The selector thread loop*/
+    private void runSelector()
+    {
+        while(!m_isClosed)
+        {
+            try
+            {
+                //Reset before checking anything: a push happening from now on wakes up the next select
+                m_wakeupPending.set(false);
+                long now = System.nanoTime();
+                long timeout = 0; //In nanoseconds. 0 == infinite
+
+                if(m_disconnectRequested.getAndSet(false) && m_channel != null)
+                    closeChannel();
+                if(m_connectNowRequested.getAndSet(false))
+                {
+                    m_backoff.reset();
+                    m_nextConnectTime = now;
+                }
+
+                //Connect, or check the connection timeout
+                if(m_channel == null)
+                {
+                    if(now >= m_nextConnectTime)
+                        startConnection(now);
+                    if(m_channel == null)
+                        timeout = m_nextConnectTime - now;
+                }
+                else if(!m_isConnected)
+                {
+                    if(now >= m_connectDeadline)
+                    {
+                        closeChannel();
+                        continue;
+                    }
+                    timeout = m_connectDeadline - now;
+                }
+
+                //Enable writing if anything has to be written (now, or at the end of the batching window)
+                if(m_isConnected)
+                {
+                    long writeTime = nextWriteTime();
+                    if(writeTime != Long.MAX_VALUE)
+                    {
+                        if(writeTime <= now)
+                            m_key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        else if(timeout == 0 || writeTime - now < timeout)
+                            timeout = writeTime - now;
+                    }
+                }
+
+                if(timeout == 0)
+                    m_selector.select();
+                else
+                    m_selector.select(Math.max(1, timeout/1000000));
+
+                for(SelectionKey key : m_selector.selectedKeys())
+                {
+                    if(!key.isValid())
+                        continue;
+                    if(key.isConnectable())
+                        finishConnection();
+                    else
+                    {
+                        if(key.isReadable())
+                            read();
+                        if(key.isValid() && key.isWritable())
+                            write();
+                    }
+                }
+                m_selector.selectedKeys().clear();
+            }
+            catch(IOException e)
+            {
+                if(m_channel != null)
+                    closeChannel();
+            }
+        }
+
+        if(m_channel != null)
+            closeChannel();
+        try {m_selector.close();} catch(IOException e) {}
+    }
+
+    /** Start a non-blocking connection to the server
+     * @param now the current time (System.nanoTime)*/
+    private void startConnection(long now) throws IOException
+    {
+        m_channel = SocketChannel.open();
+        m_channel.configureBlocking(false);
+        m_channel.socket().setTcpNoDelay(true);
+        m_connectDeadline = now + SocketManager.CONNECT_TIMEOUT*1000000L;
+
+        try
+        {
+            //The address is resolved here, on the selector thread
+            if(m_channel.connect(new InetSocketAddress(m_serverIP, m_serverPort)))
+            {
+                m_key = m_channel.register(m_selector, SelectionKey.OP_READ);
+                onConnected();
+            }
+            else
+                m_key = m_channel.register(m_selector, SelectionKey.OP_CONNECT);
+        }
+        catch(Exception e) //IOException, or UnresolvedAddressException
+        {
+            closeChannel();
+        }
+    }
+
+    /** Finish a non-blocking connection*/
+    private void finishConnection()
+    {
+        try
+        {
+            if(m_channel.finishConnect())
+            {
+                m_key.interestOps(SelectionKey.OP_READ);
+                onConnected();
+            }
+        }
+        catch(IOException e)
+        {
+            closeChannel();
+        }
+    }
+
+    /** Initialize a new connection*/
+    private void onConnected()
+    {
+        m_isConnected = true;
+        m_backoff.reset();
+        m_readBuffer.clear();
+        m_writeBuffer.clear();
+        m_writeBuffer.flip();
+        m_sending       = null;
+        m_sendingOffset = 0;
+        m_sendQueue.skipPartialMessage();
+        m_identRequested.set(true);
+        m_listener.onConnection();
+    }
+
+    /** Get the time at which the pending data should be written
+     * @return the time (System.nanoTime) to write, or Long.MAX_VALUE if nothing has to be written*/
+    private long nextWriteTime()
+    {
+        if(m_writeBuffer.hasRemaining() || m_sending != null || m_identRequested.get())
+            return 0;
+        if(m_sendQueue.isEmpty())
+            return Long.MAX_VALUE;
+        return m_sendQueue.getOldestPushTime() + m_batchingWindow;
+    }
+
+    /** Read the data available*/
+    private void read() throws IOException
+    {
+        m_readBuffer.clear();
+        int readSize = m_channel.read(m_readBuffer);
+        if(readSize < 0) //EOF
+        {
+            closeChannel();
+            return;
+        }
+
+        m_readBuffer.flip();
+        m_readBuffer.get(m_readArray, 0, readSize);
+        m_listener.onDataReceived(m_readArray, readSize);
+    }
+
+    /** Write as much pending data as possible. Each write system call carries up to BUFFER_SIZE bytes gathered from the queue*/
+    private void write() throws IOException
+    {
+        long startTime  = System.nanoTime();
+        long nbBytes    = 0;
+        int  nbSyscalls = 0;
+
+        while(true)
+        {
+            //Identification data first, as soon as no other event is partially copied: the stream must not be corrupted
+            if(m_sending == null && !m_sendQueue.isInMessage() && m_identRequested.getAndSet(false))
+            {
+                m_sending       = m_listener.onIdentRequired();
+                m_sendingOffset = 0;
+            }
+
+            fillWriteBuffer();
+            if(!m_writeBuffer.hasRemaining())
+                break;
+
+            //The buffer is not full: the queue was drained. Data pushed from now on waits for the next flush (and its batching window)
+            boolean drained = (m_writeBuffer.limit() < m_writeBuffer.capacity());
+            int written = m_channel.write(m_writeBuffer);
+            nbSyscalls++;
+            nbBytes += written;
+            if(written == 0)
+            {
+                //The socket buffer is full: wait for the next OP_WRITE
+                m_flushMetrics.onFlush(nbBytes, nbSyscalls, System.nanoTime() - startTime);
+                return;
+            }
+            if(drained && !m_writeBuffer.hasRemaining() && m_sending == null)
+                break;
+        }
+
+        //Everything is written
+        if(nbSyscalls > 0)
+            m_flushMetrics.onFlush(nbBytes, nbSyscalls, System.nanoTime() - startTime);
+        m_key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /** Copy the pending data into the write buffer, as long as it has free space*/
+    private void fillWriteBuffer()
+    {
+        m_writeBuffer.compact();
+        if(m_sending != null)
+        {
+            int size = Math.min(m_writeBuffer.remaining(), m_sending.length - m_sendingOffset);
+            m_writeBuffer.put(m_sending, m_sendingOffset, size);
+            m_sendingOffset += size;
+            if(m_sendingOffset == m_sending.length)
+                m_sending = null;
+        }
+        if(m_sending == null)
+            m_sendQueue.read(m_writeBuffer);
+        m_writeBuffer.flip();
+    }
+
+    /** Close the current channel and notify the listener if it was connected. The next connection attempt is delayed by m_backoff*/
+    private void closeChannel()
+    {
+        boolean wasConnected = m_isConnected;
+        m_isConnected = false;
+        if(m_key != null)
+            m_key.cancel();
+        try {m_channel.close();} catch(IOException e) {}
+        m_channel = null;
+        m_key     = null;
+        m_nextConnectTime = System.nanoTime() + m_backoff.nextDelay()*1000000L;
+
+        if(wasConnected)
+        {
+            Log.i(MainActivity.TAG, "Disconnected from the server " + m_serverIP + ":" + m_serverPort);
+            m_listener.onDisconnection();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.sereno.vfv.Network;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Metrics of the protocol load of a SocketManager: per message type counters of messages and bytes in each direction,
+ * decode-time and dispatch-time histograms of the received messages, send queue depths and connection counts.
+ *
+ * Recording a message costs a few uncontended atomic increments and is meant to stay enabled.
+ * Use snapshot() to read a consistent-enough copy (e.g., for a debug overlay or a log dump: see Snapshot.toString) and reset() to restart counting*/
+public class NetworkMetrics
+{
+    /** Number of message types counted in each direction. Larger types are counted in the last slot*/
+    public static final int NB_TYPES = 64;
+
+    /** Number of buckets of the time histograms. Bucket i counts the durations in [2^(i-1), 2^i[ nanoseconds*/
+    public static final int NB_BUCKETS = 40;
+
+    /** Immutable copy of a time histogram*/
+    public static class Histogram
+    {
+        /** The number of values per bucket*/
+        private final long[] m_buckets;
+
+        /** The total number of values*/
+        private final long m_count;
+
+        /** Constructor
+         * @param buckets the number of values per bucket*/
+        Histogram(long[] buckets)
+        {
+            long count = 0;
+            for(long b : buckets)
+                count += b;
+            m_buckets = buckets;
+            m_count   = count;
+        }
+
+        /** Get the number of values recorded
+         * @return the number of values*/
+        public long getCount() {return m_count;}
+
+        /** Get the number of values of a bucket
+         * @param bucket the bucket index. Bucket i counts the durations in [2^(i-1), 2^i[ nanoseconds
+         * @return the number of values of this bucket*/
+        public long getBucket(int bucket) {return m_buckets[bucket];}
+
+        /** Get an upper bound of a percentile
+         * @param percentile the percentile, in [0, 1]
+         * @return the upper bound of the bucket containing this percentile, in nanoseconds. 0 if nothing was recorded*/
+        public long getPercentile(double percentile)
+        {
+            if(m_count == 0)
+                return 0;
+
+            long rank = (long)Math.ceil(percentile*m_count);
+            long sum  = 0;
+            for(int i = 0; i < m_buckets.length; i++)
+            {
+                sum += m_buckets[i];
+                if(sum >= rank && sum > 0)
+                    return 1L << i;
+            }
+            return 1L << (m_buckets.length-1);
+        }
+    }
+
+    /** Immutable copy of the metrics (see NetworkMetrics.snapshot)*/
+    public static class Snapshot
+    {
+        /** Number of messages received per type (see MessageBuffer.GET_*)*/
+        public final long[] nbReceived;
+        /** Number of bytes received per type*/
+        public final long[] nbBytesReceived;
+        /** Sum of the decode durations per received type, in nanoseconds*/
+        public final long[] decodeTime;
+        /** Sum of the dispatch durations per received type, in nanoseconds*/
+        public final long[] dispatchTime;
+        /** Number of messages sent per type (see SocketManager types)*/
+        public final long[] nbSent;
+        /** Number of bytes sent per type*/
+        public final long[] nbBytesSent;
+
+        /** The histogram of the decode durations of the received messages*/
+        public final Histogram decodeHistogram;
+        /** The histogram of the dispatch durations of the received messages (time spent in the handlers)*/
+        public final Histogram dispatchHistogram;
+
+        /** Number of events waiting in the send queues*/
+        public final int nbPending;
+        /** Number of bytes waiting in the send queues*/
+        public final int nbPendingBytes;
+        /** Maximum number of events that waited in a send queue*/
+        public final int maxPending;
+        /** Number of events overwritten by a newer one before being sent*/
+        public final long nbCoalesced;
+        /** Number of continuous events dropped because their lane was full*/
+        public final long nbDropped;
+
+        /** Number of successful connections*/
+        public final long nbConnections;
+        /** Number of disconnections*/
+        public final long nbDisconnections;
+
+        /** The duration covered by this snapshot (since the creation or the last reset of the metrics), in nanoseconds*/
+        public final long duration;
+
+        Snapshot(NetworkMetrics m)
+        {
+            nbReceived        = toArray(m.m_nbReceived);
+            nbBytesReceived   = toArray(m.m_nbBytesReceived);
+            decodeTime        = toArray(m.m_decodeTime);
+            dispatchTime      = toArray(m.m_dispatchTime);
+            nbSent            = toArray(m.m_nbSent);
+            nbBytesSent       = toArray(m.m_nbBytesSent);
+            decodeHistogram   = new Histogram(toArray(m.m_decodeHistogram));
+            dispatchHistogram = new Histogram(toArray(m.m_dispatchHistogram));
+            nbConnections     = m.m_nbConnections.get();
+            nbDisconnections  = m.m_nbDisconnections.get();
+            duration          = System.nanoTime() - m.m_startTime;
+
+            int pending = 0, pendingBytes = 0, max = 0;
+            long coalesced = 0, dropped = 0;
+            synchronized(m.m_sendQueues)
+            {
+                for(CoalescingSendQueue q : m.m_sendQueues)
+                {
+                    pending      += q.getNbPending();
+                    pendingBytes += q.getNbPendingBytes();
+                    max           = Math.max(max, q.getMaxPending());
+                    coalesced    += q.getNbCoalesced();
+                    dropped      += q.getNbDropped();
+                }
+            }
+            nbPending      = pending;
+            nbPendingBytes = pendingBytes;
+            maxPending     = max;
+            nbCoalesced    = coalesced;
+            nbDropped      = dropped;
+        }
+
+        /** Get the total number of messages received
+         * @return the number of messages received, every type included*/
+        public long getTotalReceived() {return sum(nbReceived);}
+
+        /** Get the total number of bytes received
+         * @return the number of bytes received, every type included*/
+        public long getTotalBytesReceived() {return sum(nbBytesReceived);}
+
+        /** Get the total number of messages sent
+         * @return the number of messages sent, every type included*/
+        public long getTotalSent() {return sum(nbSent);}
+
+        /** Get the total number of bytes sent
+         * @return the number of bytes sent, every type included*/
+        public long getTotalBytesSent() {return sum(nbBytesSent);}
+
+        /** Dump the metrics, one line per message type used
+         * @return the metrics, as a human-readable text*/
+        @Override
+        public String toString()
+        {
+            double seconds = Math.max(duration*1e-9, 1e-9);
+            StringBuilder str = new StringBuilder();
+            str.append(String.format(Locale.US, "Network metrics over %.1f s: %d connection(s), %d disconnection(s)\n",
+                                     seconds, nbConnections, nbDisconnections));
+            str.append(String.format(Locale.US, "Received: %d messages (%.1f/s), %d bytes (%.1f kB/s). Decode p50 %d ns, p99 %d ns. Dispatch p50 %d ns, p99 %d ns\n",
+                                     getTotalReceived(), getTotalReceived()/seconds, getTotalBytesReceived(), getTotalBytesReceived()/seconds/1e3,
+                                     decodeHistogram.getPercentile(0.5), decodeHistogram.getPercentile(0.99),
+                                     dispatchHistogram.getPercentile(0.5), dispatchHistogram.getPercentile(0.99)));
+            for(int i = 0; i < NB_TYPES; i++)
+                if(nbReceived[i] > 0)
+                    str.append(String.format(Locale.US, "  in  %2d: %8d messages %10d bytes, %6d ns decode, %6d ns dispatch on average\n",
+                                             i, nbReceived[i], nbBytesReceived[i], decodeTime[i]/nbReceived[i], dispatchTime[i]/nbReceived[i]));
+            str.append(String.format(Locale.US, "Sent: %d messages (%.1f/s), %d bytes (%.1f kB/s). Queued: %d events (%d bytes), %d at most. %d coalesced, %d dropped\n",
+                                     getTotalSent(), getTotalSent()/seconds, getTotalBytesSent(), getTotalBytesSent()/seconds/1e3,
+                                     nbPending, nbPendingBytes, maxPending, nbCoalesced, nbDropped));
+            for(int i = 0; i < NB_TYPES; i++)
+                if(nbSent[i] > 0)
+                    str.append(String.format(Locale.US, "  out %2d: %8d messages %10d bytes\n", i, nbSent[i], nbBytesSent[i]));
+            return str.toString();
+        }
+
+        private static long[] toArray(AtomicLongArray array)
+        {
+            long[] res = new long[array.length()];
+            for(int i = 0; i < res.length; i++)
+                res[i] = array.get(i);
+            return res;
+        }
+
+        private static long sum(long[] array)
+        {
+            long res = 0;
+            for(long l : array)
+                res += l;
+            return res;
+        }
+    }
+
+    /** Number of messages received per type*/
+    private final AtomicLongArray m_nbReceived      = new AtomicLongArray(NB_TYPES);
+    /** Number of bytes received per type*/
+    private final AtomicLongArray m_nbBytesReceived = new AtomicLongArray(NB_TYPES);
+    /** Sum of the decode durations per type*/
+    private final AtomicLongArray m_decodeTime      = new AtomicLongArray(NB_TYPES);
+    /** Sum of the dispatch durations per type*/
+    private final AtomicLongArray m_dispatchTime    = new AtomicLongArray(NB_TYPES);
+    /** Number of messages sent per type*/
+    private final AtomicLongArray m_nbSent          = new AtomicLongArray(NB_TYPES);
+    /** Number of bytes sent per type*/
+    private final AtomicLongArray m_nbBytesSent     = new AtomicLongArray(NB_TYPES);
+
+    /** The histogram of the decode durations*/
+    private final AtomicLongArray m_decodeHistogram   = new AtomicLongArray(NB_BUCKETS);
+    /** The histogram of the dispatch durations*/
+    private final AtomicLongArray m_dispatchHistogram = new AtomicLongArray(NB_BUCKETS);
+
+    /** Number of successful connections*/
+    private final AtomicLong m_nbConnections    = new AtomicLong(0);
+    /** Number of disconnections*/
+    private final AtomicLong m_nbDisconnections = new AtomicLong(0);
+
+    /** The send queues whose depths are reported*/
+    private final ArrayList<CoalescingSendQueue> m_sendQueues = new ArrayList<>();
+
+    /** The time (System.nanoTime) of the creation or of the last reset*/
+    private volatile long m_startTime = System.nanoTime();
+
+    /** Record a received message
+     * @param type the message type (see MessageBuffer.GET_*)
+     * @param nbBytes the size of the message, type included
+     * @param decodeTime the time spent decoding the message, in nanoseconds
+     * @param dispatchTime the time spent in the handlers of the message, in nanoseconds*/
+    void onMessageReceived(int type, int nbBytes, long decodeTime, long dispatchTime)
+    {
+        int slot = slot(type);
+        m_nbReceived.incrementAndGet(slot);
+        m_nbBytesReceived.addAndGet(slot, nbBytes);
+        m_decodeTime.addAndGet(slot, decodeTime);
+        m_dispatchTime.addAndGet(slot, dispatchTime);
+        m_decodeHistogram.incrementAndGet(bucket(decodeTime));
+        m_dispatchHistogram.incrementAndGet(bucket(dispatchTime));
+    }
+
+    /** Record a message entirely written to the server
+     * @param type the message type (see SocketManager types)
+     * @param nbBytes the size of the message, type included*/
+    void onMessageSent(int type, int nbBytes)
+    {
+        int slot = slot(type);
+        m_nbSent.incrementAndGet(slot);
+        m_nbBytesSent.addAndGet(slot, nbBytes);
+    }
+
+    /** Record a successful connection*/
+    void onConnection()
+    {
+        m_nbConnections.incrementAndGet();
+    }
+
+    /** Record a disconnection*/
+    void onDisconnection()
+    {
+        m_nbDisconnections.incrementAndGet();
+    }
+
+    /** Report the depths of a send queue
+     * @param queue the queue to report*/
+    void addSendQueue(CoalescingSendQueue queue)
+    {
+        synchronized(m_sendQueues)
+        {
+            m_sendQueues.add(queue);
+        }
+    }
+
+    /** Stop reporting the depths of a send queue
+     * @param queue the queue to remove*/
+    void removeSendQueue(CoalescingSendQueue queue)
+    {
+        synchronized(m_sendQueues)
+        {
+            m_sendQueues.remove(queue);
+        }
+    }
+
+    /** Copy the current metrics
+     * @return the snapshot*/
+    public Snapshot snapshot()
+    {
+        return new Snapshot(this);
+    }
+
+    /** Reset every counter and histogram to 0, including the counters of the send queues*/
+    public void reset()
+    {
+        for(AtomicLongArray array : new AtomicLongArray[]{m_nbReceived, m_nbBytesReceived, m_decodeTime, m_dispatchTime,
+                                                           m_nbSent, m_nbBytesSent, m_decodeHistogram, m_dispatchHistogram})
+            for(int i = 0; i < array.length(); i++)
+                array.set(i, 0);
+        m_nbConnections.set(0);
+        m_nbDisconnections.set(0);
+
+        synchronized(m_sendQueues)
+        {
+            for(CoalescingSendQueue q : m_sendQueues)
+                q.resetCounters();
+        }
+        m_startTime = System.nanoTime();
+    }
+
+    /** Get the counter slot of a message type
+     * @param type the message type
+     * @return the slot index*/
+    private static int slot(int type)
+    {
+        return (type < 0 || type >= NB_TYPES) ? NB_TYPES-1 : type;
+    }
+
+    /** Get the histogram bucket of a duration
+     * @param duration the duration, in nanoseconds
+     * @return the bucket index*/
+    private static int bucket(long duration)
+    {
+        return Math.min(NB_BUCKETS-1, 64 - Long.numberOfLeadingZeros(Math.max(0, duration)));
+    }
+}
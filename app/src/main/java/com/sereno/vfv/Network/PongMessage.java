@@ -0,0 +1,13 @@
+package com.sereno.vfv.Network;
+
+/** Answer of the server to a PING event (see SocketManager.PING). The server sends back the sequence number and the timestamp of the ping unchanged*/
+public class PongMessage extends PongMessageFields
+{
+    /** Get the sequence number of the ping
+     * @return the sequence number*/
+    public int getSequence() {return m_sequence;}
+
+    /** Get the timestamp of the ping, as sent by the tablet
+     * @return the timestamp (System.nanoTime of the tablet)*/
+    public long getTimestamp() {return ((long)m_timestampHigh << 32) | (m_timestampLow & 0xffffffffL);}
+}
@@ -0,0 +1,214 @@
+package com.sereno.vfv.Network;
+
+/** Compact encoding of the poses (see SocketManager.setCompactPose):
+ *  - quaternions (w, i, j, k) use the smallest-three compression: the largest component is dropped (it is recomputed from the three others,
+ *    its sign being made positive as q and -q are the same rotation), and the three others, within [-1/sqrt(2), 1/sqrt(2)], are written as 15 bits each.
+ *    The three 16 bits values (see packQuaternion) carry the index of the dropped component in the high bits of the first two,
+ *  - positions are 16 bits fixed-point values within the workspace [-workspace, workspace] meters,
+ *  - scales are half-floats (IEEE 754 binary16).
+ * The errors are bounded: see QUATERNION_MAX_ERROR, getPositionMaxError and HALF_MAX_RELATIVE_ERROR.
+ * Values which cannot be encoded within these bounds (positions out of the workspace, scales out of the half-float normal range) are sent as floats*/
+final class PoseCodec
+{
+    /** The default half extent of the workspace, in meters*/
+    static final float DEFAULT_WORKSPACE = 8.0f;
+
+    /** The maximum error on each component of a unit quaternion encoded (compared to q, or -q)*/
+    static final float QUATERNION_MAX_ERROR = 1e-4f;
+
+    /** The maximum relative error of a half-float encoded (within the normal range)*/
+    static final float HALF_MAX_RELATIVE_ERROR = 1.0f/2048.0f;
+
+    /** The largest half-float*/
+    static final float HALF_MAX = 65504.0f;
+
+    /** The smallest normal half-float*/
+    static final float HALF_MIN_NORMAL = 6.103515625e-5f;
+
+    /** The largest value of a quaternion component encoded (15 bits, centered on 0)*/
+    private static final int QUATERNION_RANGE = 16383;
+
+    /** The factor converting a quaternion component in [-1/sqrt(2), 1/sqrt(2)] into [-QUATERNION_RANGE, QUATERNION_RANGE]*/
+    private static final float QUATERNION_SCALE = (float)(QUATERNION_RANGE*Math.sqrt(2.0));
+
+    /** The largest value of a fixed-point position encoded*/
+    private static final int FIXED_RANGE = 32767;
+
+    private PoseCodec()
+    {}
+
+    /** Pack a quaternion with the smallest-three compression
+     * @param q the quaternion array (w, i, j, k)
+     * @param offset where the quaternion starts in q
+     * @return the three 16 bits values, in the 48 low bits (the first one in the highest bits)*/
+    static long packQuaternion(float[] q, int offset)
+    {
+        //Normalize, and find the largest component
+        float norm = 0.0f;
+        int largest = 0;
+        for(int i = 0; i < 4; i++)
+        {
+            norm += q[offset+i]*q[offset+i];
+            if(Math.abs(q[offset+i]) > Math.abs(q[offset+largest]))
+                largest = i;
+        }
+        norm = (float)Math.sqrt(norm);
+        if(norm == 0.0f) //Identity: w = 1, and the three others at 0
+            return ((long)(QUATERNION_RANGE+1) << 32) | ((QUATERNION_RANGE+1) << 16) | (QUATERNION_RANGE+1);
+
+        //q and -q are the same rotation: make the dropped component positive
+        float factor = (q[offset+largest] < 0 ? -QUATERNION_SCALE : QUATERNION_SCALE)/norm;
+
+        long packed = 0;
+        int  j      = 0;
+        for(int i = 0; i < 4; i++)
+        {
+            if(i == largest)
+                continue;
+            int value = Math.round(q[offset+i]*factor);
+            value = Math.max(-QUATERNION_RANGE, Math.min(QUATERNION_RANGE, value)) + QUATERNION_RANGE + 1;
+
+            //The index of the dropped component goes in the high bit of the first two values
+            int indexBit = (j < 2 ? (largest >> (1-j)) & 1 : 0);
+            packed = (packed << 16) | (indexBit << 15) | value;
+            j++;
+        }
+        return packed;
+    }
+
+    /** Unpack a quaternion packed with packQuaternion. The quaternion is normalized
+     * @param packed the three 16 bits values
+     * @param q the quaternion array to fill (w, i, j, k)
+     * @param offset where the quaternion starts in q*/
+    static void unpackQuaternion(long packed, float[] q, int offset)
+    {
+        int v0 = (int)(packed >>> 32) & 0xffff;
+        int v1 = (int)(packed >>> 16) & 0xffff;
+        int v2 = (int)packed & 0xffff;
+        int largest = ((v0 >> 15) << 1) | (v1 >> 15);
+
+        float sum = 0.0f;
+        int j = 0;
+        for(int i = 0; i < 4; i++)
+        {
+            if(i == largest)
+                continue;
+            int value = ((j == 0 ? v0 : (j == 1 ? v1 : v2)) & 0x7fff) - QUATERNION_RANGE - 1;
+            j++;
+            q[offset+i] = value/QUATERNION_SCALE;
+            sum += q[offset+i]*q[offset+i];
+        }
+        q[offset+largest] = (float)Math.sqrt(Math.max(0.0f, 1.0f - sum));
+    }
+
+    /** Can a position be encoded as fixed-point values?
+     * @param p the position array (x, y, z)
+     * @param offset where the position starts in p
+     * @param workspace the half extent of the workspace, in meters
+     * @return true if every coordinate is within [-workspace, workspace]*/
+    static boolean isInWorkspace(float[] p, int offset, float workspace)
+    {
+        for(int i = 0; i < 3; i++)
+            if(!(Math.abs(p[offset+i]) <= workspace)) //Also false for NaN
+                return false;
+        return true;
+    }
+
+    /** Encode a coordinate as a fixed-point value
+     * @param value the coordinate, within [-workspace, workspace] (see isInWorkspace)
+     * @param workspace the half extent of the workspace, in meters
+     * @return the fixed-point value*/
+    static short toFixed(float value, float workspace)
+    {
+        int fixed = Math.round(value/workspace*FIXED_RANGE);
+        return (short)Math.max(-FIXED_RANGE, Math.min(FIXED_RANGE, fixed));
+    }
+
+    /** Decode a fixed-point coordinate
+     * @param fixed the fixed-point value (see toFixed)
+     * @param workspace the half extent of the workspace, in meters
+     * @return the coordinate*/
+    static float fromFixed(short fixed, float workspace)
+    {
+        return fixed*workspace/FIXED_RANGE;
+    }
+
+    /** Get the maximum error of a position encoded as fixed-point values
+     * @param workspace the half extent of the workspace, in meters
+     * @return the maximum error per coordinate, in meters*/
+    static float getPositionMaxError(float workspace)
+    {
+        return workspace/(2.0f*FIXED_RANGE);
+    }
+
+    /** Can a value be encoded as a half-float within HALF_MAX_RELATIVE_ERROR?
+     * @param value the value
+     * @return true if the value is 0 or in the normal range of the half-floats*/
+    static boolean isHalfEncodable(float value)
+    {
+        float abs = Math.abs(value);
+        return value == 0.0f || (abs >= HALF_MIN_NORMAL && abs <= HALF_MAX);
+    }
+
+    /** Encode a value as a half-float (rounded to the nearest)
+     * @param value the value (see isHalfEncodable)
+     * @return the half-float bits*/
+    static short toHalf(float value)
+    {
+        int bits     = Float.floatToIntBits(value);
+        int sign     = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+
+        if(exponent <= 0) //Too small: 0
+            return (short)sign;
+        if(exponent >= 31) //Too large: infinity
+            return (short)(sign | 0x7c00);
+
+        int half = sign | (exponent << 10) | (mantissa >>> 13);
+        if((mantissa & 0x1000) != 0) //Round to the nearest. A carry correctly goes into the exponent
+            half++;
+        return (short)half;
+    }
+
+    /** Decode a half-float
+     * @param half the half-float bits (see toHalf)
+     * @return the value*/
+    static float fromHalf(short half)
+    {
+        int sign     = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+
+        if(exponent == 0) //Subnormal or 0
+        {
+            float value = mantissa*5.9604645e-8f;
+            return (sign != 0 ? -value : value);
+        }
+        if(exponent == 31) //Infinity or NaN
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    /** Write a quaternion packed with packQuaternion
+     * @param encoder the encoder of the event
+     * @param q the quaternion array (w, i, j, k)
+     * @return encoder*/
+    static CoalescingSendQueue.Encoder putQuaternion(CoalescingSendQueue.Encoder encoder, float[] q)
+    {
+        long packed = packQuaternion(q, 0);
+        return encoder.putShort((short)(packed >>> 32)).putShort((short)(packed >>> 16)).putShort((short)packed);
+    }
+
+    /** Write a position as fixed-point values
+     * @param encoder the encoder of the event
+     * @param p the position array (x, y, z), within the workspace (see isInWorkspace)
+     * @param workspace the half extent of the workspace, in meters
+     * @return encoder*/
+    static CoalescingSendQueue.Encoder putPosition(CoalescingSendQueue.Encoder encoder, float[] p, float workspace)
+    {
+        for(int i = 0; i < 3; i++)
+            encoder.putShort(toFixed(p[i], workspace));
+        return encoder;
+    }
+}
@@ -0,0 +1,67 @@
+package com.sereno.vfv.Network;
+
+/** Big endian reading and writing of the protocol values in byte arrays, used by the code generated from the protocol schema
+ * (see src/main/protocol/vfv.schema and ProtocolGenerator in buildSrc). The bounds are checked by the callers, once per message*/
+final class ProtocolCodec
+{
+    private ProtocolCodec()
+    {}
+
+    /** Read a 16 bits integer
+     * @param data the data to read
+     * @param offset where the value starts
+     * @return the value read*/
+    static short getShort(byte[] data, int offset)
+    {
+        return (short)((data[offset] << 8) | (data[offset+1] & 0xff));
+    }
+
+    /** Read a 32 bits integer
+     * @param data the data to read
+     * @param offset where the value starts
+     * @return the value read*/
+    static int getInt(byte[] data, int offset)
+    {
+        return (data[offset] << 24) | ((data[offset+1] & 0xff) << 16) | ((data[offset+2] & 0xff) << 8) | (data[offset+3] & 0xff);
+    }
+
+    /** Read a 32 bits float
+     * @param data the data to read
+     * @param offset where the value starts
+     * @return the value read*/
+    static float getFloat(byte[] data, int offset)
+    {
+        return Float.intBitsToFloat(getInt(data, offset));
+    }
+
+    /** Write a 16 bits integer
+     * @param data the data to write into
+     * @param offset where the value starts
+     * @param value the value to write*/
+    static void putShort(byte[] data, int offset, short value)
+    {
+        data[offset]   = (byte)(value >> 8);
+        data[offset+1] = (byte)value;
+    }
+
+    /** Write a 32 bits integer
+     * @param data the data to write into
+     * @param offset where the value starts
+     * @param value the value to write*/
+    static void putInt(byte[] data, int offset, int value)
+    {
+        data[offset]   = (byte)(value >> 24);
+        data[offset+1] = (byte)(value >> 16);
+        data[offset+2] = (byte)(value >> 8);
+        data[offset+3] = (byte)value;
+    }
+
+    /** Write a 32 bits float
+     * @param data the data to write into
+     * @param offset where the value starts
+     * @param value the value to write*/
+    static void putFloat(byte[] data, int offset, float value)
+    {
+        putInt(data, offset, Float.floatToRawIntBits(value));
+    }
+}
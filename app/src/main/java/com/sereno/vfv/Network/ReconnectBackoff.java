@@ -0,0 +1,69 @@
+package com.sereno.vfv.Network;
+
+import java.util.Random;
+
+/** Delays between two connection attempts: exponential backoff with jitter.
+ * The n-th consecutive failure waits a random delay in [D/2, D], with D = min(maxDelay, minDelay*2^n):
+ * a Wi-Fi blip is recovered from within a few tens of milliseconds, an unreachable server is not hammered,
+ * and the tablets disconnected by the same outage do not all retry at the same time. Every method is thread-safe*/
+class ReconnectBackoff
+{
+    /** The default delay after the first failure, in milliseconds*/
+    static final long DEFAULT_MIN_DELAY = 50;
+
+    /** The default maximum delay, in milliseconds*/
+    static final long DEFAULT_MAX_DELAY = 5000;
+
+    /** The delay after the first failure, in milliseconds*/
+    private final long m_minDelay;
+
+    /** The maximum delay, in milliseconds*/
+    private final long m_maxDelay;
+
+    /** The random generator of the jitter*/
+    private final Random m_random;
+
+    /** Number of consecutive failures*/
+    private int m_nbFailures = 0;
+
+    /** Constructor, with DEFAULT_MIN_DELAY and DEFAULT_MAX_DELAY*/
+    ReconnectBackoff()
+    {
+        this(DEFAULT_MIN_DELAY, DEFAULT_MAX_DELAY, new Random());
+    }
+
+    /** Constructor
+     * @param minDelay the delay after the first failure, in milliseconds
+     * @param maxDelay the maximum delay, in milliseconds
+     * @param random the random generator of the jitter*/
+    ReconnectBackoff(long minDelay, long maxDelay, Random random)
+    {
+        m_minDelay = minDelay;
+        m_maxDelay = maxDelay;
+        m_random   = random;
+    }
+
+    /** Record a failed attempt and get the delay before the next one
+     * @return the delay to wait, in milliseconds*/
+    synchronized long nextDelay()
+    {
+        long delay = m_maxDelay;
+        if(m_nbFailures < 62 && (m_minDelay << m_nbFailures) < m_maxDelay)
+            delay = m_minDelay << m_nbFailures;
+        m_nbFailures++;
+        return delay/2 + (long)(m_random.nextDouble()*(delay - delay/2));
+    }
+
+    /** Record a successful attempt: the next failure waits about minDelay again*/
+    synchronized void reset()
+    {
+        m_nbFailures = 0;
+    }
+
+    /** Get the number of consecutive failures
+     * @return the number of failed attempts since the last success*/
+    synchronized int getNbFailures()
+    {
+        return m_nbFailures;
+    }
+}
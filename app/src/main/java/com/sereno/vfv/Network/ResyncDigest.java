@@ -0,0 +1,143 @@
+package com.sereno.vfv.Network;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Compact digest of the datasets the tablet knows: the dataset IDs, their subdataset IDs, and the version of the transfer function of each subdataset.
+ * It is sent to the server after each reconnection (see SocketManager.setResyncEnabled) so that the server only sends what the tablet misses,
+ * instead of the whole application state.
+ *
+ * The digest is maintained from the messages received and sent (not from the ApplicationModel, which belongs to the UI thread).
+ * The version of a transfer function is the one of its last state applied or sent (see TFState.getVersion), so that it matches the one
+ * of the server whatever the updates the tablet missed. A version differing from the one of the server only makes the server resend the transfer function.
+ * Every method is thread-safe*/
+public class ResyncDigest
+{
+    /** The version of a subdataset whose transfer function state is unknown. The server then resends it*/
+    public static final int NO_TF_VERSION = 0;
+
+    /** The transfer function versions per subdataset ID, per dataset ID. Sorted for the digest to be deterministic*/
+    private final TreeMap<Integer, TreeMap<Integer, Integer>> m_datasets = new TreeMap<>();
+
+    /** Add a dataset
+     * @param datasetID the dataset ID*/
+    public synchronized void addDataset(int datasetID)
+    {
+        if(!m_datasets.containsKey(datasetID))
+            m_datasets.put(datasetID, new TreeMap<Integer, Integer>());
+    }
+
+    /** Remove a dataset and its subdatasets
+     * @param datasetID the dataset ID*/
+    public synchronized void removeDataset(int datasetID)
+    {
+        m_datasets.remove(datasetID);
+    }
+
+    /** Add a subdataset. Its dataset is added if unknown
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID*/
+    public synchronized void addSubDataset(int datasetID, int subDatasetID)
+    {
+        addDataset(datasetID);
+        TreeMap<Integer, Integer> sds = m_datasets.get(datasetID);
+        if(!sds.containsKey(subDatasetID))
+            sds.put(subDatasetID, NO_TF_VERSION);
+    }
+
+    /** Remove a subdataset
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID*/
+    public synchronized void removeSubDataset(int datasetID, int subDatasetID)
+    {
+        TreeMap<Integer, Integer> sds = m_datasets.get(datasetID);
+        if(sds != null)
+            sds.remove(subDatasetID);
+    }
+
+    /** Set the version of the transfer function of a subdataset, once a state is applied or sent. Unknown subdatasets are ignored
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @param version the version of the transfer function state (see TFState.getVersion), or NO_TF_VERSION if it has no TFState*/
+    public synchronized void setTFVersion(int datasetID, int subDatasetID, int version)
+    {
+        TreeMap<Integer, Integer> sds = m_datasets.get(datasetID);
+        if(sds != null && sds.containsKey(subDatasetID))
+            sds.put(subDatasetID, version);
+    }
+
+    /** Get the version of the transfer function of a subdataset
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @return the version of the transfer function (see setTFVersion), or NO_TF_VERSION if unknown*/
+    public synchronized int getTFVersion(int datasetID, int subDatasetID)
+    {
+        TreeMap<Integer, Integer> sds = m_datasets.get(datasetID);
+        if(sds == null || !sds.containsKey(subDatasetID))
+            return NO_TF_VERSION;
+        return sds.get(subDatasetID);
+    }
+
+    /** Does the digest contain a dataset?
+     * @param datasetID the dataset ID
+     * @return true if yes, false otherwise*/
+    public synchronized boolean containsDataset(int datasetID)
+    {
+        return m_datasets.containsKey(datasetID);
+    }
+
+    /** Does the digest contain a subdataset?
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @return true if yes, false otherwise*/
+    public synchronized boolean containsSubDataset(int datasetID, int subDatasetID)
+    {
+        TreeMap<Integer, Integer> sds = m_datasets.get(datasetID);
+        return sds != null && sds.containsKey(subDatasetID);
+    }
+
+    /** Remove every dataset*/
+    public synchronized void clear()
+    {
+        m_datasets.clear();
+    }
+
+    /** Remove what the server reported as stale
+     * @param msg the answer of the server to the digest*/
+    synchronized void onResyncDone(ResyncDoneMessage msg)
+    {
+        int[] sds = msg.getStaleSubDatasets();
+        for(int i = 0; i+1 < sds.length; i += 2)
+            removeSubDataset(sds[i], sds[i+1]);
+        for(int datasetID : msg.getStaleDatasets())
+            removeDataset(datasetID);
+    }
+
+    /** Create the RESYNC_DIGEST event: int nbDatasets, then per dataset: int datasetID, int nbSubDatasets, and (int subDatasetID, int tfVersion) per subdataset.
+     * tfVersion is the CRC32 of the transfer function state (see TFState.getVersion), or NO_TF_VERSION
+     * @return array of byte to send*/
+    public synchronized byte[] createEvent()
+    {
+        int size = 2+4;
+        for(TreeMap<Integer, Integer> sds : m_datasets.values())
+            size += 4+4+8*sds.size();
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.putShort(SocketManager.RESYNC_DIGEST);
+        buf.putInt(m_datasets.size());
+        for(Map.Entry<Integer, TreeMap<Integer, Integer>> dataset : m_datasets.entrySet())
+        {
+            buf.putInt(dataset.getKey());
+            buf.putInt(dataset.getValue().size());
+            for(Map.Entry<Integer, Integer> sd : dataset.getValue().entrySet())
+            {
+                buf.putInt(sd.getKey());
+                buf.putInt(sd.getValue());
+            }
+        }
+        return buf.array();
+    }
+}
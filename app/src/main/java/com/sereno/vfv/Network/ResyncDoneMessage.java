@@ -0,0 +1,51 @@
+package com.sereno.vfv.Network;
+
+/** Last message of the answer of the server to a RESYNC_DIGEST event (see SocketManager.setResyncEnabled).
+ * The server first sends what the tablet misses with the usual messages (datasets, subdatasets, transfer functions),
+ * then this message listing what the tablet has but the server does not have anymore*/
+public class ResyncDoneMessage extends ServerMessage
+{
+    /** The IDs of the datasets to remove*/
+    private int[] m_staleDatasets = null;
+
+    /** The dataset and subdataset IDs of the subdatasets to remove (two integers per subdataset)*/
+    private int[] m_staleSubDatasets = null;
+
+    @Override
+    public void pushValue(int value)
+    {
+        if(cursor == 0)
+            m_staleDatasets = new int[Math.max(0, value)];
+        else if(cursor <= m_staleDatasets.length)
+            m_staleDatasets[cursor-1] = value;
+        else if(cursor == m_staleDatasets.length+1)
+            m_staleSubDatasets = new int[2*Math.max(0, value)];
+        else
+            m_staleSubDatasets[cursor-2-m_staleDatasets.length] = value;
+        super.pushValue(value);
+    }
+
+    @Override
+    public byte getCurrentType()
+    {
+        return 'I';
+    }
+
+    @Override
+    public int getMaxCursor()
+    {
+        if(m_staleDatasets == null)
+            return 0;
+        if(m_staleSubDatasets == null)
+            return m_staleDatasets.length+1;
+        return m_staleDatasets.length+1+m_staleSubDatasets.length;
+    }
+
+    /** Get the datasets the tablet has to remove
+     * @return the dataset IDs*/
+    public int[] getStaleDatasets() {return m_staleDatasets;}
+
+    /** Get the subdatasets the tablet has to remove
+     * @return the dataset and subdataset IDs, two integers per subdataset (datasetID, subDatasetID)*/
+    public int[] getStaleSubDatasets() {return m_staleSubDatasets;}
+}
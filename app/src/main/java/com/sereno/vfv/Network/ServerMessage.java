@@ -1,5 +1,7 @@
 package com.sereno.vfv.Network;
 
+import java.nio.ByteBuffer;
+
 /** Basic class representing a ServerMessage (message received from the Server)*/
 abstract class ServerMessage
 {
@@ -14,6 +16,9 @@ abstract class ServerMessage
      * 'I' == int
      * 'f' == float
      * 's' == string
+     * 'a' == byte array
+     * 'A' == byte array read into a pooled direct ByteBuffer (see DirectBufferPool)
+     * 'b' == byte
      * @return the type to read
      */
     abstract byte getCurrentType();
@@ -42,10 +47,39 @@ abstract class ServerMessage
      * @param value the value to push*/
     void pushValue(byte[] value) {cursor++;}
 
+    /** Push a byte array value stored in a direct buffer
+     * @param value the value to push. The buffer belongs to the DirectBufferPool of the MessageBuffer,
+     * and should be released once consumed*/
+    void pushValue(ByteBuffer value) {cursor++;}
+
+    /** Get the conflation key of this message. Messages sharing the same key replace the state carried by the previous ones,
+     * so that only the latest one needs to be applied (see MessageConflator)
+     * @return the conflation key, or -1 if this message cannot be conflated (i.e., it is an ordered command)*/
+    long getConflationKey() {return -1;}
+
+    /** Build a conflation key
+     * @param type the message type
+     * @param datasetID the dataset ID the state belongs to (0 if not applicable)
+     * @param subDatasetID the subdataset ID the state belongs to (0 if not applicable)
+     * @return the conflation key*/
+    static long conflationKey(int type, int datasetID, int subDatasetID)
+    {
+        return ((long)(type & 0xffff) << 48) | ((long)(datasetID & 0xffffff) << 24) | (subDatasetID & 0xffffff);
+    }
+
     /** What is the maximum cursor of this message?
      * @return the maximum cursor (included) this message can handle. -1 == no data to push*/
     int getMaxCursor() {return -1;}
 
+    /** Get the size of this message when all its values have a fixed size (see the protocol schema, src/main/protocol/vfv.schema)
+     * @return the size of the message without its type, in bytes, or -1 if the message has a variable size*/
+    int getFixedSize() {return -1;}
+
+    /** Decode at once a message of fixed size (see getFixedSize), instead of value by value. Called only when the whole message is available
+     * @param data the data to read
+     * @param offset where the message (after its type) starts in data*/
+    void decodeFixed(byte[] data, int offset) {}
+
     /** Get the type of this Message
      * @return the type of the Message. See MessageBuffer*/
     public int getType() {return type;}
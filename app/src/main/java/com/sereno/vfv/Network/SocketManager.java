@@ -1,6 +1,7 @@
 package com.sereno.vfv.Network;
 
 import android.graphics.Point;
+import android.util.Log;
 
 import com.sereno.color.Color;
 import com.sereno.vfv.Data.Annotation.DrawableAnnotationPosition;
@@ -16,16 +17,20 @@ import com.sereno.view.AnnotationStroke;
 import com.sereno.view.AnnotationText;
 import com.sereno.vfv.Data.TF.GTFData;
 
-import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SocketManager
 {
@@ -34,15 +39,34 @@ public class SocketManager
         /** Function called when the socket has been disconnected
          * @param socket The SocketManager calling this Method*/
         void onDisconnection(SocketManager socket);
+
+        /** Function called when the send queue becomes congested, or when it is not congested anymore (see CoalescingSendQueue).
+         * Called from the thread pushing or sending the data
+         * @param socket The SocketManager calling this Method
+         * @param isCongested true if the send queue is congested, false otherwise*/
+        void onBackpressureChanged(SocketManager socket, boolean isCongested);
+
+        /** Function called when a pong has been received and the latency estimate updated (see startLatencyProbe).
+         * Called from the reading thread
+         * @param socket The SocketManager calling this Method
+         * @param latency the updated latency estimate*/
+        void onLatencyUpdated(SocketManager socket, LatencyEstimator latency);
     }
 
     /** The connection timeout in milliseconds*/
     public static final int CONNECT_TIMEOUT    = 100;
     /** How many milliseconds the thread has to sleep before reattempting to connect ?*/
     public static final int FAIL_CONNECT_SLEEP = 200;
-    /** How many milliseconds the thread has to sleep before resending data ?*/
+    /** The period of one frame at 90 Hz, in milliseconds. The delays between two connection attempts are given by ReconnectBackoff*/
     public static final int THREAD_SLEEP       = 1000/90;
     public static final int READ_TIMEOUT       = 0;
+    /** The default period of the latency probe, in milliseconds (see startLatencyProbe)*/
+    public static final int DEFAULT_PROBE_PERIOD = 1000;
+
+    /** Blocking transport: one Socket with a reading thread and a writing thread*/
+    public static final int TRANSPORT_BLOCKING = 0;
+    /** Non-blocking transport: one SocketChannel driven by a single selector thread (see NIOTransport)*/
+    public static final int TRANSPORT_NIO      = 1;
 
     /* ************************************************************ */
     /* ******************Recognizable server type****************** */
@@ -84,6 +108,27 @@ public class SocketManager
     public static final short ADD_CLIENT_TO_SV_GROUP                 = 40;
     public static final short RENAME_SUBDATASET                      = 41;
     public static final short SET_VOLUMETRIC_SELECTION_METHOD        = 43;
+    public static final short IDENT_BULK_CHANNEL                     = 44;
+    public static final short PING                                   = 45;
+    public static final short RESYNC_DIGEST                          = 46;
+    public static final short OPEN_DATAGRAM_CHANNEL                  = 47;
+    public static final short LASSO_BEGIN                            = 48;
+    public static final short LASSO_APPEND                           = 49;
+    public static final short LASSO_END                              = 50;
+    public static final short ANNOTATION_STROKE_BEGIN                = 51;
+    public static final short ANNOTATION_STROKE_POINTS               = 52;
+    public static final short ANNOTATION_STROKE_END                  = 53;
+    public static final short TF_DIFF                                = 54;
+    public static final short ENABLE_COMPACT_POSE                    = 55;
+    public static final short ROTATE_DATASET_COMPACT                 = 56;
+    public static final short TRANSLATE_DATASET_COMPACT              = 57;
+    public static final short SCALE_DATASET_COMPACT                  = 58;
+    public static final short LOCATION_COMPACT                       = 59;
+    public static final short HEADSETS_STATUS_ACK                    = 60;
+    public static final short ENABLE_COMPRESSED_MASK                 = 61;
+
+    /** The event types sent on the bulk channel by default, once enabled (see enableBulkChannel)*/
+    public static final short[] DEFAULT_BULK_TYPES = {TF_SUBDATASET, TF_DIFF, SEND_ANNOTATION};
 
     /* ************************************************************ */
     /* *********************Private attributes********************* */
@@ -92,12 +137,12 @@ public class SocketManager
     /** The socket object for communicating with the server*/
     private Socket           m_socket;
     /** The output stream of the socket*/
-    private DataOutputStream m_output;
+    private OutputStream     m_output;
     /** The input stream of the socket*/
     private InputStream      m_input;
 
     /** The ip of the server*/
-    private String m_serverIP;
+    private volatile String m_serverIP;
     /** The port of the server*/
     private int    m_serverPort;
 
@@ -109,26 +154,256 @@ public class SocketManager
     private boolean m_isClosed = false;
 
     /** The Hololens IP to bind*/
-    private String  m_hololensIP = null;
+    private volatile String m_hololensIP = null;
     /** The user's handedness (default: right)*/
     private int     m_handedness = ApplicationModel.HANDEDNESS_RIGHT;
     /** The tablet ID (see config.json)*/
     private int     m_tabletID = 0;
 
     /** Is the hololens bound to this tablet?*/
-    private boolean m_isBoundToHololens = false;
+    private volatile boolean m_isBoundToHololens = false;
 
     /** The message buffer being used*/
     private MessageBuffer m_msgBuffer = new MessageBuffer();
 
-    /** The queue buffer storing data to SEND*/
-    private ArrayDeque<byte[]> m_queueSendBuf = new ArrayDeque<>();
+    /** The queue buffer storing data to SEND, coalescing superseded state events. The writing thread waits on it until data is pushed*/
+    private CoalescingSendQueue m_queueSendBuf = new CoalescingSendQueue();
+
+    /** The micro-batching window of the writing thread, in nanoseconds. 0 == write the data as soon as it is pushed*/
+    private volatile long m_batchingWindow = 0;
+
+    /** The buffer the writing thread gathers a batch into, so that a flush costs one write system call. Grown as needed*/
+    private byte[] m_flushBuffer = new byte[65536];
+
+    /** The metrics of the writes, whatever the transport*/
+    private FlushMetrics m_flushMetrics = new FlushMetrics();
+
+    /** The metrics of the protocol load*/
+    private NetworkMetrics m_metrics = new NetworkMetrics();
 
     /** List of listener to call when the socket status changes*/
     private ArrayList<ISocketManagerListener> m_listeners = new ArrayList<>();
 
+    /** The recorder of the incoming traffic. null if the traffic is not recorded*/
+    private volatile TrafficRecorder m_recorder = null;
+
+    /** The second connection dedicated to bulk transfers. null if disabled (see enableBulkChannel)*/
+    private volatile BulkChannel m_bulkChannel = null;
+
+    /** The bulk port of the server*/
+    private int m_bulkPort = -1;
+
+    /** The event types sent on the bulk channel, indexed by type*/
+    private volatile boolean[] m_bulkTypes = new boolean[0];
+
+    /** The estimate of the round-trip time, fed by the pongs*/
+    private LatencyEstimator m_latency = new LatencyEstimator();
+
+    /** The sequence number of the next ping*/
+    private AtomicInteger m_pingSequence = new AtomicInteger(0);
+
+    /** The thread sending the pings periodically. null if the latency is not probed*/
+    private Thread m_probeThread = null;
+
+    /** Handler of the pongs, updating the latency estimate on the reading thread*/
+    private MessageBuffer.IMessageHandler<PongMessage> m_pongHandler = new MessageBuffer.IMessageHandler<PongMessage>()
+    {
+        @Override
+        public void onMessage(PongMessage msg)
+        {
+            m_latency.addSample(msg.getSequence(), System.nanoTime() - msg.getTimestamp());
+            for(ISocketManagerListener l : m_listeners)
+                l.onLatencyUpdated(SocketManager.this, m_latency);
+        }
+    };
+
+    /** The delays between two connection attempts of the blocking transport*/
+    private ReconnectBackoff m_backoff = new ReconnectBackoff();
+
+    /** The datasets known by the tablet, sent after each identification if the resynchronization is enabled*/
+    private ResyncDigest m_resyncDigest = new ResyncDigest();
+
+    /** Is the resynchronization enabled? (see setResyncEnabled)*/
+    private volatile boolean m_resyncEnabled = false;
+
+    /** Handler keeping m_resyncDigest up to date with the datasets received*/
+    private MessageBuffer.IMessageHandler<ServerMessage> m_resyncHandler = new MessageBuffer.IMessageHandler<ServerMessage>()
+    {
+        @Override
+        public void onMessage(ServerMessage msg)
+        {
+            switch(msg.getType())
+            {
+                case MessageBuffer.GET_ADD_VTK_DATASET:
+                    m_resyncDigest.addDataset(((AddVTKDatasetMessage)msg).getDataID());
+                    break;
+                case MessageBuffer.GET_ADD_CLOUD_POINT_DATASET:
+                    m_resyncDigest.addDataset(((AddCloudPointDatasetMessage)msg).getDataID());
+                    break;
+                case MessageBuffer.GET_ADD_SUBDATASET:
+                {
+                    AddSubDatasetMessage addMsg = (AddSubDatasetMessage)msg;
+                    m_resyncDigest.addSubDataset(addMsg.getDatasetID(), addMsg.getSubDatasetID());
+                    break;
+                }
+                case MessageBuffer.GET_DEL_SUBDATASET:
+                {
+                    RemoveSubDatasetMessage delMsg = (RemoveSubDatasetMessage)msg;
+                    m_resyncDigest.removeSubDataset(delMsg.getDatasetID(), delMsg.getSubDatasetID());
+                    break;
+                }
+                case MessageBuffer.GET_RESYNC_DONE:
+                    m_resyncDigest.onResyncDone((ResyncDoneMessage)msg);
+                    break;
+            }
+        }
+    };
+
+    /** The incremental lasso streamer. null if the lasso is sent as a whole (see setIncrementalLasso)*/
+    private volatile LassoStreamer m_lassoStreamer = null;
+
+    /** The streamer of the annotation strokes (see setAnnotationStreaming)*/
+    private final AnnotationStrokeStreamer m_strokeStreamer = new AnnotationStrokeStreamer(m_queueSendBuf);
+
+    /** Are the annotation strokes streamed while they are drawn?*/
+    private volatile boolean m_annotationStreaming = false;
+
+    /** The last transfer function state synchronized with the server, per subdataset (see pushTFEvent). Used while holding its lock*/
+    private final HashMap<Long, TFState> m_tfStates = new HashMap<>();
+
+    /** Are the transfer function updates sent as diffs?*/
+    private volatile boolean m_tfDiffEnabled = false;
+
+    /** Are the volumetric masks requested run-length encoded?*/
+    private volatile boolean m_compressedMask = false;
+
+    /** The half extent of the workspace requested for the compact poses, in meters. 0 if the poses are sent as floats (see setCompactPose)*/
+    private volatile float m_compactWorkspace = 0.0f;
+
+    /** The half extent of the workspace accepted by the server for this connection, in meters. 0 until the compact poses are negotiated*/
+    private volatile float m_poseWorkspace = 0.0f;
+
+    /** The decoder of the compact headsets status, acknowledging them*/
+    private final HeadsetsStatusDecoder m_headsetsStatusDecoder = new HeadsetsStatusDecoder(m_queueSendBuf);
+
+    /** Handler of the compact poses negotiation*/
+    private MessageBuffer.IMessageHandler<CompactPoseMessage> m_compactPoseHandler = new MessageBuffer.IMessageHandler<CompactPoseMessage>()
+    {
+        @Override
+        public void onMessage(CompactPoseMessage msg)
+        {
+            if(m_compactWorkspace <= 0.0f || msg.getWorkspace() <= 0.0f)
+            {
+                if(m_compactWorkspace > 0.0f)
+                    Log.i(MainActivity.TAG, "The server does not support the compact poses: they are sent as floats");
+                m_poseWorkspace = 0.0f;
+                return;
+            }
+
+            m_headsetsStatusDecoder.setWorkspace(msg.getWorkspace());
+            m_poseWorkspace = msg.getWorkspace();
+        }
+    };
+
+    /** The datagram side-channel of the continuous streams. null if disabled (see setDatagramEnabled)*/
+    private volatile LossyChannel m_lossyChannel = null;
+
+    /** Handler of the datagram channel negotiation*/
+    private MessageBuffer.IMessageHandler<DatagramChannelMessage> m_datagramHandler = new MessageBuffer.IMessageHandler<DatagramChannelMessage>()
+    {
+        @Override
+        public void onMessage(DatagramChannelMessage msg)
+        {
+            LossyChannel lossy = m_lossyChannel;
+            if(lossy == null)
+                return;
+
+            if(msg.getPort() <= 0)
+            {
+                Log.i(MainActivity.TAG, "The server has no datagram channel: the continuous streams go over TCP");
+                lossy.close();
+                return;
+            }
+
+            //The address is resolved here, on the reading thread
+            InetSocketAddress target = new InetSocketAddress(m_serverIP, msg.getPort());
+            if(target.isUnresolved())
+                lossy.close();
+            else
+                lossy.open(target, msg.getToken());
+        }
+    };
+
+    /** The non-blocking transport. null if the blocking transport (m_socket, m_writeThread and m_readThread) is used*/
+    private NIOTransport m_nioTransport = null;
+
+    /** Listener of m_queueSendBuf, waking up the writer of the transport in use*/
+    private CoalescingSendQueue.ISendQueueListener m_queueListener = new CoalescingSendQueue.ISendQueueListener()
+    {
+        @Override
+        public void onPush(CoalescingSendQueue queue)
+        {
+            if(m_nioTransport != null)
+                m_nioTransport.wakeup();
+            else
+            {
+                synchronized(queue)
+                {
+                    queue.notify();
+                }
+            }
+        }
+
+        @Override
+        public void onBackpressureChanged(CoalescingSendQueue queue, boolean isCongested)
+        {
+            for(ISocketManagerListener l : m_listeners)
+                l.onBackpressureChanged(SocketManager.this, isCongested);
+        }
+    };
+
+    /** Listener of m_nioTransport*/
+    private NIOTransport.ITransportListener m_nioListener = new NIOTransport.ITransportListener()
+    {
+        @Override
+        public byte[] onIdentRequired()
+        {
+            if(m_hololensIP == null)
+                return null;
+            m_isBoundToHololens = true;
+            return getIdentData();
+        }
+
+        @Override
+        public void onConnection()
+        {
+            m_metrics.onConnection();
+        }
+
+        @Override
+        public void onDataReceived(byte[] data, int size)
+        {
+            record(data, size);
+            m_msgBuffer.push(data, size);
+        }
+
+        @Override
+        public void onDisconnection()
+        {
+            m_metrics.onDisconnection();
+            m_isBoundToHololens = false;
+            LossyChannel lossy = m_lossyChannel;
+            if(lossy != null)
+                lossy.close();
+            clearTFStates();
+            resetCompactPose();
+            for(ISocketManagerListener l : m_listeners)
+                l.onDisconnection(SocketManager.this);
+        }
+    };
 
-    /** Runnable writing to the socket. It also tries to reconnect to the server every time*/
+
+    /** Runnable writing to the socket. It sleeps until data is pushed (or the socket connects), and then writes it*/
     private Runnable m_writeThreadRunnable = new Runnable()
     {
         @Override
@@ -136,20 +411,26 @@ public class SocketManager
         {
             while(!m_isClosed)
             {
-                //Connect the socket
-                boolean isConnected = m_socket.isConnected();
-
-                //If not connected, sleep longer
-                if(!isConnected)
+                //Wait for something to write. The timeout only protects against a missed connection notification
+                long oldestPushTime;
+                synchronized(m_queueSendBuf)
                 {
-                    try {Thread.sleep(SocketManager.FAIL_CONNECT_SLEEP);} catch (Exception e) {}
-                    continue;
+                    while(!m_isClosed && !hasDataToWrite())
+                    {
+                        try {m_queueSendBuf.wait(SocketManager.FAIL_CONNECT_SLEEP);} catch (InterruptedException e) {}
+                    }
+                    oldestPushTime = m_queueSendBuf.getOldestPushTime();
                 }
 
-                if(!checkWritting())
-                    continue;
+                if(m_isClosed)
+                    break;
 
-                try{Thread.sleep(SocketManager.THREAD_SLEEP);} catch (Exception e) {}
+                //Micro-batching: let the data pushed within the window be written together
+                long waitTime = oldestPushTime + m_batchingWindow - System.nanoTime();
+                if(m_batchingWindow > 0 && waitTime > 0)
+                    try {Thread.sleep(waitTime/1000000, (int)(waitTime%1000000));} catch (InterruptedException e) {}
+
+                checkWritting();
             }
         }
     };
@@ -183,13 +464,16 @@ public class SocketManager
                     {
                         int readSize = m_input.read(buf);
                         if (readSize > 0)
+                        {
+                            record(buf, readSize);
                             m_msgBuffer.push(buf, readSize);
+                        }
                         else //EOF
                             close();
                     }
                     else
                     {
-                        Thread.sleep(THREAD_SLEEP);
+                        Thread.sleep(m_backoff.nextDelay());
                         continue;
                     }
                 }
@@ -204,104 +488,911 @@ public class SocketManager
         }
     };
 
-    public SocketManager(String ip, int port)
+    /** Constructor, using the non-blocking transport
+     * @param ip the server IP
+     * @param port the server port*/
+    public SocketManager(String ip, int port)
+    {
+        this(ip, port, TRANSPORT_NIO);
+    }
+
+    /** Constructor
+     * @param ip the server IP
+     * @param port the server port
+     * @param transport the transport to use (TRANSPORT_BLOCKING or TRANSPORT_NIO)*/
+    public SocketManager(String ip, int port, int transport)
+    {
+        m_socket      = new Socket();
+        m_serverIP    = ip;
+        m_serverPort  = port;
+        m_queueSendBuf.setListener(m_queueListener);
+        m_queueSendBuf.setMetrics(m_metrics);
+        m_msgBuffer.setMetrics(m_metrics);
+        m_msgBuffer.addHandler(MessageBuffer.GET_PONG, m_pongHandler);
+        m_msgBuffer.addHandler(MessageBuffer.GET_DATAGRAM_CHANNEL, m_datagramHandler);
+        m_msgBuffer.addHandler(MessageBuffer.GET_COMPACT_POSE, m_compactPoseHandler);
+        m_msgBuffer.getRegistry().register(MessageBuffer.GET_HEADSETS_STATUS_COMPACT, new MessageRegistry.Entry<HeadsetsStatusMessage>()
+        {
+            @Override
+            public HeadsetsStatusMessage create() {return new HeadsetsStatusMessage(m_headsetsStatusDecoder);}
+
+            @Override
+            public void dispatch(HeadsetsStatusMessage msg, MessageBuffer.IMessageBufferCallback clbk) {clbk.onHeadsetsStatusMessage(msg);}
+        });
+        for(int type : new int[]{MessageBuffer.GET_ADD_VTK_DATASET, MessageBuffer.GET_ADD_CLOUD_POINT_DATASET, MessageBuffer.GET_ADD_SUBDATASET,
+                                 MessageBuffer.GET_DEL_SUBDATASET, MessageBuffer.GET_RESYNC_DONE})
+            m_msgBuffer.addHandler(type, m_resyncHandler);
+        m_metrics.addSendQueue(m_queueSendBuf);
+        setBulkTypes(DEFAULT_BULK_TYPES);
+
+        if(transport == TRANSPORT_NIO)
+        {
+            try
+            {
+                m_nioTransport = new NIOTransport(ip, port, m_queueSendBuf, m_flushMetrics, m_nioListener);
+                return;
+            }
+            catch(IOException e)
+            {
+                Log.e(MainActivity.TAG, "Could not open the non-blocking transport, using the blocking one: " + e.toString());
+            }
+        }
+
+        m_writeThread = new Thread(m_writeThreadRunnable);
+        m_writeThread.start();
+
+        m_readThread = new Thread(m_readThreadRunnable);
+        m_readThread.start();
+    }
+
+    /** Start recording the raw data received from the server (see TrafficRecorder and TrafficReplayer).
+     * A recording already in progress is stopped first
+     * @param file the file to write the recording into*/
+    public void startRecording(File file) throws IOException
+    {
+        stopRecording();
+        m_recorder = new TrafficRecorder(file);
+    }
+
+    /** Stop recording the raw data received from the server, if a recording is in progress*/
+    public void stopRecording()
+    {
+        TrafficRecorder recorder = m_recorder;
+        m_recorder = null;
+        if(recorder == null)
+            return;
+
+        try
+        {
+            recorder.close();
+        }
+        catch(IOException e)
+        {
+            Log.e(MainActivity.TAG, "Could not close the traffic recording " + recorder.getFile() + ": " + e.toString());
+        }
+    }
+
+    /** Is the received data being recorded?
+     * @return true if yes, false otherwise*/
+    public boolean isRecording()
+    {
+        return m_recorder != null;
+    }
+
+    /** Record a chunk read from the socket, if a recording is in progress. A failing recording is stopped
+     * @param data the data read
+     * @param size the number of bytes read*/
+    private void record(byte[] data, int size)
+    {
+        TrafficRecorder recorder = m_recorder;
+        if(recorder == null)
+            return;
+
+        try
+        {
+            recorder.record(data, size);
+        }
+        catch(IOException e)
+        {
+            Log.e(MainActivity.TAG, "Could not record the incoming traffic in " + recorder.getFile() + ": " + e.toString());
+            stopRecording();
+        }
+    }
+
+    /** @brief Add a listener object to call when the internal states of this socket changes
+     * @param l the new listener to take account of*/
+    public void addListener(ISocketManagerListener l)
+    {
+        if(!m_listeners.contains(l))
+            m_listeners.add(l);
+    }
+
+    /** @brief Remove a listener object to call when the internal states of this socket changes
+     * @param l the new listener to take account of*/
+    public void removeListener(ISocketManagerListener l)
+    {
+        m_listeners.remove(l);
+    }
+
+    /** \brief Set the server address
+     * @param ip the server ip
+     * @param port the server port
+     */
+    public void setServerAddr(String ip, int port)
+    {
+        BulkChannel bulk = m_bulkChannel;
+        if(bulk != null)
+            bulk.setServerAddr(ip, m_bulkPort);
+
+        if(m_nioTransport != null)
+        {
+            m_serverIP   = ip;
+            m_serverPort = port;
+            m_nioTransport.setServerAddr(ip, port);
+            return;
+        }
+
+        synchronized(this)
+        {
+            m_serverIP   = ip;
+            m_serverPort = port;
+            m_backoff.reset();
+            close();
+        }
+    }
+
+    /** Stop the thread*/
+    public void stopThread()
+    {
+        stopLatencyProbe();
+        disableBulkChannel();
+        setDatagramEnabled(false);
+
+        if(m_nioTransport != null)
+        {
+            m_nioTransport.stop();
+            stopRecording();
+            return;
+        }
+
+        close();
+        m_isClosed = true;
+        synchronized(m_queueSendBuf)
+        {
+            m_queueSendBuf.notify();
+        }
+        try{m_writeThread.join();} catch (Exception e){}
+        try{m_readThread.join();} catch (Exception e){}
+        stopRecording();
+    }
+
+    /** Close the socket. The connection is reopened afterwards*/
+    public synchronized void close()
+    {
+        if(m_nioTransport != null)
+        {
+            m_nioTransport.disconnect();
+            return;
+        }
+
+        if(m_socket.isConnected())
+        {
+            m_metrics.onDisconnection();
+            try{m_socket.close();} catch(Exception e){}
+        }
+        m_output = null;
+        m_input  = null;
+        m_socket = new Socket();
+
+        try{m_socket.setReuseAddress(true);}catch(Exception e){}
+        //Needed to resend a new bound
+        m_isBoundToHololens = false;
+
+        //The datagram channel is negotiated again with the next connection
+        LossyChannel lossy = m_lossyChannel;
+        if(lossy != null)
+            lossy.close();
+
+        //The first transfer function update of the next connection is sent whole
+        clearTFStates();
+
+        //The compact poses are negotiated again with the next connection
+        resetCompactPose();
+
+        for(ISocketManagerListener l : m_listeners)
+            l.onDisconnection(this);
+    }
+
+    /* ************************************************************ */
+    /* *******************Setters / Getters************************ */
+    /* ************************************************************ */
+
+    /** Get the Message Buffer parsing the incoming data
+     * @return The Message Buffer parsing the incoming data. Useful for listening to new events*/
+    public MessageBuffer getMessageBuffer()
+    {
+        return m_msgBuffer;
+    }
+
+    /** Get the queue of the data waiting to be sent
+     * @return the send queue. Useful for reading its coalescing statistics*/
+    public CoalescingSendQueue getSendQueue()
+    {
+        return m_queueSendBuf;
+    }
+
+    /** Is the send queue congested? The continuous streams (e.g., the tablet location) should be sent at a lower rate while it is
+     * @return true if the send queue is congested, false otherwise*/
+    public boolean isCongested()
+    {
+        return m_queueSendBuf.isCongested();
+    }
+
+    /** Get the metrics of the protocol load (per message type counters, decode and dispatch times, queue depths, connection counts)
+     * @return the network metrics. Use NetworkMetrics.snapshot to read them*/
+    public NetworkMetrics getMetrics()
+    {
+        return m_metrics;
+    }
+
+    /** Get the metrics of the writes to the server
+     * @return the flush metrics (bytes per system call, flush durations)*/
+    public FlushMetrics getFlushMetrics()
+    {
+        return m_flushMetrics;
+    }
+
+    /** Set Ident information
+     * @param hololensIP the hololens IP bound to the tablet. Will be resent at each disconnection
+     * @param handedness the user's handedness (left or right. See ApplicationModel.HANDEDNESS_*)
+     * @param tabletID the tablet ID*/
+    public synchronized void setIdentInformation(String hololensIP, int handedness, int tabletID)
+    {
+        m_hololensIP        = hololensIP;
+        m_handedness        = handedness;
+        m_isBoundToHololens = false;
+        m_tabletID          = tabletID;
+
+        if(m_bulkChannel != null)
+            m_bulkChannel.setTabletID(tabletID);
+
+        if(m_nioTransport != null)
+        {
+            m_nioTransport.requestIdent();
+            return;
+        }
+
+        synchronized(m_queueSendBuf)
+        {
+            m_queueSendBuf.notify();
+        }
+    }
+
+    /** Push a new value to write to the server
+     * @param data array of bytes to write to the server*/
+    public void push(byte[] data)
+    {
+        BulkChannel bulk = m_bulkChannel;
+        if(bulk != null && data.length >= 2)
+        {
+            short type = (short)(((data[0] & 0xff) << 8) | (data[1] & 0xff));
+            boolean[] bulkTypes = m_bulkTypes;
+            if(type >= 0 && type < bulkTypes.length && bulkTypes[type])
+            {
+                bulk.push(data);
+                return;
+            }
+        }
+        m_queueSendBuf.add(data);
+    }
+
+    /** Start encoding a new event to write to the server, in place in the send queue (no allocation).
+     * The event is sent once CoalescingSendQueue.Encoder.commit is called, which must happen before this thread starts another event.
+     * If computing the payload may throw, call CoalescingSendQueue.Encoder.abort from a finally block (see pushRotationEvent).
+     * Example: socket.beginMessage(ROTATE_DATASET).putInt(datasetID).putInt(subDatasetID).putFloat(w)[...].commit()
+     * @param type the event type
+     * @return the encoder to write the payload of the event with*/
+    public CoalescingSendQueue.Encoder beginMessage(short type)
+    {
+        return m_queueSendBuf.beginMessage(type);
+    }
+
+    /** Push a Rotation event (see createRotationEvent) without allocating it. Sent as ROTATE_DATASET_COMPACT if the compact poses are negotiated (see setCompactPose)
+     * @param ids the dataset and subdatasets IDs
+     * @param qArr the array of the new quaternion to send (w, i, j, k)*/
+    public void pushRotationEvent(MainActivity.DatasetIDBinding ids, float[] qArr)
+    {
+        //The encoder is released even if reading the arguments throws (see CoalescingSendQueue.Encoder.abort)
+        boolean compact = (m_poseWorkspace > 0.0f);
+        CoalescingSendQueue.Encoder encoder = beginMessage(compact ? ROTATE_DATASET_COMPACT : ROTATE_DATASET);
+        try
+        {
+            encoder.putInt(ids.dataset.getID()).putInt(ids.subDatasetID);
+            if(compact)
+                PoseCodec.putQuaternion(encoder, qArr);
+            else
+                for(int i = 0; i < 4; i++)
+                    encoder.putFloat(qArr[i]);
+            encoder.commit();
+        }
+        finally
+        {
+            encoder.abort();
+        }
+    }
+
+    /** Push a Translation event (see createPositionEvent) without allocating it.
+     * Sent as TRANSLATE_DATASET_COMPACT if the compact poses are negotiated (see setCompactPose) and if the position is within the workspace
+     * @param ids the dataset and subdatasets IDs
+     * @param pArr the array of the new position to send (x, y, z)*/
+    public void pushPositionEvent(MainActivity.DatasetIDBinding ids, float[] pArr)
+    {
+        float workspace = m_poseWorkspace;
+        boolean compact = (workspace > 0.0f && PoseCodec.isInWorkspace(pArr, 0, workspace));
+        CoalescingSendQueue.Encoder encoder = beginMessage(compact ? TRANSLATE_DATASET_COMPACT : TRANSLATE_DATASET);
+        try
+        {
+            encoder.putInt(ids.dataset.getID()).putInt(ids.subDatasetID);
+            if(compact)
+                PoseCodec.putPosition(encoder, pArr, workspace);
+            else
+                for(int i = 0; i < 3; i++)
+                    encoder.putFloat(pArr[i]);
+            encoder.commit();
+        }
+        finally
+        {
+            encoder.abort();
+        }
+    }
+
+    /** Push a Scale event (see createScaleEvent) without allocating it.
+     * Sent as SCALE_DATASET_COMPACT (half-floats) if the compact poses are negotiated (see setCompactPose) and if the scale fits in half-floats
+     * @param ids the dataset and subdatasets IDs
+     * @param sArr the array of the new scale to send (x, y, z)*/
+    public void pushScaleEvent(MainActivity.DatasetIDBinding ids, float[] sArr)
+    {
+        boolean compact = (m_poseWorkspace > 0.0f && PoseCodec.isHalfEncodable(sArr[0]) && PoseCodec.isHalfEncodable(sArr[1]) && PoseCodec.isHalfEncodable(sArr[2]));
+        CoalescingSendQueue.Encoder encoder = beginMessage(compact ? SCALE_DATASET_COMPACT : SCALE_DATASET);
+        try
+        {
+            encoder.putInt(ids.dataset.getID()).putInt(ids.subDatasetID);
+            for(int i = 0; i < 3; i++)
+            {
+                if(compact)
+                    encoder.putShort(PoseCodec.toHalf(sArr[i]));
+                else
+                    encoder.putFloat(sArr[i]);
+            }
+            encoder.commit();
+        }
+        finally
+        {
+            encoder.abort();
+        }
+    }
+
+    /** Push a location event (see createLocationEvent) without allocating it.
+     * Sent as LOCATION_COMPACT if the compact poses are negotiated (see setCompactPose) and if the position is within the workspace,
+     * unless it goes on the datagram channel
+     * @param pos the tablet position
+     * @param rot the tablet rotation*/
+    public void pushLocationEvent(float[] pos, float[] rot)
+    {
+        LossyChannel lossy = m_lossyChannel;
+        if(lossy != null && lossy.pushLocation(pos, rot))
+            return;
+
+        float workspace = m_poseWorkspace;
+        boolean compact = (workspace > 0.0f && PoseCodec.isInWorkspace(pos, 0, workspace));
+        CoalescingSendQueue.Encoder encoder = beginMessage(compact ? LOCATION_COMPACT : LOCATION);
+        try
+        {
+            if(compact)
+                PoseCodec.putQuaternion(PoseCodec.putPosition(encoder, pos, workspace), rot);
+            else
+            {
+                for(int i = 0; i < 3; i++)
+                    encoder.putFloat(pos[i]);
+                for(int i = 0; i < 4; i++)
+                    encoder.putFloat(rot[i]);
+            }
+            encoder.commit();
+        }
+        finally
+        {
+            encoder.abort();
+        }
+    }
+
+    /** Push a tablet scale event (see createTabletScaleEvent) without allocating it*/
+    public void pushTabletScaleEvent(float scale, float width, float height, float posx, float posy)
+    {
+        LossyChannel lossy = m_lossyChannel;
+        if(lossy != null && lossy.pushTabletScale(scale, width, height, posx, posy))
+            return;
+
+        beginMessage(TABLETSCALE).putFloat(scale).putFloat(width).putFloat(height).putFloat(posx).putFloat(posy).commit();
+    }
+
+    /** Push a lasso event (see createLassoEvent) without allocating it.
+     * If the incremental lasso is enabled (see setIncrementalLasso), only the points added since the last call are sent
+     * @param lasso the lasso data*/
+    public void pushLassoEvent(float[] lasso)
+    {
+        LassoStreamer streamer = m_lassoStreamer;
+        if(streamer != null)
+        {
+            streamer.push(lasso);
+            return;
+        }
+
+        CoalescingSendQueue.Encoder encoder = beginMessage(LASSO);
+        try
+        {
+            encoder.putInt(lasso.length);
+            for(int i = 0; i < lasso.length; i++)
+                encoder.putFloat(lasso[i]);
+            encoder.commit();
+        }
+        finally
+        {
+            encoder.abort();
+        }
+    }
+
+    /** Push a transfer function update. If the diffs are enabled (see setTFDiffEnabled) and the transfer function has the same structure
+     * as the last one synchronized for this subdataset, only what changed is sent (TF_DIFF, see TFState). The whole transfer function is sent otherwise
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @param state the new state of the transfer function (see TFState.of)*/
+    public void pushTFEvent(int datasetID, int subDatasetID, TFState state)
+    {
+        TFState base;
+        synchronized(m_tfStates)
+        {
+            base = m_tfStates.put(tfStateKey(datasetID, subDatasetID), state);
+        }
+
+        if(state.equals(base))
+            return;
+
+        //The transfer functions sent are part of the resynchronization digest
+        m_resyncDigest.setTFVersion(datasetID, subDatasetID, state.getVersion());
+        if(m_tfDiffEnabled && state.hasSameStructure(base))
+            push(state.createDiffEvent(datasetID, subDatasetID, base));
+        else
+            push(state.createEvent(datasetID, subDatasetID));
+    }
+
+    /** Push a whole transfer function update, for the transfer functions without TFState (see TFState.of)
+     * @param ids the dataset and subdatasets IDs
+     * @param tf the transfer function data*/
+    public void pushTFEvent(MainActivity.DatasetIDBinding ids, TransferFunction tf)
+    {
+        m_resyncDigest.setTFVersion(ids.dataset.getID(), ids.subDatasetID, ResyncDigest.NO_TF_VERSION);
+        push(createTFEvent(ids, tf));
+    }
+
+    /** Set the transfer function state synchronized with the server for a subdataset, once a transfer function received is applied.
+     * The next updates are sent as diffs from this state. Its version is kept in the resynchronization digest, which outlives the connection
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @param state the state of the transfer function received. null to send the next update whole*/
+    public void setTFState(int datasetID, int subDatasetID, TFState state)
+    {
+        synchronized(m_tfStates)
+        {
+            if(state == null)
+                m_tfStates.remove(tfStateKey(datasetID, subDatasetID));
+            else
+                m_tfStates.put(tfStateKey(datasetID, subDatasetID), state);
+        }
+        m_resyncDigest.setTFVersion(datasetID, subDatasetID, state == null ? ResyncDigest.NO_TF_VERSION : state.getVersion());
+    }
+
+    /** Get the transfer function state synchronized with the server for a subdataset
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @return the last state sent or received, or null if none*/
+    public TFState getTFState(int datasetID, int subDatasetID)
+    {
+        synchronized(m_tfStates)
+        {
+            return m_tfStates.get(tfStateKey(datasetID, subDatasetID));
+        }
+    }
+
+    /** Forget the transfer function states synchronized with the server*/
+    private void clearTFStates()
+    {
+        synchronized(m_tfStates)
+        {
+            m_tfStates.clear();
+        }
+    }
+
+    /** Get the key of a subdataset in m_tfStates
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @return the key*/
+    private static long tfStateKey(int datasetID, int subDatasetID)
+    {
+        return ((long)datasetID << 32) | (subDatasetID & 0xffffffffL);
+    }
+
+    /** Start streaming an annotation stroke while it is drawn (see setAnnotationStreaming). The points it already has are sent
+     * @param datasetID the dataset ID of the annotation
+     * @param subDatasetID the subdataset ID of the annotation
+     * @param annotationID the annotation ID
+     * @param canvas the canvas of the annotation, containing the stroke
+     * @param stroke the stroke to stream. Push its points with pushAnnotationStrokePoint, and finish it with pushAnnotationStrokeEnd*/
+    public void pushAnnotationStrokeBegin(int datasetID, int subDatasetID, int annotationID, AnnotationCanvasData canvas, AnnotationStroke stroke)
+    {
+        m_strokeStreamer.begin(datasetID, subDatasetID, annotationID, canvas, stroke);
+    }
+
+    /** Stream a point added to a stroke. The points are sent by batches
+     * @param stroke the stroke, streamed since pushAnnotationStrokeBegin
+     * @param p the point added*/
+    public void pushAnnotationStrokePoint(AnnotationStroke stroke, Point p)
+    {
+        m_strokeStreamer.addPoint(stroke, p);
+    }
+
+    /** Finish streaming a stroke: its last points are sent
+     * @param stroke the stroke, streamed since pushAnnotationStrokeBegin*/
+    public void pushAnnotationStrokeEnd(AnnotationStroke stroke)
+    {
+        m_strokeStreamer.end(stroke);
+    }
+
+    /** Set the micro-batching window of the writing thread. Data pushed within this window after a first push
+     * is written (and flushed) together, trading latency for fewer system calls and TCP segments
+     * @param window the window, in nanoseconds. 0 (default) == write the data as soon as it is pushed*/
+    public void setBatchingWindow(long window)
+    {
+        m_batchingWindow = window;
+        if(m_nioTransport != null)
+            m_nioTransport.setBatchingWindow(window);
+    }
+
+    /** Get the micro-batching window of the writing thread
+     * @return the window, in nanoseconds*/
+    public long getBatchingWindow()
+    {
+        return m_batchingWindow;
+    }
+
+    /** Is the connection to the server established?
+     * @return true if yes, false otherwise*/
+    public boolean isConnected()
+    {
+        if(m_nioTransport != null)
+            return m_nioTransport.isConnected();
+        return m_socket.isConnected();
+    }
+
+    /** Send a PING event. The server answers with a GET_PONG message carrying the same sequence number and timestamp,
+     * which updates the latency estimate (see getLatencyEstimator). The ping waits in the send queue with the commands:
+     * the round-trip time includes the queueing delays of both sides*/
+    public void ping()
+    {
+        CoalescingSendQueue.Encoder encoder = beginMessage(PING);
+        long timestamp = System.nanoTime();
+        encoder.putInt(m_pingSequence.getAndIncrement()).putInt((int)(timestamp >> 32)).putInt((int)timestamp).commit();
+    }
+
+    /** Start sending a PING event periodically while connected. A probe already running is stopped first.
+     * The server has to support PING: the probe is not started by default (see Configuration.isLatencyProbeEnabled)
+     * @param period the period between two pings, in milliseconds (see DEFAULT_PROBE_PERIOD)*/
+    public synchronized void startLatencyProbe(final long period)
+    {
+        stopLatencyProbe();
+        m_probeThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while(!Thread.currentThread().isInterrupted())
+                {
+                    try
+                    {
+                        Thread.sleep(period);
+                    }
+                    catch(InterruptedException e)
+                    {
+                        break;
+                    }
+                    if(isConnected())
+                        ping();
+                }
+            }
+        });
+        m_probeThread.start();
+    }
+
+    /** Stop sending the periodic pings, if started*/
+    public synchronized void stopLatencyProbe()
+    {
+        if(m_probeThread == null)
+            return;
+        m_probeThread.interrupt();
+        try{m_probeThread.join();} catch(InterruptedException e){}
+        m_probeThread = null;
+    }
+
+    /** Get the estimate of the round-trip time to the server, fed by the pongs (see ping and startLatencyProbe)
+     * @return the latency estimate*/
+    public LatencyEstimator getLatencyEstimator()
+    {
+        return m_latency;
+    }
+
+    /** Open a second connection to the server, dedicated to bulk transfers (see BulkChannel). The events whose type
+     * was set with setBulkTypes are sent on it, and the server can send its large messages on it, so that they do not delay
+     * the small and frequent ones of the control connection. An already opened bulk channel is closed first
+     * @param port the bulk port of the server*/
+    public synchronized void enableBulkChannel(int port)
+    {
+        disableBulkChannel();
+        m_bulkPort    = port;
+        BulkChannel bulk = new BulkChannel(m_serverIP, port, m_msgBuffer);
+        bulk.setTabletID(m_tabletID);
+        bulk.getMessageBuffer().setMetrics(m_metrics);
+        bulk.getSendQueue().setMetrics(m_metrics);
+        m_metrics.addSendQueue(bulk.getSendQueue());
+        m_bulkChannel = bulk;
+    }
+
+    /** Close the bulk channel, if opened. Every event is then sent on the control connection*/
+    public synchronized void disableBulkChannel()
+    {
+        BulkChannel bulk = m_bulkChannel;
+        m_bulkChannel = null;
+        m_bulkPort    = -1;
+        if(bulk != null)
+        {
+            bulk.stop();
+            m_metrics.removeSendQueue(bulk.getSendQueue());
+        }
+    }
+
+    /** Is the bulk channel opened?
+     * @return true if yes, false otherwise*/
+    public boolean isBulkChannelEnabled()
+    {
+        return m_bulkChannel != null;
+    }
+
+    /** Is the bulk channel connected?
+     * @return true if the bulk channel is opened and connected, false otherwise*/
+    public boolean isBulkChannelConnected()
+    {
+        BulkChannel bulk = m_bulkChannel;
+        return bulk != null && bulk.isConnected();
+    }
+
+    /** Set the event types to send on the bulk channel, when opened (default: DEFAULT_BULK_TYPES).
+     * Those events are not ordered with the ones sent on the control connection
+     * @param types the event types (see the types of this class)*/
+    public void setBulkTypes(short... types)
+    {
+        int size = 0;
+        for(short t : types)
+            size = Math.max(size, t+1);
+
+        boolean[] bulkTypes = new boolean[size];
+        for(short t : types)
+            if(t >= 0)
+                bulkTypes[t] = true;
+        m_bulkTypes = bulkTypes;
+    }
+
+    /** Get the metrics of the writes on the bulk channel
+     * @return the flush metrics of the bulk channel, or null if it is not opened*/
+    public FlushMetrics getBulkFlushMetrics()
+    {
+        BulkChannel bulk = m_bulkChannel;
+        return bulk == null ? null : bulk.getFlushMetrics();
+    }
+
+    /** Enable or disable the incremental resynchronization. Once enabled, the tablet sends a digest of the datasets it knows
+     * (see ResyncDigest) right after each identification, and the server only sends what the tablet misses, followed by GET_RESYNC_DONE
+     * listing what the tablet has to remove. The tablet should then keep its datasets on disconnection.
+     * The server has to support RESYNC_DIGEST: it is disabled by default
+     * @param enabled true to enable the resynchronization, false to let the server send its whole state after each identification*/
+    public void setResyncEnabled(boolean enabled)
+    {
+        m_resyncEnabled = enabled;
+    }
+
+    /** Is the incremental resynchronization enabled?
+     * @return true if yes, false otherwise*/
+    public boolean isResyncEnabled()
+    {
+        return m_resyncEnabled;
+    }
+
+    /** Get the digest of the datasets known by the tablet, maintained from the messages received and sent
+     * @return the resynchronization digest. Clear it when the tablet drops its datasets*/
+    public ResyncDigest getResyncDigest()
+    {
+        return m_resyncDigest;
+    }
+
+    /** Enable or disable the datagram (UDP) side-channel of the continuous streams (see LossyChannel).
+     * Once enabled, the channel is negotiated after each identification. The tablet location and scale events are then sent as datagrams,
+     * and the server can send the tablet locations and headsets status as datagrams, as long as the channel works.
+     * The streams go over TCP otherwise. The server has to support OPEN_DATAGRAM_CHANNEL: it is disabled by default
+     * @param enabled true to enable the datagram channel, false to send everything over TCP*/
+    public synchronized void setDatagramEnabled(boolean enabled)
+    {
+        if(enabled == (m_lossyChannel != null))
+            return;
+
+        if(!enabled)
+        {
+            LossyChannel lossy = m_lossyChannel;
+            m_lossyChannel = null;
+            lossy.stop();
+            return;
+        }
+
+        try
+        {
+            LossyChannel lossy = new LossyChannel(m_msgBuffer);
+            lossy.setMetrics(m_metrics);
+            m_lossyChannel = lossy;
+        }
+        catch(SocketException e)
+        {
+            Log.e(MainActivity.TAG, "Could not open the datagram channel, the continuous streams go over TCP: " + e.toString());
+            return;
+        }
+
+        //Negotiate it now if the tablet is already identified. Otherwise, it is negotiated with the identification
+        if(m_isBoundToHololens)
+            beginMessage(OPEN_DATAGRAM_CHANNEL).commit();
+    }
+
+    /** Is the datagram side-channel enabled?
+     * @return true if yes, false otherwise*/
+    public boolean isDatagramEnabled()
+    {
+        return m_lossyChannel != null;
+    }
+
+    /** Are the continuous streams currently sent on the datagram side-channel?
+     * @return true if the datagram channel is enabled, negotiated, and the server answers on it. false if the streams go over TCP*/
+    public boolean isDatagramChannelOpen()
     {
-        m_socket      = new Socket();
-        m_serverIP    = ip;
-        m_serverPort  = port;
-        m_writeThread = new Thread(m_writeThreadRunnable);
-        m_writeThread.start();
+        LossyChannel lossy = m_lossyChannel;
+        return lossy != null && lossy.isOpen();
+    }
 
-        m_readThread = new Thread(m_readThreadRunnable);
-        m_readThread.start();
+    /** Enable or disable the incremental lasso (see LassoStreamer). Once enabled, pushLassoEvent sends the lasso being traced
+     * as LASSO_BEGIN, LASSO_APPEND (the points added, delta-encoded and decimated) and LASSO_END events instead of the whole lasso each time.
+     * The server has to support these events: it is disabled by default
+     * @param enabled true to stream the lasso incrementally, false to send the whole lasso (LASSO event)*/
+    public synchronized void setIncrementalLasso(boolean enabled)
+    {
+        if(enabled == (m_lassoStreamer != null))
+            return;
+        m_lassoStreamer = (enabled ? new LassoStreamer(m_queueSendBuf) : null);
     }
 
-    /** @brief Add a listener object to call when the internal states of this socket changes
-     * @param l the new listener to take account of*/
-    public void addListener(ISocketManagerListener l)
+    /** Is the lasso streamed incrementally?
+     * @return true if yes, false otherwise*/
+    public boolean isIncrementalLasso()
     {
-        if(!m_listeners.contains(l))
-            m_listeners.add(l);
+        return m_lassoStreamer != null;
     }
 
-    /** @brief Remove a listener object to call when the internal states of this socket changes
-     * @param l the new listener to take account of*/
-    public void removeListener(ISocketManagerListener l)
+    /** Enable or disable the transfer function diffs (see pushTFEvent). The server has to support TF_DIFF: it is disabled by default
+     * @param enabled true to send only what changed in the transfer functions, false to always send them whole*/
+    public void setTFDiffEnabled(boolean enabled)
     {
-        m_listeners.remove(l);
+        m_tfDiffEnabled = enabled;
     }
 
-    /** \brief Set the server address
-     * @param ip the server ip
-     * @param port the server port
-     */
-    public void setServerAddr(String ip, int port)
+    /** Are the transfer function updates sent as diffs?
+     * @return true if yes, false otherwise*/
+    public boolean isTFDiffEnabled()
     {
-        synchronized(this)
-        {
-            m_serverIP   = ip;
-            m_serverPort = port;
-            close();
-        }
+        return m_tfDiffEnabled;
     }
 
-    /** Stop the thread*/
-    public void stopThread()
+    /** Enable or disable the run-length encoded volumetric masks (see VolumetricMaskRuns). Once enabled, they are requested after each identification
+     * (ENABLE_COMPRESSED_MASK, byte enabled), and the server can send the volumetric masks as GET_VOLUMETRIC_MASK_RUNS instead of GET_VOLUMETRIC_MASK.
+     * Both are always accepted. This only shrinks the transfer: the native code still expands the runs into the dense mask.
+     * The server has to support it: it is disabled by default
+     * @param enabled true to request the run-length encoded masks, false to request the dense masks*/
+    public void setCompressedMaskEnabled(boolean enabled)
     {
-        close();
-        m_isClosed = true;
-        try{m_writeThread.join();} catch (Exception e){}
-        try{m_readThread.join();} catch (Exception e){}
+        if(enabled == m_compressedMask)
+            return;
+        m_compressedMask = enabled;
+
+        //Request it now if the tablet is already identified. Otherwise, it is requested with the identification
+        if(m_isBoundToHololens)
+            beginMessage(ENABLE_COMPRESSED_MASK).putByte((byte)(enabled ? 1 : 0)).commit();
     }
 
-    /** Close the socket*/
-    public synchronized void close()
+    /** Are the volumetric masks requested run-length encoded?
+     * @return true if yes, false otherwise*/
+    public boolean isCompressedMaskEnabled()
     {
-        if(m_socket.isConnected())
-            try{m_socket.close();} catch(Exception e){}
-        m_output = null;
-        m_input  = null;
-        m_socket = new Socket();
+        return m_compressedMask;
+    }
 
-        try{m_socket.setReuseAddress(true);}catch(Exception e){}
-        //Needed to resend a new bound
-        m_isBoundToHololens = false;
+    /** Enable or disable the compact poses (see PoseCodec). Once enabled, they are negotiated after each identification (ENABLE_COMPACT_POSE, float workspace),
+     * and the server answers with the workspace it accepts (see CompactPoseMessage). The rotation, position, scale and location events are then sent
+     * as ROTATE_DATASET_COMPACT, TRANSLATE_DATASET_COMPACT, SCALE_DATASET_COMPACT and LOCATION_COMPACT (int datasetID, int subDatasetID if any, then
+     * 3 shorts per quaternion, position or scale), and the server can send the headsets status as GET_HEADSETS_STATUS_COMPACT (see HeadsetsStatusDecoder).
+     * The application sees the same values, within the errors of PoseCodec. The server has to support it: it is disabled by default
+     * @param workspace the half extent of the workspace of the positions, in meters (e.g., PoseCodec.DEFAULT_WORKSPACE). 0 or less to send the poses as floats*/
+    public void setCompactPose(float workspace)
+    {
+        workspace = Math.max(0.0f, workspace);
+        if(workspace == m_compactWorkspace)
+            return;
+        m_compactWorkspace = workspace;
+        m_poseWorkspace    = 0.0f;
+
+        //Negotiate it now if the tablet is already identified. Otherwise, it is negotiated with the identification
+        if(m_isBoundToHololens)
+            beginMessage(ENABLE_COMPACT_POSE).putFloat(workspace).commit();
+    }
 
-        for(ISocketManagerListener l : m_listeners)
-            l.onDisconnection(this);
+    /** Get the workspace requested for the compact poses
+     * @return the half extent of the workspace, in meters. 0 if the poses are sent as floats*/
+    public float getCompactPoseWorkspace()
+    {
+        return m_compactWorkspace;
     }
 
-    /* ************************************************************ */
-    /* *******************Setters / Getters************************ */
-    /* ************************************************************ */
+    /** Are the poses currently sent compact?
+     * @return true if the compact poses are enabled and accepted by the server, false if they are sent as floats*/
+    public boolean isCompactPoseActive()
+    {
+        return m_poseWorkspace > 0.0f;
+    }
 
-    /** Get the Message Buffer parsing the incoming data
-     * @return The Message Buffer parsing the incoming data. Useful for listening to new events*/
-    public MessageBuffer getMessageBuffer()
+    /** Forget the compact poses negotiated with the server, and the headsets status decoded*/
+    private void resetCompactPose()
     {
-        return m_msgBuffer;
+        m_poseWorkspace = 0.0f;
+        m_headsetsStatusDecoder.reset();
     }
 
-    /** Set Ident information
-     * @param hololensIP the hololens IP bound to the tablet. Will be resent at each disconnection
-     * @param handedness the user's handedness (left or right. See ApplicationModel.HANDEDNESS_*)
-     * @param tabletID the tablet ID*/
-    public synchronized void setIdentInformation(String hololensIP, int handedness, int tabletID)
+    /** Set whether the annotation strokes should be streamed while they are drawn (pushAnnotationStroke*) instead of sending
+     * the whole canvas (createAnnotationEvent) each time a stroke is added. The server has to support the ANNOTATION_STROKE_* events: it is disabled by default
+     * @param streaming true to stream the strokes, false to send the whole canvas*/
+    public void setAnnotationStreaming(boolean streaming)
     {
-        m_hololensIP        = hololensIP;
-        m_handedness        = handedness;
-        m_isBoundToHololens = false;
-        m_tabletID          = tabletID;
+        m_annotationStreaming = streaming;
     }
 
-    /** Push a new value to write to the server
-     * @param data array of bytes to write to the server*/
-    public synchronized void push(byte[] data)
+    /** Are the annotation strokes streamed while they are drawn?
+     * @return true if yes, false if the whole canvas is sent*/
+    public boolean isAnnotationStreaming()
     {
-        synchronized(m_queueSendBuf)
-        {
-            m_queueSendBuf.add(data);
-        }
+        return m_annotationStreaming;
+    }
+
+    /** Get the datagram side-channel
+     * @return the channel, or null if disabled*/
+    LossyChannel getLossyChannel()
+    {
+        return m_lossyChannel;
+    }
+
+    /** Get the transport in use. It may differ from the one requested if the non-blocking transport could not be opened
+     * @return TRANSPORT_BLOCKING or TRANSPORT_NIO*/
+    public int getTransport()
+    {
+        return m_nioTransport != null ? TRANSPORT_NIO : TRANSPORT_BLOCKING;
     }
 
     /** Connect to the server. We put this into a separate function for letting the thread connecting to the server
@@ -323,7 +1414,7 @@ public class SocketManager
 
             m_socket.connect(new InetSocketAddress(m_serverIP, m_serverPort), CONNECT_TIMEOUT);
             m_socket.setSoTimeout(READ_TIMEOUT);
-            m_output = new DataOutputStream(m_socket.getOutputStream());
+            m_output = m_socket.getOutputStream();
             m_input  = m_socket.getInputStream();
         }
         catch(Exception e)
@@ -333,64 +1424,108 @@ public class SocketManager
             m_input  = null;
             return false;
         }
+        m_metrics.onConnection();
+        m_backoff.reset();
 
+        //Wake up the writing thread: the ident data and the pending data can be sent
+        synchronized(m_queueSendBuf)
+        {
+            m_queueSendBuf.notify();
+        }
         return true;
     }
 
-    /** Get the IDENT_TABLET byte array to send*/
+    /** Encode a string the way MessageBuffer (and the server) decodes it
+     * @param str the string to encode
+     * @return the UTF-8 bytes of the string*/
+    private static byte[] encodeString(String str)
+    {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Put an encoded string (32 bits size + n bytes) in a buffer
+     * @param buf the buffer to fill
+     * @param str the encoded string (see encodeString)*/
+    private static void putString(ByteBuffer buf, byte[] str)
+    {
+        buf.putInt(str.length);
+        buf.put(str);
+    }
+
+    /** Get the IDENT_TABLET byte array to send, followed by the RESYNC_DIGEST event if the resynchronization is enabled,
+     * by the OPEN_DATAGRAM_CHANNEL event if the datagram channel is enabled, by the ENABLE_COMPACT_POSE event if the compact poses are enabled,
+     * and by the ENABLE_COMPRESSED_MASK event if the run-length encoded volumetric masks are enabled*/
     private byte[] getIdentData()
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+4+4+m_hololensIP.length()+4);
+        byte[] hololensIP = encodeString(m_hololensIP);
+        byte[] digest     = (m_resyncEnabled ? m_resyncDigest.createEvent() : new byte[0]);
+        boolean datagram  = (m_lossyChannel != null);
+        float   workspace = m_compactWorkspace;
+        boolean compressedMask = m_compressedMask;
+        ByteBuffer buf = ByteBuffer.allocate(2+4+4+hololensIP.length+4+digest.length + (datagram ? 2 : 0) + (workspace > 0.0f ? 2+4 : 0) + (compressedMask ? 2+1 : 0));
         buf.order(ByteOrder.BIG_ENDIAN);
 
         buf.putShort(IDENT_TABLET);
-        buf.putInt(m_hololensIP.length());
-        buf.put(m_hololensIP.getBytes(StandardCharsets.US_ASCII));
+        putString(buf, hololensIP);
         buf.putInt(m_handedness);
         buf.putInt(m_tabletID);
+        buf.put(digest);
+        if(datagram)
+            buf.putShort(OPEN_DATAGRAM_CHANNEL);
+        if(workspace > 0.0f)
+            buf.putShort(ENABLE_COMPACT_POSE).putFloat(workspace);
+        if(compressedMask)
+            buf.putShort(ENABLE_COMPRESSED_MASK).put((byte)1);
 
         return buf.array();
     }
 
+    /** Is there any data to write? Must be called while holding the m_queueSendBuf lock
+     * @return true if the socket is connected and if data (or the ident data) has to be sent*/
+    private boolean hasDataToWrite()
+    {
+        return m_socket.isConnected() && (!m_queueSendBuf.isEmpty() || (!m_isBoundToHololens && m_hololensIP != null));
+    }
+
     /** Check the writting part of the client
      * @return true if no error occured, false otherwise*/
     private synchronized boolean checkWritting()
     {
-        //Send TABLET_IDENT
-        if(m_isBoundToHololens == false && m_hololensIP != null)
+        long startTime = System.nanoTime();
+        int size = 0;
+
+        //Gather everything pushed so far into one buffer. push() is not blocked while the data is being written
+        synchronized(m_queueSendBuf)
         {
-            synchronized(m_queueSendBuf)
+            //Send TABLET_IDENT first
+            byte[] ident = null;
+            if(m_isBoundToHololens == false && m_hololensIP != null)
             {
-                m_queueSendBuf.push(getIdentData());
+                ident = getIdentData();
                 m_isBoundToHololens = true;
             }
+
+            int identSize = (ident == null ? 0 : ident.length);
+            int queueSize = m_queueSendBuf.getNbPendingBytes();
+            if(identSize + queueSize > m_flushBuffer.length)
+                m_flushBuffer = new byte[Math.max(identSize + queueSize, 2*m_flushBuffer.length)];
+
+            if(ident != null)
+                System.arraycopy(ident, 0, m_flushBuffer, 0, identSize);
+            size = identSize + m_queueSendBuf.read(m_flushBuffer, identSize, queueSize);
         }
 
-        //Send buffers. These buffer are generate from the static method this class provides
-        synchronized(m_queueSendBuf)
+        try
         {
-            while(!m_queueSendBuf.isEmpty())
-            {
-                byte[] d = m_queueSendBuf.poll();
-                try
-                {
-                    synchronized(this)
-                    {
-                        m_output.write(d);
-                        m_output.flush();
-                    }
-                }
-                catch(final Exception e)
-                {
-                    synchronized(this)
-                    {
-                        close();
-                    }
-                    return false;
-                }
-            }
-            return true;
+            m_output.write(m_flushBuffer, 0, size);
+            m_flushMetrics.onFlush(size, 1, System.nanoTime() - startTime);
+        }
+        catch(final Exception e)
+        {
+            close();
+            return false;
         }
+        return true;
     }
 
     /* ************************************************************ */
@@ -402,14 +1537,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createCurrentSubDatasetEvent(MainActivity.DatasetIDBinding ids)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+2*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(SEND_CURRENT_SUBDATASET);
-        buf.putInt(ids.dataset.getID());
-        buf.putInt(ids.subDatasetID);
-
-        return buf.array();
+        return ProtocolEvents.currentSubDataset(ids.dataset.getID(), ids.subDatasetID);
     }
 
     /** Create a set current action event to send to the server
@@ -417,12 +1545,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createCurrentActionEvent(int action)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-        buf.putShort(SEND_CURRENT_ACTION);
-        buf.putInt(action);
-
-        return buf.array();
+        return ProtocolEvents.currentAction(action);
     }
 
     /** Create a Rotation event data to send to the server
@@ -431,17 +1554,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createRotationEvent(MainActivity.DatasetIDBinding ids, float[] qArr)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+2*4+4*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(ROTATE_DATASET);
-        buf.putInt(ids.dataset.getID());
-        buf.putInt(ids.subDatasetID);
-
-        for(int i = 0; i < 4; i++)
-            buf.putFloat(qArr[i]);
-
-        return buf.array();
+        return ProtocolEvents.rotateDataset(ids.dataset.getID(), ids.subDatasetID, qArr);
     }
 
     /** Create a Translation event data to send to the server
@@ -450,17 +1563,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createPositionEvent(MainActivity.DatasetIDBinding ids, float[] pArr)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+2*4+3*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(TRANSLATE_DATASET);
-        buf.putInt(ids.dataset.getID());
-        buf.putInt(ids.subDatasetID);
-
-        for(int i = 0; i < 3; i++)
-            buf.putFloat(pArr[i]);
-
-        return buf.array();
+        return ProtocolEvents.translateDataset(ids.dataset.getID(), ids.subDatasetID, pArr);
     }
 
     /** Create a Scale event data to send to the server
@@ -469,17 +1572,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createScaleEvent(MainActivity.DatasetIDBinding ids, float[] sArr)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+2*4+3*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(SCALE_DATASET);
-        buf.putInt(ids.dataset.getID());
-        buf.putInt(ids.subDatasetID);
-
-        for(int i = 0; i < 3; i++)
-            buf.putFloat(sArr[i]);
-
-        return buf.array();
+        return ProtocolEvents.scaleDataset(ids.dataset.getID(), ids.subDatasetID, sArr);
     }
 
     /** Create a transfer function event
@@ -616,14 +1709,14 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createAddVTKDatasetEvent(VTKDataset d)
     {
+        byte[] name = encodeString(d.getName());
         ByteBuffer buf = ByteBuffer.allocate(2+3*4+
-                                             d.getName().length()+
+                                             name.length+
                                              4*(d.getSelectedCellFieldValues().length + d.getSelectedPtFieldValues().length));
         buf.order(ByteOrder.BIG_ENDIAN);
 
         buf.putShort(ADD_VTK_DATASET);
-        buf.putInt(d.getName().length());
-        buf.put(d.getName().getBytes(StandardCharsets.US_ASCII));
+        putString(buf, name);
         buf.putInt(d.getSelectedPtFieldValues().length);
 
         for(int i = 0; i < d.getSelectedPtFieldValues().length; i++)
@@ -640,12 +1733,12 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createAddCloudPointDatasetEvent(String name)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+4+name.length());
+        byte[] encodedName = encodeString(name);
+        ByteBuffer buf = ByteBuffer.allocate(2+4+encodedName.length);
         buf.order(ByteOrder.BIG_ENDIAN);
 
         buf.putShort(ADD_CLOUD_POINT_DATASET);
-        buf.putInt(name.length());
-        buf.put(name.getBytes(StandardCharsets.US_ASCII));
+        putString(buf, encodedName);
 
         return buf.array();
     }
@@ -659,8 +1752,12 @@ public class SocketManager
         int size = 2+7*4;
         for(AnnotationStroke s : annotationCanvasData.getStrokes())
             size += 3*4 + 2*s.getPoints().size()*4;
-        for(AnnotationText t : annotationCanvasData.getTexts())
-            size += 3*4 + 4 + t.getText().length();
+        byte[][] texts = new byte[annotationCanvasData.getTexts().size()][];
+        for(int i = 0; i < texts.length; i++)
+        {
+            texts[i] = encodeString(annotationCanvasData.getTexts().get(i).getText());
+            size += 3*4 + 4 + texts[i].length;
+        }
         ByteBuffer buf = ByteBuffer.allocate(size);
         buf.order(ByteOrder.BIG_ENDIAN);
 
@@ -689,13 +1786,13 @@ public class SocketManager
         }
 
         //Send text data
-        for(AnnotationText t : annotationCanvasData.getTexts())
+        for(int i = 0; i < texts.length; i++)
         {
+            AnnotationText t = annotationCanvasData.getTexts().get(i);
             buf.putInt(t.getColor());
             buf.putFloat(t.getPosition().x);
             buf.putFloat(t.getPosition().y);
-            buf.putInt(t.getText().length());
-            buf.put(t.getText().getBytes(StandardCharsets.US_ASCII));
+            putString(buf, texts[i]);
         }
 
         return buf.array();
@@ -724,56 +1821,28 @@ public class SocketManager
      * @param publicSD will the SubDataset be public?*/
     public static byte[] createAddSubDatasetEvent(int datasetID, boolean publicSD)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+4+1);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(ADD_SUBDATASET);
-        buf.putInt(datasetID);
-        buf.put((byte)(publicSD ? 1 : 0));
-
-        return buf.array();
+        return ProtocolEvents.addSubDataset(datasetID, publicSD);
     }
 
     /** Create a duplicate subdataset event
      * @param ids the subdataset IDs to duplicate*/
     public static byte[] createDuplicateSubDatasetEvent(MainActivity.DatasetIDBinding ids)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+2*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(DUPLICATE_SUBDATASET);
-        buf.putInt(ids.dataset.getID());
-        buf.putInt(ids.subDatasetID);
-
-        return buf.array();
+        return ProtocolEvents.duplicateSubDataset(ids.dataset.getID(), ids.subDatasetID);
     }
 
     /** Create an remove subdataset event
      * @param ids the subdataset IDs to remove*/
     public static byte[] createRemoveSubDatasetEvent(MainActivity.DatasetIDBinding ids)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+2*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(REMOVE_SUBDATASET);
-        buf.putInt(ids.dataset.getID());
-        buf.putInt(ids.subDatasetID);
-
-        return buf.array();
+        return ProtocolEvents.removeSubDataset(ids.dataset.getID(), ids.subDatasetID);
     }
 
     /** Create an remove subdataset event
      * @param ids the subdataset IDs*/
     public static byte[] createMakeSubDatasetPublicEvent(MainActivity.DatasetIDBinding ids)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+2*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(MAKE_SUBDATASET_PUBLIC);
-        buf.putInt(ids.dataset.getID());
-        buf.putInt(ids.subDatasetID);
-
-        return buf.array();
+        return ProtocolEvents.makeSubDatasetPublic(ids.dataset.getID(), ids.subDatasetID);
     }
 
     /** Create a location event
@@ -782,18 +1851,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createLocationEvent(float[] pos, float[] rot)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+3*4+4*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(LOCATION);
-
-        for(int i = 0; i < 3; i++)
-            buf.putFloat(pos[i]);
-
-        for(int i = 0; i < 4; i++)
-            buf.putFloat(rot[i]);
-
-        return buf.array();
+        return ProtocolEvents.location(pos, rot);
     }
 
     /** Create a tablet scale event
@@ -801,18 +1859,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createTabletScaleEvent(float scale, float width, float height, float posx, float posy)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 5*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(TABLETSCALE);
-
-        buf.putFloat(scale);
-        buf.putFloat(width);
-        buf.putFloat(height);
-        buf.putFloat(posx);
-        buf.putFloat(posy);
-
-        return buf.array();
+        return ProtocolEvents.tabletScale(scale, width, height, posx, posy);
     }
 
     /** Create a lasso event
@@ -838,13 +1885,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createAddNewSelectionInputEvent(int booleanOp)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(ADD_NEW_SELECTION_INPUT);
-        buf.putInt(booleanOp);
-
-        return buf.array();
+        return ProtocolEvents.addNewSelectionInput(booleanOp);
     }
 
     /** Create a lasso event
@@ -852,14 +1893,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createConfirmSelectionEvent(MainActivity.DatasetIDBinding ids)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+4+4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(CONFIRM_SELECTION);
-        buf.putInt(ids.dataset.getID());
-        buf.putInt(ids.subDatasetID);
-
-        return buf.array();
+        return ProtocolEvents.confirmSelection(ids.dataset.getID(), ids.subDatasetID);
     }
 
     /** Create a toggle map visibility event. Change the visibility of the map associated to a SubDataset
@@ -868,15 +1902,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createToggleMapVisibility(MainActivity.DatasetIDBinding ids, boolean visibility)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+4+4+1);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(TOGGLE_MAP_VISIBILITY);
-        buf.putInt(ids.dataset.getID());
-        buf.putInt(ids.subDatasetID);
-        buf.put((byte)(visibility ? 1 : 0));
-
-        return buf.array();
+        return ProtocolEvents.toggleMapVisibility(ids.dataset.getID(), ids.subDatasetID, visibility);
     }
 
     /** Create a merge subdataset event between two subdatasets. Pay attention that the subdatasets must share the same parent (this function does not check that)
@@ -885,15 +1911,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createMergeSubDatasetsEvent(SubDataset sd1, SubDataset sd2)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+4+4+4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(MERGE_SUBDATSETS);
-        buf.putInt(sd1.getParent().getID());
-        buf.putInt(sd1.getID());
-        buf.putInt(sd2.getID());
-
-        return buf.array();
+        return ProtocolEvents.mergeSubDatasets(sd1.getParent().getID(), sd1.getID(), sd2.getID());
     }
 
     /** Create a reset volumetric selection on one particular subdataset
@@ -901,14 +1919,7 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createResetVolumetricSelection(MainActivity.DatasetIDBinding ids)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2+4+4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(RESET_VOLUMETRIC_SELECTION);
-        buf.putInt(ids.dataset.getID());
-        buf.putInt(ids.subDatasetID);
-
-        return buf.array();
+        return ProtocolEvents.resetVolumetricSelection(ids.dataset.getID(), ids.subDatasetID);
     }
 
     /** Create a "open log data" event
@@ -918,12 +1929,12 @@ public class SocketManager
      * @return array of byte to send to push*/
     public static byte[] createOpenLogData(String fileName, boolean hasHeader, int timeID)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 4 + fileName.length() + 1 + 4); //command ID, fileName, hasHeader, timeID
+        byte[] encodedFileName = encodeString(fileName);
+        ByteBuffer buf = ByteBuffer.allocate(2 + 4 + encodedFileName.length + 1 + 4); //command ID, fileName, hasHeader, timeID
         buf.order(ByteOrder.BIG_ENDIAN);
 
         buf.putShort(OPEN_LOG_DATA);
-        buf.putInt(fileName.length());
-        buf.put(fileName.getBytes(StandardCharsets.US_ASCII));
+        putString(buf, encodedFileName);
         buf.put((byte)(hasHeader?1:0));
         buf.putInt(timeID);
 
@@ -934,67 +1945,27 @@ public class SocketManager
      * @param containerID the ID of the AnnotationLogContainer that shall have a new AnnotationPosition*/
     public static byte[] createAddAnnotationPosition(int containerID)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(ADD_ANNOTATION_POSITION);
-        buf.putInt(containerID);
-
-        return buf.array();
+        return ProtocolEvents.addAnnotationPosition(containerID);
     }
 
     public static byte[] createAddAnnotationPositionToSubData(MainActivity.DatasetIDBinding sd, MainActivity.AnnotationLogComponentIDBinding comp)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 4*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(ADD_ANNOTATION_POSIITON_TO_SD);
-        buf.putInt(sd.dataset.getID());
-        buf.putInt(sd.subDatasetID);
-        buf.putInt(comp.annot.getID());
-        buf.putInt(comp.componentID);
-
-        return buf.array();
+        return ProtocolEvents.addAnnotationPositionToSD(sd.dataset.getID(), sd.subDatasetID, comp.annot.getID(), comp.componentID);
     }
 
     public static byte[] createSetAnnotationPositionIndexes(MainActivity.AnnotationLogComponentIDBinding comp, int[] indexes)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 5*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-        buf.putShort(SET_ANNOTATION_POSITION_INDEXES);
-        buf.putInt(comp.annot.getID());
-        buf.putInt(comp.componentID);
-        for(int i = 0; i < 3; i++)
-            buf.putInt(indexes[i]);
-        return buf.array();
+        return ProtocolEvents.setAnnotationPositionIndexes(comp.annot.getID(), comp.componentID, indexes);
     }
 
     public static byte[] createSDClippingEvent(MainActivity.DatasetIDBinding sd, float minDepth, float maxDepth)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 2*4 + 2*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(SET_SUBDATASET_CLIPPING);
-        buf.putInt(sd.dataset.getID());
-        buf.putInt(sd.subDatasetID);
-        buf.putFloat(minDepth);
-        buf.putFloat(maxDepth);
-
-        return buf.array();
+        return ProtocolEvents.subDatasetClipping(sd.dataset.getID(), sd.subDatasetID, minDepth, maxDepth);
     }
 
     public static byte[] createSetDrawableAnnotationPositionColor(DrawableAnnotationPosition pos, Color color)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 3*4 + 4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(SET_DRAWABLE_ANNOTATION_POSITION_COLOR);
-        buf.putInt(pos.getSubDataset().getParent().getID());
-        buf.putInt(pos.getSubDataset().getID());
-        buf.putInt(pos.getID());
-        buf.putInt(color.toARGB8888());
-
-        return buf.array();
+        return ProtocolEvents.setDrawableAnnotationPositionColor(pos.getSubDataset().getParent().getID(), pos.getSubDataset().getID(), pos.getID(), color.toARGB8888());
     }
 
     public static byte[] createSetDrawableAnnotationPositionMappedDataIndices(DrawableAnnotationPosition pos, int[] idx)
@@ -1015,75 +1986,40 @@ public class SocketManager
 
     public static byte[] createSubjectiveViewGroup(MainActivity.DatasetIDBinding sd, int svType)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 3*4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(ADD_SV_GROUP);
-        buf.putInt(svType);
-        buf.putInt(sd.dataset.getID());
-        buf.putInt(sd.subDatasetID);
-
-        return buf.array();
+        return ProtocolEvents.addSubjectiveViewGroup(svType, sd.dataset.getID(), sd.subDatasetID);
     }
 
     public static byte[] createRemoveSubDatasetGroup(int sdgID)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(REMOVE_SD_GROUP);
-        buf.putInt(sdgID);
-
-        return buf.array();
+        return ProtocolEvents.removeSubDatasetGroup(sdgID);
     }
 
     public static byte[] createSetSVGlobalParameters(int sdgID, int stackingMethod, float gap, boolean merge)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 4 + 4 + 4 + 1);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(SET_SV_STACKED_GROUP_GLOBAL_PARAMETERS);
-        buf.putInt(sdgID);
-        buf.putInt(stackingMethod);
-        buf.putFloat(gap);
-        buf.put((byte)(merge?1:0));
-
-        return buf.array();
+        return ProtocolEvents.setSVGlobalParameters(sdgID, stackingMethod, gap, merge);
     }
 
     public static byte[] createAddClientToSVGroup(int sdgID)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 4);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(ADD_CLIENT_TO_SV_GROUP);
-        buf.putInt(sdgID);
-
-        return buf.array();
+        return ProtocolEvents.addClientToSVGroup(sdgID);
     }
 
     public static byte[] createRenameSubDataset(MainActivity.DatasetIDBinding sd, String name)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 2*4 + 4 + name.length());
+        byte[] encodedName = encodeString(name);
+        ByteBuffer buf = ByteBuffer.allocate(2 + 2*4 + 4 + encodedName.length);
         buf.order(ByteOrder.BIG_ENDIAN);
 
         buf.putShort(RENAME_SUBDATASET);
         buf.putInt(sd.dataset.getID());
         buf.putInt(sd.subDatasetID);
-        buf.putInt(name.length());
-        buf.put(name.getBytes(StandardCharsets.US_ASCII));
+        putString(buf, encodedName);
 
         return buf.array();
     }
 
     public static byte[] createSetVolumetricSelectionMethod(byte method)
     {
-        ByteBuffer buf = ByteBuffer.allocate(2 + 1);
-        buf.order(ByteOrder.BIG_ENDIAN);
-
-        buf.putShort(SET_VOLUMETRIC_SELECTION_METHOD);
-        buf.put(method);
-
-        return buf.array();
-    };
+        return ProtocolEvents.setVolumetricSelectionMethod(method);
+    }
 }
\ No newline at end of file
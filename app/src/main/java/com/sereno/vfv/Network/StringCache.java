@@ -0,0 +1,98 @@
+package com.sereno.vfv.Network;
+
+import java.nio.charset.StandardCharsets;
+
+/** Small cache of decoded UTF-8 strings, indexed by their encoded bytes.
+ * Strings repeated by the server (e.g., subdataset names, dataset paths) are then decoded (and allocated) only once.
+ * This is a direct-mapped cache: a new string replaces the one stored in its slot. This class is not thread-safe*/
+public class StringCache
+{
+    /** The default number of slots*/
+    public static final int DEFAULT_NB_SLOTS = 64;
+
+    /** The default maximum size (in bytes) of a string to cache*/
+    public static final int DEFAULT_MAX_LENGTH = 128;
+
+    /** The encoded bytes of the cached strings, per slot*/
+    private byte[][] m_bytes;
+
+    /** The cached strings, per slot*/
+    private String[] m_strings;
+
+    /** The maximum size (in bytes) of a string to cache*/
+    private int m_maxLength;
+
+    /** Number of strings found in the cache*/
+    private long m_nbHits = 0;
+
+    /** Number of strings not found in the cache*/
+    private long m_nbMisses = 0;
+
+    /** Constructor, with DEFAULT_NB_SLOTS slots and strings up to DEFAULT_MAX_LENGTH bytes*/
+    public StringCache()
+    {
+        this(DEFAULT_NB_SLOTS, DEFAULT_MAX_LENGTH);
+    }
+
+    /** Constructor
+     * @param nbSlots the number of slots. Rounded up to a power of two
+     * @param maxLength the maximum size (in bytes) of a string to cache. Larger strings are always decoded*/
+    public StringCache(int nbSlots, int maxLength)
+    {
+        int size = 1;
+        while(size < nbSlots)
+            size <<= 1;
+        m_bytes     = new byte[size][];
+        m_strings   = new String[size];
+        m_maxLength = maxLength;
+    }
+
+    /** Decode UTF-8 bytes, using the cached string if these bytes were already decoded
+     * @param data the array containing the encoded bytes
+     * @param offset the offset of the string in data
+     * @param length the size of the string in data, in bytes
+     * @return the decoded string*/
+    public String decode(byte[] data, int offset, int length)
+    {
+        if(length > m_maxLength)
+        {
+            m_nbMisses++;
+            return new String(data, offset, length, StandardCharsets.UTF_8);
+        }
+
+        int hash = length;
+        for(int i = offset; i < offset+length; i++)
+            hash = 31*hash + data[i];
+        hash ^= (hash >>> 16);
+        int slot = hash & (m_bytes.length-1);
+
+        byte[] cached = m_bytes[slot];
+        if(cached != null && cached.length == length)
+        {
+            int i = 0;
+            while(i < length && cached[i] == data[offset+i])
+                i++;
+            if(i == length)
+            {
+                m_nbHits++;
+                return m_strings[slot];
+            }
+        }
+
+        m_nbMisses++;
+        String str = new String(data, offset, length, StandardCharsets.UTF_8);
+        cached = new byte[length];
+        System.arraycopy(data, offset, cached, 0, length);
+        m_bytes[slot]   = cached;
+        m_strings[slot] = str;
+        return str;
+    }
+
+    /** Get the number of strings found in the cache
+     * @return the number of cache hits*/
+    public long getNbHits() {return m_nbHits;}
+
+    /** Get the number of strings not found in the cache (or too large to be cached)
+     * @return the number of cache misses*/
+    public long getNbMisses() {return m_nbMisses;}
+}
@@ -1,42 +1,7 @@
 package com.sereno.vfv.Network;
 
-public class SubDatasetLockOwnerMessage extends ServerMessage
+public class SubDatasetLockOwnerMessage extends SubDatasetLockOwnerMessageFields
 {
-    /** The dataset ID*/
-    private int m_datasetID = 0;
-
-    /** The subdataset ID*/
-    private int m_sdID      = 0;
-
-    /** The headset ID owning this subdataset*/
-    private int m_headsetID = 0;
-
-    @Override
-    public void pushValue(int v)
-    {
-        if(cursor == 0)
-            m_datasetID = v;
-        else if(cursor == 1)
-            m_sdID = v;
-        else
-            m_headsetID = v;
-        super.pushValue(v);
-    }
-
-    @Override
-    public int getMaxCursor()
-    {
-        return 2;
-    }
-
-    @Override
-    public byte getCurrentType()
-    {
-        if(cursor <= 2)
-            return 'I';
-        return 0;
-    }
-
     /** Get the dataset ID
      * @return the dataset ID of this new link*/
     public int getDatasetID()
@@ -1,5 +1,9 @@
 package com.sereno.vfv.Network;
 
+import java.nio.ByteBuffer;
+
+/** A volumetric mask to apply to a subdataset (GET_VOLUMETRIC_MASK), one bit per voxel.
+ * The run-length encoded masks are parsed as SubDatasetVolumetricMaskRunsMessage*/
 public class SubDatasetVolumetricMaskMessage extends ServerMessage
 {
     /** The datasetID of the message*/
@@ -8,8 +12,8 @@ public class SubDatasetVolumetricMaskMessage extends ServerMessage
     /** The subdataset ID of the message*/
     private int m_subDatasetID;
 
-    /** The byte array containing the volumetric mask data. Each bit (and not byte) encodes one value.*/
-    private byte[] m_mask;
+    /** The direct buffer containing the volumetric mask data. Each bit (and not byte) encodes one value*/
+    private ByteBuffer m_mask;
 
     /** Is the volumetric mask enabled?*/
     private boolean m_enabled;
@@ -20,7 +24,7 @@ public class SubDatasetVolumetricMaskMessage extends ServerMessage
         if(cursor <= 1)
             return 'I';
         else if(cursor == 2)
-            return 'a';
+            return 'A';
         else if(cursor == 3)
             return 'b';
         return 0;
@@ -37,7 +41,7 @@ public class SubDatasetVolumetricMaskMessage extends ServerMessage
     }
 
     @Override
-    public void pushValue(byte[] val)
+    public void pushValue(ByteBuffer val)
     {
         if(cursor == 2)
             m_mask = val;
@@ -72,9 +76,10 @@ public class SubDatasetVolumetricMaskMessage extends ServerMessage
         return m_subDatasetID;
     }
 
-    /** Get the volumetric spatial mask parsed
-     * @return the byte array containing the volumetric mask data. Each bit (and not byte) encodes one value.*/
-    public byte[] getMask()
+    /** Get the volumetric spatial mask parsed. The buffer comes from the DirectBufferPool of the MessageBuffer
+     * and should be released to it once consumed (see MessageBuffer.getDirectBufferPool)
+     * @return the direct buffer containing the volumetric mask data. Each bit (and not byte) encodes one value*/
+    public ByteBuffer getMask()
     {
         return m_mask;
     }
@@ -0,0 +1,90 @@
+package com.sereno.vfv.Network;
+
+import java.nio.ByteBuffer;
+
+/** A run-length encoded volumetric mask to apply to a subdataset (GET_VOLUMETRIC_MASK_RUNS, see VolumetricMaskRuns).
+ * It has no IMessageBufferCallback method: it is handled through typed handlers (see MessageBuffer.addHandler)*/
+public class SubDatasetVolumetricMaskRunsMessage extends ServerMessage
+{
+    /** The datasetID of the message*/
+    private int m_datasetID;
+
+    /** The subdataset ID of the message*/
+    private int m_subDatasetID;
+
+    /** The direct buffer containing the runs of the volumetric mask*/
+    private ByteBuffer m_runs;
+
+    /** Is the volumetric mask enabled?*/
+    private boolean m_enabled;
+
+    @Override
+    public byte getCurrentType()
+    {
+        if(cursor <= 1)
+            return 'I';
+        else if(cursor == 2)
+            return 'A';
+        else if(cursor == 3)
+            return 'b';
+        return 0;
+    }
+
+    @Override
+    public void pushValue(int val)
+    {
+        if (cursor == 0)
+            m_datasetID = val;
+        else if (cursor == 1)
+            m_subDatasetID = val;
+        super.pushValue(val);
+    }
+
+    @Override
+    public void pushValue(ByteBuffer val)
+    {
+        if(cursor == 2)
+            m_runs = val;
+        super.pushValue(val);
+    }
+
+    @Override
+    public void pushValue(byte val)
+    {
+        if(cursor == 3)
+            m_enabled = (val != 0);
+        super.pushValue(val);
+    }
+
+    @Override
+    public int getMaxCursor()
+    {
+        return 3;
+    }
+
+    /** Get the dataset ID parsed
+     * @return the dataset ID to update. Need to be used with getSubDatasetID()*/
+    public int getDatasetID()
+    {
+        return m_datasetID;
+    }
+
+    /** Get the subdataset ID parsed
+     * @return the subdataset ID to update. Update dataset ID = getDatasetID() .getSubDataset[getSubDatasetID()].*/
+    public int getSubDatasetID()
+    {
+        return m_subDatasetID;
+    }
+
+    /** Get the runs of the volumetric mask parsed. The buffer comes from the DirectBufferPool of the MessageBuffer
+     * and should be released to it once consumed (see MessageBuffer.getDirectBufferPool)
+     * @return the direct buffer containing the runs of the mask, from its position to its limit (see VolumetricMaskRuns)*/
+    public ByteBuffer getRuns()
+    {
+        return m_runs;
+    }
+
+    /** Is the volumetric mask enabled?
+     * @return true if yes, false otherwise*/
+    public boolean isEnabled() {return m_enabled;}
+}
@@ -0,0 +1,70 @@
+package com.sereno.vfv.Network;
+
+/** Message carrying only the changes of a transfer function (see TFState): int baseVersion, then the layout of GET_TF_DATASET
+ * where the GTF properties are only the ones that changed. Apply it in place if the version of the current transfer function is the base version*/
+public class TFDiffMessage extends ServerMessage
+{
+    /** The version of the transfer function this diff applies to*/
+    private int m_baseVersion;
+
+    /** The transfer function part, parsed as a GET_TF_DATASET message*/
+    private TFDatasetMessage m_tf = new TFDatasetMessage();
+
+    @Override
+    byte getCurrentType()
+    {
+        if(cursor == 0)
+            return 'I';
+        return m_tf.getCurrentType();
+    }
+
+    @Override
+    int getMaxCursor()
+    {
+        return 1 + m_tf.getMaxCursor();
+    }
+
+    @Override
+    void pushValue(int value)
+    {
+        if(cursor == 0)
+            m_baseVersion = value;
+        else
+            m_tf.pushValue(value);
+        super.pushValue(value);
+    }
+
+    @Override
+    void pushValue(byte value)
+    {
+        m_tf.pushValue(value);
+        super.pushValue(value);
+    }
+
+    @Override
+    void pushValue(float value)
+    {
+        m_tf.pushValue(value);
+        super.pushValue(value);
+    }
+
+    /** Get the version of the transfer function this diff applies to
+     * @return the base version (see TFState.getVersion)*/
+    public int getBaseVersion() {return m_baseVersion;}
+
+    /** Get the transfer function part of this diff. Its GTF properties are only the ones that changed
+     * @return the transfer function message*/
+    public TFDatasetMessage getTF() {return m_tf;}
+
+    /** Get the dataset ID parsed
+     * @return the dataset ID to update*/
+    public int getDatasetID() {return m_tf.getDatasetID();}
+
+    /** Get the subdataset ID parsed
+     * @return the subdataset ID to update*/
+    public int getSubDatasetID() {return m_tf.getSubDatasetID();}
+
+    /** Get the headset ID parsed.
+     * @return the headset ID updating the transfer function. -1 == server call*/
+    public int getHeadsetID() {return m_tf.getHeadsetID();}
+}
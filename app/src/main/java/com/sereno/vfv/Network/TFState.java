@@ -0,0 +1,394 @@
+package com.sereno.vfv.Network;
+
+import com.sereno.vfv.Data.SubDataset;
+import com.sereno.vfv.Data.TF.GTFData;
+import com.sereno.vfv.Data.TF.MergeTFData;
+import com.sereno.vfv.Data.TF.TransferFunction;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/** Immutable snapshot of a transfer function, as carried by the TF_SUBDATASET event, used to send only what changed (see SocketManager.pushTFEvent).
+ *
+ * The TF_DIFF event is: int baseVersion, then the layout of TF_SUBDATASET (see SocketManager.createTFEvent) where the GTF properties
+ * are only the ones whose center or scale changed. The header of each transfer function (type, color mode, timestep, clipping values)
+ * and the interpolation parameter of merged transfer functions are always sent. The server relays it as MessageBuffer.GET_TF_DIFF.
+ *
+ * The version of a transfer function is a CRC32 of its structure (types, property IDs) and of its property values, i.e., of what a diff may omit.
+ * Hence a diff applies to a transfer function only if their versions match, whatever the order in which the devices updated it*/
+public class TFState
+{
+    /** The transfer function type (see SubDataset.TRANSFER_FUNCTION_*)*/
+    private final int m_type;
+
+    /** The color mode*/
+    private final int m_colorMode;
+
+    /** The timestep*/
+    private final float m_timestep;
+
+    /** The minimum clipping value*/
+    private final float m_minClipping;
+
+    /** The maximum clipping value*/
+    private final float m_maxClipping;
+
+    /** GTF and TGTF: the property IDs, sorted*/
+    private final int[] m_propIDs;
+
+    /** GTF and TGTF: the centers, per property*/
+    private final float[] m_centers;
+
+    /** GTF and TGTF: the scales, per property*/
+    private final float[] m_scales;
+
+    /** Merge: the interpolation parameter*/
+    private final float m_t;
+
+    /** Merge: the two transfer functions merged. null otherwise*/
+    private final TFState m_tf1;
+    private final TFState m_tf2;
+
+    /** Constructor of a GTF or TGTF state
+     * @param type SubDataset.TRANSFER_FUNCTION_GTF or SubDataset.TRANSFER_FUNCTION_TGTF
+     * @param colorMode the color mode
+     * @param timestep the timestep
+     * @param minClipping the minimum clipping value
+     * @param maxClipping the maximum clipping value
+     * @param propIDs the property IDs
+     * @param centers the centers, per property
+     * @param scales the scales, per property*/
+    TFState(int type, int colorMode, float timestep, float minClipping, float maxClipping, int[] propIDs, float[] centers, float[] scales)
+    {
+        m_type        = type;
+        m_colorMode   = colorMode;
+        m_timestep    = timestep;
+        m_minClipping = minClipping;
+        m_maxClipping = maxClipping;
+        m_t   = 0.0f;
+        m_tf1 = null;
+        m_tf2 = null;
+
+        //Sort the properties by ID, for the version not to depend on the iteration order of the ranges
+        long[] order = new long[propIDs.length];
+        for(int i = 0; i < propIDs.length; i++)
+            order[i] = ((long)propIDs[i] << 32) | i;
+        Arrays.sort(order);
+
+        m_propIDs = new int[propIDs.length];
+        m_centers = new float[propIDs.length];
+        m_scales  = new float[propIDs.length];
+        for(int i = 0; i < order.length; i++)
+        {
+            int j = (int)order[i];
+            m_propIDs[i] = propIDs[j];
+            m_centers[i] = centers[j];
+            m_scales[i]  = scales[j];
+        }
+    }
+
+    /** Constructor of a merge state
+     * @param colorMode the color mode
+     * @param timestep the timestep
+     * @param minClipping the minimum clipping value
+     * @param maxClipping the maximum clipping value
+     * @param t the interpolation parameter
+     * @param tf1 the first transfer function merged
+     * @param tf2 the second transfer function merged*/
+    TFState(int colorMode, float timestep, float minClipping, float maxClipping, float t, TFState tf1, TFState tf2)
+    {
+        m_type        = SubDataset.TRANSFER_FUNCTION_MERGE;
+        m_colorMode   = colorMode;
+        m_timestep    = timestep;
+        m_minClipping = minClipping;
+        m_maxClipping = maxClipping;
+        m_propIDs = new int[0];
+        m_centers = new float[0];
+        m_scales  = new float[0];
+        m_t   = t;
+        m_tf1 = tf1;
+        m_tf2 = tf2;
+    }
+
+    /** Take a snapshot of a transfer function
+     * @param tf the transfer function
+     * @return the snapshot, or null if the transfer function type is not supported*/
+    public static TFState of(TransferFunction tf)
+    {
+        switch(tf.getType())
+        {
+            case SubDataset.TRANSFER_FUNCTION_GTF:
+            case SubDataset.TRANSFER_FUNCTION_TGTF:
+            {
+                Map<Integer, GTFData.GTFPoint> ranges = ((GTFData)tf).getRanges();
+                int[]   propIDs = new int[ranges.size()];
+                float[] centers = new float[ranges.size()];
+                float[] scales  = new float[ranges.size()];
+                int i = 0;
+                for(Map.Entry<Integer, GTFData.GTFPoint> entry : ranges.entrySet())
+                {
+                    propIDs[i] = entry.getKey();
+                    centers[i] = entry.getValue().center;
+                    scales[i]  = entry.getValue().scale;
+                    i++;
+                }
+                return new TFState(tf.getType(), tf.getColorMode(), tf.getTimestep(), tf.getMinClipping(), tf.getMaxClipping(), propIDs, centers, scales);
+            }
+
+            case SubDataset.TRANSFER_FUNCTION_MERGE:
+            {
+                MergeTFData merge = (MergeTFData)tf;
+                TFState tf1 = of(merge.getTF1Data());
+                TFState tf2 = of(merge.getTF2Data());
+                if(tf1 == null || tf2 == null)
+                    return null;
+                return new TFState(tf.getColorMode(), tf.getTimestep(), tf.getMinClipping(), tf.getMaxClipping(), merge.getInterpolationParameter(), tf1, tf2);
+            }
+        }
+        return null;
+    }
+
+    /** Take a snapshot of a transfer function received
+     * @param msg the transfer function message (full state)
+     * @return the snapshot, or null if the transfer function type is not supported*/
+    public static TFState of(TFDatasetMessage msg)
+    {
+        switch(msg.getTFType())
+        {
+            case SubDataset.TRANSFER_FUNCTION_GTF:
+            case SubDataset.TRANSFER_FUNCTION_TGTF:
+            {
+                TFDatasetMessage.GTFData.PropData[] props = msg.getGTFData().propData;
+                int[]   propIDs = new int[props.length];
+                float[] centers = new float[props.length];
+                float[] scales  = new float[props.length];
+                for(int i = 0; i < props.length; i++)
+                {
+                    propIDs[i] = props[i].propID;
+                    centers[i] = props[i].center;
+                    scales[i]  = props[i].scale;
+                }
+                return new TFState(msg.getTFType(), msg.getColorMode(), msg.getTimestep(), msg.getMinClipping(), msg.getMaxClipping(), propIDs, centers, scales);
+            }
+
+            case SubDataset.TRANSFER_FUNCTION_MERGE:
+            {
+                TFDatasetMessage.MergeTFData merge = msg.getMergeTFData();
+                TFState tf1 = of(merge.tf1Msg);
+                TFState tf2 = of(merge.tf2Msg);
+                if(tf1 == null || tf2 == null)
+                    return null;
+                return new TFState(msg.getColorMode(), msg.getTimestep(), msg.getMinClipping(), msg.getMaxClipping(), merge.t, tf1, tf2);
+            }
+        }
+        return null;
+    }
+
+    /** Apply a diff received to this state
+     * @param msg the diff
+     * @return the new state, or null if the diff does not apply to this state (its base version differs, or it does not match the structure of this state)*/
+    public TFState apply(TFDiffMessage msg)
+    {
+        if(msg.getBaseVersion() != getVersion())
+            return null;
+        return apply(msg.getTF());
+    }
+
+    /** Apply the content of a diff to this state
+     * @param msg the transfer function part of the diff
+     * @return the new state, or null if the diff does not match the structure of this state*/
+    private TFState apply(TFDatasetMessage msg)
+    {
+        if(msg.getTFType() != m_type)
+            return null;
+
+        if(m_type == SubDataset.TRANSFER_FUNCTION_MERGE)
+        {
+            TFDatasetMessage.MergeTFData merge = msg.getMergeTFData();
+            TFState tf1 = m_tf1.apply(merge.tf1Msg);
+            TFState tf2 = m_tf2.apply(merge.tf2Msg);
+            if(tf1 == null || tf2 == null)
+                return null;
+            return new TFState(msg.getColorMode(), msg.getTimestep(), msg.getMinClipping(), msg.getMaxClipping(), merge.t, tf1, tf2);
+        }
+
+        float[] centers = m_centers.clone();
+        float[] scales  = m_scales.clone();
+        for(TFDatasetMessage.GTFData.PropData prop : msg.getGTFData().propData)
+        {
+            int i = Arrays.binarySearch(m_propIDs, prop.propID);
+            if(i < 0)
+                return null;
+            centers[i] = prop.center;
+            scales[i]  = prop.scale;
+        }
+        return new TFState(m_type, msg.getColorMode(), msg.getTimestep(), msg.getMinClipping(), msg.getMaxClipping(), m_propIDs, centers, scales);
+    }
+
+    /** Get the version of this transfer function: a CRC32 of its structure and property values (not of the values always sent in a diff)
+     * @return the version*/
+    public int getVersion()
+    {
+        CRC32 crc = new CRC32();
+        updateVersion(crc);
+        return (int)crc.getValue();
+    }
+
+    /** Can a diff be computed from another state to this one? (i.e., do they have the same types and property IDs?)
+     * @param base the base state
+     * @return true if yes, false if the whole state has to be sent*/
+    public boolean hasSameStructure(TFState base)
+    {
+        if(base == null || base.m_type != m_type || !Arrays.equals(base.m_propIDs, m_propIDs))
+            return false;
+        if(m_type == SubDataset.TRANSFER_FUNCTION_MERGE)
+            return m_tf1.hasSameStructure(base.m_tf1) && m_tf2.hasSameStructure(base.m_tf2);
+        return true;
+    }
+
+    /** Get the transfer function type
+     * @return the type (see SubDataset.TRANSFER_FUNCTION_*)*/
+    public int getType() {return m_type;}
+
+    /** Get the number of GTF properties
+     * @return the number of properties (0 for a merge state)*/
+    public int getNbProperties() {return m_propIDs.length;}
+
+    /** Create the TF_SUBDATASET event carrying this whole state (see SocketManager.createTFEvent)
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @return array of byte to send*/
+    public byte[] createEvent(int datasetID, int subDatasetID)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(2 + 2*4 + getSize(null));
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.putShort(SocketManager.TF_SUBDATASET);
+        buf.putInt(datasetID);
+        buf.putInt(subDatasetID);
+        fill(buf, null);
+        return buf.array();
+    }
+
+    /** Create the TF_DIFF event bringing a state to this one
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @param base the state the diff applies to. It must have the same structure (see hasSameStructure)
+     * @return array of byte to send*/
+    public byte[] createDiffEvent(int datasetID, int subDatasetID, TFState base)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(2 + 3*4 + getSize(base));
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.putShort(SocketManager.TF_DIFF);
+        buf.putInt(base.getVersion());
+        buf.putInt(datasetID);
+        buf.putInt(subDatasetID);
+        fill(buf, base);
+        return buf.array();
+    }
+
+    /** Get the size of the transfer function part of an event
+     * @param base the base state of a diff, or null for the whole state
+     * @return the size, in bytes*/
+    private int getSize(TFState base)
+    {
+        int size = 2*1 + 3*4;
+        if(m_type == SubDataset.TRANSFER_FUNCTION_MERGE)
+            return size + 4 + m_tf1.getSize(base == null ? null : base.m_tf1) + m_tf2.getSize(base == null ? null : base.m_tf2);
+        return size + 4 + 3*4*getNbChanged(base);
+    }
+
+    /** Fill the transfer function part of an event
+     * @param buf the buffer to fill
+     * @param base the base state of a diff, or null for the whole state*/
+    private void fill(ByteBuffer buf, TFState base)
+    {
+        buf.put((byte)m_type);
+        buf.put((byte)m_colorMode);
+        buf.putFloat(m_timestep);
+        buf.putFloat(m_minClipping);
+        buf.putFloat(m_maxClipping);
+
+        if(m_type == SubDataset.TRANSFER_FUNCTION_MERGE)
+        {
+            buf.putFloat(m_t);
+            m_tf1.fill(buf, base == null ? null : base.m_tf1);
+            m_tf2.fill(buf, base == null ? null : base.m_tf2);
+            return;
+        }
+
+        buf.putInt(getNbChanged(base));
+        for(int i = 0; i < m_propIDs.length; i++)
+        {
+            if(isChanged(base, i))
+            {
+                buf.putInt(m_propIDs[i]);
+                buf.putFloat(m_centers[i]);
+                buf.putFloat(m_scales[i]);
+            }
+        }
+    }
+
+    /** Get the number of properties changed since a base state
+     * @param base the base state, or null to count every property
+     * @return the number of properties to send*/
+    private int getNbChanged(TFState base)
+    {
+        int nb = 0;
+        for(int i = 0; i < m_propIDs.length; i++)
+            if(isChanged(base, i))
+                nb++;
+        return nb;
+    }
+
+    /** Did a property change since a base state?
+     * @param base the base state (same structure), or null
+     * @param i the index of the property
+     * @return true if the property has to be sent*/
+    private boolean isChanged(TFState base, int i)
+    {
+        return base == null || base.m_centers[i] != m_centers[i] || base.m_scales[i] != m_scales[i];
+    }
+
+    /** Update a CRC with the structure and property values of this state
+     * @param crc the CRC to update*/
+    private void updateVersion(CRC32 crc)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(4 + 4 + 3*4*m_propIDs.length);
+        buf.putInt(m_type);
+        buf.putInt(m_propIDs.length);
+        for(int i = 0; i < m_propIDs.length; i++)
+        {
+            buf.putInt(m_propIDs[i]);
+            buf.putFloat(m_centers[i]);
+            buf.putFloat(m_scales[i]);
+        }
+        crc.update(buf.array(), 0, buf.capacity());
+
+        if(m_type == SubDataset.TRANSFER_FUNCTION_MERGE)
+        {
+            m_tf1.updateVersion(crc);
+            m_tf2.updateVersion(crc);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(!(o instanceof TFState))
+            return false;
+        TFState s = (TFState)o;
+        return m_type == s.m_type && m_colorMode == s.m_colorMode && m_timestep == s.m_timestep &&
+               m_minClipping == s.m_minClipping && m_maxClipping == s.m_maxClipping && m_t == s.m_t &&
+               Arrays.equals(m_propIDs, s.m_propIDs) && Arrays.equals(m_centers, s.m_centers) && Arrays.equals(m_scales, s.m_scales) &&
+               (m_tf1 == null ? s.m_tf1 == null : m_tf1.equals(s.m_tf1)) && (m_tf2 == null ? s.m_tf2 == null : m_tf2.equals(s.m_tf2));
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return getVersion();
+    }
+}
@@ -0,0 +1,81 @@
+package com.sereno.vfv.Network;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/** Record the raw data received from the server, as read by the socket, in a file.
+ * The file starts with MAGIC and VERSION (two 32 bits integers), followed by one record per read chunk:
+ * the chunk timestamp in nanoseconds since the start of the recording (64 bits), the chunk size (32 bits) and the chunk bytes.
+ * Values are big endian. See TrafficReplayer to feed a recording back to a MessageBuffer*/
+public class TrafficRecorder
+{
+    /** The magic number starting a recording ("VFVT")*/
+    public static final int MAGIC   = 0x56465654;
+
+    /** The version of the recording format*/
+    public static final int VERSION = 1;
+
+    /** The output stream of the recording*/
+    private DataOutputStream m_output;
+
+    /** The file being written*/
+    private File m_file;
+
+    /** The time (System.nanoTime) at which the recording started*/
+    private long m_startTime;
+
+    /** Number of chunks recorded*/
+    private long m_nbChunks = 0;
+
+    /** Number of bytes recorded (chunk data only)*/
+    private long m_nbBytes  = 0;
+
+    /** Constructor. Create (or overwrite) the recording file
+     * @param file the file to write the recording into*/
+    public TrafficRecorder(File file) throws IOException
+    {
+        m_file   = file;
+        m_output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        m_output.writeInt(MAGIC);
+        m_output.writeInt(VERSION);
+        m_startTime = System.nanoTime();
+    }
+
+    /** Record a chunk of data received
+     * @param data the data received
+     * @param size the number of bytes received in data*/
+    public synchronized void record(byte[] data, int size) throws IOException
+    {
+        if(m_output == null)
+            return;
+        m_output.writeLong(System.nanoTime() - m_startTime);
+        m_output.writeInt(size);
+        m_output.write(data, 0, size);
+        m_nbChunks++;
+        m_nbBytes += size;
+    }
+
+    /** Flush and close the recording. Nothing is recorded afterwards*/
+    public synchronized void close() throws IOException
+    {
+        if(m_output == null)
+            return;
+        m_output.close();
+        m_output = null;
+    }
+
+    /** Get the file being written
+     * @return the recording file*/
+    public File getFile() {return m_file;}
+
+    /** Get the number of chunks recorded
+     * @return the number of chunks*/
+    public synchronized long getNbChunks() {return m_nbChunks;}
+
+    /** Get the number of bytes recorded
+     * @return the number of bytes received and recorded*/
+    public synchronized long getNbBytes() {return m_nbBytes;}
+}
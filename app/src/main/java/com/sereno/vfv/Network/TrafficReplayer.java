@@ -0,0 +1,115 @@
+package com.sereno.vfv.Network;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/** Feed a recording made by TrafficRecorder back to a MessageBuffer, chunk by chunk as the socket read them.
+ * The replay can follow the original timing or go as fast as possible (e.g., for benchmarking the decoding and dispatching path).
+ * This class does not need any Android device*/
+public class TrafficReplayer
+{
+    /** Statistics of a replay*/
+    public static class Result
+    {
+        /** Number of chunks pushed*/
+        public long nbChunks = 0;
+
+        /** Number of bytes pushed*/
+        public long nbBytes = 0;
+
+        /** Duration of the recording (timestamp of the last chunk), in nanoseconds*/
+        public long recordedDuration = 0;
+
+        /** Duration of the replay, in nanoseconds*/
+        public long replayDuration = 0;
+
+        /** Get the replay throughput
+         * @return the number of bytes pushed per second*/
+        public double getBytesPerSecond()
+        {
+            if(replayDuration == 0)
+                return 0;
+            return nbBytes*1e9/replayDuration;
+        }
+    }
+
+    /** The recording file*/
+    private File m_file;
+
+    /** The buffer storing the current chunk. Reused between chunks*/
+    private byte[] m_chunk = new byte[65536];
+
+    /** Constructor
+     * @param file the recording file (see TrafficRecorder)*/
+    public TrafficReplayer(File file)
+    {
+        m_file = file;
+    }
+
+    /** Replay the whole recording
+     * @param buffer the message buffer to push the chunks into
+     * @param realTime true to push each chunk at its recorded time, false to push them as fast as possible
+     * @return the statistics of the replay*/
+    public Result replay(MessageBuffer buffer, boolean realTime) throws IOException
+    {
+        Result result = new Result();
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(m_file), 65536));
+
+        try
+        {
+            if(input.readInt() != TrafficRecorder.MAGIC)
+                throw new IOException("The file " + m_file + " is not a traffic recording");
+            int version = input.readInt();
+            if(version != TrafficRecorder.VERSION)
+                throw new IOException("Unsupported traffic recording version " + version);
+
+            long startTime = System.nanoTime();
+            while(true)
+            {
+                long timestamp;
+                try
+                {
+                    timestamp = input.readLong();
+                }
+                catch(EOFException e)
+                {
+                    break;
+                }
+
+                int size = input.readInt();
+                if(size < 0)
+                    throw new IOException("Corrupted traffic recording: negative chunk size");
+                if(size > m_chunk.length)
+                    m_chunk = new byte[size];
+                input.readFully(m_chunk, 0, size);
+
+                //Wait for the recorded time of this chunk
+                if(realTime)
+                {
+                    long waitTime = timestamp - (System.nanoTime() - startTime);
+                    if(waitTime > 0)
+                    {
+                        try {Thread.sleep(waitTime/1000000, (int)(waitTime%1000000));}
+                        catch(InterruptedException e) {Thread.currentThread().interrupt(); break;}
+                    }
+                }
+
+                buffer.push(m_chunk, size);
+                result.nbChunks++;
+                result.nbBytes += size;
+                result.recordedDuration = timestamp;
+            }
+            result.replayDuration = System.nanoTime() - startTime;
+        }
+        finally
+        {
+            input.close();
+        }
+
+        return result;
+    }
+}
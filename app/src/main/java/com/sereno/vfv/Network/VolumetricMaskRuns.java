@@ -0,0 +1,228 @@
+package com.sereno.vfv.Network;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** Run-length encoding of the volumetric masks (GET_VOLUMETRIC_MASK_RUNS, see SocketManager.setCompressedMaskEnabled).
+ *
+ * A dense mask has one bit per voxel: voxel i is the bit (i % 8) of the byte (i / 8). The run-length mask is the sequence of the lengths of the runs
+ * of identical voxels in this order, alternating between unselected and selected voxels, starting with unselected ones (the first run may be empty).
+ * Each length is an unsigned LEB128 varint (7 bits per byte, the least significant first, the high bit set on every byte but the last).
+ * The voxels after the last run are unselected.
+ *
+ * Selections are a few compact blobs: a mask of n voxels takes a few bytes per boundary crossed instead of n/8 bytes.
+ * Only the transfer and the Java side are compact: the runs are decoded one at a time (see Decoder), and the native code
+ * still expands them into the dense mask of the subdataset, one bit per voxel (see SubDataset.setVolumetricMaskRuns)*/
+public final class VolumetricMaskRuns
+{
+    /** The maximum size of a varint, in bytes*/
+    private static final int MAX_VARINT_SIZE = 5;
+
+    private VolumetricMaskRuns()
+    {}
+
+    /** Streaming decoder of the runs. It reads the runs one at a time, without expanding them*/
+    public static class Decoder
+    {
+        /** The runs being read*/
+        private final ByteBuffer m_runs;
+
+        /** The first voxel of the current run*/
+        private long m_start = 0;
+
+        /** The number of voxels of the current run*/
+        private int m_length = 0;
+
+        /** Are the voxels of the current run selected? The first run read is not*/
+        private boolean m_selected = true;
+
+        /** Constructor
+         * @param runs the runs, from their position to their limit. The buffer position is not modified*/
+        public Decoder(ByteBuffer runs)
+        {
+            m_runs = runs.duplicate();
+        }
+
+        /** Read the next run
+         * @return true if a run was read, false if there is no more run
+         * @throws IllegalArgumentException if the runs are malformed (a truncated or oversized length)*/
+        public boolean next()
+        {
+            if(!m_runs.hasRemaining())
+                return false;
+
+            m_start   += m_length;
+            m_length   = readVarint(m_runs);
+            m_selected = !m_selected;
+            return true;
+        }
+
+        /** Get the first voxel of the current run
+         * @return the index of the voxel*/
+        public long getStart() {return m_start;}
+
+        /** Get the number of voxels of the current run
+         * @return the number of voxels, possibly 0*/
+        public int getLength() {return m_length;}
+
+        /** Get the voxel following the current run
+         * @return the index of the voxel*/
+        public long getEnd() {return m_start + m_length;}
+
+        /** Are the voxels of the current run selected?
+         * @return true if yes, false otherwise*/
+        public boolean isSelected() {return m_selected;}
+    }
+
+    /** Encode a dense mask
+     * @param mask the dense mask, one bit per voxel
+     * @param nbVoxels the number of voxels of the mask (at most mask.length*8)
+     * @return the runs*/
+    public static byte[] encode(byte[] mask, long nbVoxels)
+    {
+        byte[] runs = new byte[64];
+        int  size     = 0;
+        int  length   = 0;
+        boolean selected = false;
+
+        for(long i = 0; i < nbVoxels;)
+        {
+            //Whole bytes of the current state
+            if((i & 7) == 0 && i+8 <= nbVoxels && mask[(int)(i >>> 3)] == (selected ? (byte)0xff : 0) && length <= Integer.MAX_VALUE-8)
+            {
+                length += 8;
+                i      += 8;
+                continue;
+            }
+
+            boolean bit = (mask[(int)(i >>> 3)] & (1 << (i & 7))) != 0;
+            if(bit != selected || length == Integer.MAX_VALUE)
+            {
+                //An empty run of the other state continues a run longer than a varint allows
+                if(runs.length - size < 2*MAX_VARINT_SIZE)
+                    runs = Arrays.copyOf(runs, 2*runs.length);
+                size = writeVarint(runs, size, length);
+                if(bit == selected)
+                    size = writeVarint(runs, size, 0);
+                selected = bit;
+                length   = 0;
+            }
+            length++;
+            i++;
+        }
+
+        //The voxels after the last run are unselected
+        if(selected)
+        {
+            if(runs.length - size < MAX_VARINT_SIZE)
+                runs = Arrays.copyOf(runs, runs.length + MAX_VARINT_SIZE);
+            size = writeVarint(runs, size, length);
+        }
+        return Arrays.copyOf(runs, size);
+    }
+
+    /** Expand runs into a dense Java mask, as the native code does into the subdataset mask (see SubDataset.setVolumetricMaskRuns)
+     * @param runs the runs, from their position to their limit. The buffer position is not modified
+     * @param mask the dense mask to fill, one bit per voxel. The voxels not covered by the runs are unselected
+     * @return false if the runs do not fit in the mask or are malformed, true otherwise*/
+    public static boolean expand(ByteBuffer runs, byte[] mask)
+    {
+        Arrays.fill(mask, (byte)0);
+        long nbVoxels = 8L*mask.length;
+        Decoder decoder = new Decoder(runs);
+        try
+        {
+            while(decoder.next())
+            {
+                if(decoder.getEnd() > nbVoxels)
+                    return false;
+                if(decoder.isSelected())
+                    select(mask, decoder.getStart(), decoder.getEnd());
+            }
+        }
+        catch(IllegalArgumentException e)
+        {
+            return false;
+        }
+        return true;
+    }
+
+    /** Get the number of selected voxels
+     * @param runs the runs, from their position to their limit. The buffer position is not modified
+     * @return the number of selected voxels
+     * @throws IllegalArgumentException if the runs are malformed*/
+    public static long getNbSelected(ByteBuffer runs)
+    {
+        long nbSelected = 0;
+        Decoder decoder = new Decoder(runs);
+        while(decoder.next())
+            if(decoder.isSelected())
+                nbSelected += decoder.getLength();
+        return nbSelected;
+    }
+
+    /** Select the voxels [start, end[ of a dense mask
+     * @param mask the dense mask
+     * @param start the first voxel to select
+     * @param end the voxel following the last one to select*/
+    private static void select(byte[] mask, long start, long end)
+    {
+        //The bits before the first whole byte, and the whole bytes
+        for(; start < end && (start & 7) != 0; start++)
+            mask[(int)(start >>> 3)] |= (byte)(1 << (start & 7));
+        if(end - start >= 8)
+        {
+            Arrays.fill(mask, (int)(start >>> 3), (int)(end >>> 3), (byte)0xff);
+            start = end & ~7L;
+        }
+
+        //The bits after the last whole byte
+        for(; start < end; start++)
+            mask[(int)(start >>> 3)] |= (byte)(1 << (start & 7));
+    }
+
+    /** Write a varint
+     * @param buf the buffer to write into, with at least MAX_VARINT_SIZE bytes available
+     * @param offset where to write the varint
+     * @param value the value to write, positive
+     * @return the offset following the varint*/
+    private static int writeVarint(byte[] buf, int offset, int value)
+    {
+        while((value & ~0x7f) != 0)
+        {
+            buf[offset++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[offset++] = (byte)value;
+        return offset;
+    }
+
+    /** Read a varint
+     * @param buf the buffer to read
+     * @return the value read
+     * @throws IllegalArgumentException if the varint is truncated, or does not fit in a positive int*/
+    private static int readVarint(ByteBuffer buf)
+    {
+        long value = 0;
+        try
+        {
+            for(int i = 0; i < MAX_VARINT_SIZE; i++)
+            {
+                int b = buf.get() & 0xff;
+                value |= (long)(b & 0x7f) << (7*i);
+                if((b & 0x80) == 0)
+                {
+                    if(value > Integer.MAX_VALUE)
+                        break;
+                    return (int)value;
+                }
+            }
+        }
+        catch(BufferUnderflowException e)
+        {
+            throw new IllegalArgumentException("Truncated run length");
+        }
+        throw new IllegalArgumentException("Run length out of range");
+    }
+}
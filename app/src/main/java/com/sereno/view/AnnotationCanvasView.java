@@ -46,6 +46,9 @@ public class AnnotationCanvasView extends View implements AnnotationCanvasData.I
     /** Should we draw the text cursor? Works only on Text mode*/
     private boolean m_drawTextCursor = false;
 
+    /** The stroke being drawn by the user, created on ACTION_DOWN. The canvas may receive other strokes meanwhile (e.g., drawn remotely). null if none*/
+    private AnnotationStroke m_currentStroke = null;
+
     public AnnotationCanvasView(Context context)
     {
         super(context);
@@ -138,19 +141,26 @@ public class AnnotationCanvasView extends View implements AnnotationCanvasData.I
             if(e.getAction() == MotionEvent.ACTION_DOWN)
             {
                 addStrokePoint = true;
-                m_model.addStroke(new AnnotationStroke());
+                m_currentStroke = new AnnotationStroke();
+                m_model.addStroke(m_currentStroke);
             }
 
             //Just to tell that we can modify the stroke
             else if(e.getAction() == MotionEvent.ACTION_MOVE)
                 addStrokePoint = true;
 
-            //Add the event point. The callback listeners will invalidate this view
-            if(addStrokePoint && m_model.getStrokes().size() > 0)
+            //The stroke is finished
+            else if((e.getAction() == MotionEvent.ACTION_UP || e.getAction() == MotionEvent.ACTION_CANCEL) && m_currentStroke != null)
             {
-                AnnotationStroke s = m_model.getStrokes().get(m_model.getStrokes().size()-1);
-                s.addPoint(new Point((int)e.getX(), (int)e.getY()));
+                m_currentStroke.finish();
+                m_currentStroke = null;
+                return true;
+            }
 
+            //Add the event point. The callback listeners will invalidate this view
+            if(addStrokePoint && m_currentStroke != null)
+            {
+                m_currentStroke.addPoint(new Point((int)e.getX(), (int)e.getY()));
                 return true;
             }
         }
@@ -179,6 +189,13 @@ public class AnnotationCanvasView extends View implements AnnotationCanvasData.I
      * @param model the new AnnotationData model*/
     public void setModel(AnnotationCanvasData model)
     {
+        //The stroke being drawn belongs to the previous model
+        if(m_currentStroke != null)
+        {
+            m_currentStroke.finish();
+            m_currentStroke = null;
+        }
+
         if(m_model != null)
             m_model.removeListener(this);
         m_model = model;
@@ -289,6 +306,10 @@ public class AnnotationCanvasView extends View implements AnnotationCanvasData.I
         invalidate();
     }
 
+    @Override
+    public void onFinish(AnnotationStroke stroke)
+    {}
+
     @Override
     public void onSetText(AnnotationText text, String str) {
         invalidate();
@@ -26,6 +26,10 @@ public class AnnotationStroke
          * @param stroke the annotation stroke changing width
          * @param c the new stroke width*/
         void onSetWidth(AnnotationStroke stroke, float w);
+
+        /** Method called when the stroke is finished (no point will be added anymore)
+         * @param stroke the annotation stroke finished*/
+        void onFinish(AnnotationStroke stroke);
     }
 
     /** List of points composing the stroke*/
@@ -37,6 +41,9 @@ public class AnnotationStroke
     /** Width of the stroke*/
     private float m_width = 5.0f;
 
+    /** Is the stroke finished?*/
+    private boolean m_isFinished = false;
+
     /** The listeners to call when the current state of the annotations changed*/
     private ArrayList<IAnnotationStrokeListener> m_listeners = new ArrayList<>();
 
@@ -97,4 +104,30 @@ public class AnnotationStroke
     {
         return m_width;
     }
+
+    /** Set the stroke width
+     * @param width the new stroke width to apply*/
+    public void setWidth(float width)
+    {
+        m_width = width;
+        for(int i = 0; i < m_listeners.size(); i++)
+            m_listeners.get(i).onSetWidth(this, width);
+    }
+
+    /** Finish the stroke (e.g., the user lifted the finger). Nothing is done if the stroke is already finished*/
+    public void finish()
+    {
+        if(m_isFinished)
+            return;
+        m_isFinished = true;
+        for(int i = 0; i < m_listeners.size(); i++)
+            m_listeners.get(i).onFinish(this);
+    }
+
+    /** Is the stroke finished?
+     * @return true if no point will be added anymore, false otherwise*/
+    public boolean isFinished()
+    {
+        return m_isFinished;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,215 @@
+package com.sereno.vfv.Network;
+
+import android.graphics.Point;
+
+import com.sereno.view.AnnotationCanvasData;
+import com.sereno.view.AnnotationStroke;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AnnotationStreamingTest
+{
+    /** Get the number of points of a stroke of a canvas
+     * @param canvas the canvas. Used while holding its lock
+     * @param strokeIndex the stroke index
+     * @return the number of points of the stroke, or -1 if the canvas does not have this stroke yet*/
+    private static int getNbPoints(AnnotationCanvasData canvas, int strokeIndex)
+    {
+        synchronized(canvas)
+        {
+            if(canvas.getStrokes().size() <= strokeIndex)
+                return -1;
+            return canvas.getStrokes().get(strokeIndex).getPoints().size();
+        }
+    }
+
+    /** Create a parsed GET_ANNOTATION_STROKE_* message
+     * @param type the message type
+     * @param senderID the sender ID
+     * @param strokeID the stroke ID
+     * @param values the values following the stroke ID: (canvasWidth, canvasHeight, color) for GET_ANNOTATION_STROKE_BEGIN,
+     * the first point then the offsets (dx, dy per point) for GET_ANNOTATION_STROKE_POINTS, the number of points for GET_ANNOTATION_STROKE_END
+     * @return the message, as MessageBuffer would have parsed it*/
+    private static AnnotationStrokeMessage strokeMessage(int type, int senderID, int strokeID, int... values)
+    {
+        AnnotationStrokeMessage msg = new AnnotationStrokeMessage();
+        msg.type = type;
+        for(int v : new int[]{0, 0, 7, senderID, strokeID})
+            msg.pushValue(v);
+
+        if(type == MessageBuffer.GET_ANNOTATION_STROKE_POINTS)
+        {
+            msg.pushValue(values[0]);
+            byte[] varints = new byte[5*values.length];
+            int size = 0;
+            for(int i = 1; i < values.length; i++)
+                size = AnnotationStrokeStreamer.putVarint(varints, size, values[i]);
+            msg.pushValue(Arrays.copyOf(varints, size));
+        }
+        else
+        {
+            for(int v : values)
+                msg.pushValue(v);
+            if(type == MessageBuffer.GET_ANNOTATION_STROKE_BEGIN)
+                msg.pushValue(2.0f);
+        }
+        return msg;
+    }
+
+    @Test
+    public void identifiesRemoteStrokesBySender()
+    {
+        AnnotationCanvasData canvas = new AnnotationCanvasData(100, 100);
+        AnnotationStrokeReceiver strokeReceiver = new AnnotationStrokeReceiver();
+
+        //Two senders begin their stroke 0, and a local stroke is added in between
+        assertTrue(strokeReceiver.apply(strokeMessage(MessageBuffer.GET_ANNOTATION_STROKE_BEGIN, 1, 0, 100, 100, 0xff0000ff), canvas));
+        AnnotationStroke local = new AnnotationStroke();
+        canvas.addStroke(local);
+        assertTrue(strokeReceiver.apply(strokeMessage(MessageBuffer.GET_ANNOTATION_STROKE_BEGIN, 2, 0, 50, 200, 0xffff0000), canvas));
+        assertFalse(strokeReceiver.apply(strokeMessage(MessageBuffer.GET_ANNOTATION_STROKE_BEGIN, 2, 0, 50, 200, 0xffff0000), canvas));
+        assertEquals(3, canvas.getStrokes().size());
+
+        assertTrue(strokeReceiver.apply(strokeMessage(MessageBuffer.GET_ANNOTATION_STROKE_POINTS, 2, 0, 0, 10, 20, 5, -10), canvas));
+        assertTrue(strokeReceiver.apply(strokeMessage(MessageBuffer.GET_ANNOTATION_STROKE_POINTS, 1, 0, 0, 10, 20), canvas));
+        assertFalse(strokeReceiver.apply(strokeMessage(MessageBuffer.GET_ANNOTATION_STROKE_POINTS, 1, 0, 0, 10, 20), canvas));
+        assertTrue(strokeReceiver.apply(strokeMessage(MessageBuffer.GET_ANNOTATION_STROKE_END, 1, 0, 1), canvas));
+        assertTrue(strokeReceiver.apply(strokeMessage(MessageBuffer.GET_ANNOTATION_STROKE_END, 2, 0, 2), canvas));
+        assertEquals(0, strokeReceiver.getNbStrokes());
+
+        //The local stroke is untouched, and the points of the sender 2 are scaled from its 50x200 canvas
+        assertTrue(local.getPoints().isEmpty());
+        assertFalse(local.isFinished());
+        AnnotationStroke first = canvas.getStrokes().get(0), second = canvas.getStrokes().get(2);
+        assertEquals(0xff0000ff, first.getColor());
+        assertTrue(first.isFinished());
+        assertEquals(10, first.getPoints().get(0).x);
+        assertEquals(20, first.getPoints().get(0).y);
+        assertEquals(0xffff0000, second.getColor());
+        assertTrue(second.isFinished());
+        assertEquals(2, second.getPoints().size());
+        assertEquals(20, second.getPoints().get(0).x);
+        assertEquals(10, second.getPoints().get(0).y);
+        assertEquals(30, second.getPoints().get(1).x);
+        assertEquals(5,  second.getPoints().get(1).y);
+    }
+
+    @Test
+    public void streamsStrokesWhileDrawn() throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 0.0f, 0.0f);
+        int port = server.start(0);
+
+        //The tablet drawing, and the tablet rebuilding the canvas
+        SocketManager drawer   = new SocketManager("127.0.0.1", port);
+        SocketManager receiver = new SocketManager("127.0.0.1", port);
+        drawer.setAnnotationStreaming(true);
+
+        //The receiving canvas is twice as large: the points are scaled
+        final AnnotationCanvasData remote = new AnnotationCanvasData(640, 320);
+        final AnnotationStrokeReceiver strokeReceiver = new AnnotationStrokeReceiver();
+        final CountDownLatch ended = new CountDownLatch(3);
+        MessageBuffer.IMessageHandler<AnnotationStrokeMessage> handler = new MessageBuffer.IMessageHandler<AnnotationStrokeMessage>()
+        {
+            @Override
+            public void onMessage(AnnotationStrokeMessage msg)
+            {
+                synchronized(remote)
+                {
+                    assertEquals(1, msg.getSenderID());
+                    assertTrue(strokeReceiver.apply(msg, remote));
+                }
+                if(msg.getType() == MessageBuffer.GET_ANNOTATION_STROKE_END)
+                    ended.countDown();
+            }
+        };
+        for(int type : new int[]{MessageBuffer.GET_ANNOTATION_STROKE_BEGIN, MessageBuffer.GET_ANNOTATION_STROKE_POINTS, MessageBuffer.GET_ANNOTATION_STROKE_END})
+            receiver.getMessageBuffer().addHandler(type, handler);
+
+        try
+        {
+            drawer.setIdentInformation("127.0.0.1", 0, 1);
+            receiver.setIdentInformation("127.0.0.1", 0, 2);
+            long deadline = System.currentTimeMillis() + 5000;
+            while(server.getNbSent(MessageBuffer.GET_HEADSET_BINDING_INFO) < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+
+            AnnotationCanvasData local = new AnnotationCanvasData(320, 160);
+            Random random = new Random(3);
+            for(int s = 0; s < 3; s++)
+            {
+                AnnotationStroke stroke = new AnnotationStroke();
+                stroke.setColor(0xff000000 | random.nextInt(0xffffff));
+                local.addStroke(stroke);
+                drawer.pushAnnotationStrokeBegin(0, 0, 7, local, stroke);
+
+                Point p = new Point(random.nextInt(320), random.nextInt(160));
+                for(int i = 0; i < 100; i++)
+                {
+                    //Mostly small moves, and a large jump
+                    if(i == 50)
+                        p = new Point(p.x - 300, p.y + 200);
+                    else
+                        p = new Point(p.x + random.nextInt(7)-3, p.y + random.nextInt(7)-3);
+                    stroke.addPoint(p);
+                    drawer.pushAnnotationStrokePoint(stroke, p);
+                }
+
+                //The points are received while the stroke is drawn
+                deadline = System.currentTimeMillis() + 5000;
+                while(getNbPoints(remote, s) < 64 && System.currentTimeMillis() < deadline)
+                    Thread.sleep(5);
+                assertTrue(getNbPoints(remote, s) >= 64);
+                synchronized(remote)
+                {
+                    assertFalse(remote.getStrokes().get(s).isFinished());
+                }
+
+                stroke.finish();
+                drawer.pushAnnotationStrokeEnd(stroke);
+            }
+
+            assertTrue("The strokes were not all received", ended.await(5, TimeUnit.SECONDS));
+            assertEquals(0, drawer.getMetrics().snapshot().nbSent[SocketManager.SEND_ANNOTATION]);
+
+            long legacyBytes = 2+7*4;
+            synchronized(remote)
+            {
+                assertEquals(3, remote.getStrokes().size());
+                for(int s = 0; s < 3; s++)
+                {
+                    AnnotationStroke expected = local.getStrokes().get(s), received = remote.getStrokes().get(s);
+                    assertTrue(received.isFinished());
+                    assertEquals(expected.getColor(), received.getColor());
+                    assertEquals(expected.getWidth(), received.getWidth(), 0.0f);
+                    assertEquals(expected.getPoints().size(), received.getPoints().size());
+                    for(int i = 0; i < expected.getPoints().size(); i++)
+                    {
+                        assertEquals(2*expected.getPoints().get(i).x, received.getPoints().get(i).x);
+                        assertEquals(2*expected.getPoints().get(i).y, received.getPoints().get(i).y);
+                    }
+                    legacyBytes += 3*4 + 2*4*expected.getPoints().size();
+                }
+            }
+
+            NetworkMetrics.Snapshot snapshot = drawer.getMetrics().snapshot();
+            long streamedBytes = snapshot.nbBytesSent[SocketManager.ANNOTATION_STROKE_BEGIN] + snapshot.nbBytesSent[SocketManager.ANNOTATION_STROKE_POINTS] +
+                                 snapshot.nbBytesSent[SocketManager.ANNOTATION_STROKE_END];
+            assertTrue(streamedBytes*2 < legacyBytes);
+        }
+        finally
+        {
+            server.close();
+            drawer.stopThread();
+            receiver.stopThread();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/** Head-of-line blocking of the tablet locations behind a large volumetric mask, with and without the bulk channel of SocketManager*/
+public class BulkChannelTest
+{
+    /** Size of the mask sent, in bytes*/
+    private static final int MASK_SIZE = 4*1024*1024;
+
+    /** Send a mask slowly while the server streams locations
+     * @param withBulkChannel true to open the bulk channel, false to receive everything on the control connection
+     * @return the number of locations received while the mask was being sent*/
+    private static long run(boolean withBulkChannel) throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 500.0f, 0.0f);
+        int port = server.start(0);
+
+        SocketManager socket = new SocketManager("127.0.0.1", port);
+        MessageBuffer buffer = socket.getMessageBuffer();
+        final AtomicLong nbLocations = new AtomicLong(0);
+        final CountDownLatch bound   = new CountDownLatch(1);
+        final CountDownLatch masked  = new CountDownLatch(1);
+        final ByteBuffer[] mask      = new ByteBuffer[1];
+
+        buffer.addHandler(MessageBuffer.GET_HEADSET_BINDING_INFO, new MessageBuffer.IMessageHandler<HeadsetBindingInfoMessage>()
+        {
+            @Override
+            public void onMessage(HeadsetBindingInfoMessage msg) {bound.countDown();}
+        });
+        buffer.addHandler(MessageBuffer.GET_LOCATION_TABLET, new MessageBuffer.IMessageHandler<LocationTabletMessage>()
+        {
+            @Override
+            public void onMessage(LocationTabletMessage msg) {nbLocations.incrementAndGet();}
+        });
+        buffer.addHandler(MessageBuffer.GET_VOLUMETRIC_MASK, new MessageBuffer.IMessageHandler<SubDatasetVolumetricMaskMessage>()
+        {
+            @Override
+            public void onMessage(SubDatasetVolumetricMaskMessage msg)
+            {
+                mask[0] = msg.getMask();
+                masked.countDown();
+            }
+        });
+
+        try
+        {
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+            if(withBulkChannel)
+            {
+                socket.enableBulkChannel(port);
+                long deadline = System.currentTimeMillis() + 5000;
+                while(!socket.isBulkChannelConnected() && System.currentTimeMillis() < deadline)
+                    Thread.sleep(1);
+                assertTrue("The bulk channel did not connect", socket.isBulkChannelConnected());
+                Thread.sleep(50); //Let the server read IDENT_BULK_CHANNEL
+            }
+            assertTrue("The tablet was not bound", bound.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+
+            byte[] data = new byte[MASK_SIZE];
+            for(int i = 0; i < data.length; i++)
+                data[i] = (byte)i;
+
+            long nbLocationsBefore = nbLocations.get();
+            server.sendVolumetricMask(0, 0, data, 64*1024, 4);
+            long nbLocationsDuring = nbLocations.get() - nbLocationsBefore;
+            assertTrue("The mask was not received", masked.await(5, TimeUnit.SECONDS));
+
+            //The mask is reassembled whatever the connection
+            assertEquals(MASK_SIZE, mask[0].remaining());
+            for(int i = 0; i < MASK_SIZE; i += 4093)
+                assertEquals((byte)i, mask[0].get(i));
+
+            return nbLocationsDuring;
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+
+    @Test
+    public void locationsFlowDuringABulkTransfer() throws Exception
+    {
+        long single = run(false);
+        long bulk   = run(true);
+
+        //About 64 chunks every 4 ms: the locations keep flowing only on the control connection
+        assertTrue(bulk >= 50);
+        assertTrue(bulk > 4*single);
+    }
+}
@@ -0,0 +1,324 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CoalescingSendQueueTest
+{
+    /** Build a transform event as SocketManager.create*Event does
+     * @param type the event type (ROTATE_DATASET, TRANSLATE_DATASET or SCALE_DATASET)
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @param value the value of the first component
+     * @return the event data*/
+    private static byte[] transformEvent(short type, int datasetID, int subDatasetID, float value)
+    {
+        int nbComponents = (type == SocketManager.ROTATE_DATASET ? 4 : 3);
+        ByteBuffer buf = ByteBuffer.allocate(2+2*4+nbComponents*4);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.putShort(type);
+        buf.putInt(datasetID);
+        buf.putInt(subDatasetID);
+        buf.putFloat(value);
+        return buf.array();
+    }
+
+    /** Build a LOCATION event as SocketManager.createLocationEvent does
+     * @param value the X position
+     * @return the event data*/
+    private static byte[] locationEvent(float value)
+    {
+        return SocketManager.createLocationEvent(new float[]{value, 0, 0}, new float[]{0, 0, 0, 1});
+    }
+
+    /** Build an ordered command
+     * @return the event data*/
+    private static byte[] orderedEvent()
+    {
+        return SocketManager.createLassoEvent(new float[]{0, 0, 1, 1});
+    }
+
+    /** Read the first component of a transform or location event*/
+    private static float valueOf(byte[] data)
+    {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        return buf.getShort(0) == SocketManager.LOCATION ? buf.getFloat(2) : buf.getFloat(10);
+    }
+
+    @Test
+    public void overwritesStatesInPlace()
+    {
+        CoalescingSendQueue queue = new CoalescingSendQueue();
+        assertTrue(queue.add(transformEvent(SocketManager.ROTATE_DATASET, 0, 0, 1)));
+        assertTrue(queue.add(transformEvent(SocketManager.ROTATE_DATASET, 0, 1, 2)));
+        assertTrue(queue.add(transformEvent(SocketManager.SCALE_DATASET, 0, 0, 3)));
+        assertTrue(queue.add(locationEvent(4)));
+        assertFalse(queue.add(transformEvent(SocketManager.ROTATE_DATASET, 0, 0, 5)));
+        assertFalse(queue.add(locationEvent(6)));
+
+        assertEquals(4, queue.getNbPending());
+        assertEquals(2, queue.getNbCoalesced());
+        assertEquals(5.0f, valueOf(queue.poll()), 0.0f);
+        assertEquals(2.0f, valueOf(queue.poll()), 0.0f);
+        assertEquals(3.0f, valueOf(queue.poll()), 0.0f);
+        assertEquals(6.0f, valueOf(queue.poll()), 0.0f);
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void continuousLaneIsSentFirst()
+    {
+        CoalescingSendQueue queue = new CoalescingSendQueue();
+        byte[] lasso = orderedEvent();
+        queue.add(transformEvent(SocketManager.TRANSLATE_DATASET, 0, 0, 1));
+        queue.add(lasso);
+        queue.add(lasso);
+        queue.add(transformEvent(SocketManager.TRANSLATE_DATASET, 0, 0, 2));
+        queue.add(transformEvent(SocketManager.TRANSLATE_DATASET, 0, 0, 3));
+
+        //The continuous state is coalesced across the commands and sent before them. The commands keep their order
+        assertEquals(3, queue.getNbPending());
+        assertEquals(1, queue.getNbPending(true));
+        assertEquals(3.0f, valueOf(queue.poll()), 0.0f);
+        assertArrayEquals(lasso, queue.poll());
+
+        //An event being read is completed before switching of lane
+        byte[] head = new byte[3];
+        assertEquals(3, queue.read(head, 0, 3));
+        queue.add(locationEvent(4));
+        byte[] tail = queue.poll();
+        assertEquals(lasso.length-3, tail.length);
+        assertEquals(4.0f, valueOf(queue.poll()), 0.0f);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void dropsTheOldestContinuousEvents()
+    {
+        CoalescingSendQueue queue = new CoalescingSendQueue();
+        queue.setLossyCapacity(4);
+        for(int i = 0; i < 10; i++)
+            queue.add(transformEvent(SocketManager.SCALE_DATASET, 0, i, i));
+        queue.add(orderedEvent());
+
+        assertEquals(4, queue.getNbPending(true));
+        assertEquals(1, queue.getNbPending(false));
+        assertEquals(6, queue.getNbDropped());
+        for(int i = 6; i < 10; i++)
+            assertEquals(i, valueOf(queue.poll()), 0.0f);
+        assertArrayEquals(orderedEvent(), queue.poll());
+    }
+
+    @Test
+    public void reportsBackpressure()
+    {
+        final ArrayList<Boolean> changes = new ArrayList<>();
+        CoalescingSendQueue queue = new CoalescingSendQueue();
+        queue.setListener(new CoalescingSendQueue.ISendQueueListener()
+        {
+            @Override
+            public void onPush(CoalescingSendQueue queue) {}
+
+            @Override
+            public void onBackpressureChanged(CoalescingSendQueue queue, boolean isCongested) {changes.add(isCongested);}
+        });
+
+        //Commands are never dropped: above the capacity of their lane, the queue is congested
+        int size = orderedEvent().length;
+        queue.setReliableCapacity(10*size);
+        for(int i = 0; i < 11; i++)
+            queue.add(orderedEvent());
+        assertTrue(queue.isCongested());
+        assertEquals(Arrays.asList(true), changes);
+
+        //Hysteresis: the congestion ends once half of the capacity is reached
+        byte[] buf = new byte[size];
+        for(int i = 0; i < 5; i++)
+            queue.read(buf, 0, size);
+        assertTrue(queue.isCongested());
+        queue.read(buf, 0, size);
+        assertFalse(queue.isCongested());
+        assertEquals(Arrays.asList(true, false), changes);
+
+        //A full continuous lane is congested too
+        queue.setLossyCapacity(4);
+        for(int i = 0; i < 4; i++)
+            queue.add(transformEvent(SocketManager.SCALE_DATASET, 0, i, i));
+        assertTrue(queue.isCongested());
+        assertEquals(Arrays.asList(true, false, true), changes);
+    }
+
+    @Test
+    public void coalescesADrag()
+    {
+        //A two-finger drag moves and rotates a subdataset at 120 Hz, with a 90 Hz tablet location,
+        //while the link drains one batch at 30 Hz. One ordered command is issued every second
+        final int duration = 10;
+        CoalescingSendQueue queue = new CoalescingSendQueue();
+        int nbSent = 0;
+        long nbBytesSent = 0;
+        int maxBacklogWithoutCoalescing = 0;
+        int backlogWithoutCoalescing = 0;
+
+        for(int t = 0; t < duration*360; t++)
+        {
+            if(t % 3 == 0)
+            {
+                queue.add(transformEvent(SocketManager.TRANSLATE_DATASET, 0, 0, t));
+                queue.add(transformEvent(SocketManager.ROTATE_DATASET, 0, 0, t));
+                backlogWithoutCoalescing += 2;
+            }
+            if(t % 4 == 0)
+            {
+                queue.add(locationEvent(t));
+                backlogWithoutCoalescing++;
+            }
+            if(t % 360 == 0)
+            {
+                queue.add(orderedEvent());
+                backlogWithoutCoalescing++;
+            }
+            maxBacklogWithoutCoalescing = Math.max(maxBacklogWithoutCoalescing, backlogWithoutCoalescing);
+
+            if(t % 12 == 11)
+            {
+                for(byte[] data = queue.poll(); data != null; data = queue.poll())
+                {
+                    nbSent++;
+                    nbBytesSent += data.length;
+                }
+                backlogWithoutCoalescing = 0;
+            }
+        }
+
+        assertEquals(queue.getNbPushed(), nbSent + queue.getNbCoalesced());
+        assertEquals(queue.getNbBytesPushed(), nbBytesSent + queue.getNbBytesCoalesced());
+        assertTrue(queue.getMaxPending() < maxBacklogWithoutCoalescing);
+    }
+
+    @Test
+    public void encoderMatchesTheFactories()
+    {
+        float[] lasso = {0, 1, 2, 3, 4, 5};
+        CoalescingSendQueue queue = new CoalescingSendQueue();
+        queue.beginMessage(SocketManager.LASSO).putInt(lasso.length).putFloat(0).putFloat(1).putFloat(2).putFloat(3).putFloat(4).putFloat(5).commit();
+        queue.beginMessage(SocketManager.TABLETSCALE).putFloat(1.5f).putFloat(2).putFloat(3).putFloat(4).putFloat(5).commit();
+
+        assertArrayEquals(SocketManager.createTabletScaleEvent(1.5f, 2, 3, 4, 5), queue.poll());
+        assertArrayEquals(SocketManager.createLassoEvent(lasso), queue.poll());
+    }
+
+    @Test
+    public void abortReleasesTheEncoder() throws InterruptedException
+    {
+        final CoalescingSendQueue queue = new CoalescingSendQueue();
+        float[] lasso = {0, 1, 2};
+
+        //Reading past the array throws while the event is encoded: nothing is published and the encoder is released
+        CoalescingSendQueue.Encoder encoder = queue.beginMessage(SocketManager.LASSO);
+        try
+        {
+            encoder.putInt(4);
+            for(int i = 0; i < 4; i++)
+                encoder.putFloat(lasso[i]);
+            encoder.commit();
+            fail("The lasso has only 3 values");
+        }
+        catch(ArrayIndexOutOfBoundsException e)
+        {}
+        finally
+        {
+            encoder.abort();
+        }
+        assertTrue(queue.isEmpty());
+
+        //Another thread can push, and aborting a committed event does nothing
+        Thread pusher = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                queue.add(SocketManager.createTabletScaleEvent(1, 2, 3, 4, 5));
+            }
+        });
+        pusher.start();
+        pusher.join(10000);
+        assertFalse(pusher.isAlive());
+
+        encoder = queue.beginMessage(SocketManager.LASSO).putInt(lasso.length).putFloat(0).putFloat(1).putFloat(2);
+        encoder.commit();
+        encoder.abort();
+
+        assertArrayEquals(SocketManager.createTabletScaleEvent(1, 2, 3, 4, 5), queue.poll());
+        assertArrayEquals(SocketManager.createLassoEvent(lasso), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void wrapsAroundAndGrows()
+    {
+        //A small ring, read partially: events wrap around its end, and a large event makes it grow
+        CoalescingSendQueue queue = new CoalescingSendQueue(64);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ByteBuffer chunk = ByteBuffer.allocate(7);
+
+        for(int i = 0; i < 200; i++)
+        {
+            float[] lasso = new float[(i == 100 ? 64 : i%5)];
+            Arrays.fill(lasso, i);
+            byte[] event = SocketManager.createLassoEvent(lasso);
+            expected.write(event, 0, event.length);
+            queue.add(event);
+
+            chunk.clear();
+            queue.read(chunk);
+            received.write(chunk.array(), 0, chunk.position());
+        }
+        for(byte[] data = queue.poll(); data != null; data = queue.poll())
+            received.write(data, 0, data.length);
+
+        assertTrue(queue.getCapacity() > 64);
+        assertArrayEquals(expected.toByteArray(), received.toByteArray());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate()
+    {
+        CoalescingSendQueue queue = new CoalescingSendQueue();
+        ByteBuffer output = ByteBuffer.allocateDirect(4096);
+        float[] lasso = new float[32];
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadID = Thread.currentThread().getId();
+        long allocated = 0;
+        for(int pass = 0; pass < 2; pass++) //The first pass warms up the JIT
+        {
+            allocated = threads.getThreadAllocatedBytes(threadID);
+            for(int i = 0; i < 10000; i++)
+            {
+                queue.beginMessage(SocketManager.LOCATION).putFloat(i).putFloat(0).putFloat(0).putFloat(0).putFloat(0).putFloat(0).putFloat(1).commit();
+                queue.beginMessage(SocketManager.TABLETSCALE).putFloat(1).putFloat(2).putFloat(3).putFloat(4).putFloat(5).commit();
+                CoalescingSendQueue.Encoder encoder = queue.beginMessage(SocketManager.LASSO).putInt(lasso.length);
+                for(float f : lasso)
+                    encoder.putFloat(f);
+                encoder.commit();
+
+                output.clear();
+                queue.read(output);
+            }
+            allocated = threads.getThreadAllocatedBytes(threadID) - allocated;
+        }
+
+        assertTrue(allocated < 1024);
+    }
+}
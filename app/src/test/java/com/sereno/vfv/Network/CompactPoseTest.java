@@ -0,0 +1,240 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompactPoseTest
+{
+    /** Create a random unit quaternion
+     * @param random the random generator
+     * @return the quaternion (w, i, j, k)*/
+    private static float[] randomQuaternion(Random random)
+    {
+        float[] q = new float[4];
+        float norm = 0.0f;
+        for(int i = 0; i < 4; i++)
+        {
+            q[i]  = (float)random.nextGaussian();
+            norm += q[i]*q[i];
+        }
+        norm = (float)Math.sqrt(norm);
+        for(int i = 0; i < 4; i++)
+            q[i] /= norm;
+        return q;
+    }
+
+    /** Check that a quaternion decoded is the same rotation as the one encoded, within PoseCodec.QUATERNION_MAX_ERROR
+     * @param expected the unit quaternion encoded
+     * @param decoded the quaternion decoded*/
+    private static void assertQuaternion(float[] expected, float[] decoded)
+    {
+        float dot = 0.0f;
+        for(int i = 0; i < 4; i++)
+            dot += expected[i]*decoded[i];
+        float sign = (dot < 0.0f ? -1.0f : 1.0f);
+        for(int i = 0; i < 4; i++)
+            assertEquals(expected[i], sign*decoded[i], PoseCodec.QUATERNION_MAX_ERROR);
+    }
+
+    /** Check that a position decoded is within the fixed-point error of the one encoded
+     * @param expected the position encoded
+     * @param decoded the position decoded
+     * @param workspace the half extent of the workspace*/
+    private static void assertPosition(float[] expected, float[] decoded, float workspace)
+    {
+        for(int i = 0; i < 3; i++)
+            assertEquals(expected[i], decoded[i], PoseCodec.getPositionMaxError(workspace) + 1e-6f);
+    }
+
+    @Test
+    public void boundsTheErrors()
+    {
+        Random random = new Random(11);
+        float[] decoded = new float[4];
+
+        ArrayList<float[]> quaternions = new ArrayList<>();
+        quaternions.add(new float[]{1.0f, 0.0f, 0.0f, 0.0f});
+        quaternions.add(new float[]{-1.0f, 0.0f, 0.0f, 0.0f});
+        quaternions.add(new float[]{0.0f, 0.0f, 0.0f, 1.0f});
+        quaternions.add(new float[]{0.5f, -0.5f, 0.5f, -0.5f});
+        quaternions.add(new float[]{(float)Math.sqrt(0.5), 0.0f, (float)-Math.sqrt(0.5), 0.0f});
+        for(int n = 0; n < 100000; n++)
+            quaternions.add(randomQuaternion(random));
+        for(float[] q : quaternions)
+        {
+            PoseCodec.unpackQuaternion(PoseCodec.packQuaternion(q, 0), decoded, 0);
+            assertQuaternion(q, decoded);
+        }
+
+        //A null quaternion is sent as the identity
+        PoseCodec.unpackQuaternion(PoseCodec.packQuaternion(new float[4], 0), decoded, 0);
+        assertArrayEquals(new float[]{1.0f, 0.0f, 0.0f, 0.0f}, decoded, 0.0f);
+
+        float workspace = 8.0f;
+        for(int n = 0; n < 100000; n++)
+        {
+            float v = (random.nextFloat()*2.0f - 1.0f)*workspace;
+            assertEquals(v, PoseCodec.fromFixed(PoseCodec.toFixed(v, workspace), workspace), PoseCodec.getPositionMaxError(workspace) + 1e-6f);
+        }
+        assertEquals(workspace,  PoseCodec.fromFixed(PoseCodec.toFixed(workspace, workspace), workspace),  1e-6f);
+        assertEquals(-workspace, PoseCodec.fromFixed(PoseCodec.toFixed(-workspace, workspace), workspace), 1e-6f);
+        assertTrue(PoseCodec.isInWorkspace(new float[]{-8.0f, 0.0f, 8.0f}, 0, workspace));
+        assertFalse(PoseCodec.isInWorkspace(new float[]{0.0f, 8.5f, 0.0f}, 0, workspace));
+        assertFalse(PoseCodec.isInWorkspace(new float[]{0.0f, 0.0f, Float.NaN}, 0, workspace));
+
+        for(int n = 0; n < 100000; n++)
+        {
+            float v = (float)Math.pow(10.0, random.nextFloat()*8.0 - 4.0)*(random.nextBoolean() ? 1.0f : -1.0f);
+            assertTrue(PoseCodec.isHalfEncodable(v));
+            assertEquals(v, PoseCodec.fromHalf(PoseCodec.toHalf(v)), Math.abs(v)*PoseCodec.HALF_MAX_RELATIVE_ERROR);
+        }
+        assertEquals(0.0f, PoseCodec.fromHalf(PoseCodec.toHalf(0.0f)), 0.0f);
+        assertEquals(1.0f, PoseCodec.fromHalf(PoseCodec.toHalf(1.0f)), 0.0f);
+        assertEquals(PoseCodec.HALF_MAX, PoseCodec.fromHalf(PoseCodec.toHalf(PoseCodec.HALF_MAX)), 0.0f);
+        assertFalse(PoseCodec.isHalfEncodable(1e5f));
+        assertFalse(PoseCodec.isHalfEncodable(1e-6f));
+        assertFalse(PoseCodec.isHalfEncodable(Float.NaN));
+    }
+
+    @Test
+    public void sendsCompactPoses() throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 0.0f, 0.0f);
+        int port = server.start(0);
+
+        final float workspace = 4.0f;
+        SocketManager socket = new SocketManager("127.0.0.1", port);
+        socket.setCompactPose(workspace);
+
+        final ArrayList<LocationTabletMessage> locations = new ArrayList<>();
+        final ArrayList<HeadsetsStatusMessage.HeadsetStatus[]> received = new ArrayList<>();
+        socket.getMessageBuffer().addHandler(MessageBuffer.GET_LOCATION_TABLET, new MessageBuffer.IMessageHandler<LocationTabletMessage>()
+        {
+            @Override
+            public void onMessage(LocationTabletMessage msg)
+            {
+                synchronized(locations)
+                {
+                    locations.add(msg);
+                }
+            }
+        });
+        socket.getMessageBuffer().addHandler(MessageBuffer.GET_HEADSETS_STATUS_COMPACT, new MessageBuffer.IMessageHandler<HeadsetsStatusMessage>()
+        {
+            @Override
+            public void onMessage(HeadsetsStatusMessage msg)
+            {
+                synchronized(received)
+                {
+                    received.add(msg.getStatus());
+                }
+            }
+        });
+
+        try
+        {
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+            long deadline = System.currentTimeMillis() + 5000;
+            while(!socket.isCompactPoseActive() && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertTrue(socket.isCompactPoseActive());
+
+            //Within the workspace: compact. Outside: floats
+            Random random = new Random(5);
+            float[] pos = {1.234f, -0.5f, 3.9f};
+            float[] rot = randomQuaternion(random);
+            socket.pushLocationEvent(pos, rot);
+            socket.pushLocationEvent(new float[]{5.0f, 0.0f, 0.0f}, rot);
+            deadline = System.currentTimeMillis() + 5000;
+            while(server.getNbSent(MessageBuffer.GET_LOCATION_TABLET) < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            while(locations.size() < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertEquals(1, server.getNbReceived(SocketManager.LOCATION_COMPACT));
+            assertEquals(1, server.getNbReceived(SocketManager.LOCATION));
+            synchronized(locations)
+            {
+                assertPosition(pos, locations.get(0).getPosition(), workspace);
+                assertQuaternion(rot, locations.get(0).getRotation());
+                assertArrayEquals(new float[]{5.0f, 0.0f, 0.0f}, locations.get(1).getPosition(), 0.0f);
+                assertArrayEquals(rot, locations.get(1).getRotation(), 0.0f);
+            }
+
+            //Three headsets: the first one moves, the second one leaves, the third one changes its action
+            ArrayList<HeadsetsStatusMessage.HeadsetStatus[]> sent = new ArrayList<>();
+            int nbFrames = 60;
+            for(int f = 0; f < nbFrames; f++)
+            {
+                HeadsetsStatusMessage.HeadsetStatus[] status = new HeadsetsStatusMessage.HeadsetStatus[f < 30 ? 3 : 2];
+                for(int h = 0; h < status.length; h++)
+                {
+                    HeadsetsStatusMessage.HeadsetStatus s = new HeadsetsStatusMessage.HeadsetStatus();
+                    s.id       = (f >= 30 && h == 1 ? 2 : h);
+                    s.color    = 0xff000000 | (s.id*0x3f1f17);
+                    s.position = new float[]{s.id, 1.6f, -1.0f};
+                    s.rotation = new float[]{1.0f, 0.0f, 0.0f, 0.0f};
+                    if(s.id == 0)
+                    {
+                        s.position = new float[]{-3.0f + 0.1f*f, 1.6f + 0.01f*f, 0.5f};
+                        s.rotation = randomQuaternion(random);
+                    }
+                    if(s.id == 2 && f >= 20)
+                    {
+                        s.currentAction        = HeadsetsStatusMessage.HEADSET_CURRENT_ACTION_ROTATING;
+                        s.pointingIT           = 1;
+                        s.pointingDatasetID    = 0;
+                        s.pointingSubDatasetID = 3;
+                        s.pointingLocalSDPosition = new float[]{0.25f, 12.5f, -40.0f};
+                    }
+                    status[h] = s;
+                }
+                sent.add(status);
+                server.sendHeadsetsStatus(status);
+
+                deadline = System.currentTimeMillis() + 5000;
+                while(received.size() < f+1 && System.currentTimeMillis() < deadline)
+                    Thread.sleep(1);
+                assertEquals(f+1, received.size());
+            }
+
+            synchronized(received)
+            {
+                for(int f = 0; f < nbFrames; f++)
+                {
+                    HeadsetsStatusMessage.HeadsetStatus[] expected = sent.get(f), status = received.get(f);
+                    assertEquals(expected.length, status.length);
+                    for(int h = 0; h < expected.length; h++)
+                    {
+                        assertEquals(expected[h].id,                   status[h].id);
+                        assertEquals(expected[h].color,                status[h].color);
+                        assertEquals(expected[h].currentAction,        status[h].currentAction);
+                        assertEquals(expected[h].pointingIT,           status[h].pointingIT);
+                        assertEquals(expected[h].pointingDatasetID,    status[h].pointingDatasetID);
+                        assertEquals(expected[h].pointingSubDatasetID, status[h].pointingSubDatasetID);
+                        assertEquals(expected[h].pointingInPublic,     status[h].pointingInPublic);
+                        assertPosition(expected[h].position, status[h].position, workspace);
+                        assertQuaternion(expected[h].rotation, status[h].rotation);
+                        assertArrayEquals(expected[h].pointingLocalSDPosition, status[h].pointingLocalSDPosition, 0.0f);
+                        assertPosition(expected[h].pointingHeadsetStartPosition, status[h].pointingHeadsetStartPosition, workspace);
+                    }
+                }
+            }
+
+            long compactBytes = socket.getMetrics().snapshot().nbBytesReceived[MessageBuffer.GET_HEADSETS_STATUS_COMPACT];
+            long floatBytes   = 0;
+            for(HeadsetsStatusMessage.HeadsetStatus[] status : sent)
+                floatBytes += 2+4+status.length*(23*4+1);
+            assertTrue(compactBytes*3 < floatBytes);
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class FrameMessageQueueTest
+{
+    /** Clock controlled by the test*/
+    private static class FakeClock implements FrameMessageQueue.IClock
+    {
+        long time = 0;
+
+        @Override
+        public long nanoTime() {return time;}
+    }
+
+    /** Scheduler recording the frame requests instead of waiting for a vsync*/
+    private static class FakeScheduler implements FrameMessageQueue.IFrameScheduler
+    {
+        int nbRequests = 0;
+
+        @Override
+        public void requestFrame(FrameMessageQueue queue) {nbRequests++;}
+    }
+
+    /** Handler recording the applied messages. Applying one message costs "cost" nanoseconds on the fake clock*/
+    private static class CostlyHandler implements MessageBuffer.IMessageHandler<ServerMessage>
+    {
+        final ArrayList<ServerMessage> applied = new ArrayList<>();
+        final FakeClock clock;
+        final long cost;
+
+        CostlyHandler(FakeClock clock, long cost)
+        {
+            this.clock = clock;
+            this.cost  = cost;
+        }
+
+        @Override
+        public void onMessage(ServerMessage msg)
+        {
+            applied.add(msg);
+            clock.time += cost;
+        }
+    }
+
+    private FakeClock         m_clock;
+    private FakeScheduler     m_scheduler;
+    private FrameMessageQueue m_queue;
+
+    @Before
+    public void setUp()
+    {
+        m_clock     = new FakeClock();
+        m_scheduler = new FakeScheduler();
+        m_queue     = new FrameMessageQueue(new MessageRegistry(), m_scheduler, m_clock);
+    }
+
+    /** Create a parsed message without conflation key
+     * @param datasetID the dataset ID
+     * @return the message, as MessageBuffer would have parsed it*/
+    private static ToggleMapVisibilityMessage toggle(int datasetID)
+    {
+        ToggleMapVisibilityMessage msg = new ToggleMapVisibilityMessage();
+        msg.type = MessageBuffer.GET_TOGGLE_MAP_VISIBILITY;
+        msg.pushValue(datasetID);
+        msg.pushValue(0);
+        msg.pushValue((byte)1);
+        return msg;
+    }
+
+    /** Create a parsed GET_LOCATION_TABLET message
+     * @param x the x position
+     * @return the message, as MessageBuffer would have parsed it*/
+    private static LocationTabletMessage location(float x)
+    {
+        LocationTabletMessage msg = new LocationTabletMessage();
+        msg.type = MessageBuffer.GET_LOCATION_TABLET;
+        msg.pushValue(x);
+        for(int i = 0; i < 6; i++)
+            msg.pushValue(0.0f);
+        return msg;
+    }
+
+    @Test
+    public void appliesMessagesInOrderInOneFrame()
+    {
+        final CostlyHandler handler = new CostlyHandler(m_clock, 0);
+        for(int i = 0; i < 5; i++)
+            m_queue.onMessage(toggle(i));
+        m_queue.post(new Runnable()
+        {
+            @Override
+            public void run() {handler.applied.add(null);}
+        });
+        m_queue.onMessage(toggle(5));
+
+        //A single frame is requested for the whole batch
+        assertEquals(1, m_scheduler.nbRequests);
+        assertEquals(7, m_queue.onFrame(handler));
+        assertEquals(1, m_scheduler.nbRequests);
+
+        assertEquals(7, handler.applied.size());
+        for(int i = 0; i < 5; i++)
+            assertEquals(i, ((ToggleMapVisibilityMessage)handler.applied.get(i)).getDatasetID());
+        assertNull(handler.applied.get(5));
+        assertEquals(5, ((ToggleMapVisibilityMessage)handler.applied.get(6)).getDatasetID());
+
+        //The next message requests a new frame
+        m_queue.onMessage(toggle(6));
+        assertEquals(2, m_scheduler.nbRequests);
+    }
+
+    @Test
+    public void spreadsTheWorkOverFramesWithinTheBudget()
+    {
+        CostlyHandler handler = new CostlyHandler(m_clock, 1000000L); //1 ms per message
+        m_queue.setFrameBudget(3000000L); //3 ms per frame
+
+        for(int i = 0; i < 10; i++)
+            m_queue.onMessage(toggle(i));
+
+        int[] nbAppliedPerFrame = new int[4];
+        for(int frame = 0; frame < 4; frame++)
+        {
+            assertEquals(frame+1, m_scheduler.nbRequests);
+            nbAppliedPerFrame[frame] = m_queue.onFrame(handler);
+        }
+
+        assertArrayEquals(new int[]{3, 3, 3, 1}, nbAppliedPerFrame);
+        assertEquals(4, m_scheduler.nbRequests);
+        assertEquals(4, m_queue.getNbFrames());
+        assertEquals(3, m_queue.getNbOverBudgetFrames());
+        for(int i = 0; i < 10; i++)
+            assertEquals(i, ((ToggleMapVisibilityMessage)handler.applied.get(i)).getDatasetID());
+    }
+
+    @Test
+    public void appliesAtLeastOneMessagePerFrame()
+    {
+        CostlyHandler handler = new CostlyHandler(m_clock, 50000000L); //Far above the budget
+        m_queue.onMessage(toggle(0));
+        m_queue.onMessage(toggle(1));
+
+        assertEquals(1, m_queue.onFrame(handler));
+        assertEquals(1, m_queue.onFrame(handler));
+        assertEquals(0, m_queue.getQueue().getNbPending());
+    }
+
+    @Test
+    public void conflatesStateMessagesWhileWaitingForTheFrame()
+    {
+        CostlyHandler handler = new CostlyHandler(m_clock, 0);
+        m_queue.onMessage(toggle(0));
+        for(int i = 0; i < 100; i++)
+            m_queue.onMessage(location(i));
+        m_queue.onMessage(toggle(1));
+
+        assertEquals(3, m_queue.onFrame(handler));
+        assertEquals(0,     ((ToggleMapVisibilityMessage)handler.applied.get(0)).getDatasetID());
+        assertEquals(99.0f, ((LocationTabletMessage)handler.applied.get(1)).getPosition()[0], 0.0f);
+        assertEquals(1,     ((ToggleMapVisibilityMessage)handler.applied.get(2)).getDatasetID());
+        assertEquals(99, m_queue.getQueue().getNbConflated(MessageBuffer.GET_LOCATION_TABLET));
+    }
+
+    @Test
+    public void appliesTypedHandlersInOrder()
+    {
+        final CostlyHandler handler = new CostlyHandler(m_clock, 0);
+        m_queue.addHandler(new MessageBuffer(), new MessageBuffer.IMessageHandler<LocationTabletMessage>()
+        {
+            @Override
+            public void onMessage(LocationTabletMessage msg) {handler.applied.add(null);}
+        }, MessageBuffer.GET_LOCATION_TABLET);
+
+        m_queue.onMessage(toggle(0));
+        m_queue.onMessage(location(1));
+        m_queue.onMessage(toggle(1));
+
+        assertEquals(3, m_queue.onFrame(handler));
+        assertEquals(0, ((ToggleMapVisibilityMessage)handler.applied.get(0)).getDatasetID());
+        assertNull(handler.applied.get(1));
+        assertEquals(1, ((ToggleMapVisibilityMessage)handler.applied.get(2)).getDatasetID());
+    }
+}
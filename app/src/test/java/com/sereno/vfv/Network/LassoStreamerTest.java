@@ -0,0 +1,99 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LassoStreamerTest
+{
+    /** Create a D-shaped lasso: a half circle, then a straight line back to the first point (not included)
+     * @param nbPoints the number of points
+     * @return the lasso (x, y, z per point)*/
+    private static float[] dShape(int nbPoints)
+    {
+        float[] lasso = new float[3*nbPoints];
+        int nbArc = 2*nbPoints/3;
+        for(int i = 0; i < nbPoints; i++)
+        {
+            if(i < nbArc)
+            {
+                double angle = -Math.PI/2 + Math.PI*i/nbArc;
+                lasso[3*i]   = (float)(0.5*Math.cos(angle));
+                lasso[3*i+1] = (float)(0.5*Math.sin(angle));
+            }
+            else
+                lasso[3*i+1] = 0.5f - (float)(i-nbArc)/(nbPoints-nbArc);
+            lasso[3*i+2] = -1.0f;
+        }
+        return lasso;
+    }
+
+    @Test
+    public void streamsDeltasAndDecimates() throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 0.0f, 0.0f);
+        int port = server.start(0);
+
+        SocketManager socket = new SocketManager("127.0.0.1", port);
+        socket.setIncrementalLasso(true);
+
+        try
+        {
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+
+            //A cancelled lasso, then a lasso traced point by point and closed, as the native code reports them
+            float[] shape = dShape(300);
+            for(int n = 1; n <= 10; n++)
+                socket.pushLassoEvent(Arrays.copyOf(shape, 3*n));
+            socket.pushLassoEvent(new float[0]);
+
+            long legacyBytes = 0;
+            for(int n = 1; n <= 301; n++)
+            {
+                float[] lasso = Arrays.copyOf(shape, 3*n);
+                if(n == 301)
+                    System.arraycopy(shape, 0, lasso, 900, 3);
+                socket.pushLassoEvent(lasso);
+                legacyBytes += SocketManager.createLassoEvent(lasso).length;
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while(server.getLastLasso() == null && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            float[] received = server.getLastLasso();
+            assertNotNull("The lasso was not received", received);
+            assertEquals(2, server.getNbReceived(SocketManager.LASSO_END));
+            assertEquals(0, server.getNbReceived(SocketManager.LASSO));
+
+            //Every point traced lies within the tolerance of the closed lasso received
+            int nbReceived = received.length/3;
+            for(int i = 0; i < 300; i++)
+            {
+                float distance = Float.MAX_VALUE;
+                for(int j = 0; j < nbReceived; j++)
+                {
+                    int k = (j+1)%nbReceived;
+                    distance = Math.min(distance, LassoStreamer.distanceToSegment(shape[3*i], shape[3*i+1], shape[3*i+2],
+                                                                                  received[3*j], received[3*j+1], received[3*j+2],
+                                                                                  received[3*k], received[3*k+1], received[3*k+2]));
+                }
+                assertTrue("Point " + i + " is " + distance + " away from the lasso", distance <= LassoStreamer.DEFAULT_TOLERANCE + 2*LassoStreamer.DEFAULT_QUANTUM);
+            }
+
+            NetworkMetrics.Snapshot snapshot = socket.getMetrics().snapshot();
+            long incrementalBytes = snapshot.nbBytesSent[SocketManager.LASSO_BEGIN] + snapshot.nbBytesSent[SocketManager.LASSO_APPEND] +
+                                    snapshot.nbBytesSent[SocketManager.LASSO_END];
+            assertTrue(nbReceived < 300/4);
+            assertTrue(incrementalBytes > 0);
+            assertTrue(incrementalBytes*100 < legacyBytes);
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyProbeTest
+{
+    @Test
+    public void estimatorConvergesAndMeasuresJitter()
+    {
+        LatencyEstimator latency = new LatencyEstimator();
+        for(int i = 0; i < 200; i++)
+            latency.addSample(i, (i % 2 == 0) ? 9000000L : 11000000L);
+
+        assertEquals(10000000L, latency.getSmoothedRTT(), 1000000L);
+        assertEquals(2000000L, latency.getJitter(), 100000L);
+        assertEquals(9000000L, latency.getMinRTT());
+        assertEquals(0, latency.getNbLost());
+
+        latency.addSample(210, 10000000L);
+        assertEquals(10, latency.getNbLost());
+    }
+
+    @Test
+    public void probesTheMockServer() throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(60.0f, 60.0f, 0.0f);
+        int port = server.start(0);
+
+        SocketManager socket = new SocketManager("127.0.0.1", port);
+        final CountDownLatch bound = new CountDownLatch(1);
+        socket.getMessageBuffer().addHandler(MessageBuffer.GET_HEADSET_BINDING_INFO, new MessageBuffer.IMessageHandler<HeadsetBindingInfoMessage>()
+        {
+            @Override
+            public void onMessage(HeadsetBindingInfoMessage msg) {bound.countDown();}
+        });
+
+        try
+        {
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+            assertTrue("The tablet was not bound", bound.await(5, TimeUnit.SECONDS));
+
+            socket.startLatencyProbe(10);
+            LatencyEstimator latency = socket.getLatencyEstimator();
+            long deadline = System.currentTimeMillis() + 5000;
+            while(latency.getNbSamples() < 20 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            socket.stopLatencyProbe();
+
+            assertTrue(latency.getNbSamples() >= 20);
+            assertEquals(0, latency.getNbLost());
+            assertTrue(latency.getSmoothedRTT() > 0);
+            assertTrue(latency.getSmoothedRTT() < 100000000L);
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LossyChannelTest
+{
+    /** Build a datagram carrying a GET_LOCATION_TABLET message, as the server sends it
+     * @param sequence the sequence number of the datagram
+     * @param x the X position
+     * @return the datagram data*/
+    private static byte[] locationDatagram(int sequence, float x)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(4+2+7*4);
+        buf.putInt(sequence);
+        buf.putShort((short)MessageBuffer.GET_LOCATION_TABLET);
+        buf.putFloat(x);
+        return buf.array();
+    }
+
+    /** Collect the X positions of the tablet locations received
+     * @param buffer the buffer to listen to
+     * @return the list filled with the X positions*/
+    private static ArrayList<Float> collectLocations(MessageBuffer buffer)
+    {
+        final ArrayList<Float> xs = new ArrayList<>();
+        buffer.addHandler(MessageBuffer.GET_LOCATION_TABLET, new MessageBuffer.IMessageHandler<LocationTabletMessage>()
+        {
+            @Override
+            public void onMessage(LocationTabletMessage msg)
+            {
+                synchronized(xs)
+                {
+                    xs.add(msg.getPosition()[0]);
+                }
+            }
+        });
+        return xs;
+    }
+
+    @Test
+    public void dropsStaleDatagrams() throws Exception
+    {
+        MessageBuffer buffer = new MessageBuffer();
+        ArrayList<Float> xs  = collectLocations(buffer);
+        LossyChannel channel = new LossyChannel(buffer);
+        try
+        {
+            for(int sequence : new int[]{1, 3, 2, 4, 4})
+            {
+                byte[] data = locationDatagram(sequence, sequence);
+                channel.onDatagram(data, data.length);
+            }
+
+            //Truncated: not completed by the next datagram
+            byte[] data = locationDatagram(5, 5);
+            channel.onDatagram(data, data.length-3);
+            data = locationDatagram(6, 6);
+            channel.onDatagram(data, data.length);
+
+            assertEquals(Arrays.asList(1.0f, 3.0f, 4.0f, 6.0f), xs);
+            assertEquals(2, channel.getNbStale());
+        }
+        finally
+        {
+            channel.stop();
+        }
+    }
+
+    @Test
+    public void streamsOverLossyDatagrams() throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 500.0f, 0.0f);
+        server.setDatagramEnabled(true);
+        server.setDatagramLoss(0.3f);
+        int port = server.start(0);
+
+        final SocketManager socket = new SocketManager("127.0.0.1", port);
+        socket.setDatagramEnabled(true);
+
+        //The channel counter seen by each location dispatched, before xs is filled. It counts a datagram before dispatching it, on the same thread
+        final ArrayList<Long> counts = new ArrayList<>();
+        socket.getMessageBuffer().addHandler(MessageBuffer.GET_LOCATION_TABLET, new MessageBuffer.IMessageHandler<LocationTabletMessage>()
+        {
+            @Override
+            public void onMessage(LocationTabletMessage msg)
+            {
+                LossyChannel channel = socket.getLossyChannel();
+                synchronized(counts)
+                {
+                    counts.add(channel == null ? -1 : channel.getNbReceived());
+                }
+            }
+        });
+        ArrayList<Float> xs = collectLocations(socket.getMessageBuffer());
+
+        try
+        {
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+            long deadline = System.currentTimeMillis() + 5000;
+            while(!socket.isDatagramChannelOpen() && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertTrue("The datagram channel did not open", socket.isDatagramChannelOpen());
+            Thread.sleep(100);
+
+            //Received: only newer locations are applied
+            int start;
+            synchronized(xs)
+            {
+                start = xs.size();
+            }
+            Thread.sleep(500);
+            ArrayList<Float> received;
+            synchronized(xs)
+            {
+                received = new ArrayList<>(xs.subList(start, xs.size()));
+            }
+            for(int i = 1; i < received.size(); i++)
+                assertTrue(received.get(i) > received.get(i-1));
+            assertTrue(received.size() > 50);
+
+            //Every datagram counted was dispatched
+            synchronized(counts)
+            {
+                assertEquals(received.size(), counts.get(start + received.size() - 1) - counts.get(start-1));
+            }
+
+            //Sent: the location events go as datagrams, and some are lost
+            long nbTCPLocations = server.getNbReceived(SocketManager.LOCATION) - server.getNbDatagramsReceived(SocketManager.LOCATION);
+            for(int i = 0; i < 200; i++)
+            {
+                socket.pushLocationEvent(new float[]{i, 0, 0}, new float[]{0, 0, 0, 1});
+                Thread.sleep(2);
+            }
+            Thread.sleep(100);
+
+            long nbDatagrams = server.getNbDatagramsReceived(SocketManager.LOCATION);
+            assertTrue(nbDatagrams > 50);
+            assertTrue(nbDatagrams < 200);
+            assertEquals(nbTCPLocations, server.getNbReceived(SocketManager.LOCATION) - nbDatagrams);
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+
+    @Test
+    public void fallsBackToTCP() throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 0.0f, 0.0f);
+        int port = server.start(0);
+
+        SocketManager socket = new SocketManager("127.0.0.1", port);
+        final CountDownLatch echoed = new CountDownLatch(1);
+        socket.getMessageBuffer().addHandler(MessageBuffer.GET_LOCATION_TABLET, new MessageBuffer.IMessageHandler<LocationTabletMessage>()
+        {
+            @Override
+            public void onMessage(LocationTabletMessage msg) {echoed.countDown();}
+        });
+        socket.setDatagramEnabled(true);
+
+        try
+        {
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+            long deadline = System.currentTimeMillis() + 5000;
+            while(server.getNbSent(MessageBuffer.GET_DATAGRAM_CHANNEL) == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            Thread.sleep(50);
+            assertFalse(socket.isDatagramChannelOpen());
+
+            socket.pushLocationEvent(new float[]{1, 2, 3}, new float[]{0, 0, 0, 1});
+            assertTrue("The location was not echoed over TCP", echoed.await(5, TimeUnit.SECONDS));
+            assertEquals(1, server.getNbReceived(SocketManager.LOCATION));
+            assertEquals(0, server.getNbDatagramsReceived(SocketManager.LOCATION));
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+}
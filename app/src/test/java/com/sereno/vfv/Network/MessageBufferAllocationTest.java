@@ -0,0 +1,161 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/** Regression test checking that MessageBuffer does not allocate anything per decoded primitive.
+ * A recorded byte stream is replayed in irregular chunks (so that values are split between two push calls)
+ * and the bytes allocated by the decoding thread are compared to the size of the decoded messages themselves.*/
+public class MessageBufferAllocationTest
+{
+    /** Handlers counting the parsed messages*/
+    private static class CountingHandlers
+    {
+        int nbRotate = 0;
+        int nbHeadsetsStatus = 0;
+        RotateDatasetMessage  lastRotate = null;
+        HeadsetsStatusMessage lastHeadsetsStatus = null;
+
+        void register(MessageBuffer buffer)
+        {
+            buffer.addHandler(MessageBuffer.GET_ROTATE_DATASET, new MessageBuffer.IMessageHandler<RotateDatasetMessage>()
+            {
+                @Override
+                public void onMessage(RotateDatasetMessage msg) {nbRotate++; lastRotate = msg;}
+            });
+            buffer.addHandler(MessageBuffer.GET_HEADSETS_STATUS, new MessageBuffer.IMessageHandler<HeadsetsStatusMessage>()
+            {
+                @Override
+                public void onMessage(HeadsetsStatusMessage msg) {nbHeadsetsStatus++; lastHeadsetsStatus = msg;}
+            });
+        }
+    }
+
+    /** Number of messages in the recorded streams*/
+    private static final int NB_MESSAGES = 2000;
+
+    /** Number of headsets per HeadsetsStatus message*/
+    private static final int NB_HEADSETS = 4;
+
+    /** Build a stream of GET_ROTATE_DATASET messages as sent by the server*/
+    private static byte[] recordRotateStream() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for(int i = 0; i < NB_MESSAGES; i++)
+        {
+            out.writeShort(MessageBuffer.GET_ROTATE_DATASET);
+            out.writeInt(1);  //datasetID
+            out.writeInt(i);  //subdatasetID
+            out.writeInt(-1); //headsetID
+            out.writeFloat(1.0f);
+            out.writeFloat(0.5f);
+            out.writeFloat(0.25f);
+            out.writeFloat(i);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Build a stream of GET_HEADSETS_STATUS messages as sent by the server*/
+    private static byte[] recordHeadsetsStatusStream() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for(int i = 0; i < NB_MESSAGES; i++)
+        {
+            out.writeShort(MessageBuffer.GET_HEADSETS_STATUS);
+            out.writeInt(NB_HEADSETS);
+            for(int h = 0; h < NB_HEADSETS; h++)
+            {
+                out.writeInt(h);          //ID
+                out.writeInt(0xff0000ff); //Color
+                out.writeInt(HeadsetsStatusMessage.HEADSET_CURRENT_ACTION_MOVING);
+                for(int j = 0; j < 3; j++) //Position
+                    out.writeFloat(i+j);
+                for(int j = 0; j < 4; j++) //Rotation
+                    out.writeFloat(j);
+                out.writeInt(0);  //Pointing IT
+                out.writeInt(1);  //Pointing dataset ID
+                out.writeInt(2);  //Pointing subdataset ID
+                out.writeByte(1); //Pointing in public
+                for(int j = 0; j < 3+3+4; j++) //Pointing local position, start position and start orientation
+                    out.writeFloat(j);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Replay a stream through a MessageBuffer by chunks of varying sizes
+     * @param buffer the message buffer to push the data into
+     * @param stream the stream to replay*/
+    private static void replay(MessageBuffer buffer, byte[] stream)
+    {
+        byte[] chunk = new byte[128];
+        int chunkSize = 1;
+        for(int pos = 0; pos < stream.length; pos += chunkSize)
+        {
+            chunkSize = Math.min(1 + (pos*31)%chunk.length, stream.length-pos);
+            System.arraycopy(stream, pos, chunk, 0, chunkSize);
+            buffer.push(chunk, chunkSize);
+        }
+    }
+
+    /** Measure the number of bytes allocated by this thread when replaying a stream
+     * @param stream the stream to replay
+     * @param clbk the handlers to register
+     * @return the number of bytes allocated during the last replay*/
+    private static long measureAllocatedBytes(byte[] stream, CountingHandlers clbk)
+    {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadID = Thread.currentThread().getId();
+
+        MessageBuffer buffer = new MessageBuffer();
+        clbk.register(buffer);
+
+        //Warm up, then measure
+        for(int i = 0; i < 5; i++)
+            replay(buffer, stream);
+        long start = bean.getThreadAllocatedBytes(threadID);
+        replay(buffer, stream);
+        return bean.getThreadAllocatedBytes(threadID) - start;
+    }
+
+    @Test
+    public void rotateStreamDoesNotAllocatePerValue() throws IOException
+    {
+        CountingHandlers clbk = new CountingHandlers();
+        long allocated = measureAllocatedBytes(recordRotateStream(), clbk);
+
+        assertEquals(6*NB_MESSAGES, clbk.nbRotate);
+        assertEquals(NB_MESSAGES-1, clbk.lastRotate.getSubDatasetID());
+        assertEquals(-1, clbk.lastRotate.getHeadsetID());
+        assertEquals(0.25f, clbk.lastRotate.getRotation()[2], 0.0f);
+
+        //One RotateDatasetMessage + its float[4] is ~80 bytes. One object per decoded value would add at least 8*24 bytes.
+        assertTrue("Allocated " + allocated/NB_MESSAGES + " bytes per message", allocated/NB_MESSAGES < 128);
+    }
+
+    @Test
+    public void headsetsStatusStreamDoesNotAllocatePerValue() throws IOException
+    {
+        CountingHandlers clbk = new CountingHandlers();
+        long allocated = measureAllocatedBytes(recordHeadsetsStatusStream(), clbk);
+
+        assertEquals(6*NB_MESSAGES, clbk.nbHeadsetsStatus);
+        HeadsetsStatusMessage.HeadsetStatus[] status = clbk.lastHeadsetsStatus.getStatus();
+        assertEquals(NB_HEADSETS, status.length);
+        assertEquals(NB_HEADSETS-1, status[NB_HEADSETS-1].id);
+        assertEquals(NB_MESSAGES-1+2, status[0].position[2], 0.0f);
+        assertEquals(2, status[1].pointingSubDatasetID);
+        assertTrue(status[1].pointingInPublic);
+
+        //The decoded message graph is ~250 bytes per headset. One object per decoded value would add at least 97*24 bytes.
+        assertTrue("Allocated " + allocated/NB_MESSAGES + " bytes per message", allocated/NB_MESSAGES < 250*NB_HEADSETS + 256);
+    }
+}
@@ -0,0 +1,127 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class MessageConflatorTest
+{
+    /** Create a parsed GET_ROTATE_DATASET message
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @param w the w component of the rotation
+     * @return the message, as MessageBuffer would have parsed it*/
+    private static RotateDatasetMessage rotate(int datasetID, int subDatasetID, float w)
+    {
+        RotateDatasetMessage msg = new RotateDatasetMessage();
+        msg.type = MessageBuffer.GET_ROTATE_DATASET;
+        msg.pushValue(datasetID);
+        msg.pushValue(subDatasetID);
+        msg.pushValue(-1);
+        msg.pushValue(w);
+        for(int i = 0; i < 3; i++)
+            msg.pushValue(0.0f);
+        return msg;
+    }
+
+    /** Create a parsed GET_LOCATION_TABLET message
+     * @param x the x position
+     * @return the message, as MessageBuffer would have parsed it*/
+    private static LocationTabletMessage location(float x)
+    {
+        LocationTabletMessage msg = new LocationTabletMessage();
+        msg.type = MessageBuffer.GET_LOCATION_TABLET;
+        msg.pushValue(x);
+        for(int i = 0; i < 6; i++)
+            msg.pushValue(0.0f);
+        return msg;
+    }
+
+    /** Create a parsed message without conflation key
+     * @param datasetID the dataset ID
+     * @return the message, as MessageBuffer would have parsed it*/
+    private static ToggleMapVisibilityMessage toggle(int datasetID)
+    {
+        ToggleMapVisibilityMessage msg = new ToggleMapVisibilityMessage();
+        msg.type = MessageBuffer.GET_TOGGLE_MAP_VISIBILITY;
+        msg.pushValue(datasetID);
+        msg.pushValue(0);
+        msg.pushValue((byte)1);
+        return msg;
+    }
+
+    @Test
+    public void keepsOnlyTheLatestStatePerKey()
+    {
+        MessageConflator conflator = new MessageConflator(new MessageRegistry());
+        final int[] nbNotifications = {0};
+        conflator.setListener(new MessageConflator.IConflatorListener()
+        {
+            @Override
+            public void onPendingMessages(MessageConflator c) {nbNotifications[0]++;}
+        });
+
+        for(int i = 0; i < 10; i++)
+        {
+            conflator.onMessage(rotate(0, 0, i));
+            conflator.onMessage(rotate(0, 1, 100+i));
+            conflator.onMessage(location(i));
+        }
+
+        final ArrayList<ServerMessage> delivered = new ArrayList<>();
+        conflator.drain(new MessageBuffer.IMessageHandler<ServerMessage>()
+        {
+            @Override
+            public void onMessage(ServerMessage msg) {delivered.add(msg);}
+        });
+
+        //One notification per frame, the latest value per key, in the order of the latest arrival of each key
+        assertEquals(1, nbNotifications[0]);
+        assertEquals(3, delivered.size());
+        assertEquals(9.0f,   ((RotateDatasetMessage)delivered.get(0)).getRotation()[0], 0.0f);
+        assertEquals(109.0f, ((RotateDatasetMessage)delivered.get(1)).getRotation()[0], 0.0f);
+        assertEquals(9.0f,   ((LocationTabletMessage)delivered.get(2)).getPosition()[0], 0.0f);
+
+        assertEquals(30, conflator.getNbReceived());
+        assertEquals(3,  conflator.getNbDelivered());
+        assertEquals(27, conflator.getNbConflated());
+        assertEquals(18, conflator.getNbConflated(MessageBuffer.GET_ROTATE_DATASET));
+        assertEquals(9,  conflator.getNbConflated(MessageBuffer.GET_LOCATION_TABLET));
+
+        //A new message after the drain notifies again
+        conflator.onMessage(location(0));
+        assertEquals(2, nbNotifications[0]);
+    }
+
+    @Test
+    public void keepsCommandsBeforeNewerStates()
+    {
+        MessageConflator conflator = new MessageConflator(new MessageRegistry());
+        conflator.onMessage(rotate(0, 0, 1));
+        conflator.onMessage(toggle(3));
+        conflator.onMessage(rotate(0, 0, 2));
+        assertEquals(2, conflator.getNbPending());
+
+        //The newer state is not applied before the command received before it
+        ServerMessage first = conflator.poll();
+        assertEquals(3, ((ToggleMapVisibilityMessage)first).getDatasetID());
+        assertEquals(2.0f, ((RotateDatasetMessage)conflator.poll()).getRotation()[0], 0.0f);
+        assertNull(conflator.poll());
+        assertEquals(1, conflator.getNbConflated(MessageBuffer.GET_ROTATE_DATASET));
+
+        //Under a continuous load (dead slots compacted), the latest state stays after the commands received before it
+        for(int i = 0; i < 1000; i++)
+        {
+            conflator.onMessage(location(i));
+            conflator.onMessage(toggle(i));
+        }
+        assertEquals(1001, conflator.getNbPending());
+        for(int i = 0; i < 999; i++)
+            assertEquals(i, ((ToggleMapVisibilityMessage)conflator.poll()).getDatasetID());
+        assertEquals(999.0f, ((LocationTabletMessage)conflator.poll()).getPosition()[0], 0.0f);
+        assertEquals(999, ((ToggleMapVisibilityMessage)conflator.poll()).getDatasetID());
+        assertNull(conflator.poll());
+    }
+}
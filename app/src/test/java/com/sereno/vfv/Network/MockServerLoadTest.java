@@ -0,0 +1,162 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/** Load test of SocketManager and the frame-synchronised dispatch against MockVFVServer, with 1, 4 and 16 headsets*/
+public class MockServerLoadTest
+{
+    /** The dataset ID used for the echoed rotate events*/
+    private static final int ECHO_DATASET = 1000;
+
+    /** Duration of each load, in milliseconds*/
+    private static final int DURATION = 1000;
+
+    /** Period of the simulated UI frames, in milliseconds*/
+    private static final int FRAME_PERIOD = 16;
+
+    /** Number of echo events sent per frame*/
+    private static final int NB_ECHOES_PER_FRAME = 2;
+
+    /** Build a ROTATE_DATASET event as SocketManager.createRotationEvent does
+     * @param sequence the sequence number, sent as the W component and as the subdataset ID (echoes are not coalesced, see CoalescingSendQueue)
+     * @return the event data*/
+    private static byte[] createEchoEvent(int sequence)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(2+2*4+4*4);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.putShort(SocketManager.ROTATE_DATASET);
+        buf.putInt(ECHO_DATASET);
+        buf.putInt(sequence);
+        buf.putFloat(sequence);
+        for(int i = 0; i < 3; i++)
+            buf.putFloat(0.0f);
+        return buf.array();
+    }
+
+    /** Run one load
+     * @param nbHeadsets the number of simulated headsets*/
+    private void runLoad(int nbHeadsets) throws Exception
+    {
+        final int[] types = {MessageBuffer.GET_HEADSETS_STATUS, MessageBuffer.GET_LOCATION_TABLET, MessageBuffer.GET_ROTATE_DATASET};
+
+        MockVFVServer server = new MockVFVServer();
+        server.setNbHeadsets(nbHeadsets);
+        server.setRates(60.0f, 60.0f, 60.0f);
+        int port = server.start(0);
+
+        SocketManager socket = new SocketManager("127.0.0.1", port);
+        MessageBuffer buffer = socket.getMessageBuffer();
+
+        final CountDownLatch bound = new CountDownLatch(1);
+        buffer.addHandler(MessageBuffer.GET_HEADSET_BINDING_INFO, new MessageBuffer.IMessageHandler<HeadsetBindingInfoMessage>()
+        {
+            @Override
+            public void onMessage(HeadsetBindingInfoMessage msg) {bound.countDown();}
+        });
+
+        //Count what the reading thread receives
+        final AtomicLong nbReceived = new AtomicLong(0);
+        final AtomicLong nbEchoes   = new AtomicLong(0);
+        for(int type : types)
+            buffer.addHandler(type, new MessageBuffer.IMessageHandler<ServerMessage>()
+            {
+                @Override
+                public void onMessage(ServerMessage msg)
+                {
+                    nbReceived.incrementAndGet();
+                    if(msg instanceof RotateDatasetMessage && ((RotateDatasetMessage)msg).getDatasetID() == ECHO_DATASET)
+                        nbEchoes.incrementAndGet();
+                }
+            });
+
+        //The UI side: a frame queue drained every FRAME_PERIOD by this thread
+        final AtomicBoolean frameRequested = new AtomicBoolean(false);
+        FrameMessageQueue queue = new FrameMessageQueue(buffer.getRegistry(), new FrameMessageQueue.IFrameScheduler()
+        {
+            @Override
+            public void requestFrame(FrameMessageQueue queue) {frameRequested.set(true);}
+        }, FrameMessageQueue.SYSTEM_CLOCK);
+        for(int type : types)
+            buffer.addHandler(type, queue);
+
+        final long[] nbApplied = {0};
+        MessageBuffer.IMessageHandler<ServerMessage> apply = new MessageBuffer.IMessageHandler<ServerMessage>()
+        {
+            @Override
+            public void onMessage(ServerMessage msg) {nbApplied[0]++;}
+        };
+
+        try
+        {
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+            assertTrue("The tablet was not bound", bound.await(5, TimeUnit.SECONDS));
+
+            //Stream, echo and draw frames
+            int nbEchoesSent = 0;
+            long endTime = System.nanoTime() + DURATION*1000000L;
+            while(System.nanoTime() < endTime)
+            {
+                for(int i = 0; i < NB_ECHOES_PER_FRAME; i++, nbEchoesSent++)
+                    socket.push(createEchoEvent(nbEchoesSent));
+                if(frameRequested.getAndSet(false))
+                    queue.onFrame(apply);
+                Thread.sleep(FRAME_PERIOD);
+            }
+            server.stopStreaming();
+
+            //Wait for everything to be received
+            long nbSent = 0;
+            for(long timeout = System.nanoTime() + 5000000000L; System.nanoTime() < timeout; Thread.sleep(FRAME_PERIOD))
+            {
+                nbSent = 0;
+                for(int type : types)
+                    nbSent += server.getNbSent(type);
+                if(nbReceived.get() >= nbSent && nbEchoes.get() == nbEchoesSent)
+                    break;
+            }
+            queue.onFrame(apply);
+            while(queue.getQueue().getNbPending() > 0)
+                queue.onFrame(apply);
+
+            long nbConflated = queue.getQueue().getNbConflated();
+
+            //TCP does not lose anything: every message sent is received and either applied or conflated
+            assertEquals(nbSent, nbReceived.get());
+            assertEquals(nbEchoesSent, nbEchoes.get());
+            assertEquals(nbReceived.get(), nbApplied[0] + nbConflated);
+            assertEquals(nbEchoesSent, server.getNbReceived(SocketManager.ROTATE_DATASET));
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+
+    @Test
+    public void loadWithOneHeadset() throws Exception
+    {
+        runLoad(1);
+    }
+
+    @Test
+    public void loadWithFourHeadsets() throws Exception
+    {
+        runLoad(4);
+    }
+
+    @Test
+    public void loadWithSixteenHeadsets() throws Exception
+    {
+        runLoad(16);
+    }
+}
@@ -0,0 +1,1327 @@
+package com.sereno.vfv.Network;
+
+import com.sereno.vfv.Data.SubDataset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Stand-in VFV server speaking the tablet protocol, for load and soak tests on a JVM.
+ *
+ * For each connected tablet, it waits for IDENT_TABLET, answers with a headset binding information message,
+ * and then streams at the configured rates:
+ *  - one headsets status message describing the N simulated headsets (the sequence number is the X position of each headset),
+ *  - one tablet location message (the sequence number is the X position),
+ *  - one rotate message per headset, on the subdataset (0, headset index) (the sequence number is the W component).
+ * Rotate, translate, scale and location events sent by the tablet are echoed back to it, and pings are answered with pongs.
+ * A connection starting with IDENT_BULK_CHANNEL is a bulk channel (see SocketManager.enableBulkChannel): nothing is streamed on it,
+ * but large messages can be sent on it (see sendVolumetricMask).
+ * A resynchronization digest is answered with the subdatasets the tablet misses, within the datasets it knows, and with the datasets
+ * and subdatasets it has to remove (see setSubDatasets). The transfer functions whose version differs from the digest are resent (see setTransferFunction).
+ * If enabled (see setDatagramEnabled), a datagram channel can be opened (see LossyChannel): the tablet locations and headsets status are then
+ * streamed as datagrams, and the location events received as datagrams are echoed as datagrams. A datagram loss can be simulated (see setDatagramLoss).
+ * The lassos are rebuilt, whether sent as a whole or incrementally (see getLastLasso). The annotation strokes streamed by a tablet are relayed to the other tablets,
+ * and so are the transfer functions, whole or as diffs (see TFState).
+ * The compact poses (see PoseCodec) are accepted with the workspace the tablet asks for: the compact events are echoed back as floats,
+ * and sendHeadsetsStatus sends the headsets status compact and delta-encoded against the last one the tablet acknowledged.
+ * The volumetric masks are sent run-length encoded to the tablets requesting it, if smaller (see VolumetricMaskRuns).
+ *
+ * Run main() to use it with a real tablet: MockVFVServer [port] [nbHeadsets]*/
+public class MockVFVServer
+{
+    /** Number of message types counted (see getNbSent)*/
+    private static final int NB_TYPES = 64;
+
+    /** The listening socket*/
+    private ServerSocket m_serverSocket;
+
+    /** The thread accepting the tablets*/
+    private Thread m_acceptThread;
+
+    /** The connected tablets*/
+    private final ArrayList<Client> m_clients = new ArrayList<>();
+
+    /** Is the server closed?*/
+    private volatile boolean m_isClosed = false;
+
+    /** Are the simulated streams running?*/
+    private volatile boolean m_isStreaming = true;
+
+    /** The number of simulated headsets*/
+    private int m_nbHeadsets = 1;
+
+    /** Should the connections be logged? Only when run standalone (see main): the tests stay silent*/
+    private volatile boolean m_verbose = false;
+
+    /** The rate of the headsets status messages, in Hz*/
+    private float m_statusRate = 60.0f;
+
+    /** The rate of the tablet location messages, in Hz*/
+    private float m_locationRate = 60.0f;
+
+    /** The rate of the rotate messages, per headset, in Hz*/
+    private float m_transformRate = 60.0f;
+
+    /** Number of messages sent per type (see MessageBuffer.GET_*)*/
+    private final long[] m_nbSent = new long[NB_TYPES];
+
+    /** Number of events received per type (see SocketManager types)*/
+    private final long[] m_nbReceived = new long[NB_TYPES];
+
+    /** Number of events received as datagrams per type (see SocketManager types)*/
+    private final long[] m_nbDatagramsReceived = new long[NB_TYPES];
+
+    /** Should the server accept datagram channels?*/
+    private boolean m_datagramEnabled = false;
+
+    /** The probability to drop a datagram, sent or received*/
+    private volatile float m_datagramLoss = 0.0f;
+
+    /** The random generator of the datagram losses*/
+    private final Random m_random = new Random(1);
+
+    /** The datagram socket. null if the datagram channels are disabled*/
+    private DatagramSocket m_datagramSocket = null;
+
+    /** The thread receiving the datagrams*/
+    private Thread m_datagramThread = null;
+
+    /** The token of the next datagram channel opened*/
+    private int m_nextToken = 1;
+
+    /** The last lasso received, or closed if streamed incrementally*/
+    private float[] m_lastLasso = null;
+
+    /** The subdataset IDs per dataset ID the server has, for the resynchronization digests*/
+    private final TreeMap<Integer, TreeSet<Integer>> m_datasets = new TreeMap<>();
+
+    /** The transfer function states per subdataset the server has, for the resynchronization digests. Used while holding the lock of m_datasets*/
+    private final TreeMap<Long, TFState> m_tfStates = new TreeMap<>();
+
+    /** A connected tablet*/
+    private class Client
+    {
+        /** The tablet socket*/
+        final Socket socket;
+
+        /** The output stream. Every write is done while holding its lock*/
+        final DataOutputStream output;
+
+        /** Is the tablet identified?*/
+        volatile boolean identified = false;
+
+        /** Is this connection a bulk channel?*/
+        volatile boolean bulk = false;
+
+        /** The ID of the tablet, as identified on the control connection or on the bulk channel. -1 until identified*/
+        volatile int tabletID = -1;
+
+        /** The token of the datagram channel of this tablet. -1 if not opened*/
+        volatile int token = -1;
+
+        /** The datagram address of the tablet. null until a datagram is received from it*/
+        volatile SocketAddress datagramAddr = null;
+
+        /** The sequence number of the last datagram sent to this tablet. Used while holding the lock of this object*/
+        int datagramSequence = 0;
+
+        /** The sequence number of the last datagram received, per event type. Only used by the datagram thread*/
+        final int[] lastSequences = new int[NB_TYPES];
+
+        /** The ID of the lasso being streamed (see LassoStreamer). Only used by the reading thread*/
+        int lassoID = -1;
+
+        /** The quantization step of the lasso being streamed*/
+        float lassoQuantum = 0.0f;
+
+        /** The points of the lasso being streamed, in quanta (x, y, z per point)*/
+        final ArrayList<Integer> lasso = new ArrayList<>();
+
+        /** Did the tablet request the run-length encoded volumetric masks?*/
+        volatile boolean compressedMask = false;
+
+        /** Did the tablet negotiate the compact poses?*/
+        volatile boolean compactPose = false;
+
+        /** The half extent of the workspace of the compact poses, in meters*/
+        volatile float workspace = PoseCodec.DEFAULT_WORKSPACE;
+
+        /** The sequence of the last headsets status the tablet acknowledged. -1 if none*/
+        volatile int ackedStatus = -1;
+
+        /** The sequence of the next compact headsets status. Used while holding the output lock*/
+        int statusSequence = 0;
+
+        /** The compact headsets status sent and not acknowledged yet, per sequence, and the last one acknowledged. Used while holding the output lock*/
+        final TreeMap<Integer, HeadsetsStatusMessage.HeadsetStatus[]> sentStatus = new TreeMap<>();
+
+        Client(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+        }
+    }
+
+    /** Set the number of simulated headsets. Call it before start()
+     * @param nbHeadsets the number of headsets*/
+    public void setNbHeadsets(int nbHeadsets) {m_nbHeadsets = nbHeadsets;}
+
+    /** Set the rates of the simulated streams. Call it before start(). A rate of 0 disables the stream
+     * @param statusRate the rate of the headsets status messages, in Hz
+     * @param locationRate the rate of the tablet location messages, in Hz
+     * @param transformRate the rate of the rotate messages per headset, in Hz*/
+    public void setRates(float statusRate, float locationRate, float transformRate)
+    {
+        m_statusRate    = statusRate;
+        m_locationRate  = locationRate;
+        m_transformRate = transformRate;
+    }
+
+    /** Accept the datagram channels, or not. Call it before start()
+     * @param enabled true to accept them, false to answer that the server has no datagram channel*/
+    public void setDatagramEnabled(boolean enabled) {m_datagramEnabled = enabled;}
+
+    /** Set the probability to drop a datagram, to simulate a lossy network
+     * @param loss the probability, in [0, 1], applied to the datagrams sent and received*/
+    public void setDatagramLoss(float loss) {m_datagramLoss = loss;}
+
+    /** Get the number of events received as datagrams
+     * @param type the event type (see SocketManager types)
+     * @return the number of events of this type received as datagrams (also counted by getNbReceived)*/
+    public long getNbDatagramsReceived(int type)
+    {
+        synchronized(m_nbDatagramsReceived)
+        {
+            return m_nbDatagramsReceived[type];
+        }
+    }
+
+    /** Get the last lasso received. A lasso streamed incrementally is only received once closed
+     * @return the lasso (x, y, z per point, not closed), or null if none was received*/
+    public synchronized float[] getLastLasso()
+    {
+        return m_lastLasso;
+    }
+
+    /** Set the last lasso received
+     * @param lasso the lasso*/
+    private synchronized void setLastLasso(float[] lasso)
+    {
+        m_lastLasso = lasso;
+    }
+
+    /** Read a LASSO_BEGIN, LASSO_APPEND or LASSO_END event, and rebuild the lasso
+     * @param client the tablet sending the event
+     * @param type the event type
+     * @param input the stream to read the event payload from*/
+    private void readLasso(Client client, short type, DataInputStream input) throws IOException
+    {
+        int lassoID = input.readInt();
+        if(type == SocketManager.LASSO_BEGIN)
+        {
+            client.lassoID      = lassoID;
+            client.lassoQuantum = input.readFloat();
+            client.lasso.clear();
+            for(int i = 0; i < 3; i++)
+                client.lasso.add(input.readInt());
+        }
+        else if(type == SocketManager.LASSO_APPEND)
+        {
+            int nbPoints = input.readShort();
+            for(int i = 0; i < 3*nbPoints; i++)
+            {
+                int offset = input.readShort();
+                if(lassoID == client.lassoID)
+                    client.lasso.add(client.lasso.get(client.lasso.size()-3) + offset);
+            }
+        }
+        else
+        {
+            int nbPoints   = input.readInt();
+            boolean closed = input.readByte() != 0;
+            if(lassoID != client.lassoID)
+                return;
+            client.lassoID = -1;
+            if(nbPoints != client.lasso.size()/3)
+                System.err.println("MockVFVServer: lasso " + lassoID + " has " + client.lasso.size()/3 + " points instead of " + nbPoints);
+            else if(closed)
+            {
+                float[] lasso = new float[client.lasso.size()];
+                for(int i = 0; i < lasso.length; i++)
+                    lasso[i] = client.lasso.get(i)*client.lassoQuantum;
+                setLastLasso(lasso);
+            }
+        }
+    }
+
+    /** Read an ANNOTATION_STROKE_* event, and relay it to the other identified tablets with the tablet ID of the sender after the annotation ID
+     * @param client the tablet sending the event
+     * @param type the event type
+     * @param input the stream to read the event payload from*/
+    private void relayAnnotationStroke(Client client, short type, DataInputStream input) throws IOException
+    {
+        int relayedType;
+        byte[] payload;
+        if(type == SocketManager.ANNOTATION_STROKE_BEGIN)
+        {
+            relayedType = MessageBuffer.GET_ANNOTATION_STROKE_BEGIN;
+            payload     = new byte[8*4];
+            input.readFully(payload);
+        }
+        else if(type == SocketManager.ANNOTATION_STROKE_POINTS)
+        {
+            relayedType = MessageBuffer.GET_ANNOTATION_STROKE_POINTS;
+            byte[] header = new byte[6*4];
+            input.readFully(header);
+            int size = ByteBuffer.wrap(header).getInt(5*4);
+            payload  = Arrays.copyOf(header, header.length + size);
+            input.readFully(payload, header.length, size);
+        }
+        else
+        {
+            relayedType = MessageBuffer.GET_ANNOTATION_STROKE_END;
+            payload     = new byte[5*4];
+            input.readFully(payload);
+        }
+
+        ByteBuffer relayed = ByteBuffer.allocate(payload.length + 4);
+        relayed.put(payload, 0, 3*4);
+        relayed.putInt(client.tabletID);
+        relayed.put(payload, 3*4, payload.length - 3*4);
+        relay(client, relayedType, relayed.array());
+    }
+
+    /** Read a TF_SUBDATASET or TF_DIFF event, and relay it to the other identified tablets as GET_TF_DATASET or GET_TF_DIFF, from the server (headset ID -1)
+     * @param client the tablet sending the event
+     * @param type the event type
+     * @param input the stream to read the event payload from*/
+    private void relayTF(Client client, short type, DataInputStream input) throws IOException
+    {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(payload);
+        int relayedType = MessageBuffer.GET_TF_DATASET;
+        if(type == SocketManager.TF_DIFF)
+        {
+            relayedType = MessageBuffer.GET_TF_DIFF;
+            output.writeInt(input.readInt());
+        }
+        output.writeInt(input.readInt());
+        output.writeInt(input.readInt());
+        output.writeInt(-1);
+        copyTF(input, output);
+        output.flush();
+
+        relay(client, relayedType, payload.toByteArray());
+    }
+
+    /** Copy the transfer function part of a TF_SUBDATASET or TF_DIFF event
+     * @param input the stream to read the transfer function from
+     * @param output the stream to write it into*/
+    private static void copyTF(DataInputStream input, DataOutputStream output) throws IOException
+    {
+        byte tfType = input.readByte();
+        output.writeByte(tfType);
+        output.writeByte(input.readByte());
+        for(int i = 0; i < 3; i++)
+            output.writeFloat(input.readFloat());
+
+        if(tfType == SubDataset.TRANSFER_FUNCTION_GTF || tfType == SubDataset.TRANSFER_FUNCTION_TGTF)
+        {
+            int nbProps = input.readInt();
+            output.writeInt(nbProps);
+            for(int i = 0; i < nbProps; i++)
+            {
+                output.writeInt(input.readInt());
+                output.writeFloat(input.readFloat());
+                output.writeFloat(input.readFloat());
+            }
+        }
+        else if(tfType == SubDataset.TRANSFER_FUNCTION_MERGE)
+        {
+            output.writeFloat(input.readFloat());
+            copyTF(input, output);
+            copyTF(input, output);
+        }
+    }
+
+    /** Relay a message to the other identified tablets, on their control connection
+     * @param client the tablet the message comes from
+     * @param type the message type (see MessageBuffer.GET_*)
+     * @param payload the message payload*/
+    private void relay(Client client, int type, byte[] payload)
+    {
+        ArrayList<Client> targets = new ArrayList<>();
+        synchronized(m_clients)
+        {
+            for(Client c : m_clients)
+                if(c != client && c.identified && !c.bulk)
+                    targets.add(c);
+        }
+
+        for(Client c : targets)
+        {
+            try
+            {
+                synchronized(c.output)
+                {
+                    c.output.writeShort(type);
+                    c.output.write(payload);
+                    c.output.flush();
+                }
+                count(m_nbSent, type);
+            }
+            catch(IOException e)
+            {
+                //This tablet disconnected: its reading thread removes it
+            }
+        }
+    }
+
+    /** Should a datagram be dropped, to simulate the loss?
+     * @return true if the datagram should be dropped*/
+    private boolean isLost()
+    {
+        synchronized(m_random)
+        {
+            return m_random.nextFloat() < m_datagramLoss;
+        }
+    }
+
+    /** Set the subdatasets of a dataset the server has, compared to the resynchronization digests of the tablets
+     * @param datasetID the dataset ID
+     * @param subDatasetIDs the subdataset IDs*/
+    public void setSubDatasets(int datasetID, int... subDatasetIDs)
+    {
+        synchronized(m_datasets)
+        {
+            TreeSet<Integer> sds = new TreeSet<>();
+            for(int sdID : subDatasetIDs)
+                sds.add(sdID);
+            m_datasets.put(datasetID, sds);
+        }
+    }
+
+    /** Set the transfer function of a subdataset the server has, resent to the tablets whose digest has another version of it (see TFState.getVersion)
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @param state the transfer function state*/
+    public void setTransferFunction(int datasetID, int subDatasetID, TFState state)
+    {
+        synchronized(m_datasets)
+        {
+            m_tfStates.put(((long)datasetID << 32) | (subDatasetID & 0xffffffffL), state);
+        }
+    }
+
+    /** Start listening
+     * @param port the port to listen to. 0 to choose any free port
+     * @return the port listened to*/
+    public int start(int port) throws IOException
+    {
+        m_serverSocket = new ServerSocket();
+        m_serverSocket.setReuseAddress(true);
+        m_serverSocket.bind(new InetSocketAddress(port));
+
+        m_acceptThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while(!m_isClosed)
+                {
+                    try
+                    {
+                        final Client client = new Client(m_serverSocket.accept());
+                        client.socket.setTcpNoDelay(true);
+                        synchronized(m_clients)
+                        {
+                            m_clients.add(client);
+                        }
+                        new Thread(new Runnable() {@Override public void run() {readClient(client);}}).start();
+                        new Thread(new Runnable() {@Override public void run() {streamClient(client);}}).start();
+                    }
+                    catch(IOException e)
+                    {
+                        break;
+                    }
+                }
+            }
+        });
+        m_acceptThread.start();
+
+        if(m_datagramEnabled)
+        {
+            m_datagramSocket = new DatagramSocket(new InetSocketAddress(m_serverSocket.getLocalPort()));
+            m_datagramThread = new Thread(new Runnable() {@Override public void run() {receiveDatagrams();}});
+            m_datagramThread.start();
+        }
+        return m_serverSocket.getLocalPort();
+    }
+
+    /** Stop the simulated streams. Echoes are still sent*/
+    public void stopStreaming()
+    {
+        m_isStreaming = false;
+    }
+
+    /** Close the server and every connection*/
+    public void close()
+    {
+        m_isClosed = true;
+        try {m_serverSocket.close();} catch(IOException e) {}
+        synchronized(m_clients)
+        {
+            for(Client c : m_clients)
+                try {c.socket.close();} catch(IOException e) {}
+            m_clients.clear();
+        }
+        try {m_acceptThread.join();} catch(InterruptedException e) {}
+
+        if(m_datagramSocket != null)
+        {
+            m_datagramSocket.close();
+            try {m_datagramThread.join();} catch(InterruptedException e) {}
+        }
+    }
+
+    /** Get the number of messages sent to the tablets
+     * @param type the message type (see MessageBuffer.GET_*)
+     * @return the number of messages of this type sent*/
+    public long getNbSent(int type)
+    {
+        synchronized(m_nbSent)
+        {
+            return m_nbSent[type];
+        }
+    }
+
+    /** Get the number of events received from the tablets
+     * @param type the event type (see SocketManager types)
+     * @return the number of events of this type received*/
+    public long getNbReceived(int type)
+    {
+        synchronized(m_nbReceived)
+        {
+            return m_nbReceived[type];
+        }
+    }
+
+    /** Count a message
+     * @param counters the counters to increment
+     * @param type the message type*/
+    private static void count(long[] counters, int type)
+    {
+        synchronized(counters)
+        {
+            counters[type]++;
+        }
+    }
+
+    /** Read the events of a tablet until it disconnects
+     * @param client the tablet to read*/
+    private void readClient(Client client)
+    {
+        try
+        {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(client.socket.getInputStream()));
+            while(!m_isClosed)
+            {
+                short type = input.readShort();
+                count(m_nbReceived, type);
+
+                switch(type)
+                {
+                    case SocketManager.IDENT_TABLET:
+                    {
+                        byte[] ip = new byte[input.readInt()];
+                        input.readFully(ip);
+                        int handedness = input.readInt();
+                        int tabletID   = input.readInt();
+                        client.tabletID = tabletID;
+                        synchronized(client.output)
+                        {
+                            client.output.writeShort(MessageBuffer.GET_HEADSET_BINDING_INFO);
+                            client.output.writeInt(0);        //Headset ID
+                            client.output.writeInt(0xff0000); //Headset color
+                            client.output.writeByte(1);       //Tablet connected
+                            client.output.writeInt(handedness);
+                            client.output.writeInt(tabletID);
+                            client.output.writeByte(1);       //First connected
+                            client.output.flush();
+                        }
+                        //Identified before being counted: the tests waiting for the binding then rely on the relays
+                        client.identified = true;
+                        count(m_nbSent, MessageBuffer.GET_HEADSET_BINDING_INFO);
+                        if(m_verbose)
+                            System.out.println("Tablet " + tabletID + " bound to the headset " + new String(ip, StandardCharsets.UTF_8));
+                        break;
+                    }
+
+                    case SocketManager.IDENT_BULK_CHANNEL:
+                        client.tabletID = input.readInt();
+                        if(m_verbose)
+                            System.out.println("Tablet " + client.tabletID + " opened a bulk channel");
+                        client.bulk = true;
+                        break;
+
+                    case SocketManager.ROTATE_DATASET:
+                    {
+                        int datasetID = input.readInt(), subDatasetID = input.readInt();
+                        float[] q = readFloats(input, 4);
+                        synchronized(client.output)
+                        {
+                            writeTransform(client.output, MessageBuffer.GET_ROTATE_DATASET, datasetID, subDatasetID, -1, q);
+                            client.output.flush();
+                        }
+                        break;
+                    }
+
+                    case SocketManager.TRANSLATE_DATASET:
+                    case SocketManager.SCALE_DATASET:
+                    {
+                        int datasetID = input.readInt(), subDatasetID = input.readInt();
+                        float[] v = readFloats(input, 3);
+                        synchronized(client.output)
+                        {
+                            writeTransform(client.output, type == SocketManager.SCALE_DATASET ? MessageBuffer.GET_SCALE_DATASET : MessageBuffer.GET_MOVE_DATASET,
+                                           datasetID, subDatasetID, -1, v);
+                            client.output.flush();
+                        }
+                        break;
+                    }
+
+                    case SocketManager.LOCATION:
+                    {
+                        float[] v = readFloats(input, 7);
+                        synchronized(client.output)
+                        {
+                            client.output.writeShort(MessageBuffer.GET_LOCATION_TABLET);
+                            for(float f : v)
+                                client.output.writeFloat(f);
+                            client.output.flush();
+                        }
+                        count(m_nbSent, MessageBuffer.GET_LOCATION_TABLET);
+                        break;
+                    }
+
+                    case SocketManager.TABLETSCALE:
+                        readFloats(input, 5);
+                        break;
+
+                    case SocketManager.RESYNC_DIGEST:
+                        resync(client, input);
+                        break;
+
+                    case SocketManager.LASSO:
+                        setLastLasso(readFloats(input, input.readInt()));
+                        break;
+
+                    case SocketManager.LASSO_BEGIN:
+                    case SocketManager.LASSO_APPEND:
+                    case SocketManager.LASSO_END:
+                        readLasso(client, type, input);
+                        break;
+
+                    case SocketManager.ANNOTATION_STROKE_BEGIN:
+                    case SocketManager.ANNOTATION_STROKE_POINTS:
+                    case SocketManager.ANNOTATION_STROKE_END:
+                        relayAnnotationStroke(client, type, input);
+                        break;
+
+                    case SocketManager.TF_SUBDATASET:
+                    case SocketManager.TF_DIFF:
+                        relayTF(client, type, input);
+                        break;
+
+                    case SocketManager.ENABLE_COMPACT_POSE:
+                    {
+                        float workspace = input.readFloat();
+                        if(workspace > 0.0f)
+                            client.workspace = workspace;
+                        client.compactPose = (workspace > 0.0f);
+                        synchronized(client.output)
+                        {
+                            client.output.writeShort(MessageBuffer.GET_COMPACT_POSE);
+                            client.output.writeFloat(workspace);
+                            client.output.flush();
+                        }
+                        count(m_nbSent, MessageBuffer.GET_COMPACT_POSE);
+                        break;
+                    }
+
+                    case SocketManager.ROTATE_DATASET_COMPACT:
+                    case SocketManager.TRANSLATE_DATASET_COMPACT:
+                    case SocketManager.SCALE_DATASET_COMPACT:
+                    {
+                        int datasetID = input.readInt(), subDatasetID = input.readInt();
+                        int messageType;
+                        float[] v;
+                        if(type == SocketManager.ROTATE_DATASET_COMPACT)
+                        {
+                            messageType = MessageBuffer.GET_ROTATE_DATASET;
+                            v = readQuaternion(input);
+                        }
+                        else if(type == SocketManager.TRANSLATE_DATASET_COMPACT)
+                        {
+                            messageType = MessageBuffer.GET_MOVE_DATASET;
+                            v = readPosition(input, client.workspace);
+                        }
+                        else
+                        {
+                            messageType = MessageBuffer.GET_SCALE_DATASET;
+                            v = new float[3];
+                            for(int i = 0; i < 3; i++)
+                                v[i] = PoseCodec.fromHalf(input.readShort());
+                        }
+                        synchronized(client.output)
+                        {
+                            writeTransform(client.output, messageType, datasetID, subDatasetID, -1, v);
+                            client.output.flush();
+                        }
+                        break;
+                    }
+
+                    case SocketManager.LOCATION_COMPACT:
+                    {
+                        float[] pos = readPosition(input, client.workspace);
+                        float[] rot = readQuaternion(input);
+                        synchronized(client.output)
+                        {
+                            client.output.writeShort(MessageBuffer.GET_LOCATION_TABLET);
+                            for(float f : pos)
+                                client.output.writeFloat(f);
+                            for(float f : rot)
+                                client.output.writeFloat(f);
+                            client.output.flush();
+                        }
+                        count(m_nbSent, MessageBuffer.GET_LOCATION_TABLET);
+                        break;
+                    }
+
+                    case SocketManager.ENABLE_COMPRESSED_MASK:
+                        client.compressedMask = (input.readByte() != 0);
+                        break;
+
+                    case SocketManager.HEADSETS_STATUS_ACK:
+                        client.ackedStatus = Math.max(client.ackedStatus, input.readInt());
+                        break;
+
+                    case SocketManager.OPEN_DATAGRAM_CHANNEL:
+                    {
+                        int port = -1;
+                        if(m_datagramSocket != null)
+                        {
+                            synchronized(m_clients)
+                            {
+                                client.token = m_nextToken++;
+                            }
+                            port = m_datagramSocket.getLocalPort();
+                        }
+                        synchronized(client.output)
+                        {
+                            client.output.writeShort(MessageBuffer.GET_DATAGRAM_CHANNEL);
+                            client.output.writeInt(port);
+                            client.output.writeInt(client.token);
+                            client.output.flush();
+                        }
+                        count(m_nbSent, MessageBuffer.GET_DATAGRAM_CHANNEL);
+                        break;
+                    }
+
+                    case SocketManager.PING:
+                    {
+                        int sequence = input.readInt(), timestampHigh = input.readInt(), timestampLow = input.readInt();
+                        synchronized(client.output)
+                        {
+                            client.output.writeShort(MessageBuffer.GET_PONG);
+                            client.output.writeInt(sequence);
+                            client.output.writeInt(timestampHigh);
+                            client.output.writeInt(timestampLow);
+                            client.output.flush();
+                        }
+                        count(m_nbSent, MessageBuffer.GET_PONG);
+                        break;
+                    }
+
+                    default:
+                        //Tablet events are not self-delimited: we cannot skip an unknown one
+                        System.err.println("MockVFVServer: unsupported tablet event " + type + ". Closing the connection");
+                        client.socket.close();
+                        return;
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            //Disconnection
+        }
+        finally
+        {
+            synchronized(m_clients)
+            {
+                m_clients.remove(client);
+            }
+        }
+    }
+
+    /** Receive the datagrams of the tablets until the server is closed: acknowledge the hellos, and echo the location events*/
+    private void receiveDatagrams()
+    {
+        byte[] buf = new byte[65536];
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        while(!m_isClosed)
+        {
+            try
+            {
+                packet.setLength(buf.length);
+                m_datagramSocket.receive(packet);
+                if(packet.getLength() < 8 || isLost())
+                    continue;
+
+                ByteBuffer data = ByteBuffer.wrap(buf, 0, packet.getLength());
+                int token = data.getInt(), sequence = data.getInt();
+                Client client = null;
+                synchronized(m_clients)
+                {
+                    for(Client c : m_clients)
+                        if(c.token == token)
+                            client = c;
+                }
+                if(client == null)
+                    continue;
+                client.datagramAddr = packet.getSocketAddress();
+
+                //Hello
+                if(!data.hasRemaining())
+                {
+                    sendDatagram(client, new byte[0]);
+                    continue;
+                }
+
+                short type = data.getShort();
+                if(type < 0 || type >= NB_TYPES || sequence - client.lastSequences[type] <= 0)
+                    continue;
+                client.lastSequences[type] = sequence;
+                count(m_nbReceived, type);
+                count(m_nbDatagramsReceived, type);
+
+                if(type == SocketManager.LOCATION && data.remaining() >= 7*4)
+                {
+                    ByteBuffer echo = ByteBuffer.allocate(2+7*4);
+                    echo.putShort((short)MessageBuffer.GET_LOCATION_TABLET);
+                    for(int i = 0; i < 7; i++)
+                        echo.putFloat(data.getFloat());
+                    sendDatagram(client, echo.array());
+                    count(m_nbSent, MessageBuffer.GET_LOCATION_TABLET);
+                }
+            }
+            catch(IOException e)
+            {
+                //Closed
+            }
+        }
+    }
+
+    /** Send a message as a datagram to a tablet, unless the simulated loss drops it
+     * @param client the tablet. Its datagram address must be known
+     * @param message the message (type + payload). Empty to acknowledge a hello*/
+    private void sendDatagram(Client client, byte[] message) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(4+message.length);
+        synchronized(client)
+        {
+            buf.putInt(++client.datagramSequence);
+        }
+        buf.put(message);
+        if(!isLost())
+            m_datagramSocket.send(new DatagramPacket(buf.array(), buf.capacity(), client.datagramAddr));
+    }
+
+    /** Read a resynchronization digest and answer it
+     * @param client the tablet sending the digest
+     * @param input the stream to read the digest from (after its type)*/
+    private void resync(Client client, DataInputStream input) throws IOException
+    {
+        TreeMap<Integer, TreeSet<Integer>> tablet = new TreeMap<>();
+        TreeMap<Long, Integer> tfVersions = new TreeMap<>();
+        int nbDatasets = input.readInt();
+        for(int i = 0; i < nbDatasets; i++)
+        {
+            int datasetID = input.readInt();
+            TreeSet<Integer> sds = new TreeSet<>();
+            tablet.put(datasetID, sds);
+            int nbSDs = input.readInt();
+            for(int j = 0; j < nbSDs; j++)
+            {
+                int sdID = input.readInt();
+                sds.add(sdID);
+                tfVersions.put(((long)datasetID << 32) | (sdID & 0xffffffffL), input.readInt());
+            }
+        }
+
+        ArrayList<Integer> staleDatasets    = new ArrayList<>();
+        ArrayList<Integer> staleSubDatasets = new ArrayList<>();
+        synchronized(client.output)
+        {
+            synchronized(m_datasets)
+            {
+                for(int datasetID : tablet.keySet())
+                {
+                    TreeSet<Integer> server = m_datasets.get(datasetID);
+                    if(server == null)
+                    {
+                        staleDatasets.add(datasetID);
+                        continue;
+                    }
+
+                    for(int sdID : tablet.get(datasetID))
+                    {
+                        if(!server.contains(sdID))
+                        {
+                            staleSubDatasets.add(datasetID);
+                            staleSubDatasets.add(sdID);
+                        }
+                    }
+
+                    for(int sdID : server)
+                    {
+                        if(!tablet.get(datasetID).contains(sdID))
+                        {
+                            byte[] name = ("SubDataset " + sdID).getBytes(StandardCharsets.UTF_8);
+                            client.output.writeShort(MessageBuffer.GET_ADD_SUBDATASET);
+                            client.output.writeInt(datasetID);
+                            client.output.writeInt(sdID);
+                            client.output.writeInt(name.length);
+                            client.output.write(name);
+                            client.output.writeInt(-1); //Owner ID
+                            count(m_nbSent, MessageBuffer.GET_ADD_SUBDATASET);
+                        }
+
+                        //The transfer function, if the tablet has another version of it
+                        long key = ((long)datasetID << 32) | (sdID & 0xffffffffL);
+                        TFState tf = m_tfStates.get(key);
+                        if(tf != null && !Integer.valueOf(tf.getVersion()).equals(tfVersions.get(key)))
+                        {
+                            byte[] event = tf.createEvent(datasetID, sdID);
+                            client.output.writeShort(MessageBuffer.GET_TF_DATASET);
+                            client.output.write(event, 2, 8);
+                            client.output.writeInt(-1); //Headset ID
+                            client.output.write(event, 10, event.length-10);
+                            count(m_nbSent, MessageBuffer.GET_TF_DATASET);
+                        }
+                    }
+                }
+            }
+
+            client.output.writeShort(MessageBuffer.GET_RESYNC_DONE);
+            client.output.writeInt(staleDatasets.size());
+            for(int datasetID : staleDatasets)
+                client.output.writeInt(datasetID);
+            client.output.writeInt(staleSubDatasets.size()/2);
+            for(int id : staleSubDatasets)
+                client.output.writeInt(id);
+            client.output.flush();
+        }
+        count(m_nbSent, MessageBuffer.GET_RESYNC_DONE);
+    }
+
+    /** Send a volumetric mask to every tablet, on its bulk channel if opened, on its control connection otherwise.
+     * It is sent run-length encoded to the tablets which requested it (see VolumetricMaskRuns) if smaller, dense otherwise.
+     * The mask is written by chunks, at a limited rate, as on a slow link. This method returns once the mask is written
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @param mask the mask data
+     * @param chunkSize the size of a chunk, in bytes
+     * @param chunkPeriod the time between two chunks, in milliseconds*/
+    public void sendVolumetricMask(int datasetID, int subDatasetID, byte[] mask, int chunkSize, long chunkPeriod) throws IOException, InterruptedException
+    {
+        ArrayList<Client> targets = new ArrayList<>();
+        synchronized(m_clients)
+        {
+            for(Client c : m_clients)
+                if(c.bulk)
+                    targets.add(c);
+            if(targets.isEmpty())
+                targets.addAll(m_clients);
+        }
+
+        byte[] runs = null;
+        for(Client c : targets)
+        {
+            //The bulk channel does not carry the requests: look at the control connection of the tablet
+            boolean compressed = c.compressedMask;
+            if(c.bulk)
+                synchronized(m_clients)
+                {
+                    for(Client other : m_clients)
+                        if(!other.bulk && other.tabletID == c.tabletID && other.compressedMask)
+                            compressed = true;
+                }
+
+            byte[] data = mask;
+            int    type = MessageBuffer.GET_VOLUMETRIC_MASK;
+            if(compressed)
+            {
+                if(runs == null)
+                    runs = VolumetricMaskRuns.encode(mask, 8L*mask.length);
+                if(runs.length < mask.length)
+                {
+                    data = runs;
+                    type = MessageBuffer.GET_VOLUMETRIC_MASK_RUNS;
+                }
+            }
+
+            //The control connection is blocked during the whole transfer, as with a single TCP stream
+            synchronized(c.output)
+            {
+                c.output.writeShort(type);
+                c.output.writeInt(datasetID);
+                c.output.writeInt(subDatasetID);
+                c.output.writeInt(data.length);
+                for(int offset = 0; offset < data.length; offset += chunkSize)
+                {
+                    c.output.write(data, offset, Math.min(chunkSize, data.length - offset));
+                    c.output.flush();
+                    Thread.sleep(chunkPeriod);
+                }
+                c.output.writeByte(1);
+                c.output.flush();
+            }
+            count(m_nbSent, type);
+        }
+    }
+
+    /** Send a headsets status to every identified tablet: compact and delta-encoded against the last status the tablet acknowledged
+     * if it negotiated the compact poses (see HeadsetsStatusDecoder), as floats otherwise
+     * @param status the status of every headset. It must not be modified afterwards*/
+    public void sendHeadsetsStatus(HeadsetsStatusMessage.HeadsetStatus[] status) throws IOException
+    {
+        ArrayList<Client> targets = new ArrayList<>();
+        synchronized(m_clients)
+        {
+            for(Client c : m_clients)
+                if(c.identified && !c.bulk)
+                    targets.add(c);
+        }
+
+        for(Client c : targets)
+        {
+            synchronized(c.output)
+            {
+                if(c.compactPose)
+                    writeCompactHeadsetsStatus(c, status);
+                else
+                    writeHeadsetsStatus(c.output, status);
+                c.output.flush();
+            }
+        }
+    }
+
+    /** Write a compact headsets status, delta-encoded against the last status the tablet acknowledged. Must be called while holding the output lock
+     * @param client the tablet
+     * @param status the status of every headset*/
+    private void writeCompactHeadsetsStatus(Client client, HeadsetsStatusMessage.HeadsetStatus[] status) throws IOException
+    {
+        int sequence = client.statusSequence++;
+        int baseSequence = client.ackedStatus;
+        HeadsetsStatusMessage.HeadsetStatus[] base = client.sentStatus.get(baseSequence);
+        if(base == null)
+            baseSequence = -1;
+        client.sentStatus.headMap(client.ackedStatus).clear();
+        client.sentStatus.put(sequence, status);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(data);
+        for(HeadsetsStatusMessage.HeadsetStatus h : status)
+        {
+            HeadsetsStatusMessage.HeadsetStatus previous = null;
+            if(base != null)
+                for(HeadsetsStatusMessage.HeadsetStatus b : base)
+                    if(b.id == h.id)
+                        previous = b;
+
+            int changed = HeadsetsStatusDecoder.CHANGED_ALL;
+            if(previous != null)
+            {
+                changed = 0;
+                if(previous.color != h.color)
+                    changed |= HeadsetsStatusDecoder.CHANGED_COLOR;
+                if(previous.currentAction != h.currentAction)
+                    changed |= HeadsetsStatusDecoder.CHANGED_ACTION;
+                if(!Arrays.equals(previous.position, h.position))
+                    changed |= HeadsetsStatusDecoder.CHANGED_POSITION;
+                if(!Arrays.equals(previous.rotation, h.rotation))
+                    changed |= HeadsetsStatusDecoder.CHANGED_ROTATION;
+                if(previous.pointingIT != h.pointingIT || previous.pointingDatasetID != h.pointingDatasetID ||
+                   previous.pointingSubDatasetID != h.pointingSubDatasetID || previous.pointingInPublic != h.pointingInPublic)
+                    changed |= HeadsetsStatusDecoder.CHANGED_POINTING;
+                if(!Arrays.equals(previous.pointingLocalSDPosition, h.pointingLocalSDPosition))
+                    changed |= HeadsetsStatusDecoder.CHANGED_POINTING_POSITION;
+                if(!Arrays.equals(previous.pointingHeadsetStartPosition, h.pointingHeadsetStartPosition))
+                    changed |= HeadsetsStatusDecoder.CHANGED_START_POSITION;
+                if(!Arrays.equals(previous.pointingHeadsetStartOrientation, h.pointingHeadsetStartOrientation))
+                    changed |= HeadsetsStatusDecoder.CHANGED_START_ORIENTATION;
+            }
+
+            output.writeInt(h.id);
+            output.writeByte(changed);
+            if((changed & HeadsetsStatusDecoder.CHANGED_COLOR) != 0)
+                output.writeInt(h.color);
+            if((changed & HeadsetsStatusDecoder.CHANGED_ACTION) != 0)
+                output.writeByte(h.currentAction);
+            if((changed & HeadsetsStatusDecoder.CHANGED_POSITION) != 0)
+                writePosition(output, h.position, client.workspace);
+            if((changed & HeadsetsStatusDecoder.CHANGED_ROTATION) != 0)
+                writeQuaternion(output, h.rotation);
+            if((changed & HeadsetsStatusDecoder.CHANGED_POINTING) != 0)
+            {
+                output.writeByte(h.pointingIT);
+                output.writeInt(h.pointingDatasetID);
+                output.writeInt(h.pointingSubDatasetID);
+                output.writeByte(h.pointingInPublic ? 1 : 0);
+            }
+            if((changed & HeadsetsStatusDecoder.CHANGED_POINTING_POSITION) != 0)
+                for(float f : h.pointingLocalSDPosition)
+                    output.writeFloat(f);
+            if((changed & HeadsetsStatusDecoder.CHANGED_START_POSITION) != 0)
+                writePosition(output, h.pointingHeadsetStartPosition, client.workspace);
+            if((changed & HeadsetsStatusDecoder.CHANGED_START_ORIENTATION) != 0)
+                writeQuaternion(output, h.pointingHeadsetStartOrientation);
+        }
+        output.flush();
+
+        client.output.writeShort(MessageBuffer.GET_HEADSETS_STATUS_COMPACT);
+        client.output.writeInt(sequence);
+        client.output.writeInt(baseSequence);
+        client.output.writeInt(data.size());
+        data.writeTo(client.output);
+        count(m_nbSent, MessageBuffer.GET_HEADSETS_STATUS_COMPACT);
+    }
+
+    /** Read a smallest-three quaternion (see PoseCodec.packQuaternion)
+     * @param input the stream to read
+     * @return the quaternion (w, i, j, k)*/
+    private static float[] readQuaternion(DataInputStream input) throws IOException
+    {
+        long packed = ((long)input.readUnsignedShort() << 32) | ((long)input.readUnsignedShort() << 16) | input.readUnsignedShort();
+        float[] q = new float[4];
+        PoseCodec.unpackQuaternion(packed, q, 0);
+        return q;
+    }
+
+    /** Write a smallest-three quaternion (see PoseCodec.packQuaternion)
+     * @param output the stream to write into
+     * @param q the quaternion (w, i, j, k)*/
+    private static void writeQuaternion(DataOutputStream output, float[] q) throws IOException
+    {
+        long packed = PoseCodec.packQuaternion(q, 0);
+        output.writeShort((int)(packed >>> 32));
+        output.writeShort((int)(packed >>> 16));
+        output.writeShort((int)packed);
+    }
+
+    /** Read a fixed-point position (see PoseCodec.toFixed)
+     * @param input the stream to read
+     * @param workspace the half extent of the workspace, in meters
+     * @return the position*/
+    private static float[] readPosition(DataInputStream input, float workspace) throws IOException
+    {
+        float[] p = new float[3];
+        for(int i = 0; i < 3; i++)
+            p[i] = PoseCodec.fromFixed(input.readShort(), workspace);
+        return p;
+    }
+
+    /** Write a fixed-point position (see PoseCodec.toFixed)
+     * @param output the stream to write into
+     * @param p the position, within the workspace
+     * @param workspace the half extent of the workspace, in meters*/
+    private static void writePosition(DataOutputStream output, float[] p, float workspace) throws IOException
+    {
+        for(int i = 0; i < 3; i++)
+            output.writeShort(PoseCodec.toFixed(p[i], workspace));
+    }
+
+    /** Read floats
+     * @param input the stream to read
+     * @param n the number of floats
+     * @return the floats read*/
+    private static float[] readFloats(DataInputStream input, int n) throws IOException
+    {
+        float[] v = new float[n];
+        for(int i = 0; i < n; i++)
+            v[i] = input.readFloat();
+        return v;
+    }
+
+    /** Write a rotate, move or scale message
+     * @param output the stream to write into
+     * @param type the message type
+     * @param datasetID the dataset ID
+     * @param subDatasetID the subdataset ID
+     * @param headsetID the ID of the headset performing the transformation
+     * @param values the transformation values (4 for rotations, 3 otherwise)*/
+    private void writeTransform(DataOutputStream output, int type, int datasetID, int subDatasetID, int headsetID, float[] values) throws IOException
+    {
+        output.writeShort(type);
+        output.writeInt(datasetID);
+        output.writeInt(subDatasetID);
+        output.writeInt(headsetID);
+        for(float f : values)
+            output.writeFloat(f);
+        count(m_nbSent, type);
+    }
+
+    /** Write a tablet location message
+     * @param output the stream to write into
+     * @param sequence the sequence number of this message (the X position)*/
+    private void writeLocation(DataOutputStream output, int sequence) throws IOException
+    {
+        output.writeShort(MessageBuffer.GET_LOCATION_TABLET);
+        output.writeFloat(sequence);
+        for(int i = 0; i < 6; i++)
+            output.writeFloat(0.0f);
+        count(m_nbSent, MessageBuffer.GET_LOCATION_TABLET);
+    }
+
+    /** Write a headsets status message of the simulated headsets
+     * @param output the stream to write into
+     * @param sequence the sequence number of this message*/
+    private void writeHeadsetsStatus(DataOutputStream output, int sequence) throws IOException
+    {
+        HeadsetsStatusMessage.HeadsetStatus[] status = new HeadsetsStatusMessage.HeadsetStatus[m_nbHeadsets];
+        for(int h = 0; h < m_nbHeadsets; h++)
+        {
+            status[h]             = new HeadsetsStatusMessage.HeadsetStatus();
+            status[h].id          = h;
+            status[h].color       = 0xff000000 | (h*0x3f1f17);
+            status[h].position    = new float[]{sequence, 1.5f, h};
+            status[h].rotation    = new float[]{1.0f, 0.0f, 0.0f, 0.0f};
+        }
+        writeHeadsetsStatus(output, status);
+    }
+
+    /** Write a headsets status message
+     * @param output the stream to write into
+     * @param status the status of every headset*/
+    private void writeHeadsetsStatus(DataOutputStream output, HeadsetsStatusMessage.HeadsetStatus[] status) throws IOException
+    {
+        output.writeShort(MessageBuffer.GET_HEADSETS_STATUS);
+        output.writeInt(status.length);
+        for(HeadsetsStatusMessage.HeadsetStatus h : status)
+        {
+            output.writeInt(h.id);
+            output.writeInt(h.color);
+            output.writeInt(h.currentAction);
+            for(float f : h.position)
+                output.writeFloat(f);
+            for(float f : h.rotation)
+                output.writeFloat(f);
+            output.writeInt(h.pointingIT);
+            output.writeInt(h.pointingDatasetID);
+            output.writeInt(h.pointingSubDatasetID);
+            output.writeByte(h.pointingInPublic ? 1 : 0);
+            for(float f : h.pointingLocalSDPosition)
+                output.writeFloat(f);
+            for(float f : h.pointingHeadsetStartPosition)
+                output.writeFloat(f);
+            for(float f : h.pointingHeadsetStartOrientation)
+                output.writeFloat(f);
+        }
+        count(m_nbSent, MessageBuffer.GET_HEADSETS_STATUS);
+    }
+
+    /** Stream the simulated headsets to a tablet until it disconnects or stopStreaming() is called
+     * @param client the tablet to stream to*/
+    private void streamClient(Client client)
+    {
+        long startTime = System.nanoTime();
+        int nbStatus = 0, nbLocations = 0, nbTransforms = 0;
+
+        try
+        {
+            while(!m_isClosed && m_isStreaming && !client.socket.isClosed() && !client.bulk)
+            {
+                if(!client.identified)
+                {
+                    Thread.sleep(1);
+                    startTime = System.nanoTime();
+                    continue;
+                }
+
+                double elapsed = (System.nanoTime() - startTime)*1e-9;
+
+                //The continuous streams go as datagrams once the datagram channel of the tablet is opened, if they fit in one
+                if(client.datagramAddr != null)
+                {
+                    ByteArrayOutputStream message = new ByteArrayOutputStream();
+                    DataOutputStream output = new DataOutputStream(message);
+                    for(; nbStatus < elapsed*m_statusRate && 4+2+4+m_nbHeadsets*24*4 <= LossyChannel.MAX_DATAGRAM_SIZE; nbStatus++)
+                    {
+                        message.reset();
+                        writeHeadsetsStatus(output, nbStatus);
+                        sendDatagram(client, message.toByteArray());
+                    }
+
+                    for(; nbLocations < elapsed*m_locationRate; nbLocations++)
+                    {
+                        message.reset();
+                        writeLocation(output, nbLocations);
+                        sendDatagram(client, message.toByteArray());
+                    }
+                }
+
+                synchronized(client.output)
+                {
+                    for(; nbStatus < elapsed*m_statusRate; nbStatus++)
+                        writeHeadsetsStatus(client.output, nbStatus);
+
+                    for(; nbLocations < elapsed*m_locationRate; nbLocations++)
+                        writeLocation(client.output, nbLocations);
+
+                    for(; nbTransforms < elapsed*m_transformRate; nbTransforms++)
+                        for(int h = 0; h < m_nbHeadsets; h++)
+                            writeTransform(client.output, MessageBuffer.GET_ROTATE_DATASET, 0, h, h, new float[]{nbTransforms, 0.0f, 0.0f, 0.0f});
+                    client.output.flush();
+                }
+                Thread.sleep(1);
+            }
+        }
+        catch(IOException e)
+        {
+            //Disconnection
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Run the server until killed
+     * @param args [port] [nbHeadsets]*/
+    public static void main(String[] args) throws IOException
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.m_verbose = true;
+        if(args.length > 1)
+            server.setNbHeadsets(Integer.parseInt(args[1]));
+        int port = server.start(args.length > 0 ? Integer.parseInt(args[0]) : 8000);
+        System.out.println("MockVFVServer listening on port " + port + " with " + server.m_nbHeadsets + " headset(s)");
+    }
+}
@@ -0,0 +1,89 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class NetworkMetricsTest
+{
+    /** Build GET_LOCATION_TABLET messages as the server sends them
+     * @param nbMessages the number of messages
+     * @return the messages, back to back*/
+    private static byte[] locationMessages(int nbMessages)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(nbMessages*(2+7*4));
+        for(int i = 0; i < nbMessages; i++)
+        {
+            buf.putShort((short)MessageBuffer.GET_LOCATION_TABLET);
+            for(int j = 0; j < 7; j++)
+                buf.putFloat(i);
+        }
+        return buf.array();
+    }
+
+    @Test
+    public void countsReceivedMessagesAcrossChunks()
+    {
+        NetworkMetrics metrics = new NetworkMetrics();
+        MessageBuffer buffer = new MessageBuffer();
+        buffer.setMetrics(metrics);
+
+        //Chunks cutting the messages anywhere
+        byte[] data = locationMessages(10);
+        for(int offset = 0; offset < data.length; offset += 7)
+        {
+            int size = Math.min(7, data.length - offset);
+            byte[] chunk = new byte[size];
+            System.arraycopy(data, offset, chunk, 0, size);
+            buffer.push(chunk, size);
+        }
+
+        NetworkMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(10, snapshot.nbReceived[MessageBuffer.GET_LOCATION_TABLET]);
+        assertEquals(data.length, snapshot.nbBytesReceived[MessageBuffer.GET_LOCATION_TABLET]);
+        assertEquals(10, snapshot.decodeHistogram.getCount());
+        assertEquals(10, snapshot.dispatchHistogram.getCount());
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getTotalReceived());
+    }
+
+    @Test
+    public void countsSentMessagesAndQueueDepths()
+    {
+        NetworkMetrics metrics = new NetworkMetrics();
+        CoalescingSendQueue queue = new CoalescingSendQueue();
+        queue.setMetrics(metrics);
+        metrics.addSendQueue(queue);
+
+        byte[] lasso = SocketManager.createLassoEvent(new float[]{0, 0, 1, 1});
+        for(int i = 0; i < 3; i++)
+            queue.add(lasso);
+        queue.add(SocketManager.createLocationEvent(new float[]{0, 0, 0}, new float[]{0, 0, 0, 1}));
+        queue.add(SocketManager.createLocationEvent(new float[]{1, 0, 0}, new float[]{0, 0, 0, 1}));
+
+        NetworkMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(4, snapshot.nbPending);
+        assertEquals(1, snapshot.nbCoalesced);
+        assertEquals(0, snapshot.getTotalSent());
+
+        //Only the events read entirely are sent
+        byte[] buf = new byte[1024];
+        queue.read(buf, 0, snapshot.nbPendingBytes - 1);
+        snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.nbSent[SocketManager.LOCATION]);
+        assertEquals(2, snapshot.nbSent[SocketManager.LASSO]);
+        assertEquals(2*lasso.length, snapshot.nbBytesSent[SocketManager.LASSO]);
+
+        queue.read(buf, 0, 1);
+        snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.nbSent[SocketManager.LASSO]);
+
+        //The dump lists the types sent
+        String dump = snapshot.toString();
+        assertTrue(dump.contains(String.format("  out %2d: %8d messages %10d bytes", SocketManager.LASSO, 3, 3*lasso.length)));
+        assertTrue(dump.contains(String.format("  out %2d: %8d messages", SocketManager.LOCATION, 1)));
+    }
+}
@@ -0,0 +1,280 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ProtocolCodegenTest
+{
+    /** The types of the messages generated from the schema*/
+    private static final int[] FIXED_TYPES = {MessageBuffer.GET_ROTATE_DATASET, MessageBuffer.GET_MOVE_DATASET, MessageBuffer.GET_SCALE_DATASET,
+                                              MessageBuffer.GET_LOCATION_TABLET, MessageBuffer.GET_HEADSET_BINDING_INFO, MessageBuffer.GET_SUBDATASET_LOCK_OWNER,
+                                              MessageBuffer.GET_ANCHOR_ANNOTATION, MessageBuffer.GET_TOGGLE_MAP_VISIBILITY, MessageBuffer.SET_SUBDATASET_CLIPPING,
+                                              MessageBuffer.GET_PONG};
+
+    /** The sizes of the messages of FIXED_TYPES, without their type*/
+    private static final int[] FIXED_SIZES = {RotateDatasetMessageFields.SIZE, MoveDatasetMessageFields.SIZE, ScaleDatasetMessageFields.SIZE,
+                                              LocationTabletMessageFields.SIZE, HeadsetBindingInfoMessageFields.SIZE, SubDatasetLockOwnerMessageFields.SIZE,
+                                              AnchorAnnotationMessageFields.SIZE, ToggleMapVisibilityMessageFields.SIZE, SetSubDatasetClippingMessageFields.SIZE,
+                                              PongMessageFields.SIZE};
+
+    /** Build a random stream of the generated messages, interleaved with messages of variable size (RENAME_SUBDATASET)
+     * @param nbMessages the number of messages
+     * @param seed the random seed
+     * @return the stream as sent by the server*/
+    private static byte[] buildStream(int nbMessages, long seed) throws IOException
+    {
+        Random random = new Random(seed);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for(int i = 0; i < nbMessages; i++)
+        {
+            int t = random.nextInt(FIXED_TYPES.length+1);
+            if(t == FIXED_TYPES.length)
+            {
+                byte[] name = ("SubDataset " + random.nextInt()).getBytes(StandardCharsets.UTF_8);
+                out.writeShort(MessageBuffer.RENAME_SUBDATASET);
+                out.writeInt(random.nextInt());
+                out.writeInt(random.nextInt());
+                out.writeInt(name.length);
+                out.write(name);
+                continue;
+            }
+
+            //Any value is valid: bools are compared to 0, and any float is compared bit by bit
+            byte[] data = new byte[FIXED_SIZES[t]];
+            random.nextBytes(data);
+            out.writeShort(FIXED_TYPES[t]);
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Create a MessageBuffer describing every message it parses
+     * @param descriptions where to add the descriptions of the parsed messages (see describe)
+     * @return the message buffer*/
+    private static MessageBuffer describingBuffer(final List<String> descriptions)
+    {
+        MessageBuffer buffer = new MessageBuffer();
+        MessageBuffer.IMessageHandler<ServerMessage> handler = new MessageBuffer.IMessageHandler<ServerMessage>()
+        {
+            @Override
+            public void onMessage(ServerMessage msg)
+            {
+                descriptions.add(describe(msg));
+            }
+        };
+        for(int type : FIXED_TYPES)
+            buffer.addHandler(type, handler);
+        buffer.addHandler(MessageBuffer.RENAME_SUBDATASET, handler);
+        return buffer;
+    }
+
+    /** Describe a message: its type, cursor and fields
+     * @param msg the message to describe
+     * @return the description*/
+    private static String describe(ServerMessage msg)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(msg.getType()).append(" cursor=").append(msg.cursor);
+        try
+        {
+            for(Class<?> c = msg.getClass(); c != ServerMessage.class; c = c.getSuperclass())
+            {
+                for(Field f : c.getDeclaredFields())
+                {
+                    if(Modifier.isStatic(f.getModifiers()))
+                        continue;
+                    f.setAccessible(true);
+                    Object value = f.get(msg);
+                    sb.append(' ').append(f.getName()).append('=');
+                    if(value instanceof float[])
+                        sb.append(Arrays.toString((float[])value));
+                    else
+                        sb.append(value);
+                }
+            }
+        }
+        catch(IllegalAccessException e)
+        {
+            throw new AssertionError(e);
+        }
+        return sb.toString();
+    }
+
+    /** Parse a stream in chunks of a given size
+     * @param stream the stream to parse
+     * @param chunkSize the size of the chunks
+     * @param buffer the buffer parsing the stream*/
+    private static void pushChunks(byte[] stream, int chunkSize, MessageBuffer buffer)
+    {
+        byte[] chunk = new byte[chunkSize];
+        for(int pos = 0; pos < stream.length; pos += chunkSize)
+        {
+            int size = Math.min(chunkSize, stream.length - pos);
+            System.arraycopy(stream, pos, chunk, 0, size);
+            buffer.push(chunk, size);
+        }
+    }
+
+    @Test
+    public void decodesAsTheValueByValuePath() throws Exception
+    {
+        int nbMessages = 5000;
+        byte[] stream  = buildStream(nbMessages, 11);
+
+        //All at once: every generated message is decoded by decodeFixed
+        List<String> whole = new ArrayList<>();
+        describingBuffer(whole).push(stream, stream.length);
+        assertEquals(nbMessages, whole.size());
+
+        //Byte by byte: every message is decoded value by value
+        List<String> byteByByte = new ArrayList<>();
+        pushChunks(stream, 1, describingBuffer(byteByByte));
+        assertEquals(whole, byteByByte);
+
+        //Reads smaller than every message: both paths
+        List<String> chunks = new ArrayList<>();
+        pushChunks(stream, 7, describingBuffer(chunks));
+        assertEquals(whole, chunks);
+
+        //Recorded traffic of random chunks: both paths, messages split anywhere
+        File file = File.createTempFile("vfv", ".vfvt");
+        try
+        {
+            Random random = new Random(5);
+            TrafficRecorder recorder = new TrafficRecorder(file);
+            for(int pos = 0; pos < stream.length;)
+            {
+                int size = Math.min(1 + random.nextInt(64), stream.length - pos);
+                recorder.record(Arrays.copyOfRange(stream, pos, pos+size), size);
+                pos += size;
+            }
+            recorder.close();
+
+            List<String> replayed = new ArrayList<>();
+            new TrafficReplayer(file).replay(describingBuffer(replayed), false);
+            assertEquals(whole, replayed);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void decodesTheSchemaLayout() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeShort(MessageBuffer.GET_HEADSET_BINDING_INFO);
+        out.writeInt(3);
+        out.writeInt(0x00ff8040);
+        out.writeByte(1);
+        out.writeInt(1);
+        out.writeInt(7);
+        out.writeByte(0);
+
+        out.writeShort(MessageBuffer.GET_ROTATE_DATASET);
+        out.writeInt(2);
+        out.writeInt(5);
+        out.writeInt(-1);
+        for(int i = 0; i < 4; i++)
+            out.writeFloat(0.5f*i);
+
+        out.writeShort(MessageBuffer.GET_PONG);
+        out.writeInt(42);
+        out.writeLong(0x123456789abcdef0L);
+
+        byte[] stream = bytes.toByteArray();
+        for(int chunkSize : new int[]{stream.length, 1, 5})
+        {
+            final List<ServerMessage> messages = new ArrayList<>();
+            MessageBuffer buffer = new MessageBuffer();
+            MessageBuffer.IMessageHandler<ServerMessage> handler = new MessageBuffer.IMessageHandler<ServerMessage>()
+            {
+                @Override
+                public void onMessage(ServerMessage msg)
+                {
+                    messages.add(msg);
+                }
+            };
+            buffer.addHandler(MessageBuffer.GET_HEADSET_BINDING_INFO, handler);
+            buffer.addHandler(MessageBuffer.GET_ROTATE_DATASET, handler);
+            buffer.addHandler(MessageBuffer.GET_PONG, handler);
+            pushChunks(stream, chunkSize, buffer);
+            assertEquals(3, messages.size());
+
+            HeadsetBindingInfoMessage binding = (HeadsetBindingInfoMessage)messages.get(0);
+            assertEquals(3, binding.getHeadsetID());
+            assertEquals(0x00ff8040, binding.getHeadsetColor());
+            assertEquals(7, binding.getTabletID());
+            assertTrue(binding.m_tabletConnected);
+            assertFalse(binding.m_firstConnected);
+
+            RotateDatasetMessage rotate = (RotateDatasetMessage)messages.get(1);
+            assertEquals(2, rotate.getDatasetID());
+            assertEquals(5, rotate.getSubDatasetID());
+            assertEquals(-1, rotate.getHeadsetID());
+            assertArrayEquals(new float[]{0.0f, 0.5f, 1.0f, 1.5f}, rotate.getRotation(), 0.0f);
+
+            PongMessage pong = (PongMessage)messages.get(2);
+            assertEquals(42, pong.getSequence());
+            assertEquals(0x123456789abcdef0L, pong.getTimestamp());
+        }
+    }
+
+    @Test
+    public void encodesTheSchemaLayout() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(SocketManager.ROTATE_DATASET);
+        out.writeInt(4);
+        out.writeInt(-2);
+        for(int i = 0; i < 4; i++)
+            out.writeFloat(-0.25f*i);
+        assertArrayEquals(bytes.toByteArray(), ProtocolEvents.rotateDataset(4, -2, new float[]{-0.0f, -0.25f, -0.5f, -0.75f}));
+
+        bytes.reset();
+        out.writeShort(SocketManager.SET_SV_STACKED_GROUP_GLOBAL_PARAMETERS);
+        out.writeInt(9);
+        out.writeInt(1);
+        out.writeFloat(0.125f);
+        out.writeByte(1);
+        assertArrayEquals(bytes.toByteArray(), ProtocolEvents.setSVGlobalParameters(9, 1, 0.125f, true));
+
+        bytes.reset();
+        out.writeShort(SocketManager.SET_ANNOTATION_POSITION_INDEXES);
+        out.writeInt(1);
+        out.writeInt(2);
+        out.writeInt(-1);
+        out.writeInt(0);
+        out.writeInt(65536);
+        assertArrayEquals(bytes.toByteArray(), ProtocolEvents.setAnnotationPositionIndexes(1, 2, new int[]{-1, 0, 65536}));
+
+        bytes.reset();
+        out.writeShort(SocketManager.SET_VOLUMETRIC_SELECTION_METHOD);
+        out.writeByte(-3);
+        assertArrayEquals(bytes.toByteArray(), ProtocolEvents.setVolumetricSelectionMethod((byte)-3));
+
+        bytes.reset();
+        out.writeShort(SocketManager.ADD_SUBDATASET);
+        out.writeInt(6);
+        out.writeByte(0);
+        assertArrayEquals(bytes.toByteArray(), SocketManager.createAddSubDatasetEvent(6, false));
+    }
+}
@@ -0,0 +1,144 @@
+package com.sereno.vfv.Network;
+
+import com.sereno.vfv.Data.SubDataset;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ResyncTest
+{
+    @Test
+    public void backoffGrowsWithJitter()
+    {
+        ReconnectBackoff backoff = new ReconnectBackoff(50, 5000, new Random(42));
+        for(int i = 0; i < 16; i++)
+        {
+            long ceiling = Math.min(5000, 50L << i);
+            long delay   = backoff.nextDelay();
+            assertTrue("Delay " + delay + " out of [" + ceiling/2 + ", " + ceiling + "]", delay >= ceiling/2 && delay <= ceiling);
+        }
+        assertEquals(16, backoff.getNbFailures());
+
+        backoff.reset();
+        assertTrue(backoff.nextDelay() <= 50);
+    }
+
+    @Test
+    public void resyncsOnlyTheDifferences() throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 0.0f, 0.0f);
+        server.setSubDatasets(0, 1, 2);
+        int port = server.start(0);
+
+        SocketManager socket = new SocketManager("127.0.0.1", port);
+        final CountDownLatch done    = new CountDownLatch(1);
+        final AtomicInteger nbAdded  = new AtomicInteger(0);
+        socket.getMessageBuffer().addHandler(MessageBuffer.GET_ADD_SUBDATASET, new MessageBuffer.IMessageHandler<AddSubDatasetMessage>()
+        {
+            @Override
+            public void onMessage(AddSubDatasetMessage msg) {nbAdded.incrementAndGet();}
+        });
+        socket.getMessageBuffer().addHandler(MessageBuffer.GET_RESYNC_DONE, new MessageBuffer.IMessageHandler<ResyncDoneMessage>()
+        {
+            @Override
+            public void onMessage(ResyncDoneMessage msg) {done.countDown();}
+        });
+
+        //The tablet kept the subdatasets 0 and 1 of the dataset 0, and the dataset 5, from a previous connection
+        ResyncDigest digest = socket.getResyncDigest();
+        digest.addSubDataset(0, 0);
+        digest.addSubDataset(0, 1);
+        digest.addDataset(5);
+        socket.setResyncEnabled(true);
+
+        try
+        {
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+            assertTrue("The resynchronization did not finish", done.await(5, TimeUnit.SECONDS));
+
+            assertEquals(1, nbAdded.get());
+            assertEquals(1, server.getNbSent(MessageBuffer.GET_ADD_SUBDATASET));
+            assertFalse(digest.containsSubDataset(0, 0));
+            assertTrue(digest.containsSubDataset(0, 1));
+            assertTrue(digest.containsSubDataset(0, 2));
+            assertFalse(digest.containsDataset(5));
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+
+    /** Create a GTF state
+     * @param center the center of its second property
+     * @return the state*/
+    private static TFState createGTF(float center)
+    {
+        return new TFState(SubDataset.TRANSFER_FUNCTION_GTF, 0, 0.0f, 0.0f, 1.0f, new int[]{0, 1}, new float[]{0.5f, center}, new float[]{0.25f, 0.25f});
+    }
+
+    @Test
+    public void resendsOnlyTheTransferFunctionsOfAnotherVersion() throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 0.0f, 0.0f);
+        server.setSubDatasets(0, 0, 1);
+        server.setTransferFunction(0, 0, createGTF(0.5f));
+        server.setTransferFunction(0, 1, createGTF(0.75f));
+        int port = server.start(0);
+
+        final SocketManager socket = new SocketManager("127.0.0.1", port);
+        final CountDownLatch done = new CountDownLatch(1);
+        final ArrayList<Integer> resent = new ArrayList<>();
+        socket.getMessageBuffer().addHandler(MessageBuffer.GET_TF_DATASET, new MessageBuffer.IMessageHandler<TFDatasetMessage>()
+        {
+            @Override
+            public void onMessage(TFDatasetMessage msg)
+            {
+                resent.add(msg.getSubDatasetID());
+                socket.setTFState(msg.getDatasetID(), msg.getSubDatasetID(), TFState.of(msg));
+            }
+        });
+        socket.getMessageBuffer().addHandler(MessageBuffer.GET_RESYNC_DONE, new MessageBuffer.IMessageHandler<ResyncDoneMessage>()
+        {
+            @Override
+            public void onMessage(ResyncDoneMessage msg) {done.countDown();}
+        });
+
+        //The tablet has the transfer function of the subdataset 0 the server has, and an older one for the subdataset 1.
+        //The version is the state applied, not a count of updates: two different paths to the same state match
+        ResyncDigest digest = socket.getResyncDigest();
+        digest.addSubDataset(0, 0);
+        digest.addSubDataset(0, 1);
+        socket.setTFState(0, 0, createGTF(0.25f));
+        socket.setTFState(0, 0, createGTF(0.5f));
+        socket.setTFState(0, 1, createGTF(0.25f));
+        socket.setResyncEnabled(true);
+
+        try
+        {
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+            assertTrue("The resynchronization did not finish", done.await(5, TimeUnit.SECONDS));
+
+            assertEquals(1, server.getNbSent(MessageBuffer.GET_TF_DATASET));
+            assertEquals(1, resent.size());
+            assertEquals(1, (int)resent.get(0));
+            assertEquals(createGTF(0.5f).getVersion(),  digest.getTFVersion(0, 0));
+            assertEquals(createGTF(0.75f).getVersion(), digest.getTFVersion(0, 1));
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class StringDecodingTest
+{
+    /** A non-ASCII subdataset name*/
+    private static final String NAME = "Écoulement — vue n°2 (流体)";
+
+    /** Build a RENAME_SUBDATASET stream as sent by the server
+     * @param name the new subdataset name
+     * @param nbMessages the number of messages to write
+     * @return the stream*/
+    private static byte[] buildRenameStream(String name, int nbMessages) throws IOException
+    {
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for(int i = 0; i < nbMessages; i++)
+        {
+            out.writeShort(MessageBuffer.RENAME_SUBDATASET);
+            out.writeInt(1);
+            out.writeInt(i);
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Parse a stream, pushing it in chunks of chunkSize bytes
+     * @param buffer the message buffer to use
+     * @param stream the stream to parse
+     * @param chunkSize the size of the chunks
+     * @return the names read*/
+    private static ArrayList<String> parse(MessageBuffer buffer, byte[] stream, int chunkSize)
+    {
+        final ArrayList<String> names = new ArrayList<>();
+        buffer.addHandler(MessageBuffer.RENAME_SUBDATASET, new MessageBuffer.IMessageHandler<RenameSubDatasetMessage>()
+        {
+            @Override
+            public void onMessage(RenameSubDatasetMessage msg) {names.add(msg.getSubDatasetName());}
+        });
+
+        byte[] chunk = new byte[chunkSize];
+        for(int pos = 0; pos < stream.length; pos += chunkSize)
+        {
+            int size = Math.min(chunkSize, stream.length - pos);
+            System.arraycopy(stream, pos, chunk, 0, size);
+            buffer.push(chunk, size);
+        }
+        return names;
+    }
+
+    @Test
+    public void decodesUTF8SplitOverSeveralReads() throws IOException
+    {
+        byte[] stream = buildRenameStream(NAME, 3);
+
+        //Every chunk size, from one byte per read to the whole stream at once
+        for(int chunkSize = 1; chunkSize <= stream.length; chunkSize++)
+        {
+            MessageBuffer buffer = new MessageBuffer();
+            buffer.setStringCache(null);
+            ArrayList<String> names = parse(buffer, stream, chunkSize);
+            assertEquals(3, names.size());
+            for(String name : names)
+                assertEquals(NAME, name);
+        }
+    }
+
+    @Test
+    public void cachesRepeatedStrings() throws IOException
+    {
+        MessageBuffer buffer = new MessageBuffer();
+        ArrayList<String> names = parse(buffer, buildRenameStream(NAME, 10), 7);
+
+        assertEquals(10, names.size());
+        for(String name : names)
+            assertSame(names.get(0), name);
+        assertEquals(1, buffer.getStringCache().getNbMisses());
+        assertEquals(9, buffer.getStringCache().getNbHits());
+    }
+
+    @Test
+    public void encodesTheUTF8Size()
+    {
+        byte[] data = SocketManager.createAddCloudPointDatasetEvent(NAME);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+
+        buf.getShort();
+        int size = buf.getInt();
+        assertEquals(NAME.getBytes(StandardCharsets.UTF_8).length, size);
+        assertEquals(2+4+size, data.length);
+        assertEquals(NAME, new String(data, 6, size, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,142 @@
+package com.sereno.vfv.Network;
+
+import com.sereno.vfv.Data.SubDataset;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TFDiffTest
+{
+    /** Create a GTF state
+     * @param nbProps the number of properties
+     * @param timestep the timestep
+     * @param changedProp the index of a property whose center differs, -1 if none
+     * @return the GTF state*/
+    private static TFState createGTF(int nbProps, float timestep, int changedProp)
+    {
+        int[]   propIDs = new int[nbProps];
+        float[] centers = new float[nbProps];
+        float[] scales  = new float[nbProps];
+        for(int i = 0; i < nbProps; i++)
+        {
+            propIDs[i] = nbProps-1-i;
+            centers[i] = (i == changedProp ? 0.75f : 0.5f);
+            scales[i]  = 0.25f;
+        }
+        return new TFState(SubDataset.TRANSFER_FUNCTION_GTF, 0, timestep, 0.0f, 1.0f, propIDs, centers, scales);
+    }
+
+    /** Wait until a number of transfer function messages were sent by the server
+     * @param server the server
+     * @param nbMessages the number of GET_TF_DATASET and GET_TF_DIFF messages to wait for*/
+    private static void waitTFMessages(MockVFVServer server, long nbMessages) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(server.getNbSent(MessageBuffer.GET_TF_DATASET) + server.getNbSent(MessageBuffer.GET_TF_DIFF) < nbMessages && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(nbMessages, server.getNbSent(MessageBuffer.GET_TF_DATASET) + server.getNbSent(MessageBuffer.GET_TF_DIFF));
+    }
+
+    /** Wait until the receiver rebuilt a transfer function state
+     * @param received the state rebuilt by the receiver
+     * @param expected the state to wait for*/
+    private static void waitReceived(AtomicReference<TFState> received, TFState expected) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(!expected.equals(received.get()) && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(expected, received.get());
+    }
+
+    @Test
+    public void sendsOnlyWhatChanged() throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 0.0f, 0.0f);
+        int port = server.start(0);
+
+        SocketManager sender   = new SocketManager("127.0.0.1", port);
+        SocketManager receiver = new SocketManager("127.0.0.1", port);
+        sender.setTFDiffEnabled(true);
+
+        //The receiver rebuilds the transfer function from the whole states and the diffs
+        final AtomicReference<TFState> received = new AtomicReference<>();
+        final AtomicReference<TFDiffMessage> lastDiff = new AtomicReference<>();
+        receiver.getMessageBuffer().addHandler(MessageBuffer.GET_TF_DATASET, new MessageBuffer.IMessageHandler<TFDatasetMessage>()
+        {
+            @Override
+            public void onMessage(TFDatasetMessage msg)
+            {
+                received.set(TFState.of(msg));
+            }
+        });
+        receiver.getMessageBuffer().addHandler(MessageBuffer.GET_TF_DIFF, new MessageBuffer.IMessageHandler<TFDiffMessage>()
+        {
+            @Override
+            public void onMessage(TFDiffMessage msg)
+            {
+                assertEquals(0, msg.getDatasetID());
+                assertEquals(1, msg.getSubDatasetID());
+                lastDiff.set(msg);
+                received.set(received.get().apply(msg));
+            }
+        });
+
+        try
+        {
+            sender.setIdentInformation("127.0.0.1", 0, 0);
+            receiver.setIdentInformation("127.0.0.1", 0, 1);
+            long deadline = System.currentTimeMillis() + 5000;
+            while(server.getNbSent(MessageBuffer.GET_HEADSET_BINDING_INFO) < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+
+            //Nothing to diff from: the whole transfer function is sent
+            TFState initial = createGTF(16, 0.0f, -1);
+            sender.pushTFEvent(0, 1, initial);
+            waitTFMessages(server, 1);
+            waitReceived(received, initial);
+
+            //One property changed
+            TFState moved = createGTF(16, 0.0f, 3);
+            sender.pushTFEvent(0, 1, moved);
+            waitTFMessages(server, 2);
+            waitReceived(received, moved);
+
+            //Nothing changed: nothing is sent
+            sender.pushTFEvent(0, 1, createGTF(16, 0.0f, 3));
+
+            //Only the timestep changed: the diff has no property
+            TFState stepped = createGTF(16, 1.0f, 3);
+            sender.pushTFEvent(0, 1, stepped);
+            waitTFMessages(server, 3);
+            waitReceived(received, stepped);
+            assertEquals(0, lastDiff.get().getTF().getGTFData().propData.length);
+
+            //A diff does not apply to another version
+            assertNull(initial.apply(lastDiff.get()));
+
+            //The properties changed: the whole transfer function is sent
+            TFState other = createGTF(8, 1.0f, -1);
+            sender.pushTFEvent(0, 1, other);
+            waitTFMessages(server, 4);
+            waitReceived(received, other);
+
+            assertEquals(2, server.getNbSent(MessageBuffer.GET_TF_DATASET));
+            assertEquals(2, server.getNbSent(MessageBuffer.GET_TF_DIFF));
+
+            NetworkMetrics.Snapshot snapshot = sender.getMetrics().snapshot();
+            long diffBytes = snapshot.nbBytesSent[SocketManager.TF_DIFF];
+            long fullBytes = 2*initial.createEvent(0, 1).length;
+            assertTrue(diffBytes*3 < fullBytes);
+        }
+        finally
+        {
+            server.close();
+            sender.stopThread();
+            receiver.stopThread();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.sereno.vfv.Network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TrafficReplayTest
+{
+    /** Number of chunks to record*/
+    private static final int NB_CHUNKS = 5;
+
+    /** Number of rotate messages per chunk*/
+    private static final int NB_MESSAGES_PER_CHUNK = 20;
+
+    /** The recording file*/
+    private File m_file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        m_file = File.createTempFile("vfv", ".vfvt");
+    }
+
+    @After
+    public void tearDown()
+    {
+        m_file.delete();
+    }
+
+    /** Build a stream of GET_ROTATE_DATASET messages
+     * @param nbMessages the number of messages
+     * @return the stream as sent by the server*/
+    private static byte[] buildRotateStream(int nbMessages) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for(int i = 0; i < nbMessages; i++)
+        {
+            out.writeShort(MessageBuffer.GET_ROTATE_DATASET);
+            out.writeInt(0);
+            out.writeInt(i);
+            out.writeInt(-1);
+            for(int j = 0; j < 4; j++)
+                out.writeFloat(j);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Record NB_CHUNKS chunks, cutting messages in the middle as a socket would do, every delay milliseconds
+     * @param delay the delay between two chunks, in milliseconds
+     * @return the number of bytes recorded*/
+    private int record(int delay) throws Exception
+    {
+        byte[] stream = buildRotateStream(NB_CHUNKS*NB_MESSAGES_PER_CHUNK);
+        int chunkSize = (stream.length + NB_CHUNKS - 1) / NB_CHUNKS;
+        byte[] chunk  = new byte[chunkSize];
+
+        TrafficRecorder recorder = new TrafficRecorder(m_file);
+        for(int pos = 0; pos < stream.length; pos += chunkSize)
+        {
+            int size = Math.min(chunkSize, stream.length - pos);
+            System.arraycopy(stream, pos, chunk, 0, size);
+            recorder.record(chunk, size);
+            Thread.sleep(delay);
+        }
+        recorder.close();
+
+        assertEquals(NB_CHUNKS, recorder.getNbChunks());
+        assertEquals(stream.length, recorder.getNbBytes());
+        return stream.length;
+    }
+
+    /** Create a MessageBuffer counting the rotate messages received
+     * @param counter the counter to increment
+     * @return the message buffer*/
+    private static MessageBuffer countingBuffer(final int[] counter)
+    {
+        MessageBuffer buffer = new MessageBuffer();
+        buffer.addHandler(MessageBuffer.GET_ROTATE_DATASET, new MessageBuffer.IMessageHandler<RotateDatasetMessage>()
+        {
+            @Override
+            public void onMessage(RotateDatasetMessage msg)
+            {
+                assertEquals(counter[0], msg.getSubDatasetID());
+                counter[0]++;
+            }
+        });
+        return buffer;
+    }
+
+    @Test
+    public void replaysAsFastAsPossible() throws Exception
+    {
+        int nbBytes = record(0);
+
+        int[] counter = {0};
+        TrafficReplayer.Result result = new TrafficReplayer(m_file).replay(countingBuffer(counter), false);
+
+        assertEquals(NB_CHUNKS*NB_MESSAGES_PER_CHUNK, counter[0]);
+        assertEquals(NB_CHUNKS, result.nbChunks);
+        assertEquals(nbBytes, result.nbBytes);
+    }
+
+    @Test
+    public void replaysAtTheRecordedTiming() throws Exception
+    {
+        record(20);
+
+        int[] counter = {0};
+        TrafficReplayer.Result result = new TrafficReplayer(m_file).replay(countingBuffer(counter), true);
+
+        assertEquals(NB_CHUNKS*NB_MESSAGES_PER_CHUNK, counter[0]);
+        assertTrue(result.recordedDuration >= (NB_CHUNKS-1)*20000000L);
+        assertTrue(result.replayDuration >= result.recordedDuration);
+    }
+}
@@ -0,0 +1,167 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/** Allocations of the volumetric mask reception for a 256^3 grid (one bit per cell, i.e., 2 MiB per mask).
+ * The pooled direct buffer path ('A') is compared with the heap byte array path ('a')*/
+public class VolumetricMaskBenchmarkTest
+{
+    /** Size of a mask of a 256^3 grid, in bytes*/
+    private static final int MASK_SIZE = 256*256*256/8;
+
+    /** Number of masks per measure*/
+    private static final int NB_MASKS = 16;
+
+    /** Size of the chunks given to MessageBuffer.push (see SocketManager)*/
+    private static final int CHUNK_SIZE = 65536;
+
+    /** Same message than SubDatasetVolumetricMaskMessage, but reading the mask in a heap byte array*/
+    private static class HeapMaskMessage extends ServerMessage
+    {
+        byte[] mask;
+
+        @Override
+        byte getCurrentType()
+        {
+            if(cursor <= 1)
+                return 'I';
+            else if(cursor == 2)
+                return 'a';
+            return 'b';
+        }
+
+        @Override
+        void pushValue(byte[] val)
+        {
+            mask = val;
+            super.pushValue(val);
+        }
+
+        @Override
+        int getMaxCursor() {return 3;}
+    }
+
+    /** Build the stream of NB_MASKS volumetric mask messages
+     * @return the stream as sent by the server*/
+    private static byte[] buildStream() throws IOException
+    {
+        byte[] mask = new byte[MASK_SIZE];
+        for(int i = 0; i < mask.length; i++)
+            mask[i] = (byte)(i*31);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for(int i = 0; i < NB_MASKS; i++)
+        {
+            out.writeShort(MessageBuffer.GET_VOLUMETRIC_MASK);
+            out.writeInt(0);
+            out.writeInt(i);
+            out.writeInt(MASK_SIZE);
+            out.write(mask);
+            out.writeByte(1);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Push a stream in chunks as SocketManager does
+     * @param buffer the message buffer to push the data into
+     * @param stream the stream to push
+     * @param chunk the reading buffer, of CHUNK_SIZE bytes*/
+    private static void pushStream(MessageBuffer buffer, byte[] stream, byte[] chunk)
+    {
+        for(int pos = 0; pos < stream.length; pos += CHUNK_SIZE)
+        {
+            int size = Math.min(CHUNK_SIZE, stream.length - pos);
+            System.arraycopy(stream, pos, chunk, 0, size);
+            buffer.push(chunk, size);
+        }
+    }
+
+    /** Measure the allocations of the reception of the stream
+     * @param buffer the message buffer to use
+     * @param stream the stream to push
+     * @param nbMasks the counter of received masks, incremented by the handler
+     * @return the number of bytes allocated per mask*/
+    private static long measure(MessageBuffer buffer, byte[] stream, int[] nbMasks)
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadID = Thread.currentThread().getId();
+        byte[] chunk  = new byte[CHUNK_SIZE];
+
+        for(int i = 0; i < 3; i++)
+            pushStream(buffer, stream, chunk);
+
+        nbMasks[0] = 0;
+        long allocated = threads.getThreadAllocatedBytes(threadID);
+        pushStream(buffer, stream, chunk);
+        allocated = threads.getThreadAllocatedBytes(threadID) - allocated;
+
+        assertEquals(NB_MASKS, nbMasks[0]);
+        return allocated/NB_MASKS;
+    }
+
+    @Test
+    public void benchmarkMaskReception() throws IOException
+    {
+        byte[] stream = buildStream();
+
+        //The native mask storage of the subdataset (the only copy of the pooled path)
+        final byte[] nativeMask = new byte[MASK_SIZE];
+
+        //Heap byte array: one new array per mask, copied again when given to the native code
+        final int[] nbHeapMasks = {0};
+        MessageRegistry heapRegistry = new MessageRegistry();
+        heapRegistry.register(MessageBuffer.GET_VOLUMETRIC_MASK, new MessageRegistry.Entry<HeapMaskMessage>()
+        {
+            @Override
+            public HeapMaskMessage create() {return new HeapMaskMessage();}
+
+            @Override
+            public void dispatch(HeapMaskMessage msg, MessageBuffer.IMessageBufferCallback clbk) {}
+        });
+        MessageBuffer heapBuffer = new MessageBuffer(heapRegistry);
+        heapBuffer.addHandler(MessageBuffer.GET_VOLUMETRIC_MASK, new MessageBuffer.IMessageHandler<HeapMaskMessage>()
+        {
+            @Override
+            public void onMessage(HeapMaskMessage msg)
+            {
+                System.arraycopy(msg.mask, 0, nativeMask, 0, MASK_SIZE);
+                nbHeapMasks[0]++;
+            }
+        });
+
+        //Pooled direct buffer: the buffer is read by the native code and released
+        final int[] nbDirectMasks = {0};
+        final MessageBuffer directBuffer = new MessageBuffer();
+        directBuffer.addHandler(MessageBuffer.GET_VOLUMETRIC_MASK, new MessageBuffer.IMessageHandler<SubDatasetVolumetricMaskMessage>()
+        {
+            @Override
+            public void onMessage(SubDatasetVolumetricMaskMessage msg)
+            {
+                ByteBuffer mask = msg.getMask();
+                assertTrue(mask.isDirect());
+                assertEquals(MASK_SIZE, mask.remaining());
+                assertEquals((byte)((MASK_SIZE-1)*31), mask.get(MASK_SIZE-1));
+                mask.get(nativeMask, 0, MASK_SIZE);
+                directBuffer.getDirectBufferPool().release(mask);
+                nbDirectMasks[0]++;
+            }
+        });
+
+        long heapAllocated   = measure(heapBuffer,   stream, nbHeapMasks);
+        long directAllocated = measure(directBuffer, stream, nbDirectMasks);
+
+        //The pooled path reuses a single direct buffer: nothing proportional to the mask size is allocated
+        assertTrue(heapAllocated >= MASK_SIZE);
+        assertTrue("Allocated " + directAllocated + " bytes per mask", directAllocated < 1024);
+        assertEquals(1, directBuffer.getDirectBufferPool().getNbAllocations());
+    }
+}
@@ -0,0 +1,202 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class VolumetricMaskRunsTest
+{
+    /** The grid size, per axis*/
+    private static final int GRID = 256;
+
+    /** Select a voxel of a dense mask
+     * @param mask the dense mask
+     * @param x the x coordinate of the voxel
+     * @param y the y coordinate of the voxel
+     * @param z the z coordinate of the voxel*/
+    private static void select(byte[] mask, int x, int y, int z)
+    {
+        int i = x + GRID*(y + GRID*z);
+        mask[i >>> 3] |= (byte)(1 << (i & 7));
+    }
+
+    /** Create the mask of a lasso selection: a lasso drawn on the tablet, extruded through the whole dataset
+     * @return the dense mask*/
+    private static byte[] createLassoMask()
+    {
+        //An irregular closed stroke around the center of the grid
+        int nbPoints = 96;
+        float[] px = new float[nbPoints], py = new float[nbPoints];
+        for(int i = 0; i < nbPoints; i++)
+        {
+            double theta  = 2.0*Math.PI*i/nbPoints;
+            double radius = 60.0 + 20.0*Math.sin(3.0*theta) + 8.0*Math.cos(7.0*theta);
+            px[i] = (float)(128.0 + radius*Math.cos(theta));
+            py[i] = (float)(120.0 + 0.8*radius*Math.sin(theta));
+        }
+
+        byte[] mask = new byte[GRID*GRID*GRID/8];
+        for(int y = 0; y < GRID; y++)
+            for(int x = 0; x < GRID; x++)
+            {
+                //Even-odd rule
+                boolean inside = false;
+                for(int i = 0, j = nbPoints-1; i < nbPoints; j = i++)
+                    if((py[i] > y) != (py[j] > y) && x < (px[j]-px[i])*(y-py[i])/(py[j]-py[i]) + px[i])
+                        inside = !inside;
+                if(inside)
+                    for(int z = 0; z < GRID; z++)
+                        select(mask, x, y, z);
+            }
+        return mask;
+    }
+
+    /** Create the mask of a tangible selection: a box held by the tablet, rotated in the dataset
+     * @return the dense mask*/
+    private static byte[] createTangibleMask()
+    {
+        float[] center = {110.0f, 140.0f, 130.0f};
+        float[] half   = {60.0f, 25.0f, 40.0f};
+        double  angleZ = Math.toRadians(30.0), angleX = Math.toRadians(20.0);
+        float cz = (float)Math.cos(angleZ), sz = (float)Math.sin(angleZ);
+        float cx = (float)Math.cos(angleX), sx = (float)Math.sin(angleX);
+
+        byte[] mask = new byte[GRID*GRID*GRID/8];
+        for(int z = 0; z < GRID; z++)
+            for(int y = 0; y < GRID; y++)
+                for(int x = 0; x < GRID; x++)
+                {
+                    //In the box space: the inverse rotation around z, then around x
+                    float dx = x - center[0], dy = y - center[1], dz = z - center[2];
+                    float bx =  cz*dx + sz*dy;
+                    float by = -sz*dx + cz*dy;
+                    float bz = dz;
+                    float ty =  cx*by + sx*bz;
+                    float tz = -sx*by + cx*bz;
+                    if(Math.abs(bx) <= half[0] && Math.abs(ty) <= half[1] && Math.abs(tz) <= half[2])
+                        select(mask, x, y, z);
+                }
+        return mask;
+    }
+
+    /** Encode a mask and check that it decodes back to the same mask
+     * @param mask the dense mask
+     * @return the size of the runs, in bytes*/
+    private static int encodeAndDecode(byte[] mask)
+    {
+        long nbVoxels = 8L*mask.length;
+        byte[] runs   = VolumetricMaskRuns.encode(mask, nbVoxels);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(runs.length);
+        direct.put(runs).flip();
+        byte[] decoded = new byte[mask.length];
+        assertTrue(VolumetricMaskRuns.expand(direct, decoded));
+        assertArrayEquals(mask, decoded);
+
+        long nbSelected = 0;
+        for(byte b : mask)
+            nbSelected += Integer.bitCount(b & 0xff);
+        assertEquals(nbSelected, VolumetricMaskRuns.getNbSelected(direct));
+        return runs.length;
+    }
+
+    @Test
+    public void encodesSelections()
+    {
+        byte[] lasso    = createLassoMask();
+        byte[] tangible = createTangibleMask();
+        assertTrue(encodeAndDecode(lasso)*16 < lasso.length);
+        assertTrue(encodeAndDecode(tangible)*16 < tangible.length);
+
+        //Nothing selected: no run. Everything selected: an empty unselected run, then one selected run
+        assertEquals(0, VolumetricMaskRuns.encode(new byte[1024], 8*1024).length);
+        byte[] full = new byte[1024];
+        Arrays.fill(full, (byte)0xff);
+        assertArrayEquals(new byte[]{0x00, (byte)0x80, 0x40}, VolumetricMaskRuns.encode(full, 8*1024));
+
+        //Runs not aligned on bytes, and a number of voxels not multiple of 8
+        Random random = new Random(3);
+        for(int n = 0; n < 1000; n++)
+        {
+            int nbVoxels = 1 + random.nextInt(2000);
+            byte[] mask  = new byte[(nbVoxels+7)/8];
+            boolean selected = random.nextBoolean();
+            for(int i = 0; i < nbVoxels;)
+            {
+                int length = 1 + random.nextInt(n < 500 ? 4 : 200);
+                for(int j = i; j < Math.min(nbVoxels, i+length); j++)
+                    if(selected)
+                        mask[j >>> 3] |= (byte)(1 << (j & 7));
+                i += length;
+                selected = !selected;
+            }
+
+            byte[] decoded = new byte[mask.length];
+            assertTrue(VolumetricMaskRuns.expand(ByteBuffer.wrap(VolumetricMaskRuns.encode(mask, nbVoxels)), decoded));
+            assertArrayEquals(mask, decoded);
+        }
+
+        //Malformed runs: exceeding the mask, or truncated
+        assertFalse(VolumetricMaskRuns.expand(ByteBuffer.wrap(new byte[]{0x00, 0x09}), new byte[1]));
+        assertFalse(VolumetricMaskRuns.expand(ByteBuffer.wrap(new byte[]{0x02, (byte)0x81}), new byte[1]));
+    }
+
+    @Test
+    public void receivesRunLengthMasks() throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 0.0f, 0.0f);
+        int port = server.start(0);
+
+        SocketManager socket = new SocketManager("127.0.0.1", port);
+        socket.setCompressedMaskEnabled(true);
+
+        final AtomicReference<byte[]> received = new AtomicReference<>();
+        final MessageBuffer buffer = socket.getMessageBuffer();
+        buffer.addHandler(MessageBuffer.GET_VOLUMETRIC_MASK_RUNS, new MessageBuffer.IMessageHandler<SubDatasetVolumetricMaskRunsMessage>()
+        {
+            @Override
+            public void onMessage(SubDatasetVolumetricMaskRunsMessage msg)
+            {
+                assertTrue(msg.getRuns().isDirect());
+                byte[] mask = new byte[GRID*GRID*GRID/8];
+                assertTrue(VolumetricMaskRuns.expand(msg.getRuns(), mask));
+                buffer.getDirectBufferPool().release(msg.getRuns());
+                received.set(mask);
+            }
+        });
+
+        try
+        {
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+            long deadline = System.currentTimeMillis() + 5000;
+            while(server.getNbSent(MessageBuffer.GET_HEADSET_BINDING_INFO) < 1 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+
+            //The request follows the identification: once an event sent afterwards is read, the request was processed
+            socket.pushLocationEvent(new float[3], new float[]{1.0f, 0.0f, 0.0f, 0.0f});
+            while(server.getNbReceived(SocketManager.LOCATION) < 1 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+
+            byte[] mask = createTangibleMask();
+            server.sendVolumetricMask(0, 0, mask, 64*1024, 0);
+            while(received.get() == null && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertArrayEquals(mask, received.get());
+            assertEquals(0, server.getNbSent(MessageBuffer.GET_VOLUMETRIC_MASK));
+
+            long runsBytes = socket.getMetrics().snapshot().nbBytesReceived[MessageBuffer.GET_VOLUMETRIC_MASK_RUNS];
+            assertTrue(runsBytes*16 < mask.length);
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.sereno.vfv.Network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/** Events pushed with SocketManager.push, with and without micro-batching, and echoed back by MockVFVServer.
+ * The checks only rely on the echoes and on the flush counters: timings depend on the machine running the tests*/
+public class WriteLatencyTest
+{
+    /** Number of events to send*/
+    private static final int NB_EVENTS = 200;
+
+    /** Build a SCALE_DATASET event carrying a sequence number
+     * @param sequence the sequence number, sent as the X scale and as the subdataset ID (events are not coalesced, see CoalescingSendQueue)
+     * @return the event data*/
+    private static byte[] createEvent(int sequence)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(2+2*4+3*4);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.putShort(SocketManager.SCALE_DATASET);
+        buf.putInt(0);
+        buf.putInt(sequence);
+        buf.putFloat(sequence);
+        buf.putFloat(1.0f);
+        buf.putFloat(1.0f);
+        return buf.array();
+    }
+
+    /** Push NB_EVENTS events and wait for their echoes. Each event has to be echoed exactly once
+     * @param socket the socket to use. It has to be connected to a MockVFVServer*/
+    private static void pushAndEcho(SocketManager socket) throws Exception
+    {
+        final AtomicIntegerArray nbEchoes = new AtomicIntegerArray(NB_EVENTS);
+        final CountDownLatch received = new CountDownLatch(NB_EVENTS);
+        MessageBuffer.IMessageHandler<ScaleDatasetMessage> handler = new MessageBuffer.IMessageHandler<ScaleDatasetMessage>()
+        {
+            @Override
+            public void onMessage(ScaleDatasetMessage msg)
+            {
+                nbEchoes.incrementAndGet((int)msg.getScale()[0]);
+                received.countDown();
+            }
+        };
+        socket.getMessageBuffer().addHandler(MessageBuffer.GET_SCALE_DATASET, handler);
+
+        //Irregular pushes, as user interactions are
+        for(int i = 0; i < NB_EVENTS; i++)
+        {
+            Thread.sleep(1 + (i*7)%5);
+            socket.push(createEvent(i));
+        }
+
+        assertTrue("Not every echo was received", received.await(10, TimeUnit.SECONDS));
+        socket.getMessageBuffer().removeHandler(MessageBuffer.GET_SCALE_DATASET, handler);
+        for(int i = 0; i < NB_EVENTS; i++)
+            assertEquals(1, nbEchoes.get(i));
+    }
+
+    /** Push events with and without micro-batching
+     * @param transport the transport to use (see SocketManager.TRANSPORT_*)*/
+    private static void run(int transport) throws Exception
+    {
+        MockVFVServer server = new MockVFVServer();
+        server.setRates(0.0f, 0.0f, 0.0f);
+        int port = server.start(0);
+
+        SocketManager socket = new SocketManager("127.0.0.1", port, transport);
+        assertEquals(transport, socket.getTransport());
+        try
+        {
+            final CountDownLatch bound = new CountDownLatch(1);
+            socket.getMessageBuffer().addHandler(MessageBuffer.GET_HEADSET_BINDING_INFO, new MessageBuffer.IMessageHandler<HeadsetBindingInfoMessage>()
+            {
+                @Override
+                public void onMessage(HeadsetBindingInfoMessage msg) {bound.countDown();}
+            });
+            socket.setIdentInformation("127.0.0.1", 0, 0);
+            assertTrue("The tablet was not bound", bound.await(5, TimeUnit.SECONDS));
+
+            pushAndEcho(socket);
+
+            //A micro-batching window delays the first event of each batch by (at most) the window
+            socket.setBatchingWindow(2000000L);
+            pushAndEcho(socket);
+
+            //Each flush gathers its batch: one write system call per flush, and never more flushes than events (and the identification)
+            FlushMetrics metrics = socket.getFlushMetrics();
+            assertEquals(metrics.getNbFlushes(), metrics.getNbSyscalls());
+            assertTrue(metrics.getNbFlushes() > 0);
+            assertTrue(metrics.getNbFlushes() <= 2*NB_EVENTS+1);
+            assertTrue(metrics.getNbBytes() >= 2*NB_EVENTS*createEvent(0).length);
+        }
+        finally
+        {
+            server.close();
+            socket.stopThread();
+        }
+    }
+
+    @Test
+    public void pushToEchoLatencyBlocking() throws Exception
+    {
+        run(SocketManager.TRANSPORT_BLOCKING);
+    }
+
+    @Test
+    public void pushToEchoLatencyNIO() throws Exception
+    {
+        run(SocketManager.TRANSPORT_NIO);
+    }
+}
@@ -0,0 +1,457 @@
+package com.sereno.vfv.protocol;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Generator of the decoders and encoders of the fixed-size messages and events of the protocol, from the protocol schema
+ * (see app/src/main/protocol/vfv.schema for the grammar). It is run by the generateProtocol task of app/build.gradle, and can be run by hand:
+ * ProtocolGenerator schemaFile outputDirectory
+ *
+ * For each message, <Class>Fields is generated in com.sereno.vfv.Network: a ServerMessage holding the fields, decoding them value by value
+ * through a switch on the cursor (the message is split between two reads), or at once from the read buffer (see ServerMessage.decodeFixed).
+ * For each event, ProtocolEvents gets a method writing the event in an array of the exact size. The generated code reads and writes
+ * the values at constant offsets (see ProtocolCodec), without any per-value allocation nor virtual call*/
+public final class ProtocolGenerator
+{
+    /** The package of the generated code*/
+    private static final String PACKAGE = "com.sereno.vfv.Network";
+
+    /** A field of a message or an event*/
+    private static class Field
+    {
+        /** The type of the field: byte, bool, short, int or float*/
+        String type;
+
+        /** The name of the field*/
+        String name;
+
+        /** The number of values. 0 if the field is not an array*/
+        int count;
+
+        /** The documentation of the field*/
+        String doc;
+
+        /** Get the number of values of the field
+         * @return the number of values, 1 if the field is not an array*/
+        int getNbValues() {return Math.max(1, count);}
+
+        /** Get the size of a value of the field
+         * @return the size, in bytes*/
+        int getValueSize()
+        {
+            switch(type)
+            {
+                case "byte":
+                case "bool":
+                    return 1;
+                case "short":
+                    return 2;
+                default:
+                    return 4;
+            }
+        }
+
+        /** Get the ServerMessage type code of the field (see ServerMessage.getCurrentType)
+         * @return the type code*/
+        char getTypeCode()
+        {
+            switch(type)
+            {
+                case "byte":
+                case "bool":
+                    return 'b';
+                case "short":
+                    return 'i';
+                case "int":
+                    return 'I';
+                default:
+                    return 'f';
+            }
+        }
+
+        /** Get the Java type of a value of the field
+         * @return the Java type*/
+        String getJavaType()
+        {
+            return type.equals("bool") ? "boolean" : type;
+        }
+
+        /** Get the Java type read by MessageBuffer for this field (see ServerMessage.pushValue)
+         * @return the Java type*/
+        String getWireType()
+        {
+            return type.equals("bool") ? "byte" : type;
+        }
+    }
+
+    /** A message or an event*/
+    private static class Definition
+    {
+        /** Is it a message (from the server) or an event (to the server)?*/
+        boolean message;
+
+        /** The class name of a message, or the method name of an event*/
+        String name;
+
+        /** The MessageBuffer (message) or SocketManager (event) constant of the type*/
+        String constant;
+
+        /** The fields, in the order of the protocol*/
+        final List<Field> fields = new ArrayList<>();
+
+        /** Get the size of the fields
+         * @return the size, in bytes, without the type*/
+        int getSize()
+        {
+            int size = 0;
+            for(Field f : fields)
+                size += f.getNbValues()*f.getValueSize();
+            return size;
+        }
+
+        /** Get the number of values
+         * @return the number of values (i.e., the number of cursors of a message)*/
+        int getNbValues()
+        {
+            int nbValues = 0;
+            for(Field f : fields)
+                nbValues += f.getNbValues();
+            return nbValues;
+        }
+    }
+
+    private static final Pattern DEFINITION_PATTERN = Pattern.compile("(message|event)\\s+([A-Za-z_][A-Za-z0-9_]*)\\s+([A-Z_][A-Z0-9_]*)");
+    private static final Pattern FIELD_PATTERN      = Pattern.compile("(byte|bool|short|int|float)\\s+([A-Za-z_][A-Za-z0-9_]*)(?:\\[([0-9]+)\\])?");
+
+    private ProtocolGenerator()
+    {}
+
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length != 2)
+        {
+            System.err.println("Usage: ProtocolGenerator schemaFile outputDirectory");
+            System.exit(1);
+        }
+        generate(new File(args[0]), new File(args[1]));
+    }
+
+    /** Generate the code of a schema
+     * @param schema the schema file
+     * @param outputDir the root directory of the generated sources. The files are written in its package subdirectory
+     * @throws IOException if the schema cannot be read or the code written
+     * @throws IllegalArgumentException if the schema is malformed*/
+    public static void generate(File schema, File outputDir) throws IOException
+    {
+        List<Definition> definitions = parse(schema);
+
+        File packageDir = new File(outputDir, PACKAGE.replace('.', File.separatorChar));
+        if(!packageDir.isDirectory() && !packageDir.mkdirs())
+            throw new IOException("Cannot create " + packageDir);
+
+        List<Definition> events = new ArrayList<>();
+        for(Definition d : definitions)
+        {
+            if(d.message)
+                write(new File(packageDir, d.name + "Fields.java"), generateMessage(d, schema.getName()));
+            else
+                events.add(d);
+        }
+        write(new File(packageDir, "ProtocolEvents.java"), generateEvents(events, schema.getName()));
+    }
+
+    /** Parse a schema
+     * @param schema the schema file
+     * @return the definitions, in the order of the schema*/
+    private static List<Definition> parse(File schema) throws IOException
+    {
+        List<Definition> definitions = new ArrayList<>();
+        HashSet<String> names = new HashSet<>();
+        Definition current = null;
+        HashSet<String> fieldNames = new HashSet<>();
+
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(schema), StandardCharsets.UTF_8)))
+        {
+            String line;
+            for(int lineNumber = 1; (line = reader.readLine()) != null; lineNumber++)
+            {
+                String doc = "";
+                int comment = line.indexOf('#');
+                if(comment >= 0)
+                {
+                    doc  = line.substring(comment+1).trim();
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+
+                //A blank line ends the current definition
+                if(line.isEmpty())
+                {
+                    if(comment < 0)
+                        current = null;
+                    continue;
+                }
+
+                Matcher m = DEFINITION_PATTERN.matcher(line);
+                if(m.matches())
+                {
+                    current          = new Definition();
+                    current.message  = m.group(1).equals("message");
+                    current.name     = m.group(2);
+                    current.constant = m.group(3);
+                    if(!names.add(m.group(1) + " " + current.name))
+                        throw error(schema, lineNumber, "duplicated " + m.group(1) + " " + current.name);
+                    fieldNames.clear();
+                    definitions.add(current);
+                    continue;
+                }
+
+                m = FIELD_PATTERN.matcher(line);
+                if(!m.matches())
+                    throw error(schema, lineNumber, "expected a definition or a field, got \"" + line + "\"");
+                if(current == null)
+                    throw error(schema, lineNumber, "field outside of a definition");
+
+                Field field = new Field();
+                field.type  = m.group(1);
+                field.name  = m.group(2);
+                field.count = (m.group(3) == null ? 0 : Integer.parseInt(m.group(3)));
+                field.doc   = doc;
+                if(m.group(3) != null && field.count <= 0)
+                    throw error(schema, lineNumber, "the array " + field.name + " has to have at least one value");
+                if(!fieldNames.add(field.name))
+                    throw error(schema, lineNumber, "duplicated field " + field.name);
+                current.fields.add(field);
+            }
+        }
+
+        for(Definition d : definitions)
+            if(d.fields.isEmpty())
+                throw new IllegalArgumentException(schema.getName() + ": " + d.name + " has no field");
+        return definitions;
+    }
+
+    /** Create a schema error
+     * @param schema the schema file
+     * @param lineNumber the line of the error
+     * @param message the error message
+     * @return the exception to throw*/
+    private static IllegalArgumentException error(File schema, int lineNumber, String message)
+    {
+        return new IllegalArgumentException(schema.getName() + ":" + lineNumber + ": " + message);
+    }
+
+    /** Generate the <Class>Fields class of a message
+     * @param d the message
+     * @param schemaName the name of the schema file
+     * @return the Java code*/
+    private static String generateMessage(Definition d, String schemaName)
+    {
+        StringBuilder sb = new StringBuilder();
+        String className = d.name + "Fields";
+        int nbValues = d.getNbValues();
+
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        sb.append("/** The fields of ").append(d.name).append(" (MessageBuffer.").append(d.constant).append("). Generated from ")
+          .append(schemaName).append(" by ProtocolGenerator: do not edit*/\n");
+        sb.append("abstract class ").append(className).append(" extends ServerMessage\n{\n");
+
+        sb.append("    /** The size of the message, without its type, in bytes*/\n");
+        sb.append("    static final int SIZE = ").append(d.getSize()).append(";\n\n");
+
+        sb.append("    /** The type of the value read at each cursor (see getCurrentType)*/\n");
+        sb.append("    private static final byte[] TYPES = {");
+        for(int i = 0, v = 0; i < d.fields.size(); i++)
+            for(int j = 0; j < d.fields.get(i).getNbValues(); j++, v++)
+                sb.append(v == 0 ? "" : ", ").append('\'').append(d.fields.get(i).getTypeCode()).append('\'');
+        sb.append("};\n");
+
+        for(Field f : d.fields)
+        {
+            sb.append("\n    /** ").append(f.doc).append("*/\n");
+            if(f.count > 0)
+                sb.append("    final ").append(f.getJavaType()).append("[] m_").append(f.name).append(" = new ").append(f.getJavaType())
+                  .append('[').append(f.count).append("];\n");
+            else
+                sb.append("    ").append(f.getJavaType()).append(" m_").append(f.name).append(";\n");
+        }
+
+        sb.append("\n    @Override\n    byte getCurrentType()\n    {\n");
+        sb.append("        return (cursor < TYPES.length ? TYPES[cursor] : 0);\n    }\n");
+
+        //One pushValue per type read, switching on the cursor
+        for(String wireType : new String[]{"byte", "short", "int", "float"})
+        {
+            StringBuilder cases = new StringBuilder();
+            int cursor = 0;
+            for(Field f : d.fields)
+            {
+                for(int j = 0; j < f.getNbValues(); j++, cursor++)
+                {
+                    if(!f.getWireType().equals(wireType))
+                        continue;
+                    String target = "m_" + f.name + (f.count > 0 ? "[" + j + "]" : "");
+                    String value  = (f.type.equals("bool") ? "(value != 0)" : "value");
+                    cases.append("            case ").append(cursor).append(": ").append(target).append(" = ").append(value).append("; break;\n");
+                }
+            }
+            if(cases.length() == 0)
+                continue;
+
+            sb.append("\n    @Override\n    void pushValue(").append(wireType).append(" value)\n    {\n");
+            sb.append("        switch(cursor)\n        {\n").append(cases).append("        }\n");
+            sb.append("        super.pushValue(value);\n    }\n");
+        }
+
+        sb.append("\n    @Override\n    int getMaxCursor()\n    {\n        return ").append(nbValues-1).append(";\n    }\n");
+        sb.append("\n    @Override\n    int getFixedSize()\n    {\n        return SIZE;\n    }\n");
+
+        sb.append("\n    @Override\n    void decodeFixed(byte[] data, int offset)\n    {\n");
+        int offset = 0;
+        for(Field f : d.fields)
+        {
+            for(int j = 0; j < f.getNbValues(); j++, offset += f.getValueSize())
+            {
+                String target = "m_" + f.name + (f.count > 0 ? "[" + j + "]" : "");
+                String at     = "offset" + (offset == 0 ? "" : "+" + offset);
+                String value;
+                switch(f.type)
+                {
+                    case "byte":
+                        value = "data[" + at + "]";
+                        break;
+                    case "bool":
+                        value = "(data[" + at + "] != 0)";
+                        break;
+                    default:
+                        value = "ProtocolCodec.get" + capitalize(f.type) + "(data, " + at + ")";
+                        break;
+                }
+                sb.append("        ").append(target).append(" = ").append(value).append(";\n");
+            }
+        }
+        sb.append("        cursor = ").append(nbValues).append(";\n    }\n");
+
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /** Generate the ProtocolEvents class
+     * @param events the events
+     * @param schemaName the name of the schema file
+     * @return the Java code*/
+    private static String generateEvents(List<Definition> events, String schemaName)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        sb.append("/** Creation of the fixed-size events sent to the server (see SocketManager). Generated from ").append(schemaName)
+          .append(" by ProtocolGenerator: do not edit*/\n");
+        sb.append("final class ProtocolEvents\n{\n");
+
+        for(Definition d : events)
+        {
+            sb.append("    /** The size of the ").append(d.constant).append(" event, type included, in bytes*/\n");
+            sb.append("    static final int ").append(d.constant).append("_SIZE = ").append(2 + d.getSize()).append(";\n\n");
+        }
+
+        sb.append("    private ProtocolEvents()\n    {}\n");
+
+        for(Definition d : events)
+        {
+            sb.append("\n    /** Create a ").append(d.constant).append(" event\n");
+            for(Field f : d.fields)
+            {
+                sb.append("     * @param ").append(f.name).append(' ').append(decapitalize(f.doc));
+                if(f.count > 0)
+                    sb.append(". Its first ").append(f.count).append(" values are written");
+                sb.append('\n');
+            }
+            sb.append("     * @return the event data*/\n");
+
+            sb.append("    static byte[] ").append(d.name).append('(');
+            for(int i = 0; i < d.fields.size(); i++)
+            {
+                Field f = d.fields.get(i);
+                sb.append(i == 0 ? "" : ", ").append(f.getJavaType()).append(f.count > 0 ? "[] " : " ").append(f.name);
+            }
+            sb.append(")\n    {\n");
+
+            sb.append("        byte[] data = new byte[").append(d.constant).append("_SIZE];\n");
+            sb.append("        ProtocolCodec.putShort(data, 0, SocketManager.").append(d.constant).append(");\n");
+            int offset = 2;
+            for(Field f : d.fields)
+            {
+                for(int j = 0; j < f.getNbValues(); j++, offset += f.getValueSize())
+                {
+                    String value = f.name + (f.count > 0 ? "[" + j + "]" : "");
+                    switch(f.type)
+                    {
+                        case "byte":
+                            sb.append("        data[").append(offset).append("] = ").append(value).append(";\n");
+                            break;
+                        case "bool":
+                            sb.append("        data[").append(offset).append("] = (byte)(").append(value).append(" ? 1 : 0);\n");
+                            break;
+                        default:
+                            sb.append("        ProtocolCodec.put").append(capitalize(f.type)).append("(data, ").append(offset).append(", ").append(value).append(");\n");
+                            break;
+                    }
+                }
+            }
+            sb.append("        return data;\n    }\n");
+        }
+
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /** Write a generated file, if its content changed (the compilation depending on it is then up to date)
+     * @param file the file to write
+     * @param content the content of the file*/
+    private static void write(File file, String content) throws IOException
+    {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        if(file.isFile() && file.length() == data.length)
+        {
+            byte[] previous = new byte[data.length];
+            try(FileInputStream input = new FileInputStream(file))
+            {
+                int size = 0;
+                for(int read; size < previous.length && (read = input.read(previous, size, previous.length - size)) > 0;)
+                    size += read;
+            }
+            if(java.util.Arrays.equals(previous, data))
+                return;
+        }
+
+        try(Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))
+        {
+            writer.write(content);
+        }
+    }
+
+    private static String capitalize(String s)
+    {
+        return s.substring(0, 1).toUpperCase(Locale.ROOT) + s.substring(1);
+    }
+
+    private static String decapitalize(String s)
+    {
+        if(s.isEmpty())
+            return s;
+        return s.substring(0, 1).toLowerCase(Locale.ROOT) + s.substring(1);
+    }
+}